@@ -0,0 +1,86 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.benchmark;
+
+import com.google.zetasql.Analyzer;
+import com.google.zetasql.AnalyzerOptions;
+import com.google.zetasql.SimpleCatalog;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedStatement;
+import com.google.zetasql.toolkit.options.BigQueryLanguageOptions;
+import java.util.concurrent.TimeUnit;
+import org.example.bigquery.validation.benchmark.BenchmarkFixtures.QuerySize;
+import org.example.bigquery.validation.catalog.RegisteredCatalog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Analyzing a medium-sized query by catalog size.
+ *
+ * {@link Analyzer#analyzeStatement} serializes the whole catalog on every call, so its cost
+ * grows with the number of tables; analyzing against a {@link RegisteredCatalog} does not.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class AnalyzerBenchmark {
+
+  @Param({"10", "1000", "50000"})
+  public int tableCount;
+
+  private AnalyzerOptions options;
+  private SimpleCatalog catalog;
+  private RegisteredCatalog registeredCatalog;
+  private String query;
+
+  @Setup
+  public void setUp() {
+    options = new AnalyzerOptions();
+    options.setLanguageOptions(BigQueryLanguageOptions.get());
+    catalog = BenchmarkFixtures.catalog(tableCount);
+    registeredCatalog = new RegisteredCatalog(BenchmarkFixtures.catalog(tableCount));
+    query = BenchmarkFixtures.query(QuerySize.MEDIUM, tableCount);
+  }
+
+  @TearDown
+  public void tearDown() {
+    registeredCatalog.close();
+  }
+
+  @Benchmark
+  public ResolvedStatement analyzeStatement() {
+    return Analyzer.analyzeStatement(query, options, catalog);
+  }
+
+  @Benchmark
+  public ResolvedStatement analyzeStatementRegistered() {
+    return registeredCatalog.analyzeStatement(query, options);
+  }
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.benchmark;
+
+import com.google.zetasql.SimpleCatalog;
+import com.google.zetasql.SimpleColumn;
+import com.google.zetasql.SimpleTable;
+import com.google.zetasql.TypeFactory;
+import com.google.zetasql.ZetaSQLBuiltinFunctionOptions;
+import com.google.zetasql.ZetaSQLType.TypeKind;
+import com.google.zetasql.toolkit.options.BigQueryLanguageOptions;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.example.bigquery.validation.catalog.CatalogSnapshotWriter;
+
+/**
+ * Generated queries, scripts and catalogs used by the benchmarks, so that they run offline and
+ * always measure the same inputs.
+ *
+ * Tables are named {@code ds<i % 10>.t<i>} and all have the same three columns. Tables are
+ * kept this small because the ZetaSQL local service rejects requests over 4MB, and every
+ * analysis request includes the whole catalog; a catalog of 50k tables with longer names or
+ * more columns exceeds that.
+ */
+public final class BenchmarkFixtures {
+
+  static final String PROJECT_ID = "benchmark-project";
+
+  private static final int DATASET_COUNT = 10;
+
+  /** The number of SELECTs in a huge query */
+  private static final int HUGE_QUERY_UNION_COUNT = 500;
+
+  public enum QuerySize {
+    SMALL,
+    MEDIUM,
+    HUGE
+  }
+
+  private BenchmarkFixtures() {}
+
+  static String tableName(int i) {
+    return String.format("ds%d.t%d", i % DATASET_COUNT, i);
+  }
+
+  static SimpleTable table(String fullName) {
+    return new SimpleTable(
+        fullName,
+        List.of(
+            new SimpleColumn(fullName, "id", TypeFactory.createSimpleType(TypeKind.TYPE_INT64)),
+            new SimpleColumn(fullName, "name", TypeFactory.createSimpleType(TypeKind.TYPE_STRING)),
+            new SimpleColumn(
+                fullName, "amount", TypeFactory.createSimpleType(TypeKind.TYPE_DOUBLE))));
+  }
+
+  /** A catalog with the BigQuery builtin functions and {@code tableCount} tables */
+  static SimpleCatalog catalog(int tableCount) {
+    SimpleCatalog catalog = new SimpleCatalog("catalog");
+    catalog.addZetaSQLFunctionsAndTypes(
+        new ZetaSQLBuiltinFunctionOptions(BigQueryLanguageOptions.get()));
+
+    for (int i = 0; i < tableCount; i++) {
+      String tableName = tableName(i);
+      catalog.addSimpleTable(tableName, table(tableName));
+    }
+
+    return catalog;
+  }
+
+  /**
+   * Writes a catalog snapshot with {@code tableCount} tables in {@link #PROJECT_ID}, to be read
+   * with a {@link org.example.bigquery.validation.catalog.CatalogSnapshotResourceProvider}. The
+   * file is deleted when the JVM exits.
+   */
+  static Path snapshot(int tableCount) throws IOException {
+    Path path = Files.createTempFile("benchmark-catalog", ".bqcs");
+    path.toFile().deleteOnExit();
+
+    try (CatalogSnapshotWriter writer = new CatalogSnapshotWriter(path)) {
+      for (int i = 0; i < tableCount; i++) {
+        writer.addTable(table(PROJECT_ID + "." + tableName(i)));
+      }
+      writer.commit();
+    }
+
+    return path;
+  }
+
+  /**
+   * A query reading from tables among the first {@code tableCount}. Table names are quoted,
+   * since {@link #catalog(int)} adds them to the root catalog with their dataset in the name.
+   */
+  static String query(QuerySize size, int tableCount) {
+    switch (size) {
+      case SMALL:
+        return String.format("SELECT id, name FROM `%s` WHERE id > 10", tableName(0));
+      case MEDIUM:
+        return mediumQuery(tableCount);
+      case HUGE:
+        List<String> selects = new ArrayList<>(HUGE_QUERY_UNION_COUNT);
+        for (int i = 0; i < HUGE_QUERY_UNION_COUNT; i++) {
+          selects.add(String.format(
+              "SELECT id, UPPER(name) AS name, amount * %d AS amount FROM `%s` "
+                  + "WHERE amount > 0 AND name LIKE '%%%d%%'",
+              i, tableName(i % tableCount), i));
+        }
+        return String.join("\nUNION ALL\n", selects);
+      default:
+        throw new IllegalArgumentException("Unknown query size " + size);
+    }
+  }
+
+  private static String mediumQuery(int tableCount) {
+    return String.format(
+        "WITH recent AS (\n"
+            + "  SELECT id, name, amount FROM `%s`\n"
+            + "  WHERE id > 1000 AND STARTS_WITH(name, 'a')\n"
+            + "), totals AS (\n"
+            + "  SELECT o.id, SUM(o.amount) AS total, COUNT(*) AS orders\n"
+            + "  FROM `%s` AS o\n"
+            + "  JOIN recent AS r USING (id)\n"
+            + "  GROUP BY o.id\n"
+            + ")\n"
+            + "SELECT\n"
+            + "  r.id,\n"
+            + "  INITCAP(r.name) AS name,\n"
+            + "  t.total,\n"
+            + "  t.orders,\n"
+            + "  RANK() OVER (ORDER BY t.total DESC) AS ranking,\n"
+            + "  CASE WHEN t.total > 1000 THEN 'high' WHEN t.total > 100 THEN 'mid'\n"
+            + "    ELSE 'low' END AS segment,\n"
+            + "  (SELECT MAX(amount) FROM `%s` AS x WHERE x.id = r.id) AS max_amount\n"
+            + "FROM recent AS r\n"
+            + "LEFT JOIN totals AS t USING (id)\n"
+            + "WHERE r.name IS NOT NULL\n"
+            + "ORDER BY ranking\n"
+            + "LIMIT 100",
+        tableName(0), tableName(1 % tableCount), tableName(2 % tableCount));
+  }
+
+  /**
+   * A script with {@code groupCount} groups of statements, each creating a temp table and a
+   * table from existing ones, then querying them.
+   */
+  static String ddlScript(int groupCount, int tableCount) {
+    StringBuilder script = new StringBuilder();
+    for (int i = 0; i < groupCount; i++) {
+      String source = tableName(i % tableCount);
+      String other = tableName((i + 1) % tableCount);
+      script.append(String.format(
+          "CREATE TEMP TABLE tmp_%d AS SELECT id, name FROM %s WHERE amount > %d;\n",
+          i, source, i));
+      script.append(String.format(
+          "CREATE OR REPLACE TABLE ds0.derived_%d AS\n"
+              + "  SELECT t.id, t.name, s.amount FROM tmp_%d AS t JOIN %s AS s USING (id);\n",
+          i, i, other));
+      script.append(String.format(
+          "INSERT INTO ds0.derived_%d (id, name, amount) SELECT id, name, amount FROM %s;\n",
+          i, other));
+      script.append(String.format(
+          "SELECT name, SUM(amount) FROM ds0.derived_%d GROUP BY name;\n", i));
+    }
+    return script.toString();
+  }
+
+  /** The existing tables referenced by {@link #ddlScript(int, int)} */
+  static List<String> ddlScriptTables(int groupCount, int tableCount) {
+    List<String> tables = new ArrayList<>();
+    for (int i = 0; i < Math.min(groupCount + 1, tableCount); i++) {
+      tables.add(tableName(i));
+    }
+    return tables;
+  }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.benchmark;
+
+import com.google.zetasql.AnalyzerOptions;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedStatement;
+import com.google.zetasql.toolkit.ZetaSQLToolkitAnalyzer;
+import com.google.zetasql.toolkit.catalog.bigquery.BigQueryCatalog;
+import com.google.zetasql.toolkit.options.BigQueryLanguageOptions;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import org.example.bigquery.validation.catalog.CatalogSnapshotResourceProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Analyzing a DDL-heavy script with {@link ZetaSQLToolkitAnalyzer}, which copies the catalog
+ * and applies each DDL statement to the copy before analyzing the next one. The catalog is built
+ * from a generated snapshot and only contains the tables the script references.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DdlScriptBenchmark {
+
+  private static final int TABLE_COUNT = 1000;
+
+  /** Each group has 4 statements, 2 of them DDL */
+  @Param({"5", "50"})
+  public int statementGroups;
+
+  private ZetaSQLToolkitAnalyzer analyzer;
+  private BigQueryCatalog catalog;
+  private String script;
+
+  @Setup
+  public void setUp() throws IOException {
+    AnalyzerOptions options = new AnalyzerOptions();
+    options.setLanguageOptions(BigQueryLanguageOptions.get());
+    analyzer = new ZetaSQLToolkitAnalyzer(options);
+
+    Path snapshot = BenchmarkFixtures.snapshot(TABLE_COUNT);
+    catalog = new BigQueryCatalog(
+        BenchmarkFixtures.PROJECT_ID, CatalogSnapshotResourceProvider.open(snapshot));
+    catalog.addTables(BenchmarkFixtures.ddlScriptTables(statementGroups, TABLE_COUNT));
+
+    script = BenchmarkFixtures.ddlScript(statementGroups, TABLE_COUNT);
+  }
+
+  @Benchmark
+  public void analyzeStatements(Blackhole blackhole) {
+    Iterator<ResolvedStatement> statements = analyzer.analyzeStatements(script, catalog);
+    while (statements.hasNext()) {
+      blackhole.consume(statements.next());
+    }
+  }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.example.bigquery.validation.benchmark;
+
+import com.google.common.base.Preconditions;
+import com.google.zetasql.Analyzer;
+import com.google.zetasql.AnalyzerOptions;
+import com.google.zetasql.SimpleCatalog;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedStatement;
+import com.google.zetasql.toolkit.options.BigQueryLanguageOptions;
+import java.util.concurrent.TimeUnit;
+import org.example.bigquery.validation.benchmark.BenchmarkFixtures.QuerySize;
+import org.example.bigquery.validation.localservice.PooledChannelProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Analysis throughput from 8 threads by the number of ZetaSQL local service instances, in this
+ * JVM or in child processes.
+ *
+ * The channel to the local service is created once per JVM, so the pool is configured in
+ * {@code setUp} before the first ZetaSQL call, relying on JMH running each parameter
+ * combination in a fresh fork. The catalog is not registered, since calls against a registered
+ * catalog all go to the instance holding it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(8)
+public class LocalServicePoolBenchmark {
+
+  @Param({"1", "2", "4"})
+  public int instances;
+
+  @Param({"in-process", "process"})
+  public String mode;
+
+  private AnalyzerOptions options;
+  private SimpleCatalog catalog;
+  private String query;
+
+  @Setup
+  public void setUp() {
+    System.setProperty(PooledChannelProvider.INSTANCES_PROPERTY, Integer.toString(instances));
+    System.setProperty(PooledChannelProvider.MODE_PROPERTY, mode);
+
+    options = new AnalyzerOptions();
+    options.setLanguageOptions(BigQueryLanguageOptions.get());
+    catalog = BenchmarkFixtures.catalog(10);
+    query = BenchmarkFixtures.query(QuerySize.MEDIUM, 10);
+
+    boolean pooled = instances > 1 || mode.equals("process");
+    Preconditions.checkState(
+        PooledChannelProvider.getPool().isPresent() == pooled,
+        "ZetaSQL did not pick up PooledChannelProvider; check the classpath order");
+  }
+
+  @Benchmark
+  public ResolvedStatement analyzeStatement() {
+    return Analyzer.analyzeStatement(query, options, catalog);
+  }
+
+}
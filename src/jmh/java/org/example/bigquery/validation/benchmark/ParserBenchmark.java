@@ -0,0 +1,69 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.benchmark;
+
+import com.google.zetasql.LanguageOptions;
+import com.google.zetasql.Parser;
+import com.google.zetasql.parser.ASTNodes.ASTScript;
+import com.google.zetasql.parser.ASTNodes.ASTStatement;
+import com.google.zetasql.toolkit.options.BigQueryLanguageOptions;
+import java.util.concurrent.TimeUnit;
+import org.example.bigquery.validation.benchmark.BenchmarkFixtures.QuerySize;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Parsing a single statement, or the same statement as a script, by query size */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+
+  @Param({"SMALL", "MEDIUM", "HUGE"})
+  public QuerySize querySize;
+
+  private LanguageOptions languageOptions;
+  private String query;
+
+  @Setup
+  public void setUp() {
+    languageOptions = BigQueryLanguageOptions.get();
+    query = BenchmarkFixtures.query(querySize, 1000);
+  }
+
+  @Benchmark
+  public ASTStatement parseStatement() {
+    return Parser.parseStatement(query, languageOptions);
+  }
+
+  @Benchmark
+  public ASTScript parseScript() {
+    return Parser.parseScript(query, languageOptions);
+  }
+
+}
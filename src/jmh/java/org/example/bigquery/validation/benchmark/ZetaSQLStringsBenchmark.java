@@ -0,0 +1,140 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.benchmark;
+
+import com.google.zetasql.Value;
+import com.google.zetasql.ZetaSQLStrings;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The literal helpers in {@link ZetaSQLStrings}, by input length. The {@code append*} benchmarks
+ * write into a reused StringBuilder, as SQL generators do; run with {@code -prof gc} to compare
+ * allocations per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ZetaSQLStringsBenchmark {
+
+  @Param({"16", "1024"})
+  public int length;
+
+  private String value;
+  private byte[] bytes;
+  private int date;
+  private String quotedIdentifier;
+  private Value dateValue;
+  private Value stringValue;
+  private StringBuilder output;
+
+  @Setup
+  public void setUp() {
+    // Include characters that need escaping in every kind of literal
+    StringBuilder builder = new StringBuilder(length);
+    String pattern = "abc'def\"ghi`jkl\\";
+    while (builder.length() < length) {
+      builder.append(pattern.charAt(builder.length() % pattern.length()));
+    }
+    value = builder.toString();
+    bytes = value.getBytes(StandardCharsets.UTF_8);
+    date = 19_500;
+    quotedIdentifier = ZetaSQLStrings.toIdentifierLiteral(value);
+    dateValue = Value.createDateValue(date);
+    stringValue = Value.createStringValue(value);
+    output = new StringBuilder(4 * length);
+  }
+
+  @Benchmark
+  public String toStringLiteral() {
+    return ZetaSQLStrings.toStringLiteral(value);
+  }
+
+  @Benchmark
+  public String toDoubleQuotedStringLiteral() {
+    return ZetaSQLStrings.toDoubleQuotedStringLiteral(value);
+  }
+
+  @Benchmark
+  public String toIdentifierLiteral() {
+    return ZetaSQLStrings.toIdentifierLiteral(value);
+  }
+
+  @Benchmark
+  public String toBytesLiteral() {
+    return ZetaSQLStrings.toBytesLiteral(bytes);
+  }
+
+  @Benchmark
+  public String convertDateToString() {
+    return ZetaSQLStrings.convertDateToString(date);
+  }
+
+  @Benchmark
+  public StringBuilder appendStringLiteral() {
+    output.setLength(0);
+    return ZetaSQLStrings.appendStringLiteral(output, value);
+  }
+
+  @Benchmark
+  public StringBuilder appendIdentifierLiteral() {
+    output.setLength(0);
+    return ZetaSQLStrings.appendIdentifierLiteral(output, value);
+  }
+
+  @Benchmark
+  public StringBuilder appendBytesLiteral() {
+    output.setLength(0);
+    return ZetaSQLStrings.appendBytesLiteral(output, bytes);
+  }
+
+  @Benchmark
+  public StringBuilder appendDate() {
+    output.setLength(0);
+    return ZetaSQLStrings.appendDate(output, date);
+  }
+
+  @Benchmark
+  public String unescapeIdentifier() {
+    return ZetaSQLStrings.unescapeIdentifier(quotedIdentifier);
+  }
+
+  @Benchmark
+  public String convertDateValueToString() {
+    return ZetaSQLStrings.convertSimpleValueToString(dateValue, false);
+  }
+
+  @Benchmark
+  public String convertStringValueToString() {
+    return ZetaSQLStrings.convertSimpleValueToString(stringValue, false);
+  }
+
+}
@@ -17,22 +17,84 @@
 package com.google.zetasql;
 
 import com.google.common.base.Preconditions;
-import com.google.common.escape.Escaper;
-import com.google.common.escape.Escapers;
-import com.google.common.io.BaseEncoding;
+import com.google.common.collect.ImmutableSet;
+import com.google.zetasql.ZetaSQLType.TypeKind;
+import java.math.BigDecimal;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import org.joda.time.DateTime;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
 
-/** A utility class helps decorate strings */
+/**
+ * A utility class helps decorate strings
+ *
+ * <p>Every helper returning a String has an {@code append*} counterpart that writes into a
+ * caller-provided {@link StringBuilder}, so SQL can be generated without building intermediate
+ * Strings for each literal.
+ */
 public class ZetaSQLStrings {
-  private static final DateTime EPOCH = new DateTime(1970, 1, 1, 0, 0);
   private static final Charset UTF_8 = StandardCharsets.UTF_8;
-  private static final Escaper BACKTICK_ESCAPER = Escapers.builder().addEscape('`', "\\`").build();
-  private static final Escaper DOUBLE_QUOTE_ESCAPER =
-      Escapers.builder().addEscape('"', "\\\"").build();
-  private static final Escaper SINGLE_QUOTE_ESCAPER =
-      Escapers.builder().addEscape('\'', "\\'").build();
+
+  private static final byte[] HEX_DIGITS = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+  /** "00" through "99", two chars per number */
+  private static final char[] DIGIT_PAIRS = new char[200];
+
+  static {
+    for (int i = 0; i < 100; i++) {
+      DIGIT_PAIRS[2 * i] = (char) ('0' + i / 10);
+      DIGIT_PAIRS[2 * i + 1] = (char) ('0' + i % 10);
+    }
+  }
+
+  private static final long MICROS_PER_SECOND = 1_000_000L;
+  private static final int SECONDS_PER_DAY = 86_400;
+
+  /** Names used for simple types in verbose debug strings, as in ZetaSQL's C++ Value */
+  private static final Map<TypeKind, String> CAPITALIZED_TYPE_NAMES = new EnumMap<>(TypeKind.class);
+
+  static {
+    CAPITALIZED_TYPE_NAMES.put(TypeKind.TYPE_INT32, "Int32");
+    CAPITALIZED_TYPE_NAMES.put(TypeKind.TYPE_INT64, "Int64");
+    CAPITALIZED_TYPE_NAMES.put(TypeKind.TYPE_UINT32, "Uint32");
+    CAPITALIZED_TYPE_NAMES.put(TypeKind.TYPE_UINT64, "Uint64");
+    CAPITALIZED_TYPE_NAMES.put(TypeKind.TYPE_BOOL, "Bool");
+    CAPITALIZED_TYPE_NAMES.put(TypeKind.TYPE_FLOAT, "Float");
+    CAPITALIZED_TYPE_NAMES.put(TypeKind.TYPE_DOUBLE, "Double");
+    CAPITALIZED_TYPE_NAMES.put(TypeKind.TYPE_STRING, "String");
+    CAPITALIZED_TYPE_NAMES.put(TypeKind.TYPE_BYTES, "Bytes");
+    CAPITALIZED_TYPE_NAMES.put(TypeKind.TYPE_DATE, "Date");
+    CAPITALIZED_TYPE_NAMES.put(TypeKind.TYPE_TIMESTAMP, "Timestamp");
+    CAPITALIZED_TYPE_NAMES.put(TypeKind.TYPE_TIME, "Time");
+    CAPITALIZED_TYPE_NAMES.put(TypeKind.TYPE_DATETIME, "Datetime");
+    CAPITALIZED_TYPE_NAMES.put(TypeKind.TYPE_GEOGRAPHY, "Geography");
+    CAPITALIZED_TYPE_NAMES.put(TypeKind.TYPE_NUMERIC, "Numeric");
+    CAPITALIZED_TYPE_NAMES.put(TypeKind.TYPE_BIGNUMERIC, "BigNumeric");
+    CAPITALIZED_TYPE_NAMES.put(TypeKind.TYPE_JSON, "Json");
+    CAPITALIZED_TYPE_NAMES.put(TypeKind.TYPE_INTERVAL, "Interval");
+  }
+
+  /** Keywords that cannot be used as unquoted identifiers */
+  private static final ImmutableSet<String> RESERVED_KEYWORDS =
+      ImmutableSet.of(
+          "ALL", "AND", "ANY", "ARRAY", "AS", "ASC", "ASSERT_ROWS_MODIFIED", "AT", "BETWEEN",
+          "BY", "CASE", "CAST", "COLLATE", "CONTAINS", "CREATE", "CROSS", "CUBE", "CURRENT",
+          "DEFAULT", "DEFINE", "DESC", "DISTINCT", "ELSE", "END", "ENUM", "ESCAPE", "EXCEPT",
+          "EXCLUDE", "EXISTS", "EXTRACT", "FALSE", "FETCH", "FOLLOWING", "FOR", "FROM", "FULL",
+          "GROUP", "GROUPING", "GROUPS", "HASH", "HAVING", "IF", "IGNORE", "IN", "INNER",
+          "INTERSECT", "INTERVAL", "INTO", "IS", "JOIN", "LATERAL", "LEFT", "LIKE", "LIMIT",
+          "LOOKUP", "MERGE", "NATURAL", "NEW", "NO", "NOT", "NULL", "NULLS", "OF", "ON", "OR",
+          "ORDER", "OUTER", "OVER", "PARTITION", "PRECEDING", "PROTO", "QUALIFY", "RANGE",
+          "RECURSIVE", "RESPECT", "RIGHT", "ROLLUP", "ROWS", "SELECT", "SET", "SOME", "STRUCT",
+          "TABLESAMPLE", "THEN", "TO", "TREAT", "TRUE", "UNBOUNDED", "UNION", "UNNEST", "USING",
+          "WHEN", "WHERE", "WINDOW", "WITH", "WITHIN");
+
+  /** The length of the longest reserved keyword, to skip the lookup for longer identifiers */
+  private static final int MAX_RESERVED_KEYWORD_LENGTH =
+      RESERVED_KEYWORDS.stream().mapToInt(String::length).max().getAsInt();
 
   /**
    * Convert a string to a ZetaSQL identifier literal. The output will be quoted (with backticks)
@@ -42,7 +104,22 @@ public class ZetaSQLStrings {
    * @return Legal ZetaSQL identifier converted from the string.
    */
   public static String toIdentifierLiteral(String str) {
-    return '`' + BACKTICK_ESCAPER.escape(str) + '`';
+    if (str.indexOf('`') < 0) {
+      return '`' + str + '`';
+    }
+    return appendIdentifierLiteral(new StringBuilder(str.length() + 8), str).toString();
+  }
+
+  /**
+   * Append a string as a ZetaSQL identifier literal, as returned by {@link
+   * #toIdentifierLiteral(String)}.
+   *
+   * @param out Builder to append the identifier to
+   * @param str String to be converted to identifier.
+   * @return {@code out}
+   */
+  public static StringBuilder appendIdentifierLiteral(StringBuilder out, String str) {
+    return appendQuoted(out, str, '`');
   }
 
   /**
@@ -67,6 +144,18 @@ public class ZetaSQLStrings {
     return toBytesLiteral(str.getBytes(UTF_8));
   }
 
+  /**
+   * Append a ZetaSQL bytes literal for this byte array, as returned by {@link
+   * #toBytesLiteral(byte[])}.
+   *
+   * @param out Builder to append the literal to
+   * @param bytes Binary bytes to escape
+   * @return {@code out}
+   */
+  public static StringBuilder appendBytesLiteral(StringBuilder out, byte[] bytes) {
+    return appendBytesLiteral(out, bytes, '\'');
+  }
+
   /**
    * Return a quoted and escaped ZetaSQL bytes literal for this byte array. Prefixes with b and
    * always uses single quotes.
@@ -75,7 +164,7 @@ public class ZetaSQLStrings {
    * @return Quoted and escaped ZetaSQL bytes literal.
    */
   public static String toSingleQuotedBytesLiteral(byte[] bytes) {
-    return "b'" + BaseEncoding.base16().encode(bytes) + '\'';
+    return bytesLiteral(bytes, '\'');
   }
 
   /**
@@ -97,7 +186,7 @@ public class ZetaSQLStrings {
    * @return Quoted and escaped ZetaSQL bytes literal.
    */
   public static String toDoubleQuotedBytesLiteral(byte[] bytes) {
-    return "b\"" + BaseEncoding.base16().encode(bytes) + '"';
+    return bytesLiteral(bytes, '"');
   }
 
   /**
@@ -111,6 +200,29 @@ public class ZetaSQLStrings {
     return toDoubleQuotedBytesLiteral(str.getBytes(UTF_8));
   }
 
+  private static String bytesLiteral(byte[] bytes, char quote) {
+    // Every char of the literal is ASCII, so build it as Latin-1 bytes the String can adopt as is
+    byte[] literal = new byte[bytes.length * 2 + 3];
+    literal[0] = 'b';
+    literal[1] = (byte) quote;
+    int position = 2;
+    for (byte b : bytes) {
+      literal[position++] = HEX_DIGITS[(b >> 4) & 0xF];
+      literal[position++] = HEX_DIGITS[b & 0xF];
+    }
+    literal[position] = (byte) quote;
+    return new String(literal, StandardCharsets.ISO_8859_1);
+  }
+
+  private static StringBuilder appendBytesLiteral(StringBuilder out, byte[] bytes, char quote) {
+    out.ensureCapacity(out.length() + bytes.length * 2 + 3);
+    out.append('b').append(quote);
+    for (byte b : bytes) {
+      out.append((char) HEX_DIGITS[(b >> 4) & 0xF]).append((char) HEX_DIGITS[b & 0xF]);
+    }
+    return out.append(quote);
+  }
+
   /**
    * Return a quoted and escaped ZetaSQL string literal for this string. May choose to quote with '
    * or " to produce nicer output.
@@ -122,6 +234,18 @@ public class ZetaSQLStrings {
     return toSingleQuotedStringLiteral(str);
   }
 
+  /**
+   * Append a ZetaSQL string literal for this string, as returned by {@link
+   * #toStringLiteral(String)}.
+   *
+   * @param out Builder to append the literal to
+   * @param str String to escape
+   * @return {@code out}
+   */
+  public static StringBuilder appendStringLiteral(StringBuilder out, String str) {
+    return appendQuoted(out, str, '\'');
+  }
+
   /**
    * Return a quoted and escaped ZetaSQL string literal for this string. Always uses single quotes.
    *
@@ -129,7 +253,10 @@ public class ZetaSQLStrings {
    * @return Quoted and escaped ZetaSQL string literal.
    */
   public static String toSingleQuotedStringLiteral(String str) {
-    return '\'' + SINGLE_QUOTE_ESCAPER.escape(str) + '\'';
+    if (str.indexOf('\'') < 0) {
+      return '\'' + str + '\'';
+    }
+    return appendQuoted(new StringBuilder(str.length() + 8), str, '\'').toString();
   }
 
   /**
@@ -139,7 +266,38 @@ public class ZetaSQLStrings {
    * @return Quoted and escaped ZetaSQL string literal.
    */
   public static String toDoubleQuotedStringLiteral(String str) {
-    return '"' + DOUBLE_QUOTE_ESCAPER.escape(str) + '"';
+    if (str.indexOf('"') < 0) {
+      return '"' + str + '"';
+    }
+    return appendDoubleQuotedStringLiteral(new StringBuilder(str.length() + 8), str).toString();
+  }
+
+  /**
+   * Append a ZetaSQL string literal for this string, as returned by {@link
+   * #toDoubleQuotedStringLiteral(String)}.
+   *
+   * @param out Builder to append the literal to
+   * @param str String to escape
+   * @return {@code out}
+   */
+  public static StringBuilder appendDoubleQuotedStringLiteral(StringBuilder out, String str) {
+    return appendQuoted(out, str, '"');
+  }
+
+  /**
+   * Appends {@code str} between quotes, escaping the quote character. Runs of characters without
+   * quotes are copied in bulk.
+   */
+  private static StringBuilder appendQuoted(StringBuilder out, String str, char quote) {
+    out.ensureCapacity(out.length() + str.length() + 2);
+    out.append(quote);
+    int start = 0;
+    int next;
+    while ((next = str.indexOf(quote, start)) >= 0) {
+      out.append(str, start, next).append('\\').append(quote);
+      start = next + 1;
+    }
+    return out.append(str, start, str.length()).append(quote);
   }
 
   /**
@@ -147,14 +305,248 @@ public class ZetaSQLStrings {
    * @return A string of format "YYYY-MM-DD" for this date
    */
   public static String convertDateToString(int date) {
-    DateTime d = EPOCH.plusDays(date);
-    return String.format("%04d-%02d-%02d", d.getYear(), d.getMonthOfYear(), d.getDayOfMonth());
+    return appendDate(new StringBuilder(10), date).toString();
+  }
+
+  /**
+   * Append a date in the format "YYYY-MM-DD", as returned by {@link #convertDateToString(int)}.
+   *
+   * <p>The civil date is computed arithmetically from the epoch day and written digit pair by
+   * digit pair, without going through a calendar or a format string.
+   *
+   * @param out Builder to append the date to
+   * @param date Number of days since 1970-01-01
+   * @return {@code out}
+   */
+  public static StringBuilder appendDate(StringBuilder out, int date) {
+    // Days since 0000-03-01, so that leap days fall at the end of each 400 year era
+    long days = date + 719_468L;
+    long era = Math.floorDiv(days, 146_097L);
+    long dayOfEra = days - era * 146_097L;
+    long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+    long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    long shiftedMonth = (5 * dayOfYear + 2) / 153;
+    int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+    int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+    long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+    appendYear(out, year);
+    out.append('-');
+    appendTwoDigits(out, month);
+    out.append('-');
+    return appendTwoDigits(out, day);
+  }
+
+  /** Appends a year zero-padded to four digits, as {@code %04d} would */
+  private static void appendYear(StringBuilder out, long year) {
+    if (year < 0 || year > 9999) {
+      out.append(String.format("%04d", year));
+      return;
+    }
+    int y = (int) year;
+    appendTwoDigits(out, y / 100);
+    appendTwoDigits(out, y % 100);
+  }
+
+  private static StringBuilder appendTwoDigits(StringBuilder out, int value) {
+    return out.append(DIGIT_PAIRS[2 * value]).append(DIGIT_PAIRS[2 * value + 1]);
+  }
+
+  /**
+   * Appends the fractional part of a number of seconds, truncated to milli, micro or nanosecond
+   * precision depending on the trailing zeros, as ZetaSQL prints timestamps and times.
+   */
+  private static void appendFraction(StringBuilder out, int nanos) {
+    if (nanos == 0) {
+      return;
+    }
+    int digits;
+    int value;
+    if (nanos % 1_000_000 == 0) {
+      digits = 3;
+      value = nanos / 1_000_000;
+    } else if (nanos % 1_000 == 0) {
+      digits = 6;
+      value = nanos / 1_000;
+    } else {
+      digits = 9;
+      value = nanos;
+    }
+    out.append('.');
+    for (int divisor = pow10(digits - 1); divisor > 0; divisor /= 10) {
+      out.append((char) ('0' + value / divisor % 10));
+    }
+  }
+
+  private static int pow10(int exponent) {
+    int result = 1;
+    for (int i = 0; i < exponent; i++) {
+      result *= 10;
+    }
+    return result;
+  }
+
+  private static void appendTime(StringBuilder out, int hour, int minute, int second, int nanos) {
+    appendTwoDigits(out, hour);
+    out.append(':');
+    appendTwoDigits(out, minute);
+    out.append(':');
+    appendTwoDigits(out, second);
+    appendFraction(out, nanos);
+  }
+
+  private static void appendTimestamp(StringBuilder out, long unixMicros) {
+    long seconds = Math.floorDiv(unixMicros, MICROS_PER_SECOND);
+    int micros = (int) Math.floorMod(unixMicros, MICROS_PER_SECOND);
+    int days = (int) Math.floorDiv(seconds, SECONDS_PER_DAY);
+    int secondOfDay = Math.floorMod(seconds, SECONDS_PER_DAY);
+
+    appendDate(out, days);
+    out.append(' ');
+    appendTime(
+        out, secondOfDay / 3600, secondOfDay / 60 % 60, secondOfDay % 60, micros * 1_000);
+    out.append("+00");
   }
 
+  /**
+   * Return the debug string of a simple value, as used by {@link Value#debugString(boolean)}.
+   * Strings and bytes are returned as literals, dates and times in their canonical format and
+   * numbers in their shortest form. Verbose strings are wrapped with the name of the type, e.g.
+   * {@code Int64(1)}.
+   *
+   * @param value Value of a simple type
+   * @param verbose Whether to include the type in the output
+   * @return Debug string of the value
+   */
   public static String convertSimpleValueToString(Value value, boolean verbose) {
+    return appendSimpleValue(new StringBuilder(), value, verbose).toString();
+  }
+
+  /**
+   * Append the debug string of a simple value, as returned by {@link
+   * #convertSimpleValueToString(Value, boolean)}.
+   *
+   * <p>Values are formatted directly from their Java representation. Only geographies and
+   * intervals, which have none, fall back to the text format of their proto.
+   *
+   * @param out Builder to append the value to
+   * @param value Value of a simple type
+   * @param verbose Whether to include the type in the output
+   * @return {@code out}
+   */
+  public static StringBuilder appendSimpleValue(StringBuilder out, Value value, boolean verbose) {
     Type type = value.getType();
     Preconditions.checkArgument(type.isSimpleType());
-    return value.getProto().toString().trim();
+
+    if (verbose) {
+      out.append(CAPITALIZED_TYPE_NAMES.getOrDefault(type.getKind(), type.typeName()))
+          .append('(');
+    }
+
+    if (value.isNull()) {
+      out.append("NULL");
+    } else {
+      appendNonNullSimpleValue(out, value, type.getKind());
+    }
+
+    return verbose ? out.append(')') : out;
+  }
+
+  private static void appendNonNullSimpleValue(StringBuilder out, Value value, TypeKind kind) {
+    switch (kind) {
+      case TYPE_INT32:
+        out.append(value.getInt32Value());
+        break;
+      case TYPE_INT64:
+        out.append(value.getInt64Value());
+        break;
+      case TYPE_UINT32:
+        out.append(Integer.toUnsignedString(value.getUint32Value()));
+        break;
+      case TYPE_UINT64:
+        out.append(Long.toUnsignedString(value.getUint64Value()));
+        break;
+      case TYPE_BOOL:
+        out.append(value.getBoolValue());
+        break;
+      case TYPE_FLOAT:
+        appendFloatingPoint(out, value.getFloatValue());
+        break;
+      case TYPE_DOUBLE:
+        appendFloatingPoint(out, value.getDoubleValue());
+        break;
+      case TYPE_NUMERIC:
+        appendDecimal(out, value.getNumericValue());
+        break;
+      case TYPE_BIGNUMERIC:
+        appendDecimal(out, value.getBigNumericValue());
+        break;
+      case TYPE_STRING:
+        appendStringLiteral(out, value.getStringValue());
+        break;
+      case TYPE_BYTES:
+        appendBytesLiteral(out, value.getBytesValue().toByteArray());
+        break;
+      case TYPE_DATE:
+        appendDate(out, value.getDateValue());
+        break;
+      case TYPE_TIMESTAMP:
+        appendTimestamp(out, value.getTimestampUnixMicros());
+        break;
+      case TYPE_TIME:
+        LocalTime time = value.getLocalTimeValue();
+        appendTime(out, time.getHour(), time.getMinute(), time.getSecond(), time.getNano());
+        break;
+      case TYPE_DATETIME:
+        LocalDateTime datetime = value.getLocalDateTimeValue();
+        appendDate(out, (int) datetime.toLocalDate().toEpochDay());
+        out.append(' ');
+        appendTime(
+            out,
+            datetime.getHour(),
+            datetime.getMinute(),
+            datetime.getSecond(),
+            datetime.getNano());
+        break;
+      case TYPE_JSON:
+        out.append(value.getJsonValue());
+        break;
+      default:
+        out.append(value.getProto().toString().trim());
+    }
+  }
+
+  /**
+   * Appends a FLOAT or DOUBLE the way ZetaSQL prints them: integral values without a fractional
+   * part, and "inf", "-inf" and "nan" for non-finite values.
+   */
+  private static void appendFloatingPoint(StringBuilder out, double value) {
+    if (Double.isNaN(value)) {
+      out.append("nan");
+    } else if (Double.isInfinite(value)) {
+      out.append(value > 0 ? "inf" : "-inf");
+    } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+      out.append((long) value);
+    } else {
+      out.append(value);
+    }
+  }
+
+  private static void appendFloatingPoint(StringBuilder out, float value) {
+    if (Float.isNaN(value) || Float.isInfinite(value) || value == Math.rint(value)) {
+      appendFloatingPoint(out, (double) value);
+    } else {
+      // Widening would print the float's binary approximation, e.g. 0.10000000149011612
+      out.append(value);
+    }
+  }
+
+  private static void appendDecimal(StringBuilder out, BigDecimal value) {
+    if (value.signum() == 0) {
+      out.append('0');
+    } else {
+      out.append(value.stripTrailingZeros().toPlainString());
+    }
   }
 
   /**
@@ -165,10 +557,160 @@ public class ZetaSQLStrings {
    * unescapeIdentifier("`foo.bar`")} is {@code "foo.bar"}. {@code unescapeIdentifier("3foo")} is
    * {@code null}.
    *
+   * <p>Unquoted identifiers must start with a letter or underscore, contain only letters, digits
+   * and underscores, and not be reserved keywords. Quoted identifiers must not be empty and
+   * support the escape sequences of ZetaSQL string literals. Octal and hex escapes must encode
+   * ASCII characters, since they denote single UTF-8 bytes. The string is scanned once, and a
+   * quoted identifier without escapes is returned without copying its characters twice.
+   *
    * @param str ZetaSQL identifier to unescape
    * @return Unescaped ZetaSQL identifier or {@code null}.
    */
   public static String unescapeIdentifier(String str) {
-    throw new UnsupportedOperationException();
+    int length = str.length();
+    if (length == 0) {
+      return null;
+    }
+    if (str.charAt(0) != '`') {
+      return isUnquotedIdentifier(str) ? str : null;
+    }
+    if (length < 3 || str.charAt(length - 1) != '`') {
+      return null;
+    }
+
+    int end = length - 1;
+    StringBuilder unescaped = null;
+    int copiedUpTo = 1;
+    int i = 1;
+    while (i < end) {
+      char c = str.charAt(i);
+      if (c == '`') {
+        return null;
+      }
+      if (c != '\\') {
+        i++;
+        continue;
+      }
+      if (i + 1 >= end) {
+        // A backslash escaping the closing backtick
+        return null;
+      }
+      if (unescaped == null) {
+        unescaped = new StringBuilder(length);
+      }
+      unescaped.append(str, copiedUpTo, i);
+
+      int escapeLength = appendEscape(unescaped, str, i + 1, end);
+      if (escapeLength < 0) {
+        return null;
+      }
+      i += 1 + escapeLength;
+      copiedUpTo = i;
+    }
+
+    if (unescaped == null) {
+      return str.substring(1, end);
+    }
+    return unescaped.append(str, copiedUpTo, end).toString();
+  }
+
+  private static boolean isUnquotedIdentifier(String str) {
+    char first = str.charAt(0);
+    if (!(isAsciiLetter(first) || first == '_')) {
+      return false;
+    }
+    for (int i = 1; i < str.length(); i++) {
+      char c = str.charAt(i);
+      if (!(isAsciiLetter(c) || (c >= '0' && c <= '9') || c == '_')) {
+        return false;
+      }
+    }
+    return str.length() > MAX_RESERVED_KEYWORD_LENGTH
+        || !RESERVED_KEYWORDS.contains(str.toUpperCase(Locale.ROOT));
+  }
+
+  private static boolean isAsciiLetter(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  /**
+   * Appends the character denoted by the escape sequence starting at {@code start}, right after
+   * the backslash.
+   *
+   * @return The length of the escape sequence, not counting the backslash, or -1 if it's invalid
+   */
+  private static int appendEscape(StringBuilder out, String str, int start, int end) {
+    char c = str.charAt(start);
+    switch (c) {
+      case 'a':
+        out.append('\u0007');
+        return 1;
+      case 'b':
+        out.append('\b');
+        return 1;
+      case 'f':
+        out.append('\f');
+        return 1;
+      case 'n':
+        out.append('\n');
+        return 1;
+      case 'r':
+        out.append('\r');
+        return 1;
+      case 't':
+        out.append('\t');
+        return 1;
+      case 'v':
+        out.append('\u000B');
+        return 1;
+      case '\\':
+      case '?':
+      case '\'':
+      case '"':
+      case '`':
+        out.append(c);
+        return 1;
+      case 'x':
+      case 'X':
+        return appendCodePoint(out, parseDigits(str, start + 1, end, 2, 16), 0x7F, 3);
+      case 'u':
+        return appendCodePoint(
+            out, parseDigits(str, start + 1, end, 4, 16), Character.MAX_CODE_POINT, 5);
+      case 'U':
+        return appendCodePoint(
+            out, parseDigits(str, start + 1, end, 8, 16), Character.MAX_CODE_POINT, 9);
+      default:
+        if (c >= '0' && c <= '7') {
+          return appendCodePoint(out, parseDigits(str, start, end, 3, 8), 0x7F, 3);
+        }
+        return -1;
+    }
+  }
+
+  private static int appendCodePoint(StringBuilder out, long codePoint, int max, int length) {
+    if (codePoint < 0
+        || codePoint > max
+        || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+      return -1;
+    }
+    out.appendCodePoint((int) codePoint);
+    return length;
+  }
+
+  /** Parses exactly {@code count} digits in {@code radix}, returning -1 if there are fewer */
+  private static long parseDigits(String str, int start, int end, int count, int radix) {
+    if (start + count > end) {
+      return -1;
+    }
+    long value = 0;
+    for (int i = start; i < start + count; i++) {
+      char c = str.charAt(i);
+      int digit = c < 128 ? Character.digit(c, radix) : -1;
+      if (digit < 0) {
+        return -1;
+      }
+      value = value * radix + digit;
+    }
+    return value;
   }
 }
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.zetasql.toolkit;
+
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedStatement;
+import com.google.zetasql.toolkit.catalog.CatalogWrapper;
+
+/**
+ * Applies the changes a resolved statement makes to a catalog, the same way
+ * {@link ZetaSQLToolkitAnalyzer} does when analyzing a script.
+ *
+ * The analyzer applies each statement's changes when the next statement is requested, so the
+ * changes of the last statement it analyzes are never applied. Validators that analyze a script
+ * one statement at a time use this to apply them. It lives in the toolkit's package because the
+ * toolkit's CatalogUpdaterVisitor is package-private.
+ */
+public final class CatalogUpdates {
+
+  private CatalogUpdates() {}
+
+  /**
+   * Applies a statement to a catalog. Statements other than DDL statements are ignored.
+   *
+   * @param statement The resolved statement
+   * @param catalog The catalog to create, replace or drop resources in
+   * @throws com.google.zetasql.toolkit.catalog.exceptions.CatalogException if the statement
+   *     can't be applied, e.g. because it creates a resource that already exists
+   */
+  public static void apply(ResolvedStatement statement, CatalogWrapper catalog) {
+    statement.accept(new CatalogUpdaterVisitor(catalog));
+  }
+
+}
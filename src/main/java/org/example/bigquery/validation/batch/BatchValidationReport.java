@@ -0,0 +1,41 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.batch;
+
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+
+/** All results of validating a collection of queries, in input order, plus the run's stats */
+public final class BatchValidationReport {
+
+  private final ImmutableList<ValidationResult> results;
+  private final BatchValidationStats stats;
+
+  public BatchValidationReport(List<ValidationResult> results, BatchValidationStats stats) {
+    this.results = ImmutableList.copyOf(results);
+    this.stats = stats;
+  }
+
+  public ImmutableList<ValidationResult> getResults() {
+    return results;
+  }
+
+  public BatchValidationStats getStats() {
+    return stats;
+  }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.batch;
+
+import java.time.Duration;
+
+/** Counters and throughput for a finished batch validation run */
+public final class BatchValidationStats {
+
+  private final long validCount;
+  private final long invalidCount;
+  private final Duration elapsed;
+
+  public BatchValidationStats(long validCount, long invalidCount, Duration elapsed) {
+    this.validCount = validCount;
+    this.invalidCount = invalidCount;
+    this.elapsed = elapsed;
+  }
+
+  public long getQueryCount() {
+    return validCount + invalidCount;
+  }
+
+  public long getValidCount() {
+    return validCount;
+  }
+
+  public long getInvalidCount() {
+    return invalidCount;
+  }
+
+  public Duration getElapsed() {
+    return elapsed;
+  }
+
+  /** Validated queries per second over the whole run */
+  public double getQueriesPerSecond() {
+    long nanos = elapsed.toNanos();
+    if (nanos == 0) {
+      return 0;
+    }
+    return getQueryCount() * 1_000_000_000.0 / nanos;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%d queries (%d valid, %d invalid) in %d ms - %.1f queries/sec",
+        getQueryCount(), validCount, invalidCount, elapsed.toMillis(), getQueriesPerSecond());
+  }
+
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.batch;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.zetasql.Analyzer;
+import com.google.zetasql.AnalyzerOptions;
+import com.google.zetasql.SimpleCatalog;
+import com.google.zetasql.SqlException;
+import com.google.zetasql.ZetaSQLBuiltinFunctionOptions;
+import com.google.zetasql.toolkit.options.BigQueryLanguageOptions;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import org.example.bigquery.validation.guard.DeadlineExceededException;
+import org.example.bigquery.validation.guard.StatementGuard;
+import org.example.bigquery.validation.metrics.CatalogSizes;
+import org.example.bigquery.validation.metrics.ErrorClasses;
+import org.example.bigquery.validation.metrics.InMemoryValidationMetrics;
+import org.example.bigquery.validation.metrics.Phase;
+import org.example.bigquery.validation.metrics.ValidationMetrics;
+
+/**
+ * Validates many queries concurrently using the ZetaSQL {@link Analyzer}.
+ *
+ * All workers share the same {@link AnalyzerOptions} and {@link SimpleCatalog}, which are only
+ * read during analysis. The catalog must not be modified while a batch is running.
+ *
+ * Queries are submitted to the worker pool through a bounded window: at most
+ * {@code maxInFlight} queries are being analyzed or waiting to be delivered at any given time.
+ * Results are delivered in input order, so memory usage does not depend on the size of the input
+ * when using the streaming methods.
+ *
+ * <pre>{@code
+ * try (BatchValidator validator = new BatchValidator(options, catalog, 8)) {
+ *   BatchValidationStats stats = validator.validate(queries, result -> ...);
+ * }
+ * }</pre>
+ */
+public class BatchValidator implements AutoCloseable {
+
+  private final AnalyzerOptions options;
+  private final SimpleCatalog catalog;
+  private final int maxInFlight;
+  private final ExecutorService executor;
+  private final ValidationMetrics metrics;
+  private final StatementGuard guard;
+
+  /**
+   * Creates a BatchValidator with a window of 4 in-flight queries per worker.
+   *
+   * @param options The AnalyzerOptions to use for every query
+   * @param catalog The catalog to analyze every query against
+   * @param parallelism The number of worker threads
+   */
+  public BatchValidator(AnalyzerOptions options, SimpleCatalog catalog, int parallelism) {
+    this(options, catalog, parallelism, parallelism * 4);
+  }
+
+  /**
+   * @param options The AnalyzerOptions to use for every query
+   * @param catalog The catalog to analyze every query against
+   * @param parallelism The number of worker threads
+   * @param maxInFlight The maximum number of queries submitted but not yet delivered. Must be
+   *     greater or equal than parallelism for all workers to be kept busy.
+   */
+  public BatchValidator(
+      AnalyzerOptions options, SimpleCatalog catalog, int parallelism, int maxInFlight) {
+    this(options, catalog, parallelism, maxInFlight, ValidationMetrics.NOOP);
+  }
+
+  /**
+   * @param options The AnalyzerOptions to use for every query
+   * @param catalog The catalog to analyze every query against
+   * @param parallelism The number of worker threads
+   * @param maxInFlight The maximum number of queries submitted but not yet delivered. Must be
+   *     greater or equal than parallelism for all workers to be kept busy.
+   * @param metrics Receives the analysis latency, result and error class of every query, and the
+   *     size of the catalog
+   */
+  public BatchValidator(AnalyzerOptions options, SimpleCatalog catalog, int parallelism,
+      int maxInFlight, ValidationMetrics metrics) {
+    this(options, catalog, parallelism, maxInFlight, metrics, StatementGuard.NONE);
+  }
+
+  /**
+   * @param options The AnalyzerOptions to use for every query
+   * @param catalog The catalog to analyze every query against
+   * @param parallelism The number of worker threads
+   * @param maxInFlight The maximum number of queries submitted but not yet delivered. Must be
+   *     greater or equal than parallelism for all workers to be kept busy.
+   * @param metrics Receives the analysis latency, result and error class of every query, and the
+   *     size of the catalog
+   * @param guard Rejects queries over its limits and abandons analyses that exceed its deadline,
+   *     so that a pathological query only holds up its worker until then
+   */
+  public BatchValidator(AnalyzerOptions options, SimpleCatalog catalog, int parallelism,
+      int maxInFlight, ValidationMetrics metrics, StatementGuard guard) {
+    Preconditions.checkArgument(parallelism > 0, "parallelism must be positive");
+    Preconditions.checkArgument(maxInFlight > 0, "maxInFlight must be positive");
+    this.options = options;
+    this.catalog = catalog;
+    this.maxInFlight = maxInFlight;
+    this.metrics = metrics;
+    this.guard = guard;
+    this.executor = Executors.newFixedThreadPool(
+        parallelism,
+        new ThreadFactoryBuilder()
+            .setNameFormat("batch-validator-%d")
+            .setDaemon(true)
+            .build());
+    CatalogSizes.record(catalog, metrics);
+  }
+
+  /**
+   * Validates a collection of queries and returns all results in input order.
+   *
+   * Results are kept in memory until the whole collection is validated. Use
+   * {@link #validate(Iterator, Consumer)} for inputs that should not be materialized.
+   *
+   * @param queries The queries to validate
+   * @return The report containing the results and stats for the run
+   */
+  public BatchValidationReport validate(Collection<String> queries) {
+    List<ValidationResult> results = new ArrayList<>(queries.size());
+    BatchValidationStats stats = validate(queries.iterator(), results::add);
+    return new BatchValidationReport(results, stats);
+  }
+
+  /**
+   * Validates a stream of queries, delivering each result to the consumer in input order.
+   *
+   * @param queries The queries to validate
+   * @param consumer Receives the result for each query. Called from the calling thread.
+   * @return The stats for the run
+   */
+  public BatchValidationStats validate(
+      Stream<String> queries, Consumer<ValidationResult> consumer) {
+    try (queries) {
+      return validate(queries.iterator(), consumer);
+    }
+  }
+
+  /**
+   * Validates queries lazily pulled from an iterator, delivering each result to the consumer in
+   * input order. The iterator is only advanced when there's room in the in-flight window.
+   *
+   * @param queries The queries to validate
+   * @param consumer Receives the result for each query. Called from the calling thread.
+   * @return The stats for the run
+   */
+  public BatchValidationStats validate(
+      Iterator<String> queries, Consumer<ValidationResult> consumer) {
+    long startTime = System.nanoTime();
+    Deque<Future<ValidationResult>> window = new ArrayDeque<>(maxInFlight);
+    long index = 0;
+    long validCount = 0;
+    long invalidCount = 0;
+
+    try {
+      while (queries.hasNext()) {
+        if (window.size() == maxInFlight) {
+          ValidationResult result = await(window.removeFirst());
+          if (result.isValid()) {
+            validCount++;
+          } else {
+            invalidCount++;
+          }
+          consumer.accept(result);
+        }
+
+        String query = queries.next();
+        long queryIndex = index++;
+        window.addLast(executor.submit(() -> validateQuery(queryIndex, query)));
+      }
+
+      while (!window.isEmpty()) {
+        ValidationResult result = await(window.removeFirst());
+        if (result.isValid()) {
+          validCount++;
+        } else {
+          invalidCount++;
+        }
+        consumer.accept(result);
+      }
+    } finally {
+      window.forEach(future -> future.cancel(false));
+    }
+
+    return new BatchValidationStats(
+        validCount, invalidCount, Duration.ofNanos(System.nanoTime() - startTime));
+  }
+
+  private ValidationResult validateQuery(long index, String query) {
+    Optional<String> rejection = guard.check(query);
+    if (rejection.isPresent()) {
+      metrics.recordStatement(false);
+      metrics.recordError(ErrorClasses.LIMIT_EXCEEDED);
+      return ValidationResult.rejected(index, query, rejection.get());
+    }
+
+    long start = System.nanoTime();
+    try {
+      guard.call(() -> Analyzer.analyzeStatement(query, options, catalog));
+      metrics.recordStatement(true);
+      return ValidationResult.valid(index, query);
+    } catch (DeadlineExceededException error) {
+      metrics.recordStatement(false);
+      metrics.recordError(ErrorClasses.DEADLINE_EXCEEDED);
+      metrics.recordTimeout(Phase.ANALYZE);
+      return ValidationResult.timedOut(index, query, error.getMessage());
+    } catch (SqlException error) {
+      metrics.recordStatement(false);
+      metrics.recordError(ErrorClasses.classify(error));
+      return ValidationResult.invalid(index, query, error);
+    } finally {
+      metrics.recordLatency(Phase.ANALYZE, System.nanoTime() - start);
+    }
+  }
+
+  private static ValidationResult await(Future<ValidationResult> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for validation results", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException("Query validation failed unexpectedly", cause);
+    }
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  public static void main(String[] args) {
+    SimpleCatalog catalog = new SimpleCatalog("catalog");
+    catalog.addZetaSQLFunctionsAndTypes(new ZetaSQLBuiltinFunctionOptions());
+
+    AnalyzerOptions options = new AnalyzerOptions();
+    options.setLanguageOptions(BigQueryLanguageOptions.get());
+
+    Stream<String> queries = Stream.iterate(0, i -> i + 1)
+        .limit(2_000)
+        .map(i -> i % 100 == 0
+            ? "SELECT column FROM `dataset.table`"
+            : String.format("SELECT %d AS column, UPPER('value %d') AS value", i, i));
+
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    InMemoryValidationMetrics metrics = new InMemoryValidationMetrics();
+
+    try (BatchValidator validator =
+        new BatchValidator(options, catalog, parallelism, parallelism * 4, metrics)) {
+      BatchValidationStats stats = validator.validate(queries, result -> {
+        if (!result.isValid() && result.getIndex() < 500) {
+          System.out.println(result);
+        }
+      });
+      System.out.println(stats);
+    }
+
+    System.out.print(metrics.toPrometheusText());
+  }
+
+}
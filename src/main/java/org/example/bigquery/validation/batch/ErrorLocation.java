@@ -0,0 +1,106 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.batch;
+
+import com.google.zetasql.SqlException;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Line and column (both 1-based) where ZetaSQL reported an error.
+ *
+ * {@link SqlException} does not expose the error location directly; ZetaSQL appends it to the
+ * message as "[at line:column]". This class extracts it from there.
+ */
+public final class ErrorLocation {
+
+  private static final Pattern LOCATION_PATTERN = Pattern.compile("\\[at (\\d+):(\\d+)]");
+
+  private final int line;
+  private final int column;
+
+  public ErrorLocation(int line, int column) {
+    this.line = line;
+    this.column = column;
+  }
+
+  public int getLine() {
+    return line;
+  }
+
+  public int getColumn() {
+    return column;
+  }
+
+  /**
+   * Extracts the error location from a {@link SqlException}, if its message includes one.
+   *
+   * @param error The SqlException thrown by the Parser or the Analyzer
+   * @return The location of the error, or empty if the message does not include it
+   */
+  public static Optional<ErrorLocation> fromSqlException(SqlException error) {
+    return fromMessage(error.getMessage());
+  }
+
+  /**
+   * Extracts the error location from a ZetaSQL error message, if it includes one. When the
+   * message contains several locations (e.g. errors inside views or UDFs), the last one is used,
+   * since that's the one that refers to the analyzed statement.
+   *
+   * @param message The ZetaSQL error message
+   * @return The location of the error, or empty if the message does not include it
+   */
+  public static Optional<ErrorLocation> fromMessage(String message) {
+    if (message == null) {
+      return Optional.empty();
+    }
+
+    Matcher matcher = LOCATION_PATTERN.matcher(message);
+    ErrorLocation location = null;
+
+    while (matcher.find()) {
+      location = new ErrorLocation(
+          Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+    }
+
+    return Optional.ofNullable(location);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof ErrorLocation)) {
+      return false;
+    }
+    ErrorLocation other = (ErrorLocation) o;
+    return line == other.line && column == other.column;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * line + column;
+  }
+
+  @Override
+  public String toString() {
+    return line + ":" + column;
+  }
+
+}
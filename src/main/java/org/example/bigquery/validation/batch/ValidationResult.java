@@ -0,0 +1,106 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.batch;
+
+import com.google.zetasql.SqlException;
+import java.util.Optional;
+
+/**
+ * The outcome of validating a single query as part of a batch.
+ *
+ * Results only keep the error message and location, never the ResolvedStatement, so that
+ * consuming a large batch does not retain the analyzed trees in memory.
+ */
+public final class ValidationResult {
+
+  private final long index;
+  private final String query;
+  private final ValidationStatus status;
+  private final String errorMessage;
+  private final ErrorLocation errorLocation;
+
+  private ValidationResult(long index, String query, ValidationStatus status,
+      String errorMessage, ErrorLocation errorLocation) {
+    this.index = index;
+    this.query = query;
+    this.status = status;
+    this.errorMessage = errorMessage;
+    this.errorLocation = errorLocation;
+  }
+
+  public static ValidationResult valid(long index, String query) {
+    return new ValidationResult(index, query, ValidationStatus.VALID, null, null);
+  }
+
+  public static ValidationResult invalid(long index, String query, SqlException error) {
+    return new ValidationResult(index, query, ValidationStatus.INVALID, error.getMessage(),
+        ErrorLocation.fromSqlException(error).orElse(null));
+  }
+
+  /**
+   * Creates an invalid result from an error message without a location, e.g. one reported for a
+   * different query of the same template.
+   */
+  public static ValidationResult invalid(long index, String query, String errorMessage) {
+    return new ValidationResult(index, query, ValidationStatus.INVALID, errorMessage, null);
+  }
+
+  /** Creates the result of a query whose validation was abandoned after its deadline */
+  public static ValidationResult timedOut(long index, String query, String errorMessage) {
+    return new ValidationResult(index, query, ValidationStatus.TIMED_OUT, errorMessage, null);
+  }
+
+  /** Creates the result of a query rejected by a size limit before validation */
+  public static ValidationResult rejected(long index, String query, String errorMessage) {
+    return new ValidationResult(index, query, ValidationStatus.REJECTED, errorMessage, null);
+  }
+
+  /** Position of the query in the input, starting at 0 */
+  public long getIndex() {
+    return index;
+  }
+
+  public String getQuery() {
+    return query;
+  }
+
+  public ValidationStatus getStatus() {
+    return status;
+  }
+
+  /** Whether the query is valid. Timed out and rejected queries are not. */
+  public boolean isValid() {
+    return status == ValidationStatus.VALID;
+  }
+
+  public Optional<String> getErrorMessage() {
+    return Optional.ofNullable(errorMessage);
+  }
+
+  public Optional<ErrorLocation> getErrorLocation() {
+    return Optional.ofNullable(errorLocation);
+  }
+
+  @Override
+  public String toString() {
+    if (isValid()) {
+      return String.format("#%d: valid", index);
+    }
+    return String.format("#%d: %s - %s", index, status.getLabel(), errorMessage);
+  }
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.batch;
+
+/** How the validation of a query or statement ended */
+public enum ValidationStatus {
+
+  /** ZetaSQL accepted it */
+  VALID("valid"),
+
+  /** ZetaSQL reported an error */
+  INVALID("invalid"),
+
+  /**
+   * Validation was abandoned after exceeding its deadline, so it may well be valid. See
+   * {@link org.example.bigquery.validation.guard.StatementGuard}.
+   */
+  TIMED_OUT("timed_out"),
+
+  /**
+   * It exceeds a {@link org.example.bigquery.validation.guard.StatementLimits} limit and was never
+   * sent to ZetaSQL
+   */
+  REJECTED("rejected");
+
+  private final String label;
+
+  ValidationStatus(String label) {
+    this.label = label;
+  }
+
+  /** The name of the status in reports and exported results */
+  public String getLabel() {
+    return label;
+  }
+
+}
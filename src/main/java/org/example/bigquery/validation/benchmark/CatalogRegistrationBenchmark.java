@@ -0,0 +1,117 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.benchmark;
+
+import com.google.zetasql.Analyzer;
+import com.google.zetasql.AnalyzerOptions;
+import com.google.zetasql.SimpleCatalog;
+import com.google.zetasql.SimpleColumn;
+import com.google.zetasql.SimpleTable;
+import com.google.zetasql.TypeFactory;
+import com.google.zetasql.ZetaSQLBuiltinFunctionOptions;
+import com.google.zetasql.ZetaSQLType.TypeKind;
+import com.google.zetasql.toolkit.options.BigQueryLanguageOptions;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import org.example.bigquery.validation.catalog.RegisteredCatalog;
+
+/**
+ * Compares per-query analysis latency with and without registering the catalog with the
+ * ZetaSQL local service.
+ *
+ * Usage: {@code CatalogRegistrationBenchmark [tableCount] [queryCount]}
+ */
+public class CatalogRegistrationBenchmark {
+
+  private static final int WARMUP_QUERIES = 50;
+
+  private static SimpleCatalog buildCatalog(int tableCount) {
+    SimpleCatalog catalog = new SimpleCatalog("catalog");
+    catalog.addZetaSQLFunctionsAndTypes(new ZetaSQLBuiltinFunctionOptions());
+
+    for (int i = 0; i < tableCount; i++) {
+      String tableName = "dataset.table_" + i;
+      catalog.addSimpleTable(
+          tableName,
+          new SimpleTable(
+              tableName,
+              List.of(
+                  new SimpleColumn(
+                      tableName, "id", TypeFactory.createSimpleType(TypeKind.TYPE_INT64)),
+                  new SimpleColumn(
+                      tableName, "name", TypeFactory.createSimpleType(TypeKind.TYPE_STRING)),
+                  new SimpleColumn(
+                      tableName, "created", TypeFactory.createSimpleType(TypeKind.TYPE_TIMESTAMP))
+              )
+          )
+      );
+    }
+
+    return catalog;
+  }
+
+  private static String queryFor(int i, int tableCount) {
+    return String.format(
+        "SELECT id, UPPER(name) AS name FROM `dataset.table_%d` WHERE created > '2023-01-01'",
+        i % tableCount);
+  }
+
+  private static void run(String label, int queryCount, int tableCount, Consumer<String> analyze) {
+    for (int i = 0; i < WARMUP_QUERIES; i++) {
+      analyze.accept(queryFor(i, tableCount));
+    }
+
+    long[] latencies = new long[queryCount];
+    for (int i = 0; i < queryCount; i++) {
+      String query = queryFor(i, tableCount);
+      long start = System.nanoTime();
+      analyze.accept(query);
+      latencies[i] = System.nanoTime() - start;
+    }
+
+    Arrays.sort(latencies);
+    double averageMicros = Arrays.stream(latencies).average().orElse(0) / 1000;
+    System.out.printf(
+        "%-14s avg=%9.1fus p50=%9.1fus p99=%9.1fus%n",
+        label,
+        averageMicros,
+        latencies[queryCount / 2] / 1000.0,
+        latencies[Math.min(queryCount - 1, queryCount * 99 / 100)] / 1000.0);
+  }
+
+  public static void main(String[] args) {
+    int tableCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int queryCount = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+    AnalyzerOptions options = new AnalyzerOptions();
+    options.setLanguageOptions(BigQueryLanguageOptions.get());
+
+    SimpleCatalog catalog = buildCatalog(tableCount);
+
+    System.out.printf("Catalog with %d tables, %d queries per run%n", tableCount, queryCount);
+
+    run("unregistered", queryCount, tableCount,
+        query -> Analyzer.analyzeStatement(query, options, catalog));
+
+    try (RegisteredCatalog registeredCatalog = new RegisteredCatalog(catalog)) {
+      run("registered", queryCount, tableCount,
+          query -> registeredCatalog.analyzeStatement(query, options));
+    }
+  }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.benchmark;
+
+import com.google.zetasql.AnalyzerOptions;
+import com.google.zetasql.SimpleCatalog;
+import com.google.zetasql.SimpleColumn;
+import com.google.zetasql.SimpleTable;
+import com.google.zetasql.TypeFactory;
+import com.google.zetasql.ZetaSQLBuiltinFunctionOptions;
+import com.google.zetasql.ZetaSQLType.TypeKind;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedStatement;
+import com.google.zetasql.toolkit.options.BigQueryLanguageOptions;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import org.example.bigquery.validation.catalog.RegisteredCatalog;
+import org.example.bigquery.validation.summary.StatementSummary;
+
+/**
+ * Measures the heap retained per analyzed statement when keeping the resolved trees, their
+ * {@link StatementSummary summaries} or the summaries' serialized bytes.
+ *
+ * Each mode analyzes the same statements and keeps what it retains in a list; the retained
+ * heap is the difference in used heap after full GCs, before and after. Run it with a fixed
+ * heap, e.g. {@code -Xms1g -Xmx1g}, for stable numbers.
+ *
+ * Usage: {@code StatementSummaryHeapBenchmark [statementCount] [columnCount]}
+ */
+public class StatementSummaryHeapBenchmark {
+
+  private static final int TABLE_COUNT = 20;
+  private static final int DEBUG_STRING_SAMPLE = 50;
+
+  private static SimpleCatalog buildCatalog(int columnCount) {
+    SimpleCatalog catalog = new SimpleCatalog("catalog");
+    catalog.addZetaSQLFunctionsAndTypes(new ZetaSQLBuiltinFunctionOptions());
+
+    TypeKind[] types = {TypeKind.TYPE_INT64, TypeKind.TYPE_STRING, TypeKind.TYPE_TIMESTAMP,
+        TypeKind.TYPE_DOUBLE, TypeKind.TYPE_BOOL};
+    for (int i = 0; i < TABLE_COUNT; i++) {
+      String tableName = "dataset.table_" + i;
+      List<SimpleColumn> columns = new ArrayList<>(columnCount);
+      columns.add(new SimpleColumn(
+          tableName, "id", TypeFactory.createSimpleType(TypeKind.TYPE_INT64)));
+      for (int column = 1; column < columnCount; column++) {
+        columns.add(new SimpleColumn(tableName, "column_" + column,
+            TypeFactory.createSimpleType(types[column % types.length])));
+      }
+      catalog.addSimpleTable(tableName, new SimpleTable(tableName, columns));
+    }
+
+    return catalog;
+  }
+
+  /** A mix of joins, aggregations, CTEs and DDL, distinct for every i */
+  private static String statementFor(int i) {
+    String left = "`dataset.table_" + (i % TABLE_COUNT) + "`";
+    String right = "`dataset.table_" + ((i + 7) % TABLE_COUNT) + "`";
+    switch (i % 4) {
+      case 0:
+        return String.format(
+            "SELECT l.*, r.column_1 AS other FROM %s l JOIN %s r USING (id) WHERE l.id > %d",
+            left, right, i);
+      case 1:
+        return String.format(
+            "WITH totals AS (SELECT column_1, COUNT(*) AS n, SUM(column_3) AS total FROM %s "
+                + "WHERE column_4 GROUP BY column_1) "
+                + "SELECT column_1, n, total / n AS mean FROM totals WHERE n > %d", left, i);
+      case 2:
+        return String.format(
+            "SELECT id, ROW_NUMBER() OVER (PARTITION BY column_1 ORDER BY column_2) AS rank, "
+                + "UPPER(column_1) AS label FROM %s WHERE id IN (SELECT id FROM %s) LIMIT %d",
+            left, right, i + 1);
+      default:
+        return String.format(
+            "CREATE TEMP TABLE copy_%d AS SELECT * FROM %s WHERE id = %d", i, left, i);
+    }
+  }
+
+  private static long usedHeapAfterGc(MemoryMXBean memory) {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return memory.getHeapMemoryUsage().getUsed();
+  }
+
+  /** Returns the heap retained per statement, in bytes */
+  private static long run(int statementCount, RegisteredCatalog catalog, AnalyzerOptions options,
+      Function<ResolvedStatement, Object> retain) {
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    List<Object> retained = new ArrayList<>(statementCount);
+    long before = usedHeapAfterGc(memory);
+
+    for (int i = 0; i < statementCount; i++) {
+      retained.add(retain.apply(catalog.analyzeStatement(statementFor(i), options)));
+    }
+
+    long after = usedHeapAfterGc(memory);
+    Reference.reachabilityFence(retained);
+    return (after - before) / statementCount;
+  }
+
+  private static void report(String label, long bytesPerStatement) {
+    System.out.printf("%-10s %,9d bytes/statement%n", label, bytesPerStatement);
+  }
+
+  public static void main(String[] args) {
+    int statementCount = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    int columnCount = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+
+    AnalyzerOptions options = new AnalyzerOptions();
+    options.setLanguageOptions(BigQueryLanguageOptions.get());
+
+    try (RegisteredCatalog catalog = new RegisteredCatalog(buildCatalog(columnCount))) {
+      long debugStringLength = 0;
+      long serializedLength = 0;
+      for (int i = 0; i < DEBUG_STRING_SAMPLE; i++) {
+        ResolvedStatement statement = catalog.analyzeStatement(statementFor(i), options);
+        debugStringLength += statement.debugString().length();
+        serializedLength += StatementSummary.of(statement).toBytes().length;
+      }
+      System.out.printf(
+          "%,d statements, %d columns per table; average debugString() %,d chars, "
+              + "serialized summary %,d bytes%n",
+          statementCount, columnCount, debugStringLength / DEBUG_STRING_SAMPLE,
+          serializedLength / DEBUG_STRING_SAMPLE);
+
+      // Warms up the analysis and interns the strings summaries share, outside the measurements
+      run(statementCount, catalog, options, StatementSummary::of);
+      report("trees", run(statementCount, catalog, options, statement -> statement));
+      report("summaries", run(statementCount, catalog, options, StatementSummary::of));
+      report("bytes", run(statementCount, catalog, options,
+          statement -> StatementSummary.of(statement).toBytes()));
+    }
+  }
+
+}
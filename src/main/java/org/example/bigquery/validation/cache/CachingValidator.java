@@ -0,0 +1,241 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.zetasql.Analyzer;
+import com.google.zetasql.AnalyzerOptions;
+import com.google.zetasql.SimpleCatalog;
+import com.google.zetasql.SimpleColumn;
+import com.google.zetasql.SimpleTable;
+import com.google.zetasql.SqlException;
+import com.google.zetasql.TypeFactory;
+import com.google.zetasql.ZetaSQLBuiltinFunctionOptions;
+import com.google.zetasql.ZetaSQLOptionsProto.LanguageOptionsProto;
+import com.google.zetasql.ZetaSQLType.TypeKind;
+import com.google.zetasql.toolkit.options.BigQueryLanguageOptions;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+import org.example.bigquery.validation.batch.ValidationResult;
+import org.example.bigquery.validation.cache.ValidationCache.Key;
+import org.example.bigquery.validation.cache.ValidationCache.Outcome;
+import org.example.bigquery.validation.lexer.SqlLexer;
+
+/**
+ * Validates queries using the ZetaSQL {@link Analyzer}, skipping analysis for queries whose
+ * template was already validated against the same catalog.
+ *
+ * Each query is parsed to compute its {@link QueryFingerprint}, and the outcome of analyzing it
+ * is stored in a {@link ValidationCache}. Later queries with the same fingerprint get the cached
+ * outcome without being analyzed. Parsing is much cheaper than analysis, which serializes the
+ * whole catalog on every call unless it's registered, but still a call to the local service:
+ * fingerprints are also memoized by {@link SqlLexer#tokenHash}, so a query repeated verbatim,
+ * or reformatted, is neither parsed nor analyzed again.
+ *
+ * Tables must be added to and removed from the catalog through this class, so that only the
+ * cached outcomes of queries referencing those tables are invalidated. Other changes to the
+ * catalog require calling {@link #setCatalog(SimpleCatalog)}, which starts a new catalog version.
+ *
+ * Errors served from the cache have no location, since it depends on the literals of the query
+ * that was analyzed; their messages have the location removed.
+ *
+ * This class is thread-safe. Catalog changes wait for in-flight analyses to finish.
+ */
+public class CachingValidator {
+
+  /** Catalog versions are unique across validators, so that they can share a cache */
+  private static final AtomicLong CATALOG_VERSIONS = new AtomicLong();
+
+  private static final Pattern ERROR_LOCATION = Pattern.compile("\\s*\\[at \\d+:\\d+]");
+
+  private static final int MAX_MEMOIZED_FINGERPRINTS = 10_000;
+
+  private final AnalyzerOptions options;
+  private final LanguageOptionsProto languageOptionsKey;
+  private final ValidationCache cache;
+  // Fingerprints of recently parsed queries, by the hash of their tokens
+  private final Cache<HashCode, QueryFingerprint> fingerprints =
+      CacheBuilder.newBuilder().maximumSize(MAX_MEMOIZED_FINGERPRINTS).build();
+  private final ReadWriteLock catalogLock = new ReentrantReadWriteLock();
+
+  private SimpleCatalog catalog;
+  private long catalogVersion;
+
+  /**
+   * @param options The AnalyzerOptions to analyze queries with. Must not be modified afterwards.
+   * @param catalog The catalog to analyze queries against
+   * @param cache The cache to store outcomes in
+   */
+  public CachingValidator(AnalyzerOptions options, SimpleCatalog catalog, ValidationCache cache) {
+    this.options = options;
+    this.languageOptionsKey = Key.languageOptionsKey(options.getLanguageOptions());
+    this.cache = cache;
+    this.catalog = catalog;
+    this.catalogVersion = CATALOG_VERSIONS.incrementAndGet();
+  }
+
+  /**
+   * Validates a query.
+   *
+   * @param query The query to validate
+   * @return The result of validating the query
+   */
+  public ValidationResult validate(String query) {
+    return validate(0, query);
+  }
+
+  /**
+   * Validates a query.
+   *
+   * @param index The index of the query in its input, reported in the result
+   * @param query The query to validate
+   * @return The result of validating the query
+   */
+  public ValidationResult validate(long index, String query) {
+    HashCode tokens = SqlLexer.tokenHash(query);
+    QueryFingerprint fingerprint = fingerprints.getIfPresent(tokens);
+    if (fingerprint == null) {
+      try {
+        fingerprint = QueryFingerprint.of(query, options.getLanguageOptions());
+      } catch (SqlException error) {
+        // Syntax errors are not cached; they are found by parsing, which already happened
+        return ValidationResult.invalid(index, query, error);
+      }
+      fingerprints.put(tokens, fingerprint);
+    }
+
+    catalogLock.readLock().lock();
+    try {
+      Key key = new Key(fingerprint, catalogVersion, languageOptionsKey);
+      Optional<Outcome> cached = cache.get(key);
+      if (cached.isPresent()) {
+        return cached.get().getErrorMessage()
+            .map(message -> ValidationResult.invalid(index, query, message))
+            .orElseGet(() -> ValidationResult.valid(index, query));
+      }
+
+      try {
+        Analyzer.analyzeStatement(query, options, catalog);
+        cache.put(key, new Outcome(null, fingerprint.getTables()));
+        return ValidationResult.valid(index, query);
+      } catch (SqlException error) {
+        String message = ERROR_LOCATION.matcher(error.getMessage()).replaceAll("");
+        cache.put(key, new Outcome(message, fingerprint.getTables()));
+        return ValidationResult.invalid(index, query, error);
+      }
+    } finally {
+      catalogLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Adds a table to the catalog and invalidates the cached outcomes of the queries that
+   * reference it.
+   *
+   * @param name The name of the table in the catalog, e.g. {@code dataset.table}
+   * @param table The table
+   */
+  public void addSimpleTable(String name, SimpleTable table) {
+    catalogLock.writeLock().lock();
+    try {
+      catalog.addSimpleTable(name, table);
+      cache.invalidateTable(name);
+    } finally {
+      catalogLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Removes a table from the catalog and invalidates the cached outcomes of the queries that
+   * reference it.
+   *
+   * @param name The name of the table in the catalog, e.g. {@code dataset.table}
+   */
+  public void removeSimpleTable(String name) {
+    catalogLock.writeLock().lock();
+    try {
+      catalog.removeSimpleTable(name);
+      cache.invalidateTable(name);
+    } finally {
+      catalogLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Replaces the catalog. Outcomes cached for the previous catalog are no longer used, and are
+   * eventually evicted from the cache.
+   *
+   * @param catalog The new catalog
+   */
+  public void setCatalog(SimpleCatalog catalog) {
+    catalogLock.writeLock().lock();
+    try {
+      this.catalog = catalog;
+      this.catalogVersion = CATALOG_VERSIONS.incrementAndGet();
+    } finally {
+      catalogLock.writeLock().unlock();
+    }
+  }
+
+  public ValidationCache getCache() {
+    return cache;
+  }
+
+  public static void main(String[] args) {
+    SimpleCatalog catalog = new SimpleCatalog("catalog");
+    catalog.addZetaSQLFunctionsAndTypes(new ZetaSQLBuiltinFunctionOptions());
+    catalog.addSimpleTable("dataset.orders", new SimpleTable(
+        "dataset.orders",
+        ImmutableList.of(
+            new SimpleColumn(
+                "dataset.orders", "id", TypeFactory.createSimpleType(TypeKind.TYPE_INT64)),
+            new SimpleColumn(
+                "dataset.orders", "status", TypeFactory.createSimpleType(TypeKind.TYPE_STRING)))));
+
+    AnalyzerOptions options = new AnalyzerOptions();
+    options.setLanguageOptions(BigQueryLanguageOptions.get());
+
+    CachingValidator validator =
+        new CachingValidator(options, catalog, new ValidationCache(10_000));
+
+    long startTime = System.nanoTime();
+    for (int i = 0; i < 500; i++) {
+      validator.validate(i, String.format(
+          "SELECT id FROM `dataset.orders` WHERE id = %d AND status LIKE 'status %d%%'", i, i));
+      validator.validate(i, String.format(
+          "SELECT COUNT(*) FROM `dataset.customers` WHERE id > %d", i));
+    }
+    System.out.printf(
+        "1000 queries in %d ms - %s%n",
+        (System.nanoTime() - startTime) / 1_000_000, validator.getCache().getStats());
+
+    validator.addSimpleTable("dataset.customers", new SimpleTable(
+        "dataset.customers",
+        ImmutableList.of(new SimpleColumn(
+            "dataset.customers", "id", TypeFactory.createSimpleType(TypeKind.TYPE_INT64)))));
+
+    System.out.println(validator.validate("SELECT COUNT(*) FROM `dataset.customers` WHERE id > 1"));
+    System.out.println(validator.getCache().getStats());
+  }
+
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.cache;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.zetasql.LanguageOptions;
+import com.google.zetasql.Parser;
+import com.google.zetasql.parser.ASTNode;
+import com.google.zetasql.parser.ASTBinaryExpressionEnums.Op;
+import com.google.zetasql.parser.ASTNodes.ASTBetweenExpression;
+import com.google.zetasql.parser.ASTNodes.ASTBinaryExpression;
+import com.google.zetasql.parser.ASTNodes.ASTBytesLiteral;
+import com.google.zetasql.parser.ASTNodes.ASTDeleteStatement;
+import com.google.zetasql.parser.ASTNodes.ASTExpression;
+import com.google.zetasql.parser.ASTNodes.ASTFloatLiteral;
+import com.google.zetasql.parser.ASTNodes.ASTGeneralizedPathExpression;
+import com.google.zetasql.parser.ASTNodes.ASTIdentifier;
+import com.google.zetasql.parser.ASTNodes.ASTInExpression;
+import com.google.zetasql.parser.ASTNodes.ASTInsertStatement;
+import com.google.zetasql.parser.ASTNodes.ASTIntLiteral;
+import com.google.zetasql.parser.ASTNodes.ASTLimitOffset;
+import com.google.zetasql.parser.ASTNodes.ASTMergeStatement;
+import com.google.zetasql.parser.ASTNodes.ASTPathExpression;
+import com.google.zetasql.parser.ASTNodes.ASTStatement;
+import com.google.zetasql.parser.ASTNodes.ASTStringLiteral;
+import com.google.zetasql.parser.ASTNodes.ASTTablePathExpression;
+import com.google.zetasql.parser.ASTNodes.ASTTruncateStatement;
+import com.google.zetasql.parser.ASTNodes.ASTUnaryExpression;
+import com.google.zetasql.parser.ASTNodes.ASTUpdateStatement;
+import com.google.zetasql.parser.ASTUnaryExpressionEnums;
+import com.google.zetasql.parser.ParseTreeVisitor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Identifies the template of a query: two queries that only differ in their whitespace,
+ * comments or the values of some literals have the same fingerprint, and are valid or invalid
+ * alike.
+ *
+ * The fingerprint is a hash of the query's parse tree, with the images of some literals
+ * replaced by placeholders. The analyzer checks the values of many literals: string literals
+ * coerced to DATE or TIMESTAMP, FORMAT strings, NUMERIC, JSON and DATE literals, integers out of
+ * the INT64 range, or arguments such as the one of NTILE. So a literal's value is only erased
+ * where it can't change whether the query is valid, which covers the literals that usually
+ * vary between runs of a query:
+ *
+ * <ul>
+ *   <li>Integers within the INT64 range, floats whose magnitude fits in a NUMERIC, and bytes,
+ *       when they are compared with =, !=, &lt;, &gt;, &lt;=, &gt;=, IN or BETWEEN</li>
+ *   <li>String and bytes patterns of LIKE</li>
+ *   <li>Integers within the INT64 range in LIMIT and OFFSET</li>
+ * </ul>
+ *
+ * A sign in front of the literal is kept. Every other literal keeps its value, e.g. a string
+ * compared to a column, which may be a DATE column.
+ *
+ * Fingerprints also record the tables the query references, as written in the query, so that
+ * cached results can be invalidated when those tables change.
+ */
+public final class QueryFingerprint {
+
+  private final HashCode hash;
+  private final ImmutableSet<String> tables;
+
+  private QueryFingerprint(HashCode hash, ImmutableSet<String> tables) {
+    this.hash = hash;
+    this.tables = tables;
+  }
+
+  /**
+   * Parses a query and computes its fingerprint.
+   *
+   * @param query The query to fingerprint
+   * @param languageOptions The LanguageOptions to parse the query with
+   * @return The fingerprint of the query
+   * @throws com.google.zetasql.SqlException if the query is not syntactically valid
+   */
+  public static QueryFingerprint of(String query, LanguageOptions languageOptions) {
+    return of(Parser.parseStatement(query, languageOptions));
+  }
+
+  /**
+   * Computes the fingerprint of a parsed statement.
+   *
+   * @param statement The parsed statement
+   * @return The fingerprint of the statement
+   */
+  public static QueryFingerprint of(ASTStatement statement) {
+    FingerprintVisitor visitor = new FingerprintVisitor();
+    statement.accept(visitor);
+    String normalizedTree = normalize(statement.toString(), visitor.literals);
+    return new QueryFingerprint(
+        Hashing.murmur3_128().hashUnencodedChars(normalizedTree),
+        ImmutableSet.copyOf(visitor.tables));
+  }
+
+  /**
+   * Replaces the literals in the debug string of a parse tree with placeholders. The debug
+   * string lists nodes in the same pre-order the visitor sees them, so each literal is searched
+   * for after the previous one. If a literal cannot be found, the tree is left as is; the
+   * fingerprint then only matches identical queries, but is never shared by different ones.
+   */
+  private static String normalize(String tree, List<ASTNode> literals) {
+    StringBuilder normalized = new StringBuilder(tree.length());
+    int position = 0;
+
+    for (ASTNode literal : literals) {
+      String image = literal.toString();
+      int start = tree.indexOf(image, position);
+      if (start < 0) {
+        return tree;
+      }
+      normalized.append(tree, position, start)
+          .append(literal.nodeKindString())
+          .append("(?)\n");
+      position = start + image.length();
+    }
+
+    return normalized.append(tree, position, tree.length()).toString();
+  }
+
+  /** The hash of the query's normalized parse tree */
+  public HashCode getHash() {
+    return hash;
+  }
+
+  /**
+   * The tables the query reads or modifies, in lowercase and as written in the query, e.g.
+   * {@code dataset.table}. May include the names of CTEs.
+   */
+  public ImmutableSet<String> getTables() {
+    return tables;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof QueryFingerprint)) {
+      return false;
+    }
+    return hash.equals(((QueryFingerprint) o).hash);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return hash.toString();
+  }
+
+  /**
+   * Table name as used for cache invalidation: lowercase, with quoted paths like
+   * {@code `dataset.table`} and unquoted ones like {@code dataset.table} written the same way.
+   */
+  static String tableKey(List<String> names) {
+    return names.stream()
+        .flatMap(name -> List.of(name.split("\\.")).stream())
+        .collect(Collectors.joining("."))
+        .toLowerCase(Locale.ROOT);
+  }
+
+  private static class FingerprintVisitor extends ParseTreeVisitor {
+
+    /** NUMERIC holds up to 29 integer digits */
+    private static final double MAX_ERASED_FLOAT = 1e28;
+
+    private static final ImmutableSet<Op> COMPARISONS =
+        ImmutableSet.of(Op.EQ, Op.NE, Op.NE2, Op.GT, Op.LT, Op.GE, Op.LE);
+
+    private final List<ASTNode> literals = new ArrayList<>();
+    private final Set<ASTNode> erasable = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<String> tables = new LinkedHashSet<>();
+
+    /**
+     * Marks an operand as erasable if it's a literal whose value can't change whether the query
+     * is valid.
+     *
+     * @param operand The operand of a comparison, LIKE or LIMIT, possibly null
+     * @param isPattern Whether the operand is the pattern of a LIKE, which makes strings erasable
+     */
+    private void markOperand(ASTExpression operand, boolean isPattern) {
+      ASTExpression expression = operand;
+      while (expression instanceof ASTUnaryExpression
+          && (((ASTUnaryExpression) expression).getOp() == ASTUnaryExpressionEnums.Op.MINUS
+              || ((ASTUnaryExpression) expression).getOp() == ASTUnaryExpressionEnums.Op.PLUS)) {
+        expression = ((ASTUnaryExpression) expression).getOperand();
+      }
+
+      boolean isErasable;
+      if (expression instanceof ASTIntLiteral) {
+        isErasable = isInt64(((ASTIntLiteral) expression).getImage());
+      } else if (expression instanceof ASTFloatLiteral) {
+        double value = Double.parseDouble(((ASTFloatLiteral) expression).getImage());
+        isErasable = Math.abs(value) < MAX_ERASED_FLOAT;
+      } else if (expression instanceof ASTBytesLiteral) {
+        isErasable = true;
+      } else {
+        isErasable = isPattern && expression instanceof ASTStringLiteral;
+      }
+
+      if (isErasable) {
+        erasable.add(expression);
+      }
+    }
+
+    private static boolean isInt64(String image) {
+      try {
+        if (image.startsWith("0x") || image.startsWith("0X")) {
+          Long.parseLong(image.substring(2), 16);
+        } else {
+          Long.parseLong(image);
+        }
+        return true;
+      } catch (NumberFormatException e) {
+        return false;
+      }
+    }
+
+    private void addTable(ASTGeneralizedPathExpression path) {
+      if (path instanceof ASTPathExpression) {
+        tables.add(tableKey(((ASTPathExpression) path).getNames().stream()
+            .map(ASTIdentifier::getIdString)
+            .collect(Collectors.toList())));
+      }
+    }
+
+    @Override
+    protected void defaultVisit(ASTNode node) {
+      if (erasable.contains(node)) {
+        literals.add(node);
+      }
+      super.defaultVisit(node);
+    }
+
+    @Override
+    public void visit(ASTBinaryExpression node) {
+      if (COMPARISONS.contains(node.getOp())) {
+        markOperand(node.getLhs(), false);
+        markOperand(node.getRhs(), false);
+      } else if (node.getOp() == Op.LIKE) {
+        markOperand(node.getRhs(), true);
+      }
+      super.visit(node);
+    }
+
+    @Override
+    public void visit(ASTInExpression node) {
+      markOperand(node.getLhs(), false);
+      if (node.getInList() != null) {
+        node.getInList().getList().forEach(item -> markOperand(item, false));
+      }
+      super.visit(node);
+    }
+
+    @Override
+    public void visit(ASTBetweenExpression node) {
+      markOperand(node.getLhs(), false);
+      markOperand(node.getLow(), false);
+      markOperand(node.getHigh(), false);
+      super.visit(node);
+    }
+
+    @Override
+    public void visit(ASTLimitOffset node) {
+      // Only integers are accepted, so this only erases ones within the INT64 range
+      markOperand(node.getLimit(), false);
+      markOperand(node.getOffset(), false);
+      super.visit(node);
+    }
+
+    @Override
+    public void visit(ASTTablePathExpression node) {
+      addTable(node.getPathExpr());
+      super.visit(node);
+    }
+
+    @Override
+    public void visit(ASTInsertStatement node) {
+      addTable(node.getTargetPath());
+      super.visit(node);
+    }
+
+    @Override
+    public void visit(ASTUpdateStatement node) {
+      addTable(node.getTargetPath());
+      super.visit(node);
+    }
+
+    @Override
+    public void visit(ASTDeleteStatement node) {
+      addTable(node.getTargetPath());
+      super.visit(node);
+    }
+
+    @Override
+    public void visit(ASTMergeStatement node) {
+      addTable(node.getTargetPath());
+      super.visit(node);
+    }
+
+    @Override
+    public void visit(ASTTruncateStatement node) {
+      addTable(node.getTargetPath());
+      super.visit(node);
+    }
+
+  }
+
+}
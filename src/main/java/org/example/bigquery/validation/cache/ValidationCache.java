@@ -0,0 +1,196 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.cache;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.zetasql.LanguageOptions;
+import com.google.zetasql.ZetaSQLOptions.LanguageFeature;
+import com.google.zetasql.ZetaSQLResolvedNodeKind.ResolvedNodeKind;
+import com.google.zetasql.ZetaSQLOptionsProto.LanguageOptionsProto;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Bounded, thread-safe cache of validation outcomes, keyed by query fingerprint, catalog version
+ * and LanguageOptions.
+ *
+ * When the cache is full, the least recently used entries are evicted first. Besides the
+ * entries themselves, the cache keeps an index from table name to the entries of the queries
+ * that reference the table, so that {@link #invalidateTable(String)} only drops the outcomes
+ * that could have changed.
+ *
+ * A cache can be shared by several {@link CachingValidator}s, even if they use different
+ * catalogs or LanguageOptions, since both are part of the key.
+ */
+public class ValidationCache {
+
+  private final Cache<Key, Outcome> outcomes;
+  private final ConcurrentMap<String, Set<Key>> keysByTable = new ConcurrentHashMap<>();
+
+  /**
+   * @param maximumSize The maximum number of outcomes to keep
+   */
+  public ValidationCache(long maximumSize) {
+    Preconditions.checkArgument(maximumSize > 0, "maximumSize must be positive");
+    this.outcomes = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .recordStats()
+        .removalListener(this::onRemoval)
+        .build();
+  }
+
+  Optional<Outcome> get(Key key) {
+    return Optional.ofNullable(outcomes.getIfPresent(key));
+  }
+
+  void put(Key key, Outcome outcome) {
+    // Index first, so that an entry evicted right after being added is also removed from the
+    // index by onRemoval
+    for (String table : outcome.tables) {
+      keysByTable.computeIfAbsent(table, unused -> ConcurrentHashMap.newKeySet()).add(key);
+    }
+    outcomes.put(key, outcome);
+  }
+
+  private void onRemoval(RemovalNotification<Key, Outcome> notification) {
+    if (notification.getCause() == RemovalCause.REPLACED) {
+      // The new outcome has the same fingerprint, so it references the same tables
+      return;
+    }
+    Key key = notification.getKey();
+    for (String table : notification.getValue().tables) {
+      keysByTable.computeIfPresent(table, (unused, keys) -> {
+        keys.remove(key);
+        return keys.isEmpty() ? null : keys;
+      });
+    }
+  }
+
+  /**
+   * Drops the outcomes of all queries that reference a table. Table names are matched
+   * case-insensitively and as written in the queries, so a table referenced both as
+   * {@code dataset.table} and {@code project.dataset.table} should be invalidated by both names.
+   *
+   * @param table The name of the table, e.g. {@code dataset.table}
+   */
+  public void invalidateTable(String table) {
+    Set<Key> keys = keysByTable.remove(table.toLowerCase(Locale.ROOT));
+    if (keys != null) {
+      outcomes.invalidateAll(keys);
+    }
+  }
+
+  /** Drops all outcomes */
+  public void invalidateAll() {
+    outcomes.invalidateAll();
+  }
+
+  /** The number of cached outcomes */
+  public long size() {
+    return outcomes.size();
+  }
+
+  /** Hit, miss and eviction counts since the cache was created */
+  public CacheStats getStats() {
+    return outcomes.stats();
+  }
+
+  static final class Key {
+
+    private final HashCode fingerprint;
+    private final long catalogVersion;
+    private final LanguageOptionsProto languageOptions;
+    private final int hashCode;
+
+    Key(QueryFingerprint fingerprint, long catalogVersion, LanguageOptionsProto languageOptions) {
+      this.fingerprint = fingerprint.getHash();
+      this.catalogVersion = catalogVersion;
+      this.languageOptions = languageOptions;
+      this.hashCode = Objects.hash(this.fingerprint, catalogVersion, languageOptions);
+    }
+
+    /**
+     * The serialized LanguageOptions, with features and statement kinds sorted, so that equal
+     * options built in a different order produce equal keys.
+     */
+    static LanguageOptionsProto languageOptionsKey(LanguageOptions languageOptions) {
+      LanguageOptionsProto proto = languageOptions.serialize();
+      return proto.toBuilder()
+          .clearEnabledLanguageFeatures()
+          .addAllEnabledLanguageFeatures(proto.getEnabledLanguageFeaturesList().stream()
+              .distinct()
+              .sorted(Comparator.comparingInt(LanguageFeature::getNumber))
+              .collect(ImmutableSet.toImmutableSet()))
+          .clearSupportedStatementKinds()
+          .addAllSupportedStatementKinds(proto.getSupportedStatementKindsList().stream()
+              .distinct()
+              .sorted(Comparator.comparingInt(ResolvedNodeKind::getNumber))
+              .collect(ImmutableSet.toImmutableSet()))
+          .build();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return catalogVersion == other.catalogVersion
+          && fingerprint.equals(other.fingerprint)
+          && languageOptions.equals(other.languageOptions);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+  }
+
+  /** A cached validation outcome: the error message, if the query was invalid */
+  static final class Outcome {
+
+    private final String errorMessage;
+    private final ImmutableSet<String> tables;
+
+    Outcome(String errorMessage, ImmutableSet<String> tables) {
+      this.errorMessage = errorMessage;
+      this.tables = tables;
+    }
+
+    Optional<String> getErrorMessage() {
+      return Optional.ofNullable(errorMessage);
+    }
+
+  }
+
+}
@@ -0,0 +1,446 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.example.bigquery.validation.catalog;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.zetasql.SimpleColumn;
+import com.google.zetasql.SimpleTable;
+import com.google.zetasql.TypeFactory;
+import com.google.zetasql.ZetaSQLType.TypeKind;
+import com.google.zetasql.toolkit.catalog.bigquery.BigQueryResourceProvider;
+import com.google.zetasql.toolkit.catalog.bigquery.FunctionInfo;
+import com.google.zetasql.toolkit.catalog.bigquery.ProcedureInfo;
+import com.google.zetasql.toolkit.catalog.bigquery.TVFInfo;
+import com.google.zetasql.toolkit.catalog.bigquery.exceptions.BigQueryResourceNotFound;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import org.example.bigquery.validation.catalog.CatalogSnapshotFormat.ResourceKind;
+
+/**
+ * {@link BigQueryResourceProvider} that caches the resources fetched by reference from the
+ * wrapped provider, e.g. the BigQuery API.
+ *
+ * Catalogs built per query or per script, with methods like
+ * {@code BigQueryCatalog.addAllTablesUsedInQuery}, fetch only what they use and are then
+ * discarded, so their memory is bounded by the query. Backing them with a shared cache keeps
+ * the metadata of frequently used resources without keeping a whole project resident:
+ * <ul>
+ *   <li>The cache is bounded by entry count or by an approximate byte budget, evicting the
+ *       least recently used entries first
+ *   <li>Entries older than the refresh interval are fetched again in the background the next
+ *       time they're used; until then, lookups keep getting the old entry without waiting
+ *   <li>Resources that don't exist are cached too, so repeated references to a missing table
+ *       fail without a fetch each time
+ *   <li>Concurrent lookups of an uncached resource wait for a single fetch
+ * </ul>
+ *
+ * Resources are identified by their fully qualified name, with the same case sensitivity as in
+ * catalog snapshots. Listing methods like {@link #getAllTablesInDataset} always go to the wrapped
+ * provider, and add their results to the cache. Errors other than "not found" are not cached.
+ */
+public class CachingResourceProvider implements BigQueryResourceProvider, AutoCloseable {
+
+  /** Rough per-entry overhead counted against the byte budget, besides name and resource */
+  private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+  private final BigQueryResourceProvider delegate;
+  private final ExecutorService refreshExecutor;
+  private final LoadingCache<ResourceKey, Optional<Object>> resources;
+  private final LongAdder negativeHits = new LongAdder();
+  private final LongAdder fetches = new LongAdder();
+  // Set when a fetch runs in the thread of the lookup, which it does for uncached entries;
+  // refreshes run on the refresh executor
+  private final ThreadLocal<Boolean> fetchedByLookup = ThreadLocal.withInitial(() -> false);
+
+  private CachingResourceProvider(BigQueryResourceProvider delegate, long maximumSize,
+      long maximumBytes, Duration refreshInterval, int refreshThreads) {
+    Preconditions.checkArgument(refreshThreads > 0, "refreshThreads must be positive");
+    this.delegate = delegate;
+    this.refreshExecutor = Executors.newFixedThreadPool(
+        refreshThreads,
+        new ThreadFactoryBuilder()
+            .setNameFormat("resource-cache-refresh-%d")
+            .setDaemon(true)
+            .build());
+
+    CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+        .refreshAfterWrite(refreshInterval)
+        .recordStats();
+    CacheLoader<ResourceKey, Optional<Object>> loader =
+        CacheLoader.asyncReloading(CacheLoader.from(this::fetch), refreshExecutor);
+
+    if (maximumBytes > 0) {
+      this.resources = builder
+          .maximumWeight(maximumBytes)
+          .weigher(CachingResourceProvider::weigh)
+          .build(loader);
+    } else {
+      this.resources = builder.maximumSize(maximumSize).build(loader);
+    }
+  }
+
+  /**
+   * Creates a cache bounded by entry count.
+   *
+   * @param delegate The provider to fetch resources from
+   * @param maximumSize The maximum number of resources to keep, including missing ones
+   * @param refreshInterval How old an entry can get before it's refreshed on its next use
+   */
+  public static CachingResourceProvider withMaximumSize(BigQueryResourceProvider delegate,
+      long maximumSize, Duration refreshInterval) {
+    Preconditions.checkArgument(maximumSize > 0, "maximumSize must be positive");
+    return new CachingResourceProvider(delegate, maximumSize, 0, refreshInterval, 4);
+  }
+
+  /**
+   * Creates a cache bounded by the approximate memory used by its resources, estimated from
+   * their serialized size as in catalog snapshots. In-memory resources are typically a few times
+   * larger than that, so leave some headroom.
+   *
+   * @param delegate The provider to fetch resources from
+   * @param maximumBytes The maximum estimated size of all cached resources
+   * @param refreshInterval How old an entry can get before it's refreshed on its next use
+   */
+  public static CachingResourceProvider withMaximumBytes(BigQueryResourceProvider delegate,
+      long maximumBytes, Duration refreshInterval) {
+    Preconditions.checkArgument(maximumBytes > 0, "maximumBytes must be positive");
+    return new CachingResourceProvider(delegate, 0, maximumBytes, refreshInterval, 4);
+  }
+
+  private Optional<Object> fetch(ResourceKey key) {
+    fetches.increment();
+    fetchedByLookup.set(true);
+    List<String> references = List.of(key.reference);
+    try {
+      List<?> fetched;
+      switch (key.kind) {
+        case TABLE:
+          fetched = delegate.getTables(key.projectId, references);
+          break;
+        case FUNCTION:
+          fetched = delegate.getFunctions(key.projectId, references);
+          break;
+        case TVF:
+          fetched = delegate.getTVFs(key.projectId, references);
+          break;
+        case PROCEDURE:
+          fetched = delegate.getProcedures(key.projectId, references);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown resource kind " + key.kind);
+      }
+      return fetched.isEmpty() ? Optional.empty() : Optional.of(fetched.get(0));
+    } catch (BigQueryResourceNotFound notFound) {
+      return Optional.empty();
+    }
+  }
+
+  private static int weigh(ResourceKey key, Optional<Object> resource) {
+    int size = ENTRY_OVERHEAD_BYTES + 2 * key.name.length();
+    if (resource.isEmpty()) {
+      return size;
+    }
+    Object value = resource.get();
+    switch (key.kind) {
+      case TABLE:
+        return size + CatalogSnapshotFormat.encodeTable((SimpleTable) value).length;
+      case FUNCTION:
+        return size + CatalogSnapshotFormat.encodeFunction((FunctionInfo) value).length;
+      case TVF:
+        return size + CatalogSnapshotFormat.encodeTVF((TVFInfo) value).length;
+      case PROCEDURE:
+        return size + CatalogSnapshotFormat.encodeProcedure((ProcedureInfo) value).length;
+      default:
+        return size;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> List<T> get(ResourceKind kind, String projectId, List<String> references) {
+    List<T> result = new ArrayList<>(references.size());
+    for (String reference : references) {
+      Optional<Object> resource;
+      fetchedByLookup.set(false);
+      try {
+        resource = resources.getUnchecked(new ResourceKey(kind, projectId, reference));
+      } catch (UncheckedExecutionException e) {
+        Throwables.throwIfUnchecked(e.getCause());
+        throw e;
+      }
+      if (resource.isEmpty()) {
+        if (!fetchedByLookup.get()) {
+          negativeHits.increment();
+        }
+        throw new BigQueryResourceNotFound(reference);
+      }
+      result.add((T) resource.get());
+    }
+    return result;
+  }
+
+  private <T> List<T> cacheAll(ResourceKind kind, List<T> fetched, Function<T, String> name) {
+    for (T resource : fetched) {
+      String fullName = name.apply(resource);
+      String projectId = fullName.substring(0, fullName.indexOf('.'));
+      resources.put(new ResourceKey(kind, projectId, fullName), Optional.of(resource));
+    }
+    return fetched;
+  }
+
+  private static String namePath(List<String> namePath) {
+    return String.join(".", namePath);
+  }
+
+  @Override
+  public List<SimpleTable> getTables(String projectId, List<String> tableReferences) {
+    return get(ResourceKind.TABLE, projectId, tableReferences);
+  }
+
+  @Override
+  public List<SimpleTable> getAllTablesInDataset(String projectId, String datasetName) {
+    return cacheAll(ResourceKind.TABLE,
+        delegate.getAllTablesInDataset(projectId, datasetName), SimpleTable::getFullName);
+  }
+
+  @Override
+  public List<SimpleTable> getAllTablesInProject(String projectId) {
+    return cacheAll(ResourceKind.TABLE,
+        delegate.getAllTablesInProject(projectId), SimpleTable::getFullName);
+  }
+
+  @Override
+  public List<FunctionInfo> getFunctions(String projectId, List<String> functionReferences) {
+    return get(ResourceKind.FUNCTION, projectId, functionReferences);
+  }
+
+  @Override
+  public List<FunctionInfo> getAllFunctionsInDataset(String projectId, String datasetName) {
+    return cacheAll(ResourceKind.FUNCTION,
+        delegate.getAllFunctionsInDataset(projectId, datasetName),
+        function -> namePath(function.getNamePath()));
+  }
+
+  @Override
+  public List<FunctionInfo> getAllFunctionsInProject(String projectId) {
+    return cacheAll(ResourceKind.FUNCTION,
+        delegate.getAllFunctionsInProject(projectId),
+        function -> namePath(function.getNamePath()));
+  }
+
+  @Override
+  public List<TVFInfo> getTVFs(String projectId, List<String> functionReferences) {
+    return get(ResourceKind.TVF, projectId, functionReferences);
+  }
+
+  @Override
+  public List<TVFInfo> getAllTVFsInDataset(String projectId, String datasetName) {
+    return cacheAll(ResourceKind.TVF,
+        delegate.getAllTVFsInDataset(projectId, datasetName),
+        tvf -> namePath(tvf.getNamePath()));
+  }
+
+  @Override
+  public List<TVFInfo> getAllTVFsInProject(String projectId) {
+    return cacheAll(ResourceKind.TVF,
+        delegate.getAllTVFsInProject(projectId), tvf -> namePath(tvf.getNamePath()));
+  }
+
+  @Override
+  public List<ProcedureInfo> getProcedures(String projectId, List<String> procedureReferences) {
+    return get(ResourceKind.PROCEDURE, projectId, procedureReferences);
+  }
+
+  @Override
+  public List<ProcedureInfo> getAllProceduresInDataset(String projectId, String datasetName) {
+    return cacheAll(ResourceKind.PROCEDURE,
+        delegate.getAllProceduresInDataset(projectId, datasetName),
+        procedure -> namePath(procedure.getNamePath()));
+  }
+
+  @Override
+  public List<ProcedureInfo> getAllProceduresInProject(String projectId) {
+    return cacheAll(ResourceKind.PROCEDURE,
+        delegate.getAllProceduresInProject(projectId),
+        procedure -> namePath(procedure.getNamePath()));
+  }
+
+  /**
+   * Drops a table from the cache, so that its next use fetches it again.
+   *
+   * @param projectId The project the reference is relative to
+   * @param reference The table, e.g. {@code dataset.table}
+   */
+  public void invalidateTable(String projectId, String reference) {
+    resources.invalidate(new ResourceKey(ResourceKind.TABLE, projectId, reference));
+  }
+
+  /** Drops all cached resources */
+  public void invalidateAll() {
+    resources.invalidateAll();
+  }
+
+  /** The number of cached resources, including missing ones */
+  public long size() {
+    return resources.size();
+  }
+
+  /**
+   * Hit, miss, load and eviction counts since the cache was created. Loads include background
+   * refreshes.
+   */
+  public CacheStats getStats() {
+    return resources.stats();
+  }
+
+  /** The number of lookups answered from the cache with "not found" */
+  public long getNegativeHitCount() {
+    return negativeHits.sum();
+  }
+
+  /** The number of calls made to the wrapped provider to fetch a single resource */
+  public long getFetchCount() {
+    return fetches.sum();
+  }
+
+  /** Stops background refreshes */
+  @Override
+  public void close() {
+    refreshExecutor.shutdownNow();
+  }
+
+  private static SimpleTable table(String fullName, String... columns) {
+    List<SimpleColumn> simpleColumns = new ArrayList<>();
+    for (String column : columns) {
+      simpleColumns.add(new SimpleColumn(
+          fullName, column, TypeFactory.createSimpleType(TypeKind.TYPE_STRING)));
+    }
+    return new SimpleTable(fullName, simpleColumns);
+  }
+
+  /**
+   * Shows the cache in front of a slow in-memory provider: concurrent lookups sharing a fetch,
+   * cached misses, background refresh picking up a schema change, and eviction.
+   */
+  public static void main(String[] args) throws InterruptedException {
+    InMemoryResourceProvider provider = new InMemoryResourceProvider(Duration.ofMillis(50));
+    for (int i = 0; i < 1_000; i++) {
+      provider.addTable(table(String.format("project.dataset.table_%d", i), "id", "name"));
+    }
+
+    Duration refreshInterval = Duration.ofMillis(500);
+    try (CachingResourceProvider cache =
+        CachingResourceProvider.withMaximumSize(provider, 100, refreshInterval)) {
+      int threads = 16;
+      CountDownLatch done = new CountDownLatch(threads);
+      AtomicLong failures = new AtomicLong();
+      for (int i = 0; i < threads; i++) {
+        new Thread(() -> {
+          try {
+            cache.getTables("project", List.of("dataset.table_0"));
+          } catch (RuntimeException e) {
+            failures.incrementAndGet();
+          } finally {
+            done.countDown();
+          }
+        }).start();
+      }
+      done.await();
+      System.out.printf(
+          "%d concurrent lookups, %d failed: %d fetch(es)%n",
+          threads, failures.get(), provider.getCallCount());
+
+      for (int i = 0; i < 3; i++) {
+        try {
+          cache.getTables("project", List.of("dataset.missing"));
+        } catch (BigQueryResourceNotFound expected) {
+          // Expected, but only the first lookup should fetch
+        }
+      }
+      System.out.printf(
+          "3 lookups of a missing table: %d negative hits, %d fetches so far%n",
+          cache.getNegativeHitCount(), provider.getCallCount());
+
+      provider.addTable(table("project.dataset.table_0", "id", "name", "created_at"));
+      Thread.sleep(refreshInterval.toMillis() + 100);
+      int staleColumns = cache.getTables("project", List.of("dataset.table_0"))
+          .get(0).getColumnCount();
+      Thread.sleep(200);
+      int refreshedColumns = cache.getTables("project", List.of("dataset.table_0"))
+          .get(0).getColumnCount();
+      System.out.printf(
+          "After a schema change: %d columns while refreshing, %d after%n",
+          staleColumns, refreshedColumns);
+
+      for (int i = 0; i < 500; i++) {
+        cache.getTables("project", List.of(String.format("dataset.table_%d", i)));
+      }
+      System.out.printf("%d entries cached, %s%n", cache.size(), cache.getStats());
+    }
+  }
+
+  /** A resource, by its fully qualified name. Keeps the reference it was first requested by */
+  private static final class ResourceKey {
+
+    private final ResourceKind kind;
+    private final String name;
+    private final String projectId;
+    private final String reference;
+
+    private ResourceKey(ResourceKind kind, String projectId, String reference) {
+      this.kind = kind;
+      this.name = CatalogSnapshotFormat.canonicalName(
+          CatalogSnapshotResourceProvider.qualify(projectId, reference));
+      this.projectId = projectId;
+      this.reference = reference;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof ResourceKey)) {
+        return false;
+      }
+      ResourceKey other = (ResourceKey) o;
+      return kind == other.kind && name.equals(other.name);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * kind.hashCode() + name.hashCode();
+    }
+
+  }
+
+}
@@ -0,0 +1,453 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.example.bigquery.validation.catalog;
+
+import com.google.cloud.BaseServiceException;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.zetasql.SimpleColumn;
+import com.google.zetasql.SimpleTable;
+import com.google.zetasql.TypeFactory;
+import com.google.zetasql.ZetaSQLType.TypeKind;
+import com.google.zetasql.toolkit.catalog.bigquery.BigQueryAPIResourceProvider;
+import com.google.zetasql.toolkit.catalog.bigquery.BigQueryResourceProvider;
+import com.google.zetasql.toolkit.catalog.bigquery.exceptions.BigQueryResourceNotFound;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import org.example.bigquery.validation.catalog.CatalogSnapshotFormat.ResourceKind;
+
+/**
+ * Snapshots a whole project by fetching its datasets concurrently, as an alternative to
+ * {@link CatalogSnapshotWriter#writeProject}, which fetches one resource after another.
+ *
+ * The crawl is split into units, one per dataset and kind of resource, fetched by a fixed
+ * number of threads. Calls to the provider go through a token bucket, so the crawl stays under
+ * the API's rate limits however many threads run. Calls failing with a transient error, such as
+ * a 429 or 5xx from the BigQuery API, are retried with exponential backoff and jitter.
+ *
+ * Every finished unit is saved to a checkpoint directory before moving on. Running the crawl
+ * again with the same directory skips the saved units, so an interrupted or partly failed crawl
+ * resumes where it stopped. Once every unit is saved, the units are assembled into a catalog
+ * snapshot for {@link CatalogSnapshotResourceProvider}, and the checkpoint is deleted.
+ *
+ * Rate limits apply to provider calls. A BigQueryAPIResourceProvider makes one API call per
+ * resource within a single provider call, so set the rate accordingly, or rely on the BigQuery
+ * client's own retries for throttling within a call.
+ */
+public class CatalogCrawler implements AutoCloseable {
+
+  private static final String DATASETS_FILE = "datasets.txt";
+  private static final String UNIT_SUFFIX = ".unit";
+
+  /** HTTP status codes of errors worth retrying */
+  private static final ImmutableSet<Integer> TRANSIENT_CODES =
+      ImmutableSet.of(408, 429, 500, 502, 503, 504);
+
+  private final BigQueryResourceProvider provider;
+  private final DatasetLister datasetLister;
+  private final ExecutorService executor;
+  private final RateLimiter rateLimiter;
+  private final int maxAttempts;
+  private final Duration initialBackoff;
+  private final Duration maxBackoff;
+
+  /**
+   * Creates a crawler retrying transient errors up to 5 times, starting with a 500ms backoff.
+   *
+   * @param provider The provider to fetch resources from
+   * @param datasetLister Lists the datasets of the project
+   * @param concurrency The number of provider calls to make at once
+   * @param callsPerSecond The maximum rate of provider calls, retries included
+   */
+  public CatalogCrawler(BigQueryResourceProvider provider, DatasetLister datasetLister,
+      int concurrency, double callsPerSecond) {
+    this(provider, datasetLister, concurrency, callsPerSecond, 6, Duration.ofMillis(500),
+        Duration.ofSeconds(30));
+  }
+
+  /**
+   * @param provider The provider to fetch resources from
+   * @param datasetLister Lists the datasets of the project
+   * @param concurrency The number of provider calls to make at once
+   * @param callsPerSecond The maximum rate of provider calls, retries included
+   * @param maxAttempts How many times to try a call with transient errors before giving up
+   * @param initialBackoff The wait before the first retry, doubled on every retry
+   * @param maxBackoff The longest wait between retries
+   */
+  public CatalogCrawler(BigQueryResourceProvider provider, DatasetLister datasetLister,
+      int concurrency, double callsPerSecond, int maxAttempts, Duration initialBackoff,
+      Duration maxBackoff) {
+    Preconditions.checkArgument(concurrency > 0, "concurrency must be positive");
+    Preconditions.checkArgument(callsPerSecond > 0, "callsPerSecond must be positive");
+    Preconditions.checkArgument(maxAttempts > 0, "maxAttempts must be positive");
+    this.provider = provider;
+    this.datasetLister = datasetLister;
+    this.rateLimiter = RateLimiter.create(callsPerSecond);
+    this.maxAttempts = maxAttempts;
+    this.initialBackoff = initialBackoff;
+    this.maxBackoff = maxBackoff;
+    this.executor = Executors.newFixedThreadPool(
+        concurrency,
+        new ThreadFactoryBuilder()
+            .setNameFormat("catalog-crawler-%d")
+            .setDaemon(true)
+            .build());
+  }
+
+  /**
+   * Crawls a project into a catalog snapshot, resuming from the checkpoint if there is one.
+   *
+   * @param projectId The project to crawl
+   * @param checkpointDirectory Where to save progress; created if missing
+   * @param output The snapshot file to write once every unit is fetched
+   * @return The outcome. If some units failed, no snapshot is written, and crawling again
+   *     retries only those units.
+   * @throws IOException if the checkpoint or the snapshot can't be read or written
+   */
+  public CrawlResult crawl(String projectId, Path checkpointDirectory, Path output)
+      throws IOException {
+    long startTime = System.nanoTime();
+    Files.createDirectories(checkpointDirectory);
+    LongAdder retries = new LongAdder();
+
+    List<String> datasets = loadOrListDatasets(projectId, checkpointDirectory, retries);
+
+    List<Unit> units = new ArrayList<>();
+    int resumed = 0;
+    for (String dataset : datasets) {
+      for (ResourceKind kind : ResourceKind.values()) {
+        Unit unit = new Unit(dataset, kind, checkpointDirectory);
+        if (Files.exists(unit.file)) {
+          resumed++;
+        } else {
+          units.add(unit);
+        }
+      }
+    }
+
+    Map<String, String> failures = new ConcurrentHashMap<>();
+    AtomicInteger fetched = new AtomicInteger();
+    AtomicLong resources = new AtomicLong();
+    List<Future<?>> futures = new ArrayList<>(units.size());
+    for (Unit unit : units) {
+      futures.add(executor.submit(() -> {
+        try {
+          resources.addAndGet(fetchUnit(projectId, unit, retries));
+          fetched.incrementAndGet();
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+          failures.put(unit.toString(), String.valueOf(e.getMessage()));
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while crawling", e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof UncheckedIOException) {
+          throw ((UncheckedIOException) e.getCause()).getCause();
+        }
+        throw new IllegalStateException(e.getCause());
+      }
+    }
+
+    long resourceCount = resources.get();
+    if (failures.isEmpty()) {
+      resourceCount = assemble(datasets, checkpointDirectory, output);
+    }
+
+    return new CrawlResult(datasets.size(), resumed, fetched.get(), failures, resourceCount,
+        retries.sum(), Duration.ofNanos(System.nanoTime() - startTime));
+  }
+
+  /** Lists the datasets, or reads the list saved by an earlier run, so resumed runs agree */
+  private List<String> loadOrListDatasets(String projectId, Path checkpointDirectory,
+      LongAdder retries) throws IOException {
+    Path datasetsFile = checkpointDirectory.resolve(DATASETS_FILE);
+    if (Files.exists(datasetsFile)) {
+      return Files.readAllLines(datasetsFile, StandardCharsets.UTF_8);
+    }
+    List<String> datasets = withRetries(() -> datasetLister.listDatasets(projectId), retries);
+    writeAtomically(datasetsFile, out -> {
+      for (String dataset : datasets) {
+        out.write((dataset + "\n").getBytes(StandardCharsets.UTF_8));
+      }
+    });
+    return datasets;
+  }
+
+  /** Fetches a unit and saves it to the checkpoint, returning the number of resources */
+  private int fetchUnit(String projectId, Unit unit, LongAdder retries) throws IOException {
+    List<String> names = new ArrayList<>();
+    List<byte[]> encoded = new ArrayList<>();
+    withRetries(() -> {
+      names.clear();
+      encoded.clear();
+      try {
+        encode(projectId, unit, names, encoded);
+      } catch (BigQueryResourceNotFound notFound) {
+        // The dataset was deleted after being listed
+      }
+      return null;
+    }, retries);
+
+    writeAtomically(unit.file, out -> {
+      DataOutputStream data = new DataOutputStream(out);
+      data.writeInt(names.size());
+      for (int i = 0; i < names.size(); i++) {
+        data.writeUTF(names.get(i));
+        data.writeInt(encoded.get(i).length);
+        data.write(encoded.get(i));
+      }
+      data.flush();
+    });
+    return names.size();
+  }
+
+  private void encode(String projectId, Unit unit, List<String> names, List<byte[]> encoded) {
+    switch (unit.kind) {
+      case TABLE:
+        provider.getAllTablesInDataset(projectId, unit.dataset).forEach(table -> {
+          names.add(table.getFullName());
+          encoded.add(CatalogSnapshotFormat.encodeTable(table));
+        });
+        break;
+      case FUNCTION:
+        provider.getAllFunctionsInDataset(projectId, unit.dataset).forEach(function -> {
+          names.add(String.join(".", function.getNamePath()));
+          encoded.add(CatalogSnapshotFormat.encodeFunction(function));
+        });
+        break;
+      case TVF:
+        provider.getAllTVFsInDataset(projectId, unit.dataset).forEach(tvf -> {
+          names.add(String.join(".", tvf.getNamePath()));
+          encoded.add(CatalogSnapshotFormat.encodeTVF(tvf));
+        });
+        break;
+      case PROCEDURE:
+        provider.getAllProceduresInDataset(projectId, unit.dataset).forEach(procedure -> {
+          names.add(String.join(".", procedure.getNamePath()));
+          encoded.add(CatalogSnapshotFormat.encodeProcedure(procedure));
+        });
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown resource kind " + unit.kind);
+    }
+  }
+
+  /** Writes the saved units into a snapshot and deletes the checkpoint */
+  private long assemble(List<String> datasets, Path checkpointDirectory, Path output)
+      throws IOException {
+    long resourceCount = 0;
+    List<Path> files = new ArrayList<>();
+    try (CatalogSnapshotWriter writer = new CatalogSnapshotWriter(output)) {
+      for (String dataset : datasets) {
+        for (ResourceKind kind : ResourceKind.values()) {
+          Unit unit = new Unit(dataset, kind, checkpointDirectory);
+          files.add(unit.file);
+          try (DataInputStream data = new DataInputStream(
+              new BufferedInputStream(Files.newInputStream(unit.file)))) {
+            int count = data.readInt();
+            for (int i = 0; i < count; i++) {
+              String name = data.readUTF();
+              byte[] encoded = new byte[data.readInt()];
+              data.readFully(encoded);
+              writer.add(kind, name, encoded);
+            }
+            resourceCount += count;
+          }
+        }
+      }
+      writer.commit();
+    }
+
+    for (Path file : files) {
+      Files.delete(file);
+    }
+    Files.delete(checkpointDirectory.resolve(DATASETS_FILE));
+    return resourceCount;
+  }
+
+  private interface Writer {
+    void write(OutputStream out) throws IOException;
+  }
+
+  /** Writes a file so that it either exists with all its content or doesn't exist */
+  private static void writeAtomically(Path file, Writer writer) throws IOException {
+    Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+    try {
+      try (BufferedOutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+        writer.write(out);
+      }
+      Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  private <T> T withRetries(Supplier<T> call, LongAdder retries) {
+    long backoffMillis = initialBackoff.toMillis();
+    for (int attempt = 1; ; attempt++) {
+      rateLimiter.acquire();
+      try {
+        return call.get();
+      } catch (RuntimeException e) {
+        if (attempt >= maxAttempts || !isTransient(e)) {
+          throw e;
+        }
+      }
+      retries.increment();
+      // Full jitter, so that threads throttled together don't retry together
+      Uninterruptibles.sleepUninterruptibly(
+          Duration.ofMillis(ThreadLocalRandom.current().nextLong(backoffMillis + 1)));
+      backoffMillis = Math.min(backoffMillis * 2, maxBackoff.toMillis());
+    }
+  }
+
+  /** Whether an error, or any of its causes, is a BigQuery error worth retrying */
+  static boolean isTransient(Throwable error) {
+    for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+      if (cause instanceof BaseServiceException) {
+        BaseServiceException serviceError = (BaseServiceException) cause;
+        return serviceError.isRetryable() || TRANSIENT_CODES.contains(serviceError.getCode());
+      }
+      if (cause instanceof IOException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  /** A provider with {@code datasetCount} datasets of 25 tables, throttled at the given rate */
+  private static InMemoryResourceProvider stubProvider(String projectId, int datasetCount,
+      double maxCallsPerSecond) {
+    InMemoryResourceProvider provider =
+        new InMemoryResourceProvider(Duration.ofMillis(50), maxCallsPerSecond);
+    for (int i = 0; i < datasetCount; i++) {
+      for (int j = 0; j < 25; j++) {
+        String fullName = String.format("%s.dataset_%d.table_%d", projectId, i, j);
+        provider.addTable(new SimpleTable(fullName, List.of(
+            new SimpleColumn(fullName, "id", TypeFactory.createSimpleType(TypeKind.TYPE_INT64)),
+            new SimpleColumn(
+                fullName, "name", TypeFactory.createSimpleType(TypeKind.TYPE_STRING)))));
+      }
+    }
+    return provider;
+  }
+
+  /**
+   * Crawls a project into a snapshot, resuming from the checkpoint directory if it has one.
+   * With {@code --stub}, crawls a generated project of 200 datasets served with latency and
+   * throttled at half the crawl rate, so that retries and resuming can be tried locally.
+   *
+   * Usage: {@code CatalogCrawler [--stub] <projectId> <checkpointDir> <snapshotFile>
+   * [concurrency] [callsPerSecond]}
+   */
+  public static void main(String[] args) throws IOException {
+    boolean stub = args.length > 0 && args[0].equals("--stub");
+    int first = stub ? 1 : 0;
+    if (args.length - first < 3 || args.length - first > 5) {
+      System.err.println("Usage: CatalogCrawler [--stub] <projectId> <checkpointDir> "
+          + "<snapshotFile> [concurrency] [callsPerSecond]");
+      System.exit(1);
+    }
+
+    String projectId = args[first];
+    Path checkpointDirectory = Paths.get(args[first + 1]);
+    Path output = Paths.get(args[first + 2]);
+    int concurrency = args.length - first > 3 ? Integer.parseInt(args[first + 3]) : 16;
+    double callsPerSecond = args.length - first > 4 ? Double.parseDouble(args[first + 4]) : 50;
+
+    BigQueryResourceProvider provider;
+    DatasetLister datasetLister;
+    if (stub) {
+      InMemoryResourceProvider stubProvider =
+          stubProvider(projectId, 200, callsPerSecond / 2);
+      provider = stubProvider;
+      datasetLister = stubProvider;
+    } else {
+      provider = BigQueryAPIResourceProvider.buildDefault();
+      datasetLister = DatasetLister.usingBigQueryAPI();
+    }
+
+    try (CatalogCrawler crawler =
+        new CatalogCrawler(provider, datasetLister, concurrency, callsPerSecond)) {
+      CrawlResult result = crawler.crawl(projectId, checkpointDirectory, output);
+      System.out.println(result);
+      result.getFailedUnits().forEach(
+          (unit, error) -> System.out.println("Failed " + unit + ": " + error));
+    }
+  }
+
+  /** One kind of resource in one dataset, and the checkpoint file it's saved to */
+  private static final class Unit {
+
+    private final String dataset;
+    private final ResourceKind kind;
+    private final Path file;
+
+    private Unit(String dataset, ResourceKind kind, Path checkpointDirectory) {
+      this.dataset = dataset;
+      this.kind = kind;
+      this.file = checkpointDirectory.resolve(dataset + "." + kind + UNIT_SUFFIX);
+    }
+
+    @Override
+    public String toString() {
+      return dataset + "/" + kind;
+    }
+
+  }
+
+}
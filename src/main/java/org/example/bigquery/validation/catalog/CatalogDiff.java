@@ -0,0 +1,245 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.catalog;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.zetasql.SimpleTableProtos.SimpleTableProto;
+import com.google.zetasql.toolkit.catalog.bigquery.exceptions.BigQueryCatalogException;
+import com.google.zetasql.toolkit.catalog.bigquery.exceptions.InvalidBigQueryReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Stream;
+import org.example.bigquery.validation.catalog.CatalogSnapshotFormat.ResourceKind;
+
+/**
+ * The resources that differ between two versions of a catalog: the tables, functions, TVFs and
+ * procedures that were added, removed or modified, by lower-cased, fully qualified name. Names
+ * are matched against references ignoring case, which can only over-report affected queries.
+ *
+ * {@link #between} computes it from two catalog snapshots with a single merge of their sorted
+ * indexes, comparing serialized resources byte by byte; resources are only deserialized when
+ * their bytes differ. A query that references none of the changed resources is guaranteed to
+ * get the same verdict against both catalogs, which {@link #affects} checks.
+ */
+public final class CatalogDiff {
+
+  /** Above this many changed names, {@link #mayAffect} stops scanning and always says yes */
+  private static final int MAX_TEXTUAL_NAMES = 256;
+
+  private final ImmutableSet<String> tables;
+  private final ImmutableSet<String> functions;
+  private final ImmutableSet<String> tvfs;
+  private final ImmutableSet<String> procedures;
+  private final ImmutableSet<String> resourceNames;
+
+  /**
+   * @param tables The fully qualified names of the tables that changed
+   * @param functions The fully qualified names of the functions that changed
+   * @param tvfs The fully qualified names of the TVFs that changed
+   * @param procedures The fully qualified names of the procedures that changed
+   */
+  public CatalogDiff(
+      Collection<String> tables,
+      Collection<String> functions,
+      Collection<String> tvfs,
+      Collection<String> procedures) {
+    this.tables = normalize(tables);
+    this.functions = normalize(functions);
+    this.tvfs = normalize(tvfs);
+    this.procedures = normalize(procedures);
+    this.resourceNames = Stream.of(this.tables, this.functions, this.tvfs, this.procedures)
+        .flatMap(Set::stream)
+        .map(name -> name.substring(name.lastIndexOf('.') + 1))
+        .collect(ImmutableSet.toImmutableSet());
+  }
+
+  private static ImmutableSet<String> normalize(Collection<String> names) {
+    return names.stream()
+        .map(name -> name.replace("`", "").toLowerCase(Locale.ROOT))
+        .collect(ImmutableSet.toImmutableSet());
+  }
+
+  /**
+   * Diffs two catalog snapshots. Tables are compared ignoring their serialization ids, which
+   * differ between crawls even when nothing changed.
+   *
+   * @param before The snapshot of the current catalog
+   * @param after The snapshot of the changed catalog
+   * @return The resources added, removed or modified in {@code after}
+   */
+  public static CatalogDiff between(
+      CatalogSnapshotResourceProvider before, CatalogSnapshotResourceProvider after) {
+    List<List<String>> changed = new ArrayList<>();
+    for (int i = 0; i < ResourceKind.values().length; i++) {
+      changed.add(new ArrayList<>());
+    }
+
+    int beforeEntry = 0;
+    int afterEntry = 0;
+    while (beforeEntry < before.getResourceCount() || afterEntry < after.getResourceCount()) {
+      int comparison;
+      if (beforeEntry == before.getResourceCount()) {
+        comparison = 1;
+      } else if (afterEntry == after.getResourceCount()) {
+        comparison = -1;
+      } else {
+        comparison = Integer.compare(before.kindAt(beforeEntry), after.kindAt(afterEntry));
+        if (comparison == 0) {
+          comparison = Arrays.compareUnsigned(
+              before.nameKeyAt(beforeEntry), after.nameKeyAt(afterEntry));
+        }
+      }
+
+      if (comparison < 0) {
+        addName(changed, before, beforeEntry++);
+      } else if (comparison > 0) {
+        addName(changed, after, afterEntry++);
+      } else {
+        if (!sameResource(before, beforeEntry, after, afterEntry)) {
+          addName(changed, after, afterEntry);
+        }
+        beforeEntry++;
+        afterEntry++;
+      }
+    }
+
+    return new CatalogDiff(
+        changed.get(ResourceKind.TABLE.ordinal()),
+        changed.get(ResourceKind.FUNCTION.ordinal()),
+        changed.get(ResourceKind.TVF.ordinal()),
+        changed.get(ResourceKind.PROCEDURE.ordinal()));
+  }
+
+  private static void addName(
+      List<List<String>> changed, CatalogSnapshotResourceProvider snapshot, int entry) {
+    changed.get(snapshot.kindAt(entry))
+        .add(new String(snapshot.nameKeyAt(entry), StandardCharsets.UTF_8));
+  }
+
+  private static boolean sameResource(CatalogSnapshotResourceProvider before, int beforeEntry,
+      CatalogSnapshotResourceProvider after, int afterEntry) {
+    ByteBuffer beforeData = before.dataAt(beforeEntry);
+    ByteBuffer afterData = after.dataAt(afterEntry);
+    if (beforeData.equals(afterData)) {
+      return true;
+    }
+    if (before.kindAt(beforeEntry) != ResourceKind.TABLE.ordinal()) {
+      return false;
+    }
+    try {
+      return withoutSerializationId(beforeData).equals(withoutSerializationId(afterData));
+    } catch (InvalidProtocolBufferException e) {
+      throw new BigQueryCatalogException("Corrupt catalog snapshot entry", e);
+    }
+  }
+
+  private static SimpleTableProto withoutSerializationId(ByteBuffer data)
+      throws InvalidProtocolBufferException {
+    return SimpleTableProto.parseFrom(data).toBuilder().clearSerializationId().build();
+  }
+
+  public ImmutableSet<String> getTables() {
+    return tables;
+  }
+
+  public ImmutableSet<String> getFunctions() {
+    return functions;
+  }
+
+  public ImmutableSet<String> getTVFs() {
+    return tvfs;
+  }
+
+  public ImmutableSet<String> getProcedures() {
+    return procedures;
+  }
+
+  /** The total number of changed resources */
+  public int size() {
+    return tables.size() + functions.size() + tvfs.size() + procedures.size();
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * A textual check, much cheaper than parsing, for whether a query may reference a changed
+   * resource: whether it contains the last part of the name of any of them, ignoring case.
+   * When it returns false, {@link #affects} would too, unless the query spells the names it
+   * references with escape sequences in quoted identifiers.
+   */
+  public boolean mayAffect(String query) {
+    if (resourceNames.size() > MAX_TEXTUAL_NAMES) {
+      return true;
+    }
+    String lowerCaseQuery = query.toLowerCase(Locale.ROOT);
+    for (String name : resourceNames) {
+      if (lowerCaseQuery.contains(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Whether any of the resources a query references changed. References that can't be
+   * qualified are conservatively assumed to be affected.
+   *
+   * @param defaultProjectId The project unqualified references belong to
+   * @param references The query's references, as collected by {@link ReferencedResourceCollector}
+   */
+  public boolean affects(String defaultProjectId, ReferencedResources references) {
+    return anyChanged(defaultProjectId, references.getTables(), tables)
+        || anyChanged(defaultProjectId, references.getFunctions(), functions)
+        || anyChanged(defaultProjectId, references.getTVFs(), tvfs)
+        || anyChanged(defaultProjectId, references.getProcedures(), procedures);
+  }
+
+  private static boolean anyChanged(
+      String defaultProjectId, Set<String> references, Set<String> changed) {
+    if (changed.isEmpty()) {
+      return false;
+    }
+    for (String reference : references) {
+      try {
+        String name = CatalogSnapshotResourceProvider.qualify(defaultProjectId, reference);
+        if (changed.contains(name.toLowerCase(Locale.ROOT))) {
+          return true;
+        }
+      } catch (InvalidBigQueryReference e) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "CatalogDiff{tables=%s, functions=%s, tvfs=%s, procedures=%s}",
+        tables, functions, tvfs, procedures);
+  }
+
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.catalog;
+
+import com.google.common.collect.ImmutableList;
+import com.google.zetasql.SimpleCatalog;
+import com.google.zetasql.SimpleTable;
+import com.google.zetasql.resolvedast.ResolvedCreateStatementEnums.CreateMode;
+import com.google.zetasql.resolvedast.ResolvedCreateStatementEnums.CreateScope;
+import com.google.zetasql.toolkit.catalog.CatalogOperations;
+import com.google.zetasql.toolkit.catalog.CatalogWrapper;
+import com.google.zetasql.toolkit.catalog.bigquery.FunctionInfo;
+import com.google.zetasql.toolkit.catalog.bigquery.ProcedureInfo;
+import com.google.zetasql.toolkit.catalog.bigquery.TVFInfo;
+import com.google.zetasql.toolkit.catalog.bigquery.exceptions.BigQueryCreateError;
+import com.google.zetasql.toolkit.catalog.exceptions.CatalogResourceAlreadyExists;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Copy-on-write {@link CatalogWrapper} that layers the effects of a script's DDL statements over
+ * a shared base catalog, without copying or modifying the base.
+ *
+ * The base is a SimpleCatalog built once, usually by a BigQueryCatalog, and must not be modified
+ * while overlays use it. Until a script creates or drops something, the overlay is the base
+ * itself. The first change shallow-copies the root catalog and, for each modified resource, the
+ * nested catalogs on the path to it; everything else, including every table and function object,
+ * stays shared with the base. A change costs as much as the number of entries in the copied
+ * catalogs, rather than a full serialization round-trip of the whole catalog like
+ * {@link CatalogWrapper#copy()}.
+ *
+ * <pre>{@code
+ * SimpleCatalog base = bigQueryCatalog.getZetaSQLCatalog();
+ *
+ * // On each thread, for each script
+ * CatalogOverlay overlay = new CatalogOverlay("my-project", base);
+ * analyzer.analyzeStatements(script, overlay, true).forEachRemaining(statement -> ...);
+ * }</pre>
+ *
+ * Overlays should be analyzed in place, as above; otherwise the analyzer copies them before
+ * analyzing. They are discarded once the script finishes, nothing needs to be released. Any
+ * number of threads can use their own overlays over the same base concurrently, since overlays
+ * only read the base. Each overlay is meant to be used by one thread at a time.
+ *
+ * Resources are created and dropped with the same naming rules as the BigQueryCatalog:
+ * persistent resources are reachable by all their qualified paths and temporary ones by their
+ * unqualified name. Fetching resources from BigQuery (the add* methods) is not supported; add
+ * those to the base catalog before creating overlays.
+ */
+public class CatalogOverlay implements CatalogWrapper {
+
+  private final String defaultProjectId;
+  private final SimpleCatalog base;
+  private SimpleCatalog root;
+  private Set<SimpleCatalog> ownedCatalogs = newIdentitySet();
+
+  /**
+   * @param defaultProjectId The project unqualified resources belong to, the same one used for
+   *     the base BigQueryCatalog
+   * @param base The catalog to overlay. Must not be modified while the overlay is in use.
+   */
+  public CatalogOverlay(String defaultProjectId, SimpleCatalog base) {
+    this.defaultProjectId = defaultProjectId;
+    this.base = base;
+    this.root = base;
+  }
+
+  private CatalogOverlay(CatalogOverlay other) {
+    this.defaultProjectId = other.defaultProjectId;
+    this.base = other.base;
+    this.root = other.root;
+  }
+
+  private static Set<SimpleCatalog> newIdentitySet() {
+    return Collections.newSetFromMap(new IdentityHashMap<>());
+  }
+
+  /** Whether the overlay has diverged from the base catalog */
+  public boolean isModified() {
+    return root != base;
+  }
+
+  /** The number of catalogs copied from the base so far, including the root */
+  public int getCopiedCatalogCount() {
+    return ownedCatalogs.size();
+  }
+
+  private SimpleCatalog own(SimpleCatalog catalog) {
+    if (ownedCatalogs.contains(catalog)) {
+      return catalog;
+    }
+    SimpleCatalog copy = SimpleCatalogs.shallowCopy(catalog);
+    ownedCatalogs.add(copy);
+    return copy;
+  }
+
+  /**
+   * Makes sure the root and every existing catalog along the given paths belong to this overlay,
+   * so that CatalogOperations can modify them in place. Catalogs missing along a path are
+   * created by CatalogOperations inside already owned catalogs.
+   */
+  private void ownPaths(List<List<String>> paths) {
+    root = own(root);
+
+    for (List<String> path : paths) {
+      SimpleCatalog parent = root;
+      for (String name : path.subList(0, path.size() - 1)) {
+        SimpleCatalog child = parent.getCatalog(name, null);
+        if (child == null) {
+          break;
+        }
+
+        SimpleCatalog ownedChild = own(child);
+        if (ownedChild != child) {
+          parent.removeSimpleCatalog(child);
+          parent.addSimpleCatalog(ownedChild);
+        }
+        parent = ownedChild;
+      }
+    }
+  }
+
+  private List<List<String>> buildCatalogPaths(String resource) {
+    String[] reference =
+        CatalogSnapshotResourceProvider.qualify(defaultProjectId, resource).split("\\.");
+    String projectId = reference[0];
+    String datasetId = reference[1];
+    String name = reference[2];
+
+    ImmutableList.Builder<List<String>> paths = ImmutableList.<List<String>>builder()
+        .add(List.of(projectId, datasetId, name))
+        .add(List.of(projectId + "." + datasetId + "." + name))
+        .add(List.of(projectId + "." + datasetId, name))
+        .add(List.of(projectId, datasetId + "." + name));
+
+    // Resources in the default project can also be referenced without the project
+    if (projectId.equals(defaultProjectId)) {
+      paths.add(List.of(datasetId, name)).add(List.of(datasetId + "." + name));
+    }
+
+    return paths.build();
+  }
+
+  private static void validateCreateScope(
+      CreateScope createScope, List<CreateScope> allowedScopes, String resource, String type) {
+    if (!allowedScopes.contains(createScope)) {
+      throw new BigQueryCreateError(
+          String.format("Invalid create scope %s for BigQuery %s %s", createScope, type, resource),
+          createScope,
+          resource);
+    }
+  }
+
+  private static void validateNamePath(String resource, CreateScope createScope, String type) {
+    List<String> names = Arrays.stream(resource.split("\\.")).collect(Collectors.toList());
+
+    if (createScope == CreateScope.CREATE_TEMP && names.size() > 1) {
+      throw new BigQueryCreateError(
+          String.format(
+              "Cannot create BigQuery TEMP %s %s, TEMP resources should not be qualified",
+              type, resource),
+          createScope,
+          resource);
+    }
+    if (createScope != CreateScope.CREATE_TEMP && names.size() == 1) {
+      throw new BigQueryCreateError(
+          String.format(
+              "Cannot create BigQuery %s %s, persistent BigQuery resources should be qualified",
+              type, resource),
+          createScope,
+          resource);
+    }
+  }
+
+  private static CatalogResourceAlreadyExists withCaseInsensitivityWarning(
+      CatalogResourceAlreadyExists error) {
+    String message = String.format(
+        "Catalog resource already exists: %s. BigQuery resources are treated as "
+            + "case-insensitive, so resources with the same name but different casing are "
+            + "treated as equals and can trigger this error.",
+        error.getResourceName());
+    return new CatalogResourceAlreadyExists(error.getResourceName(), message, error);
+  }
+
+  private static boolean isQualified(String resource) {
+    return resource.split("\\.").length > 1;
+  }
+
+  @Override
+  public void register(SimpleTable table, CreateMode createMode, CreateScope createScope) {
+    String fullName = table.getFullName();
+    validateCreateScope(
+        createScope,
+        List.of(CreateScope.CREATE_DEFAULT_SCOPE, CreateScope.CREATE_TEMP),
+        fullName,
+        "table");
+    validateNamePath(fullName, createScope, "table");
+
+    List<List<String>> paths = createScope == CreateScope.CREATE_TEMP
+        ? List.of(List.of(table.getName()))
+        : buildCatalogPaths(fullName);
+
+    ownPaths(paths);
+    try {
+      CatalogOperations.createTableInCatalog(
+          root, paths, fullName, table.getColumnList(), createMode);
+    } catch (CatalogResourceAlreadyExists error) {
+      throw withCaseInsensitivityWarning(error);
+    }
+  }
+
+  @Override
+  public void register(FunctionInfo function, CreateMode createMode, CreateScope createScope) {
+    String fullName = String.join(".", function.getNamePath());
+    validateCreateScope(
+        createScope,
+        List.of(CreateScope.CREATE_DEFAULT_SCOPE, CreateScope.CREATE_TEMP),
+        fullName,
+        "function");
+    validateNamePath(fullName, createScope, "function");
+
+    List<List<String>> paths = createScope == CreateScope.CREATE_TEMP
+        ? List.of(List.of(fullName))
+        : buildCatalogPaths(fullName);
+
+    ownPaths(paths);
+    try {
+      CatalogOperations.createFunctionInCatalog(root, paths, function, createMode);
+    } catch (CatalogResourceAlreadyExists error) {
+      throw withCaseInsensitivityWarning(error);
+    }
+  }
+
+  @Override
+  public void register(TVFInfo tvfInfo, CreateMode createMode, CreateScope createScope) {
+    String fullName = String.join(".", tvfInfo.getNamePath());
+    validateCreateScope(createScope, List.of(CreateScope.CREATE_DEFAULT_SCOPE), fullName, "TVF");
+    validateNamePath(fullName, createScope, "TVF");
+
+    List<List<String>> paths = buildCatalogPaths(fullName);
+
+    ownPaths(paths);
+    try {
+      CatalogOperations.createTVFInCatalog(root, paths, tvfInfo, createMode);
+    } catch (CatalogResourceAlreadyExists error) {
+      throw withCaseInsensitivityWarning(error);
+    }
+  }
+
+  @Override
+  public void register(ProcedureInfo procedureInfo, CreateMode createMode,
+      CreateScope createScope) {
+    String fullName = String.join(".", procedureInfo.getNamePath());
+    validateCreateScope(
+        createScope, List.of(CreateScope.CREATE_DEFAULT_SCOPE), fullName, "procedure");
+    validateNamePath(fullName, createScope, "procedure");
+
+    List<List<String>> paths = buildCatalogPaths(fullName);
+
+    ownPaths(paths);
+    try {
+      CatalogOperations.createProcedureInCatalog(root, paths, procedureInfo, createMode);
+    } catch (CatalogResourceAlreadyExists error) {
+      throw withCaseInsensitivityWarning(error);
+    }
+  }
+
+  private List<List<String>> pathsForRemoval(String resource) {
+    return isQualified(resource) ? buildCatalogPaths(resource) : List.of(List.of(resource));
+  }
+
+  @Override
+  public void removeTable(String table) {
+    List<List<String>> paths = pathsForRemoval(table);
+    ownPaths(paths);
+    CatalogOperations.deleteTableFromCatalog(root, paths);
+  }
+
+  @Override
+  public void removeFunction(String function) {
+    List<List<String>> paths = pathsForRemoval(function);
+    ownPaths(paths);
+    CatalogOperations.deleteFunctionFromCatalog(root, paths);
+  }
+
+  @Override
+  public void removeTVF(String function) {
+    List<List<String>> paths = pathsForRemoval(function);
+    ownPaths(paths);
+    CatalogOperations.deleteTVFFromCatalog(root, paths);
+  }
+
+  @Override
+  public void removeProcedure(String procedure) {
+    List<List<String>> paths = pathsForRemoval(procedure);
+    ownPaths(paths);
+    CatalogOperations.deleteProcedureFromCatalog(root, paths);
+  }
+
+  private static UnsupportedOperationException fetchingNotSupported() {
+    return new UnsupportedOperationException(
+        "CatalogOverlay does not fetch resources, add them to the base catalog instead");
+  }
+
+  @Override
+  public void addTables(List<String> tables) {
+    throw fetchingNotSupported();
+  }
+
+  @Override
+  public void addFunctions(List<String> functions) {
+    throw fetchingNotSupported();
+  }
+
+  @Override
+  public void addTVFs(List<String> functions) {
+    throw fetchingNotSupported();
+  }
+
+  @Override
+  public void addProcedures(List<String> procedures) {
+    throw fetchingNotSupported();
+  }
+
+  /**
+   * Returns an overlay with the same contents as this one. Both overlays share the catalogs
+   * copied so far and copy them again before their next change, so neither sees the other's
+   * changes.
+   */
+  @Override
+  public CatalogOverlay copy() {
+    ownedCatalogs = newIdentitySet();
+    return new CatalogOverlay(this);
+  }
+
+  /**
+   * Returns the catalog to analyze against: the base catalog if the overlay hasn't been
+   * modified, or the overlay's own root otherwise. It must not be modified directly.
+   */
+  @Override
+  public SimpleCatalog getZetaSQLCatalog() {
+    return root;
+  }
+
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.catalog;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.zetasql.LanguageOptions;
+import com.google.zetasql.Parser;
+import com.google.zetasql.SqlException;
+import com.google.zetasql.resolvedast.ResolvedCreateStatementEnums.CreateMode;
+import com.google.zetasql.resolvedast.ResolvedCreateStatementEnums.CreateScope;
+import com.google.zetasql.toolkit.catalog.CatalogWrapper;
+import com.google.zetasql.toolkit.catalog.bigquery.BigQueryCatalog;
+import com.google.zetasql.toolkit.catalog.bigquery.BigQueryResourceProvider;
+import com.google.zetasql.toolkit.catalog.bigquery.exceptions.BigQueryResourceNotFound;
+import com.google.zetasql.toolkit.catalog.bigquery.exceptions.InvalidBigQueryReference;
+import com.google.zetasql.toolkit.options.BigQueryLanguageOptions;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Populates a catalog with only the resources a set of scripts reference, instead of adding
+ * whole datasets or guessing which tables will be needed.
+ *
+ * Scripts are parsed and their references collected with a
+ * {@link ReferencedResourceCollector}. Then the tables, functions, TVFs and procedures that
+ * haven't been fetched yet are requested from the {@link BigQueryResourceProvider} in batches,
+ * with batches running concurrently on a worker pool, and registered into the catalog.
+ *
+ * References are deduplicated across all the scripts in a call and across calls, so that each
+ * resource is requested at most once per prefetcher. That includes resources the provider could
+ * not find; those are left for the analyzer to report.
+ *
+ * <pre>{@code
+ * BigQueryCatalog catalog = new BigQueryCatalog("my-project", provider);
+ * try (CatalogPrefetcher prefetcher = new CatalogPrefetcher("my-project", provider, catalog, 8)) {
+ *   prefetcher.prefetch(scripts);
+ * }
+ * }</pre>
+ *
+ * The catalog is only modified from the thread calling {@link #prefetch(Collection)}, after all
+ * batches are fetched; so prefetching must not run concurrently with analysis on the same
+ * catalog.
+ */
+public class CatalogPrefetcher implements AutoCloseable {
+
+  public static final int DEFAULT_BATCH_SIZE = 50;
+
+  private interface Fetcher<T> {
+    List<T> fetch(BigQueryResourceProvider provider, String projectId, List<String> references);
+  }
+
+  private static class FetchedBatch<T> {
+    final List<T> resources = new ArrayList<>();
+    final List<String> notFound = new ArrayList<>();
+  }
+
+  /** Tracks fetching one kind of resource during a prefetch call */
+  private class ResourceFetch<T> {
+    private final Set<String> requested;
+    private final Fetcher<T> fetcher;
+    private final Consumer<T> registrar;
+    private final Map<String, String> pending = new LinkedHashMap<>();
+    private final List<String> notFound = new ArrayList<>();
+    private final List<Future<FetchedBatch<T>>> batches = new ArrayList<>();
+    private int alreadyFetchedCount = 0;
+    private int fetchedCount = 0;
+
+    ResourceFetch(Set<String> requested, Fetcher<T> fetcher, Consumer<T> registrar) {
+      this.requested = requested;
+      this.fetcher = fetcher;
+      this.registrar = registrar;
+    }
+
+    void submit(Collection<String> references) {
+      for (String reference : references) {
+        String qualified;
+        try {
+          qualified = CatalogSnapshotResourceProvider.qualify(projectId, reference);
+        } catch (InvalidBigQueryReference e) {
+          notFound.add(reference);
+          continue;
+        }
+
+        // "dataset.t" and "project.dataset.t" are the same resource
+        String key = CatalogSnapshotFormat.canonicalName(qualified);
+        if (requested.contains(key)) {
+          alreadyFetchedCount++;
+        } else {
+          pending.putIfAbsent(key, qualified);
+        }
+      }
+
+      for (List<String> batch : Lists.partition(new ArrayList<>(pending.values()), batchSize)) {
+        batches.add(executor.submit(() -> fetchBatch(batch)));
+      }
+    }
+
+    private FetchedBatch<T> fetchBatch(List<String> references) {
+      BigQueryResourceProvider provider = providers.get();
+      FetchedBatch<T> result = new FetchedBatch<>();
+
+      try {
+        result.resources.addAll(fetcher.fetch(provider, projectId, references));
+      } catch (BigQueryResourceNotFound batchError) {
+        // Providers fail the whole batch when any resource is missing; find out which ones
+        for (String reference : references) {
+          try {
+            result.resources.addAll(fetcher.fetch(provider, projectId, List.of(reference)));
+          } catch (BigQueryResourceNotFound e) {
+            result.notFound.add(reference);
+          }
+        }
+      }
+
+      return result;
+    }
+
+    void register() {
+      for (Future<FetchedBatch<T>> batch : batches) {
+        FetchedBatch<T> result = await(batch);
+        result.resources.forEach(registrar);
+        fetchedCount += result.resources.size();
+        notFound.addAll(result.notFound);
+      }
+      requested.addAll(pending.keySet());
+    }
+
+    void cancel() {
+      batches.forEach(batch -> batch.cancel(true));
+    }
+  }
+
+  private final String projectId;
+  private final ThreadLocal<BigQueryResourceProvider> providers;
+  private final CatalogWrapper catalog;
+  private final LanguageOptions languageOptions;
+  private final int batchSize;
+  private final ExecutorService executor;
+
+  private final Set<String> requestedTables = new HashSet<>();
+  private final Set<String> requestedFunctions = new HashSet<>();
+  private final Set<String> requestedTVFs = new HashSet<>();
+  private final Set<String> requestedProcedures = new HashSet<>();
+
+  /**
+   * Creates a CatalogPrefetcher that shares a single provider between its workers. The provider
+   * must be thread-safe, like {@link CatalogSnapshotResourceProvider}.
+   *
+   * @param projectId The project unqualified references are resolved against
+   * @param provider The provider to fetch resources from
+   * @param catalog The catalog to add resources to
+   * @param parallelism The number of worker threads
+   */
+  public CatalogPrefetcher(
+      String projectId, BigQueryResourceProvider provider, CatalogWrapper catalog,
+      int parallelism) {
+    this(projectId, () -> provider, catalog, parallelism, DEFAULT_BATCH_SIZE);
+  }
+
+  /**
+   * Creates a CatalogPrefetcher where each worker gets its own provider. Useful for providers
+   * that are not thread-safe, like the BigQueryAPIResourceProvider, which caches API responses
+   * in an unsynchronized map: {@code BigQueryAPIResourceProvider::buildDefault}.
+   *
+   * @param projectId The project unqualified references are resolved against
+   * @param providerFactory Creates the provider for each worker thread
+   * @param catalog The catalog to add resources to
+   * @param parallelism The number of worker threads
+   * @param batchSize The maximum number of resources requested to a provider at once
+   */
+  public CatalogPrefetcher(
+      String projectId,
+      Supplier<? extends BigQueryResourceProvider> providerFactory,
+      CatalogWrapper catalog,
+      int parallelism,
+      int batchSize) {
+    Preconditions.checkArgument(parallelism > 0, "parallelism must be positive");
+    Preconditions.checkArgument(batchSize > 0, "batchSize must be positive");
+    this.projectId = projectId;
+    this.providers = ThreadLocal.withInitial(providerFactory);
+    this.catalog = catalog;
+    this.languageOptions = BigQueryLanguageOptions.get();
+    this.batchSize = batchSize;
+    this.executor = Executors.newFixedThreadPool(
+        parallelism,
+        new ThreadFactoryBuilder()
+            .setNameFormat("catalog-prefetcher-%d")
+            .setDaemon(true)
+            .build());
+  }
+
+  /**
+   * Fetches the resources referenced by a single script and adds them to the catalog.
+   *
+   * @see #prefetch(Collection)
+   */
+  public PrefetchResult prefetch(String script) {
+    return prefetch(List.of(script));
+  }
+
+  /**
+   * Fetches the resources referenced by a batch of scripts and adds them to the catalog.
+   * Resources requested by previous calls are not requested again.
+   *
+   * @param scripts The scripts that will be analyzed against the catalog
+   * @return What was referenced, fetched and not found
+   */
+  public PrefetchResult prefetch(Collection<String> scripts) {
+    long startTime = System.nanoTime();
+
+    ReferencedResourceCollector collector = new ReferencedResourceCollector();
+    int unparseableScriptCount = 0;
+    for (String script : scripts) {
+      try {
+        Parser.parseScript(script, languageOptions).accept(collector);
+      } catch (SqlException e) {
+        unparseableScriptCount++;
+      }
+      collector.reset();
+    }
+    ReferencedResources referenced = collector.getReferencedResources();
+
+    ResourceFetch<?>[] fetches = {
+        new ResourceFetch<>(
+            requestedTables,
+            BigQueryResourceProvider::getTables,
+            table -> catalog.register(
+                table, CreateMode.CREATE_OR_REPLACE, CreateScope.CREATE_DEFAULT_SCOPE)),
+        new ResourceFetch<>(
+            requestedFunctions,
+            BigQueryResourceProvider::getFunctions,
+            function -> catalog.register(
+                function, CreateMode.CREATE_OR_REPLACE, CreateScope.CREATE_DEFAULT_SCOPE)),
+        new ResourceFetch<>(
+            requestedTVFs,
+            BigQueryResourceProvider::getTVFs,
+            tvf -> catalog.register(
+                tvf, CreateMode.CREATE_OR_REPLACE, CreateScope.CREATE_DEFAULT_SCOPE)),
+        new ResourceFetch<>(
+            requestedProcedures,
+            BigQueryResourceProvider::getProcedures,
+            procedure -> catalog.register(
+                procedure, CreateMode.CREATE_OR_REPLACE, CreateScope.CREATE_DEFAULT_SCOPE))
+    };
+
+    try {
+      // Submit every kind before waiting for any, so that all batches run concurrently
+      fetches[0].submit(referenced.getTables());
+      fetches[1].submit(referenced.getFunctions());
+      fetches[2].submit(referenced.getTVFs());
+      fetches[3].submit(referenced.getProcedures());
+
+      for (ResourceFetch<?> fetch : fetches) {
+        fetch.register();
+      }
+    } finally {
+      for (ResourceFetch<?> fetch : fetches) {
+        fetch.cancel();
+      }
+    }
+
+    int fetchedCount = 0;
+    int alreadyFetchedCount = 0;
+    for (ResourceFetch<?> fetch : fetches) {
+      fetchedCount += fetch.fetchedCount;
+      alreadyFetchedCount += fetch.alreadyFetchedCount;
+    }
+
+    ReferencedResources notFound = new ReferencedResources(
+        fetches[0].notFound, fetches[1].notFound, fetches[2].notFound, fetches[3].notFound);
+
+    return new PrefetchResult(
+        referenced,
+        fetchedCount,
+        alreadyFetchedCount,
+        notFound,
+        unparseableScriptCount,
+        Duration.ofNanos(System.nanoTime() - startTime));
+  }
+
+  private static <T> T await(Future<T> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while fetching catalog resources", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException("Fetching catalog resources failed unexpectedly", cause);
+    }
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Prefetches the resources used by a set of script files from a catalog snapshot.
+   *
+   * Usage: {@code CatalogPrefetcher <projectId> <snapshotFile> <scriptFile>...}
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 3) {
+      System.err.println("Usage: CatalogPrefetcher <projectId> <snapshotFile> <scriptFile>...");
+      System.exit(1);
+    }
+
+    String projectId = args[0];
+    CatalogSnapshotResourceProvider provider =
+        CatalogSnapshotResourceProvider.open(Paths.get(args[1]));
+    BigQueryCatalog catalog = new BigQueryCatalog(projectId, provider);
+
+    List<String> scripts = new ArrayList<>();
+    for (int i = 2; i < args.length; i++) {
+      Path scriptFile = Paths.get(args[i]);
+      scripts.add(Files.readString(scriptFile));
+    }
+
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    try (CatalogPrefetcher prefetcher =
+        new CatalogPrefetcher(projectId, provider, catalog, parallelism)) {
+      PrefetchResult result = prefetcher.prefetch(scripts);
+      System.out.println(result);
+      System.out.println("Not found: " + result.getNotFound());
+    }
+  }
+
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.catalog;
+
+import com.google.common.collect.ImmutableList;
+import com.google.zetasql.FileDescriptorSetsBuilder;
+import com.google.zetasql.FunctionProtos.FunctionSignatureProto;
+import com.google.zetasql.FunctionProtos.TVFRelationProto;
+import com.google.zetasql.FunctionSignature;
+import com.google.zetasql.SimpleTable;
+import com.google.zetasql.SimpleTableProtos.SimpleTableProto;
+import com.google.zetasql.TVFRelation;
+import com.google.zetasql.TypeFactory;
+import com.google.zetasql.ZetaSQLFunctions.FunctionEnums.Mode;
+import com.google.zetasql.toolkit.catalog.bigquery.BigQueryRoutineLanguage;
+import com.google.zetasql.toolkit.catalog.bigquery.FunctionInfo;
+import com.google.zetasql.toolkit.catalog.bigquery.ProcedureInfo;
+import com.google.zetasql.toolkit.catalog.bigquery.TVFInfo;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * On-disk layout of catalog snapshots, shared by {@link CatalogSnapshotWriter} and
+ * {@link CatalogSnapshotResourceProvider}.
+ *
+ * <pre>
+ * header:  int magic, int version, int entryCount, long namesOffset, long dataOffset
+ * index:   entryCount fixed-size entries, sorted by (kind, name) as unsigned bytes:
+ *            byte kind, int nameOffset, int nameLength, long dataOffset, int dataLength
+ * names:   the fully qualified (project.dataset.name) UTF-8 resource names, see {@link #nameKey}
+ * data:    one serialized resource per entry
+ * </pre>
+ *
+ * Offsets in index entries are relative to the start of the corresponding section. Fixed-size,
+ * sorted index entries allow binary searching the memory-mapped file without reading the index
+ * into memory. Tables are stored as SimpleTableProtos; functions, TVFs and procedures use a
+ * small custom encoding that embeds their FunctionSignatureProtos.
+ */
+final class CatalogSnapshotFormat {
+
+  static final int MAGIC = 0x42514353; // "BQCS"
+  static final int VERSION = 2;
+  static final int HEADER_SIZE = 4 + 4 + 4 + 8 + 8;
+  static final int INDEX_ENTRY_SIZE = 1 + 4 + 4 + 8 + 4;
+
+  /** The kind of resource stored in an index entry, stored as its ordinal */
+  enum ResourceKind {
+    TABLE, FUNCTION, TVF, PROCEDURE
+  }
+
+  private CatalogSnapshotFormat() {}
+
+  /**
+   * Canonicalizes a fully qualified resource name. Project ids are always lower case, so the
+   * project is lower-cased; dataset and resource names are case-sensitive in BigQuery, so
+   * "ds.Foo" and "ds.foo" are different tables and keep their case.
+   */
+  static String canonicalName(String fullName) {
+    int projectEnd = fullName.indexOf('.') + 1;
+    return fullName.substring(0, projectEnd).toLowerCase(Locale.ROOT)
+        + fullName.substring(projectEnd);
+  }
+
+  /** Builds the key resources are indexed by: their {@link #canonicalName}, as UTF-8 */
+  static byte[] nameKey(String fullName) {
+    return canonicalName(fullName).getBytes(StandardCharsets.UTF_8);
+  }
+
+  static byte[] encodeTable(SimpleTable table) {
+    return table.serialize(new FileDescriptorSetsBuilder()).toByteArray();
+  }
+
+  static SimpleTable decodeTable(byte[] bytes) throws IOException {
+    return SimpleTable.deserialize(
+        SimpleTableProto.parseFrom(bytes), ImmutableList.of(), TypeFactory.nonUniqueNames());
+  }
+
+  static byte[] encodeFunction(FunctionInfo function) {
+    return encode(output -> {
+      writeNamePath(output, function.getNamePath());
+      output.writeUTF(function.getGroup());
+      output.writeInt(function.getMode().getNumber());
+      writeOptionalString(output, function.getLanguage().map(BigQueryRoutineLanguage::name));
+      writeOptionalString(output, function.getBody());
+      output.writeInt(function.getSignatures().size());
+      for (FunctionSignature signature : function.getSignatures()) {
+        writeBytes(output, signature.serialize(new FileDescriptorSetsBuilder()).toByteArray());
+      }
+    });
+  }
+
+  static FunctionInfo decodeFunction(byte[] bytes) throws IOException {
+    DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+    FunctionInfo.Builder builder = FunctionInfo.newBuilder()
+        .setNamePath(readNamePath(input))
+        .setGroup(input.readUTF())
+        .setMode(Mode.forNumber(input.readInt()))
+        .setLanguage(readOptionalString(input).map(BigQueryRoutineLanguage::valueOfOrUnspecified))
+        .setBody(readOptionalString(input));
+
+    int signatureCount = input.readInt();
+    List<FunctionSignature> signatures = new ArrayList<>(signatureCount);
+    for (int i = 0; i < signatureCount; i++) {
+      signatures.add(readSignature(input));
+    }
+
+    return builder.setSignatures(signatures).build();
+  }
+
+  static byte[] encodeTVF(TVFInfo tvf) {
+    return encode(output -> {
+      writeNamePath(output, tvf.getNamePath());
+      writeBytes(
+          output, tvf.getSignature().serialize(new FileDescriptorSetsBuilder()).toByteArray());
+      output.writeBoolean(tvf.getOutputSchema().isPresent());
+      if (tvf.getOutputSchema().isPresent()) {
+        writeBytes(
+            output,
+            tvf.getOutputSchema().get().serialize(new FileDescriptorSetsBuilder()).toByteArray());
+      }
+      writeOptionalString(output, tvf.getBody());
+    });
+  }
+
+  static TVFInfo decodeTVF(byte[] bytes) throws IOException {
+    DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+    TVFInfo.Builder builder = TVFInfo.newBuilder()
+        .setNamePath(ImmutableList.copyOf(readNamePath(input)))
+        .setSignature(readSignature(input));
+
+    if (input.readBoolean()) {
+      builder.setOutputSchema(
+          TVFRelation.deserialize(
+              TVFRelationProto.parseFrom(readBytes(input)),
+              ImmutableList.of(),
+              TypeFactory.nonUniqueNames()));
+    }
+
+    return builder.setBody(readOptionalString(input)).build();
+  }
+
+  static byte[] encodeProcedure(ProcedureInfo procedure) {
+    return encode(output -> {
+      writeNamePath(output, procedure.getNamePath());
+      FunctionSignature signature = procedure.getSignature();
+      writeBytes(output, signature.serialize(new FileDescriptorSetsBuilder()).toByteArray());
+    });
+  }
+
+  static ProcedureInfo decodeProcedure(byte[] bytes) throws IOException {
+    DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+    return new ProcedureInfo(ImmutableList.copyOf(readNamePath(input)), readSignature(input));
+  }
+
+  private interface Encoder {
+    void encode(DataOutputStream output) throws IOException;
+  }
+
+  private static byte[] encode(Encoder encoder) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream output = new DataOutputStream(bytes)) {
+      encoder.encode(output);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static void writeNamePath(DataOutputStream output, List<String> namePath)
+      throws IOException {
+    output.writeInt(namePath.size());
+    for (String name : namePath) {
+      output.writeUTF(name);
+    }
+  }
+
+  private static List<String> readNamePath(DataInputStream input) throws IOException {
+    int size = input.readInt();
+    List<String> namePath = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      namePath.add(input.readUTF());
+    }
+    return namePath;
+  }
+
+  private static void writeOptionalString(DataOutputStream output, Optional<String> value)
+      throws IOException {
+    output.writeBoolean(value.isPresent());
+    if (value.isPresent()) {
+      // Function bodies can exceed writeUTF's 64KB limit
+      writeBytes(output, value.get().getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  private static Optional<String> readOptionalString(DataInputStream input) throws IOException {
+    if (!input.readBoolean()) {
+      return Optional.empty();
+    }
+    return Optional.of(new String(readBytes(input), StandardCharsets.UTF_8));
+  }
+
+  private static void writeBytes(DataOutputStream output, byte[] bytes) throws IOException {
+    output.writeInt(bytes.length);
+    output.write(bytes);
+  }
+
+  private static byte[] readBytes(DataInputStream input) throws IOException {
+    byte[] bytes = new byte[input.readInt()];
+    input.readFully(bytes);
+    return bytes;
+  }
+
+  private static FunctionSignature readSignature(DataInputStream input) throws IOException {
+    return FunctionSignature.deserialize(
+        FunctionSignatureProto.parseFrom(readBytes(input)), ImmutableList.of());
+  }
+
+}
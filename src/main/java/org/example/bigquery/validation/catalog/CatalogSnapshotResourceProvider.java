@@ -0,0 +1,346 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.catalog;
+
+import com.google.zetasql.SimpleTable;
+import com.google.zetasql.toolkit.catalog.bigquery.BigQueryResourceProvider;
+import com.google.zetasql.toolkit.catalog.bigquery.FunctionInfo;
+import com.google.zetasql.toolkit.catalog.bigquery.ProcedureInfo;
+import com.google.zetasql.toolkit.catalog.bigquery.TVFInfo;
+import com.google.zetasql.toolkit.catalog.bigquery.exceptions.BigQueryCatalogException;
+import com.google.zetasql.toolkit.catalog.bigquery.exceptions.BigQueryResourceNotFound;
+import com.google.zetasql.toolkit.catalog.bigquery.exceptions.InvalidBigQueryReference;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+import org.example.bigquery.validation.catalog.CatalogSnapshotFormat.ResourceKind;
+
+/**
+ * {@link BigQueryResourceProvider} that reads resources from a catalog snapshot written by
+ * {@link CatalogSnapshotWriter}, without accessing the BigQuery API.
+ *
+ * The snapshot file is memory-mapped and its sorted index is binary searched in place, so
+ * opening a snapshot doesn't read it. Each resource is deserialized the first time it's
+ * requested and cached afterwards; startup time and heap usage depend on the resources that are
+ * actually used, not on the size of the snapshot.
+ *
+ * <pre>{@code
+ * CatalogSnapshotResourceProvider provider = CatalogSnapshotResourceProvider.open(path);
+ * BigQueryCatalog catalog = new BigQueryCatalog("my-project", provider);
+ * catalog.addTable("my-project.dataset.table");
+ * }</pre>
+ *
+ * Snapshots are limited to 2GB, the maximum size of a single memory-mapped buffer.
+ */
+public class CatalogSnapshotResourceProvider implements BigQueryResourceProvider {
+
+  private interface Decoder<T> {
+    T decode(byte[] bytes) throws IOException;
+  }
+
+  private final Path path;
+  private final MappedByteBuffer buffer;
+  private final int entryCount;
+  private final long namesOffset;
+  private final long dataOffset;
+  private final ConcurrentMap<Integer, Object> loadedResources = new ConcurrentHashMap<>();
+
+  private CatalogSnapshotResourceProvider(Path path, MappedByteBuffer buffer) {
+    this.path = path;
+    this.buffer = buffer;
+
+    if (buffer.getInt(0) != CatalogSnapshotFormat.MAGIC) {
+      throw new IllegalArgumentException("Not a catalog snapshot: " + path);
+    }
+    int version = buffer.getInt(4);
+    if (version != CatalogSnapshotFormat.VERSION) {
+      throw new IllegalArgumentException(
+          String.format("Unsupported catalog snapshot version %d in %s", version, path));
+    }
+
+    this.entryCount = buffer.getInt(8);
+    this.namesOffset = buffer.getLong(12);
+    this.dataOffset = buffer.getLong(20);
+  }
+
+  /**
+   * Opens a catalog snapshot. The file is mapped into memory but not read.
+   *
+   * @param path The snapshot file
+   * @return The provider reading from the snapshot
+   */
+  public static CatalogSnapshotResourceProvider open(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Catalog snapshot larger than 2GB: " + path);
+      }
+      // The mapping stays valid after the channel is closed
+      MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+      return new CatalogSnapshotResourceProvider(path, buffer);
+    }
+  }
+
+  /** The number of resources in the snapshot */
+  public int getResourceCount() {
+    return entryCount;
+  }
+
+  /** The number of resources that have been deserialized so far */
+  public int getLoadedResourceCount() {
+    return loadedResources.size();
+  }
+
+  private int entryPosition(int entry) {
+    return CatalogSnapshotFormat.HEADER_SIZE + entry * CatalogSnapshotFormat.INDEX_ENTRY_SIZE;
+  }
+
+  /** The kind of an index entry, as a {@link ResourceKind} ordinal */
+  int kindAt(int entry) {
+    return buffer.get(entryPosition(entry));
+  }
+
+  /** The canonical, fully qualified name of an index entry, as UTF-8 bytes */
+  byte[] nameKeyAt(int entry) {
+    int position = entryPosition(entry);
+    byte[] name = new byte[buffer.getInt(position + 5)];
+    ByteBuffer view = buffer.duplicate();
+    view.position((int) namesOffset + buffer.getInt(position + 1));
+    view.get(name);
+    return name;
+  }
+
+  /** A read-only view of the serialized resource of an index entry, without copying it */
+  ByteBuffer dataAt(int entry) {
+    int position = entryPosition(entry);
+    ByteBuffer view = buffer.duplicate();
+    view.position((int) (dataOffset + buffer.getLong(position + 9)));
+    view.limit(view.position() + buffer.getInt(position + 17));
+    return view.slice().asReadOnlyBuffer();
+  }
+
+  /**
+   * Compares the (kind, name) of an index entry with the given kind and name. When
+   * {@code prefixOnly} is set, entries whose name starts with the given name compare as equal.
+   */
+  private int compareEntry(int entry, ResourceKind kind, byte[] name, boolean prefixOnly) {
+    int kindComparison = Integer.compare(kindAt(entry), kind.ordinal());
+    if (kindComparison != 0) {
+      return kindComparison;
+    }
+
+    int position = entryPosition(entry);
+    int nameStart = (int) namesOffset + buffer.getInt(position + 1);
+    int nameLength = buffer.getInt(position + 5);
+    int commonLength = Math.min(nameLength, name.length);
+
+    for (int i = 0; i < commonLength; i++) {
+      int byteComparison = Integer.compare(
+          buffer.get(nameStart + i) & 0xFF, name[i] & 0xFF);
+      if (byteComparison != 0) {
+        return byteComparison;
+      }
+    }
+
+    if (prefixOnly && nameLength >= name.length) {
+      return 0;
+    }
+    return Integer.compare(nameLength, name.length);
+  }
+
+  /** Returns the first entry that is not lower than (kind, name) */
+  private int lowerBound(ResourceKind kind, byte[] name, boolean prefixOnly) {
+    int low = 0;
+    int high = entryCount;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (compareEntry(middle, kind, name, prefixOnly) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  private int find(ResourceKind kind, String fullName) {
+    byte[] name = CatalogSnapshotFormat.nameKey(fullName);
+    int entry = lowerBound(kind, name, false);
+    if (entry < entryCount && compareEntry(entry, kind, name, false) == 0) {
+      return entry;
+    }
+    return -1;
+  }
+
+  private List<Integer> findWithPrefix(ResourceKind kind, String prefix) {
+    byte[] name = CatalogSnapshotFormat.nameKey(prefix);
+    List<Integer> entries = new ArrayList<>();
+    for (int entry = lowerBound(kind, name, true);
+        entry < entryCount && compareEntry(entry, kind, name, true) == 0;
+        entry++) {
+      entries.add(entry);
+    }
+    return entries;
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> T load(int entry, Decoder<T> decoder) {
+    return (T) loadedResources.computeIfAbsent(entry, unused -> {
+      int position = entryPosition(entry);
+      long resourceOffset = dataOffset + buffer.getLong(position + 9);
+      byte[] bytes = new byte[buffer.getInt(position + 17)];
+
+      // Duplicates have independent positions, which makes concurrent reads safe
+      ByteBuffer view = buffer.duplicate();
+      view.position((int) resourceOffset);
+      view.get(bytes);
+
+      try {
+        return decoder.decode(bytes);
+      } catch (IOException e) {
+        throw new BigQueryCatalogException("Corrupt catalog snapshot entry in " + path, e);
+      }
+    });
+  }
+
+  /**
+   * Fully qualifies a reference relative to a project, the same way BigQuery would:
+   * "dataset.resource" becomes "projectId.dataset.resource".
+   */
+  static String qualify(String projectId, String reference) {
+    String unquoted = reference.replace("`", "");
+    int parts = unquoted.split("\\.", -1).length;
+
+    if (parts == 3) {
+      return unquoted;
+    }
+    if (parts == 2) {
+      return projectId + "." + unquoted;
+    }
+    throw new InvalidBigQueryReference(reference);
+  }
+
+  private <T> List<T> get(
+      ResourceKind kind, String projectId, List<String> references, Decoder<T> decoder) {
+    List<T> resources = new ArrayList<>(references.size());
+    for (String reference : references) {
+      int entry = find(kind, qualify(projectId, reference));
+      if (entry < 0) {
+        throw new BigQueryResourceNotFound(reference);
+      }
+      resources.add(load(entry, decoder));
+    }
+    return resources;
+  }
+
+  private <T> List<T> getAllWithPrefix(ResourceKind kind, String prefix, Decoder<T> decoder) {
+    return findWithPrefix(kind, prefix).stream()
+        .map(entry -> load(entry, decoder))
+        .collect(Collectors.toList());
+  }
+
+  @Override
+  public List<SimpleTable> getTables(String projectId, List<String> tableReferences) {
+    return get(
+        ResourceKind.TABLE, projectId, tableReferences, CatalogSnapshotFormat::decodeTable);
+  }
+
+  @Override
+  public List<SimpleTable> getAllTablesInDataset(String projectId, String datasetName) {
+    return getAllWithPrefix(
+        ResourceKind.TABLE,
+        projectId + "." + datasetName + ".",
+        CatalogSnapshotFormat::decodeTable);
+  }
+
+  @Override
+  public List<SimpleTable> getAllTablesInProject(String projectId) {
+    return getAllWithPrefix(
+        ResourceKind.TABLE, projectId + ".", CatalogSnapshotFormat::decodeTable);
+  }
+
+  @Override
+  public List<FunctionInfo> getFunctions(String projectId, List<String> functionReferences) {
+    return get(
+        ResourceKind.FUNCTION,
+        projectId,
+        functionReferences,
+        CatalogSnapshotFormat::decodeFunction);
+  }
+
+  @Override
+  public List<FunctionInfo> getAllFunctionsInDataset(String projectId, String datasetName) {
+    return getAllWithPrefix(
+        ResourceKind.FUNCTION,
+        projectId + "." + datasetName + ".",
+        CatalogSnapshotFormat::decodeFunction);
+  }
+
+  @Override
+  public List<FunctionInfo> getAllFunctionsInProject(String projectId) {
+    return getAllWithPrefix(
+        ResourceKind.FUNCTION, projectId + ".", CatalogSnapshotFormat::decodeFunction);
+  }
+
+  @Override
+  public List<TVFInfo> getTVFs(String projectId, List<String> functionReferences) {
+    return get(ResourceKind.TVF, projectId, functionReferences, CatalogSnapshotFormat::decodeTVF);
+  }
+
+  @Override
+  public List<TVFInfo> getAllTVFsInDataset(String projectId, String datasetName) {
+    return getAllWithPrefix(
+        ResourceKind.TVF, projectId + "." + datasetName + ".", CatalogSnapshotFormat::decodeTVF);
+  }
+
+  @Override
+  public List<TVFInfo> getAllTVFsInProject(String projectId) {
+    return getAllWithPrefix(ResourceKind.TVF, projectId + ".", CatalogSnapshotFormat::decodeTVF);
+  }
+
+  @Override
+  public List<ProcedureInfo> getProcedures(String projectId, List<String> procedureReferences) {
+    return get(
+        ResourceKind.PROCEDURE,
+        projectId,
+        procedureReferences,
+        CatalogSnapshotFormat::decodeProcedure);
+  }
+
+  @Override
+  public List<ProcedureInfo> getAllProceduresInDataset(String projectId, String datasetName) {
+    return getAllWithPrefix(
+        ResourceKind.PROCEDURE,
+        projectId + "." + datasetName + ".",
+        CatalogSnapshotFormat::decodeProcedure);
+  }
+
+  @Override
+  public List<ProcedureInfo> getAllProceduresInProject(String projectId) {
+    return getAllWithPrefix(
+        ResourceKind.PROCEDURE, projectId + ".", CatalogSnapshotFormat::decodeProcedure);
+  }
+
+}
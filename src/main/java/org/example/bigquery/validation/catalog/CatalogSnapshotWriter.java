@@ -0,0 +1,251 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.catalog;
+
+import com.google.common.primitives.UnsignedBytes;
+import com.google.zetasql.SimpleTable;
+import com.google.zetasql.toolkit.catalog.bigquery.BigQueryAPIResourceProvider;
+import com.google.zetasql.toolkit.catalog.bigquery.BigQueryResourceProvider;
+import com.google.zetasql.toolkit.catalog.bigquery.FunctionInfo;
+import com.google.zetasql.toolkit.catalog.bigquery.ProcedureInfo;
+import com.google.zetasql.toolkit.catalog.bigquery.TVFInfo;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.example.bigquery.validation.catalog.CatalogSnapshotFormat.ResourceKind;
+
+/**
+ * Writes catalog snapshots that can be read by {@link CatalogSnapshotResourceProvider}.
+ *
+ * Serialized resources are streamed to a temporary file as they're added; only the index
+ * (names and offsets) is kept in memory. The snapshot is assembled and atomically moved into
+ * place by {@link #commit}; closing a writer that wasn't committed discards what was added, so a
+ * failed crawl never replaces an existing snapshot with a partial one.
+ *
+ * <pre>{@code
+ * CatalogSnapshotWriter.writeProject(
+ *     "my-project", BigQueryAPIResourceProvider.buildDefault(), Paths.get("my-project.bqcs"));
+ * }</pre>
+ */
+public class CatalogSnapshotWriter implements Closeable {
+
+  private static class IndexEntry {
+    final ResourceKind kind;
+    final byte[] name;
+    final long dataOffset;
+    final int dataLength;
+
+    IndexEntry(ResourceKind kind, byte[] name, long dataOffset, int dataLength) {
+      this.kind = kind;
+      this.name = name;
+      this.dataOffset = dataOffset;
+      this.dataLength = dataLength;
+    }
+  }
+
+  private static final Comparator<IndexEntry> INDEX_ORDER =
+      Comparator.<IndexEntry, ResourceKind>comparing(entry -> entry.kind)
+          .thenComparing(entry -> entry.name, UnsignedBytes.lexicographicalComparator());
+
+  private final Path output;
+  private final Path dataFile;
+  private final OutputStream data;
+  private final List<IndexEntry> entries = new ArrayList<>();
+  private final Set<String> writtenKeys = new HashSet<>();
+  private long dataSize = 0;
+  private boolean closed = false;
+
+  public CatalogSnapshotWriter(Path output) throws IOException {
+    this.output = output;
+    this.dataFile = Files.createTempFile("catalog-snapshot", ".data");
+    this.data = new BufferedOutputStream(Files.newOutputStream(dataFile));
+  }
+
+  /**
+   * Adds a table or view. Its full name must be fully qualified, i.e. project.dataset.table,
+   * which is the case for tables returned by {@link BigQueryResourceProvider}s.
+   */
+  public void addTable(SimpleTable table) throws IOException {
+    add(ResourceKind.TABLE, table.getFullName(), CatalogSnapshotFormat.encodeTable(table));
+  }
+
+  public void addFunction(FunctionInfo function) throws IOException {
+    add(
+        ResourceKind.FUNCTION,
+        String.join(".", function.getNamePath()),
+        CatalogSnapshotFormat.encodeFunction(function));
+  }
+
+  public void addTVF(TVFInfo tvf) throws IOException {
+    add(
+        ResourceKind.TVF,
+        String.join(".", tvf.getNamePath()),
+        CatalogSnapshotFormat.encodeTVF(tvf));
+  }
+
+  public void addProcedure(ProcedureInfo procedure) throws IOException {
+    add(
+        ResourceKind.PROCEDURE,
+        String.join(".", procedure.getNamePath()),
+        CatalogSnapshotFormat.encodeProcedure(procedure));
+  }
+
+  /** Adds an already serialized resource, encoded as in {@link CatalogSnapshotFormat} */
+  void add(ResourceKind kind, String fullName, byte[] serialized) throws IOException {
+    checkOpen();
+
+    byte[] name = CatalogSnapshotFormat.nameKey(fullName);
+    if (!writtenKeys.add(kind + ":" + CatalogSnapshotFormat.canonicalName(fullName))) {
+      throw new IllegalArgumentException(
+          String.format("Duplicate %s in catalog snapshot: %s", kind, fullName));
+    }
+
+    data.write(serialized);
+    entries.add(new IndexEntry(kind, name, dataSize, serialized.length));
+    dataSize += serialized.length;
+  }
+
+  private void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("Snapshot writer is already closed");
+    }
+  }
+
+  /** Writes the index and data to the output file, replacing it atomically, and closes */
+  public void commit() throws IOException {
+    checkOpen();
+    closed = true;
+    data.close();
+
+    Path tempOutput = null;
+    try {
+      IndexEntry[] sortedEntries = entries.toArray(new IndexEntry[0]);
+      Arrays.sort(sortedEntries, INDEX_ORDER);
+
+      long namesSize = 0;
+      for (IndexEntry entry : sortedEntries) {
+        namesSize += entry.name.length;
+      }
+
+      long namesOffset = CatalogSnapshotFormat.HEADER_SIZE
+          + (long) sortedEntries.length * CatalogSnapshotFormat.INDEX_ENTRY_SIZE;
+      long dataOffset = namesOffset + namesSize;
+
+      tempOutput = Files.createTempFile(
+          output.toAbsolutePath().getParent(), output.getFileName().toString(), ".tmp");
+
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempOutput)))) {
+        out.writeInt(CatalogSnapshotFormat.MAGIC);
+        out.writeInt(CatalogSnapshotFormat.VERSION);
+        out.writeInt(sortedEntries.length);
+        out.writeLong(namesOffset);
+        out.writeLong(dataOffset);
+
+        int nameOffset = 0;
+        for (IndexEntry entry : sortedEntries) {
+          out.writeByte(entry.kind.ordinal());
+          out.writeInt(nameOffset);
+          out.writeInt(entry.name.length);
+          out.writeLong(entry.dataOffset);
+          out.writeInt(entry.dataLength);
+          nameOffset += entry.name.length;
+        }
+
+        for (IndexEntry entry : sortedEntries) {
+          out.write(entry.name);
+        }
+
+        Files.copy(dataFile, out);
+      }
+
+      Files.move(tempOutput, output, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(dataFile);
+      if (tempOutput != null) {
+        Files.deleteIfExists(tempOutput);
+      }
+    }
+  }
+
+  /** Discards the snapshot unless it was committed, leaving the output file untouched */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      data.close();
+    } finally {
+      Files.deleteIfExists(dataFile);
+    }
+  }
+
+  /**
+   * Writes a snapshot containing all tables, views, functions, TVFs and procedures in a project.
+   *
+   * @param projectId The project to snapshot
+   * @param source The provider to read resources from, usually a BigQueryAPIResourceProvider
+   * @param output The snapshot file to write
+   */
+  public static void writeProject(String projectId, BigQueryResourceProvider source, Path output)
+      throws IOException {
+    try (CatalogSnapshotWriter writer = new CatalogSnapshotWriter(output)) {
+      for (SimpleTable table : source.getAllTablesInProject(projectId)) {
+        writer.addTable(table);
+      }
+      for (FunctionInfo function : source.getAllFunctionsInProject(projectId)) {
+        writer.addFunction(function);
+      }
+      for (TVFInfo tvf : source.getAllTVFsInProject(projectId)) {
+        writer.addTVF(tvf);
+      }
+      for (ProcedureInfo procedure : source.getAllProceduresInProject(projectId)) {
+        writer.addProcedure(procedure);
+      }
+      writer.commit();
+    }
+  }
+
+  /**
+   * Snapshots a project using the BigQuery API and application-default credentials.
+   *
+   * Usage: {@code CatalogSnapshotWriter <projectId> <outputFile>}
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("Usage: CatalogSnapshotWriter <projectId> <outputFile>");
+      System.exit(1);
+    }
+
+    writeProject(args[0], BigQueryAPIResourceProvider.buildDefault(), Paths.get(args[1]));
+  }
+
+}
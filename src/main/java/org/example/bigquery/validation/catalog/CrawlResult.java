@@ -0,0 +1,93 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.example.bigquery.validation.catalog;
+
+import com.google.common.collect.ImmutableMap;
+import java.time.Duration;
+import java.util.Map;
+
+/** The outcome of a {@link CatalogCrawler} run */
+public final class CrawlResult {
+
+  private final int datasetCount;
+  private final int resumedUnitCount;
+  private final int fetchedUnitCount;
+  private final ImmutableMap<String, String> failedUnits;
+  private final long resourceCount;
+  private final long retryCount;
+  private final Duration elapsed;
+
+  CrawlResult(int datasetCount, int resumedUnitCount, int fetchedUnitCount,
+      Map<String, String> failedUnits, long resourceCount, long retryCount, Duration elapsed) {
+    this.datasetCount = datasetCount;
+    this.resumedUnitCount = resumedUnitCount;
+    this.fetchedUnitCount = fetchedUnitCount;
+    this.failedUnits = ImmutableMap.copyOf(failedUnits);
+    this.resourceCount = resourceCount;
+    this.retryCount = retryCount;
+    this.elapsed = elapsed;
+  }
+
+  /** Whether every unit was fetched and the snapshot was written */
+  public boolean isComplete() {
+    return failedUnits.isEmpty();
+  }
+
+  public int getDatasetCount() {
+    return datasetCount;
+  }
+
+  /** Units, i.e. one kind of resource in one dataset, found in the checkpoint */
+  public int getResumedUnitCount() {
+    return resumedUnitCount;
+  }
+
+  /** Units fetched by this run */
+  public int getFetchedUnitCount() {
+    return fetchedUnitCount;
+  }
+
+  /** Units that couldn't be fetched, e.g. {@code dataset/TABLE}, with their last error */
+  public Map<String, String> getFailedUnits() {
+    return failedUnits;
+  }
+
+  /** The number of resources in the snapshot, or fetched so far if the crawl is incomplete */
+  public long getResourceCount() {
+    return resourceCount;
+  }
+
+  /** Provider calls retried after a transient error */
+  public long getRetryCount() {
+    return retryCount;
+  }
+
+  public Duration getElapsed() {
+    return elapsed;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%s: %d datasets, %d units resumed, %d fetched, %d failed, %d resources, %d retries "
+            + "in %d ms",
+        isComplete() ? "complete" : "incomplete", datasetCount, resumedUnitCount,
+        fetchedUnitCount, failedUnits.size(), resourceCount, retryCount, elapsed.toMillis());
+  }
+
+}
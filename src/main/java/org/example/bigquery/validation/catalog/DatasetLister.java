@@ -0,0 +1,47 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.example.bigquery.validation.catalog;
+
+import com.google.cloud.bigquery.DatasetId;
+import com.google.zetasql.toolkit.catalog.bigquery.BigQueryService;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Lists the datasets in a project, which {@link com.google.zetasql.toolkit.catalog.bigquery
+ * .BigQueryResourceProvider} can't do, so that a {@link CatalogCrawler} can fetch datasets
+ * independently.
+ */
+@FunctionalInterface
+public interface DatasetLister {
+
+  /**
+   * @param projectId The project
+   * @return The names of the datasets in the project, without the project
+   */
+  List<String> listDatasets(String projectId);
+
+  /** Lists datasets with the BigQuery API and application-default credentials */
+  static DatasetLister usingBigQueryAPI() {
+    BigQueryService service = BigQueryService.buildDefault();
+    return projectId -> service.listDatasets(projectId).get().stream()
+        .map(DatasetId::getDataset)
+        .collect(Collectors.toList());
+  }
+
+}
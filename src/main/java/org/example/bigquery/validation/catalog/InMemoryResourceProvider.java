@@ -0,0 +1,233 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.example.bigquery.validation.catalog;
+
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.zetasql.SimpleTable;
+import com.google.zetasql.toolkit.catalog.bigquery.BigQueryResourceProvider;
+import com.google.zetasql.toolkit.catalog.bigquery.FunctionInfo;
+import com.google.zetasql.toolkit.catalog.bigquery.ProcedureInfo;
+import com.google.zetasql.toolkit.catalog.bigquery.TVFInfo;
+import com.google.zetasql.toolkit.catalog.bigquery.exceptions.BigQueryAPIError;
+import com.google.zetasql.toolkit.catalog.bigquery.exceptions.BigQueryResourceNotFound;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * {@link BigQueryResourceProvider} serving tables and routines held in memory, which can be
+ * changed while in use. It stands in for the BigQuery API when trying out caching, prefetching
+ * or crawling locally: every call can be delayed, calls over a rate limit fail the way
+ * throttled API calls do, and calls are counted.
+ *
+ * Resources are identified by their fully qualified name; as in BigQuery, only the project id
+ * is case-insensitive. References are qualified relative to the project, as BigQuery does.
+ */
+public class InMemoryResourceProvider implements BigQueryResourceProvider, DatasetLister {
+
+  private final Map<String, SimpleTable> tables = new ConcurrentSkipListMap<>();
+  private final Map<String, FunctionInfo> functions = new ConcurrentSkipListMap<>();
+  private final Map<String, TVFInfo> tvfs = new ConcurrentSkipListMap<>();
+  private final Map<String, ProcedureInfo> procedures = new ConcurrentSkipListMap<>();
+  private final Duration latency;
+  private final double maxCallsPerSecond;
+  private final LongAdder calls = new LongAdder();
+  private final LongAdder throttledCalls = new LongAdder();
+  private long windowStart = System.nanoTime();
+  private int callsInWindow = 0;
+
+  /**
+   * @param latency How long every call takes, on top of the lookup itself
+   */
+  public InMemoryResourceProvider(Duration latency) {
+    this(latency, Double.POSITIVE_INFINITY);
+  }
+
+  /**
+   * @param latency How long every call takes, on top of the lookup itself
+   * @param maxCallsPerSecond Calls allowed per one-second window; further calls in the window
+   *     fail with a 429 BigQueryAPIError
+   */
+  public InMemoryResourceProvider(Duration latency, double maxCallsPerSecond) {
+    this.latency = latency;
+    this.maxCallsPerSecond = maxCallsPerSecond;
+  }
+
+  private static String key(String fullName) {
+    return CatalogSnapshotFormat.canonicalName(fullName);
+  }
+
+  /** Adds or replaces a table, by its full name (project.dataset.table) */
+  public void addTable(SimpleTable table) {
+    tables.put(key(table.getFullName()), table);
+  }
+
+  public void removeTable(String fullName) {
+    tables.remove(key(fullName));
+  }
+
+  /** Adds or replaces a function, by its name path (project, dataset, function) */
+  public void addFunction(FunctionInfo function) {
+    functions.put(key(String.join(".", function.getNamePath())), function);
+  }
+
+  /** Adds or replaces a TVF, by its name path (project, dataset, function) */
+  public void addTVF(TVFInfo tvf) {
+    tvfs.put(key(String.join(".", tvf.getNamePath())), tvf);
+  }
+
+  /** Adds or replaces a procedure, by its name path (project, dataset, procedure) */
+  public void addProcedure(ProcedureInfo procedure) {
+    procedures.put(key(String.join(".", procedure.getNamePath())), procedure);
+  }
+
+  /** The number of calls made to this provider, including throttled ones */
+  public long getCallCount() {
+    return calls.sum();
+  }
+
+  /** The number of calls rejected for exceeding the rate limit */
+  public long getThrottledCallCount() {
+    return throttledCalls.sum();
+  }
+
+  private void call() {
+    calls.increment();
+    if (!admit()) {
+      throttledCalls.increment();
+      throw new BigQueryAPIError(
+          "Rate limit exceeded", new BigQueryException(429, "Exceeded rate limits"));
+    }
+    if (!latency.isZero()) {
+      Uninterruptibles.sleepUninterruptibly(latency);
+    }
+  }
+
+  private synchronized boolean admit() {
+    long now = System.nanoTime();
+    if (now - windowStart >= TimeUnit.SECONDS.toNanos(1)) {
+      windowStart = now;
+      callsInWindow = 0;
+    }
+    return ++callsInWindow <= maxCallsPerSecond;
+  }
+
+  /** Lists the datasets any resource belongs to */
+  @Override
+  public List<String> listDatasets(String projectId) {
+    call();
+    String prefix = key(projectId + ".");
+    return Stream.of(tables, functions, tvfs, procedures)
+        .flatMap(resources -> resources.keySet().stream())
+        .filter(name -> name.startsWith(prefix))
+        .map(name -> name.substring(prefix.length(), name.indexOf('.', prefix.length())))
+        .distinct()
+        .collect(Collectors.toList());
+  }
+
+  private <T> List<T> get(Map<String, T> resources, String projectId, List<String> references) {
+    call();
+    List<T> result = new ArrayList<>(references.size());
+    for (String reference : references) {
+      String fullName = CatalogSnapshotResourceProvider.qualify(projectId, reference);
+      T resource = resources.get(key(fullName));
+      if (resource == null) {
+        throw new BigQueryResourceNotFound(reference);
+      }
+      result.add(resource);
+    }
+    return result;
+  }
+
+  private <T> List<T> getAllWithPrefix(Map<String, T> resources, String prefix) {
+    call();
+    String keyPrefix = key(prefix);
+    return resources.entrySet().stream()
+        .filter(entry -> entry.getKey().startsWith(keyPrefix))
+        .map(Map.Entry::getValue)
+        .collect(Collectors.toList());
+  }
+
+  @Override
+  public List<SimpleTable> getTables(String projectId, List<String> tableReferences) {
+    return get(tables, projectId, tableReferences);
+  }
+
+  @Override
+  public List<SimpleTable> getAllTablesInDataset(String projectId, String datasetName) {
+    return getAllWithPrefix(tables, projectId + "." + datasetName + ".");
+  }
+
+  @Override
+  public List<SimpleTable> getAllTablesInProject(String projectId) {
+    return getAllWithPrefix(tables, projectId + ".");
+  }
+
+  @Override
+  public List<FunctionInfo> getFunctions(String projectId, List<String> functionReferences) {
+    return get(functions, projectId, functionReferences);
+  }
+
+  @Override
+  public List<FunctionInfo> getAllFunctionsInDataset(String projectId, String datasetName) {
+    return getAllWithPrefix(functions, projectId + "." + datasetName + ".");
+  }
+
+  @Override
+  public List<FunctionInfo> getAllFunctionsInProject(String projectId) {
+    return getAllWithPrefix(functions, projectId + ".");
+  }
+
+  @Override
+  public List<TVFInfo> getTVFs(String projectId, List<String> functionReferences) {
+    return get(tvfs, projectId, functionReferences);
+  }
+
+  @Override
+  public List<TVFInfo> getAllTVFsInDataset(String projectId, String datasetName) {
+    return getAllWithPrefix(tvfs, projectId + "." + datasetName + ".");
+  }
+
+  @Override
+  public List<TVFInfo> getAllTVFsInProject(String projectId) {
+    return getAllWithPrefix(tvfs, projectId + ".");
+  }
+
+  @Override
+  public List<ProcedureInfo> getProcedures(String projectId, List<String> procedureReferences) {
+    return get(procedures, projectId, procedureReferences);
+  }
+
+  @Override
+  public List<ProcedureInfo> getAllProceduresInDataset(String projectId, String datasetName) {
+    return getAllWithPrefix(procedures, projectId + "." + datasetName + ".");
+  }
+
+  @Override
+  public List<ProcedureInfo> getAllProceduresInProject(String projectId) {
+    return getAllWithPrefix(procedures, projectId + ".");
+  }
+
+}
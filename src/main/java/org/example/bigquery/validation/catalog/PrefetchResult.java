@@ -0,0 +1,94 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.catalog;
+
+import java.time.Duration;
+
+/** The outcome of a {@link CatalogPrefetcher#prefetch} call */
+public class PrefetchResult {
+
+  private final ReferencedResources referenced;
+  private final int fetchedCount;
+  private final int alreadyFetchedCount;
+  private final ReferencedResources notFound;
+  private final int unparseableScriptCount;
+  private final Duration elapsed;
+
+  public PrefetchResult(
+      ReferencedResources referenced,
+      int fetchedCount,
+      int alreadyFetchedCount,
+      ReferencedResources notFound,
+      int unparseableScriptCount,
+      Duration elapsed) {
+    this.referenced = referenced;
+    this.fetchedCount = fetchedCount;
+    this.alreadyFetchedCount = alreadyFetchedCount;
+    this.notFound = notFound;
+    this.unparseableScriptCount = unparseableScriptCount;
+    this.elapsed = elapsed;
+  }
+
+  /** The distinct resources referenced by the scripts */
+  public ReferencedResources getReferenced() {
+    return referenced;
+  }
+
+  /** The number of resources fetched from the provider and added to the catalog */
+  public int getFetchedCount() {
+    return fetchedCount;
+  }
+
+  /** The number of referenced resources skipped because a previous call already requested them */
+  public int getAlreadyFetchedCount() {
+    return alreadyFetchedCount;
+  }
+
+  /**
+   * The referenced resources the provider could not find. These are usually typos or missing
+   * permissions, which analysis will report as errors.
+   */
+  public ReferencedResources getNotFound() {
+    return notFound;
+  }
+
+  /**
+   * The number of scripts that could not be parsed. Their references are not collected; analysis
+   * will report their syntax errors.
+   */
+  public int getUnparseableScriptCount() {
+    return unparseableScriptCount;
+  }
+
+  public Duration getElapsed() {
+    return elapsed;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "PrefetchResult{referenced=%d, fetched=%d, alreadyFetched=%d, notFound=%d, "
+            + "unparseableScripts=%d, elapsed=%dms}",
+        referenced.size(),
+        fetchedCount,
+        alreadyFetchedCount,
+        notFound.size(),
+        unparseableScriptCount,
+        elapsed.toMillis());
+  }
+
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.catalog;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.zetasql.LanguageOptions;
+import com.google.zetasql.Parser;
+import com.google.zetasql.parser.ASTNodes.ASTAlias;
+import com.google.zetasql.parser.ASTNodes.ASTCallStatement;
+import com.google.zetasql.parser.ASTNodes.ASTCreateExternalTableStatement;
+import com.google.zetasql.parser.ASTNodes.ASTCreateFunctionStatement;
+import com.google.zetasql.parser.ASTNodes.ASTCreateMaterializedViewStatement;
+import com.google.zetasql.parser.ASTNodes.ASTCreateProcedureStatement;
+import com.google.zetasql.parser.ASTNodes.ASTCreateTableFunctionStatement;
+import com.google.zetasql.parser.ASTNodes.ASTCreateTableStatement;
+import com.google.zetasql.parser.ASTNodes.ASTCreateViewStatement;
+import com.google.zetasql.parser.ASTNodes.ASTDeleteStatement;
+import com.google.zetasql.parser.ASTNodes.ASTFunctionCall;
+import com.google.zetasql.parser.ASTNodes.ASTGeneralizedPathExpression;
+import com.google.zetasql.parser.ASTNodes.ASTIdentifier;
+import com.google.zetasql.parser.ASTNodes.ASTInsertStatement;
+import com.google.zetasql.parser.ASTNodes.ASTMergeStatement;
+import com.google.zetasql.parser.ASTNodes.ASTPathExpression;
+import com.google.zetasql.parser.ASTNodes.ASTSelect;
+import com.google.zetasql.parser.ASTNodes.ASTStatement;
+import com.google.zetasql.parser.ASTNodes.ASTStatementList;
+import com.google.zetasql.parser.ASTNodes.ASTTVF;
+import com.google.zetasql.parser.ASTNodes.ASTTablePathExpression;
+import com.google.zetasql.parser.ASTNodes.ASTTableSubquery;
+import com.google.zetasql.parser.ASTNodes.ASTTruncateStatement;
+import com.google.zetasql.parser.ASTNodes.ASTUpdateStatement;
+import com.google.zetasql.parser.ParseTreeVisitor;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * {@link ParseTreeVisitor} that collects the tables, functions, TVFs and procedures a script
+ * references, so that only those need to be fetched before analyzing it.
+ *
+ * Only resources that may exist in BigQuery are collected. These are skipped:
+ *
+ * <ul>
+ *   <li>Single-part names. Persistent BigQuery resources are always qualified with at least
+ *       their dataset, so these are CTEs, temporary tables, temporary functions or builtins.
+ *   <li>Session resources, i.e. names starting with {@code _SESSION}.
+ *   <li>Resources created earlier in the same script, such as {@code CREATE TABLE dataset.t}.
+ *       References that appear before the CREATE statement are still collected.
+ *   <li>Paths that start with a range variable in scope, like {@code o.items} in
+ *       {@code FROM dataset.orders o, o.items}. Each SELECT has its own scope, which sees the
+ *       range variables of the FROM items before it and of the enclosing SELECTs, except
+ *       from subqueries in the FROM clause that declares them.
+ *   <li>Builtin functions in namespaces, like {@code SAFE.PARSE_DATE} or {@code NET.HOST}.
+ * </ul>
+ *
+ * When it's unclear whether a path starts with a range variable, e.g. in a subquery in the
+ * SELECT list or in MERGE, the path is collected: fetching a resource that isn't needed is
+ * harmless, while missing one makes analysis fail.
+ *
+ * Names are compared case-insensitively and reported as first written in the script. The
+ * collector can visit several scripts to collect the union of their references; each script's
+ * created resources only apply to that script, so call {@link #reset()} between scripts or use
+ * {@link #collect(String, LanguageOptions)}.
+ */
+public class ReferencedResourceCollector extends ParseTreeVisitor {
+
+  private static final String SESSION_NAMESPACE = "_session";
+
+  private static final ImmutableSet<String> BUILTIN_FUNCTION_NAMESPACES = ImmutableSet.of(
+      "safe", "net", "keys", "aead", "hll_count", "kll_quantiles", "deterministic_encrypt",
+      "deterministic_decrypt");
+
+  private final Map<String, String> tables = new LinkedHashMap<>();
+  private final Map<String, String> functions = new LinkedHashMap<>();
+  private final Map<String, String> tvfs = new LinkedHashMap<>();
+  private final Map<String, String> procedures = new LinkedHashMap<>();
+
+  private final Set<String> createdTables = new HashSet<>();
+  private final Set<String> createdFunctions = new HashSet<>();
+  private final Set<String> createdProcedures = new HashSet<>();
+  private final Deque<Scope> scopes = new ArrayDeque<>(List.of(new Scope()));
+
+  /**
+   * Parses a script and collects the resources it references.
+   *
+   * @param script The script to collect references from
+   * @param languageOptions The LanguageOptions to parse the script with
+   * @return The resources referenced by the script
+   * @throws com.google.zetasql.SqlException if the script is not syntactically valid
+   */
+  public static ReferencedResources collect(String script, LanguageOptions languageOptions) {
+    ReferencedResourceCollector collector = new ReferencedResourceCollector();
+    Parser.parseScript(script, languageOptions).accept(collector);
+    return collector.getReferencedResources();
+  }
+
+  /** The resources referenced by the scripts visited so far */
+  public ReferencedResources getReferencedResources() {
+    return new ReferencedResources(
+        tables.values(), functions.values(), tvfs.values(), procedures.values());
+  }
+
+  /**
+   * Forgets the resources created by the previous script, while keeping the references
+   * collected so far.
+   */
+  public void reset() {
+    createdTables.clear();
+    createdFunctions.clear();
+    createdProcedures.clear();
+    resetScopes();
+  }
+
+  private static List<String> namesOf(ASTPathExpression path) {
+    // A quoted identifier can contain a whole path, as in `project.dataset.table`
+    return path.getNames().stream()
+        .map(ASTIdentifier::getIdString)
+        .flatMap(name -> Arrays.stream(name.split("\\.")))
+        .collect(Collectors.toList());
+  }
+
+  private static String key(List<String> names) {
+    return String.join(".", names).toLowerCase(Locale.ROOT);
+  }
+
+  private static String key(ASTPathExpression path) {
+    return key(namesOf(path));
+  }
+
+  private void resetScopes() {
+    scopes.clear();
+    scopes.push(new Scope());
+  }
+
+  private boolean startsWithRangeVariable(List<String> names) {
+    String name = names.get(0).toLowerCase(Locale.ROOT);
+    return scopes.stream().anyMatch(scope -> !scope.hidden && scope.rangeVariables.contains(name));
+  }
+
+  private void collect(
+      Map<String, String> references, Set<String> created, ASTPathExpression path) {
+    if (path == null) {
+      return;
+    }
+
+    List<String> names = namesOf(path);
+    String key = key(names);
+    if (names.size() < 2
+        || names.get(0).equalsIgnoreCase(SESSION_NAMESPACE)
+        || created.contains(key)
+        || startsWithRangeVariable(names)) {
+      return;
+    }
+    references.putIfAbsent(key, String.join(".", names));
+  }
+
+  private void collectTable(ASTGeneralizedPathExpression path) {
+    if (path instanceof ASTPathExpression) {
+      collect(tables, createdTables, (ASTPathExpression) path);
+    }
+  }
+
+  private void addRangeVariable(ASTAlias alias, ASTPathExpression path) {
+    Set<String> rangeVariables = scopes.peek().rangeVariables;
+    if (alias != null) {
+      rangeVariables.add(alias.getIdentifier().getIdString().toLowerCase(Locale.ROOT));
+    } else if (path != null) {
+      // Tables without an explicit alias are implicitly aliased by their last name
+      List<String> names = namesOf(path);
+      rangeVariables.add(names.get(names.size() - 1).toLowerCase(Locale.ROOT));
+    }
+  }
+
+  @Override
+  public void visit(ASTStatementList node) {
+    for (ASTStatement statement : node.getStatementList()) {
+      resetScopes();
+      statement.accept(this);
+    }
+  }
+
+  @Override
+  public void visit(ASTTablePathExpression node) {
+    // Collect before adding the alias, so that "FROM dataset.t AS dataset" is still collected
+    collectTable(node.getPathExpr());
+    addRangeVariable(node.getAlias(), node.getPathExpr());
+    super.visit(node);
+  }
+
+  @Override
+  public void visit(ASTSelect node) {
+    scopes.push(new Scope());
+    super.visit(node);
+    scopes.pop();
+  }
+
+  @Override
+  public void visit(ASTTableSubquery node) {
+    // A subquery in FROM can't refer to the FROM items before it, only to enclosing SELECTs
+    Scope scope = scopes.peek();
+    boolean hidden = scope.hidden;
+    scope.hidden = true;
+    super.visit(node);
+    scope.hidden = hidden;
+    addRangeVariable(node.getAlias(), null);
+  }
+
+  @Override
+  public void visit(ASTFunctionCall node) {
+    List<String> names = namesOf(node.getFunction());
+    if (!BUILTIN_FUNCTION_NAMESPACES.contains(names.get(0).toLowerCase(Locale.ROOT))) {
+      collect(functions, createdFunctions, node.getFunction());
+    }
+    super.visit(node);
+  }
+
+  @Override
+  public void visit(ASTTVF node) {
+    collect(tvfs, createdFunctions, node.getName());
+    if (node.getAlias() != null) {
+      addRangeVariable(node.getAlias(), null);
+    }
+    super.visit(node);
+  }
+
+  @Override
+  public void visit(ASTCallStatement node) {
+    collect(procedures, createdProcedures, node.getProcedureName());
+    super.visit(node);
+  }
+
+  @Override
+  public void visit(ASTInsertStatement node) {
+    collectTable(node.getTargetPath());
+    super.visit(node);
+  }
+
+  @Override
+  public void visit(ASTUpdateStatement node) {
+    collectTable(node.getTargetPath());
+    super.visit(node);
+  }
+
+  @Override
+  public void visit(ASTDeleteStatement node) {
+    collectTable(node.getTargetPath());
+    super.visit(node);
+  }
+
+  @Override
+  public void visit(ASTMergeStatement node) {
+    // The target's alias is out of scope in the source, and paths elsewhere may be collected
+    collectTable(node.getTargetPath());
+    super.visit(node);
+  }
+
+  @Override
+  public void visit(ASTTruncateStatement node) {
+    collectTable(node.getTargetPath());
+    super.visit(node);
+  }
+
+  // CREATE statements are visited before recording the created resource, so that
+  // "CREATE OR REPLACE TABLE dataset.t AS SELECT * FROM dataset.t" still collects the table
+
+  @Override
+  public void visit(ASTCreateTableStatement node) {
+    collectTable(node.getLikeTableName());
+    if (node.getCloneDataSource() != null) {
+      collectTable(node.getCloneDataSource().getPathExpr());
+    }
+    if (node.getCopyDataSource() != null) {
+      collectTable(node.getCopyDataSource().getPathExpr());
+    }
+    super.visit(node);
+    createdTables.add(key(node.getName()));
+  }
+
+  @Override
+  public void visit(ASTCreateExternalTableStatement node) {
+    super.visit(node);
+    createdTables.add(key(node.getName()));
+  }
+
+  @Override
+  public void visit(ASTCreateViewStatement node) {
+    super.visit(node);
+    createdTables.add(key(node.getName()));
+  }
+
+  @Override
+  public void visit(ASTCreateMaterializedViewStatement node) {
+    super.visit(node);
+    createdTables.add(key(node.getName()));
+  }
+
+  @Override
+  public void visit(ASTCreateFunctionStatement node) {
+    super.visit(node);
+    createdFunctions.add(key(node.getFunctionDeclaration().getName()));
+  }
+
+  @Override
+  public void visit(ASTCreateTableFunctionStatement node) {
+    super.visit(node);
+    createdFunctions.add(key(node.getFunctionDeclaration().getName()));
+  }
+
+  @Override
+  public void visit(ASTCreateProcedureStatement node) {
+    super.visit(node);
+    createdProcedures.add(key(node.getName()));
+  }
+
+  /** The range variables a SELECT declares */
+  private static final class Scope {
+
+    private final Set<String> rangeVariables = new HashSet<>();
+
+    /** Whether the range variables are out of reach, while visiting a subquery in FROM */
+    private boolean hidden = false;
+
+  }
+
+}
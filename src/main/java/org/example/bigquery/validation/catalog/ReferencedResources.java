@@ -0,0 +1,76 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.catalog;
+
+import com.google.common.collect.ImmutableSet;
+import java.util.Collection;
+
+/**
+ * The tables, functions, TVFs and procedures referenced by one or more scripts, as written in
+ * the scripts (e.g. "dataset.table" or "project.dataset.table").
+ */
+public class ReferencedResources {
+
+  private final ImmutableSet<String> tables;
+  private final ImmutableSet<String> functions;
+  private final ImmutableSet<String> tvfs;
+  private final ImmutableSet<String> procedures;
+
+  public ReferencedResources(
+      Collection<String> tables,
+      Collection<String> functions,
+      Collection<String> tvfs,
+      Collection<String> procedures) {
+    this.tables = ImmutableSet.copyOf(tables);
+    this.functions = ImmutableSet.copyOf(functions);
+    this.tvfs = ImmutableSet.copyOf(tvfs);
+    this.procedures = ImmutableSet.copyOf(procedures);
+  }
+
+  public ImmutableSet<String> getTables() {
+    return tables;
+  }
+
+  public ImmutableSet<String> getFunctions() {
+    return functions;
+  }
+
+  public ImmutableSet<String> getTVFs() {
+    return tvfs;
+  }
+
+  public ImmutableSet<String> getProcedures() {
+    return procedures;
+  }
+
+  /** The total number of referenced resources */
+  public int size() {
+    return tables.size() + functions.size() + tvfs.size() + procedures.size();
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "ReferencedResources{tables=%s, functions=%s, tvfs=%s, procedures=%s}",
+        tables, functions, tvfs, procedures);
+  }
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.catalog;
+
+import com.google.zetasql.Analyzer;
+import com.google.zetasql.AnalyzerOptions;
+import com.google.zetasql.SimpleCatalog;
+import com.google.zetasql.SimpleTable;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedStatement;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Keeps a {@link SimpleCatalog} registered with the ZetaSQL local service.
+ *
+ * When analyzing against an unregistered catalog, the whole catalog is serialized and sent to
+ * the native analyzer on every call. A registered catalog is sent once and later analysis calls
+ * only send its id, which makes analysis much cheaper for catalogs with many tables.
+ *
+ * A registered SimpleCatalog cannot be modified. This class unregisters the catalog when adding
+ * or removing tables and lazily registers it again on the next analysis, so catalogs that change
+ * rarely only pay for serialization when they actually change.
+ *
+ * Analysis can run concurrently from many threads. Modifications wait for in-flight analysis to
+ * finish.
+ */
+public class RegisteredCatalog implements AutoCloseable {
+
+  private final SimpleCatalog catalog;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private long registrationCount = 0;
+
+  public RegisteredCatalog(SimpleCatalog catalog) {
+    this.catalog = catalog;
+  }
+
+  /**
+   * Analyzes a statement against the registered catalog, registering it first if needed.
+   *
+   * @param query The SQL statement to analyze
+   * @param options The AnalyzerOptions to use
+   * @return The ResolvedStatement produced by the Analyzer
+   * @throws com.google.zetasql.SqlException if the statement is not valid
+   */
+  public ResolvedStatement analyzeStatement(String query, AnalyzerOptions options) {
+    return withRegisteredCatalog(
+        registeredCatalog -> Analyzer.analyzeStatement(query, options, registeredCatalog));
+  }
+
+  /**
+   * Runs an action using the registered catalog. The catalog is guaranteed to stay registered
+   * and unmodified while the action runs.
+   *
+   * @param action The action to run, which receives the registered SimpleCatalog
+   * @return The value returned by the action
+   */
+  public <T> T withRegisteredCatalog(Function<SimpleCatalog, T> action) {
+    lock.readLock().lock();
+    try {
+      while (!catalog.isRegistered()) {
+        // Registering requires the write lock, which can't be acquired while holding
+        // the read lock. A modification might sneak in before we re-acquire it, so re-check.
+        lock.readLock().unlock();
+        try {
+          ensureRegistered();
+        } finally {
+          lock.readLock().lock();
+        }
+      }
+      return action.apply(catalog);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Adds a table to the catalog. The catalog will be registered again on the next analysis.
+   *
+   * @param name The name of the table in the catalog
+   * @param table The table to add
+   */
+  public void addSimpleTable(String name, SimpleTable table) {
+    modify(simpleCatalog -> simpleCatalog.addSimpleTable(name, table));
+  }
+
+  /**
+   * Removes a table from the catalog. The catalog will be registered again on the next analysis.
+   *
+   * @param name The name of the table in the catalog
+   */
+  public void removeSimpleTable(String name) {
+    modify(simpleCatalog -> simpleCatalog.removeSimpleTable(name));
+  }
+
+  /**
+   * Applies an arbitrary modification to the underlying SimpleCatalog, unregistering it first.
+   * The catalog will be registered again on the next analysis.
+   *
+   * @param modification The modification to apply
+   */
+  public void modify(Consumer<SimpleCatalog> modification) {
+    lock.writeLock().lock();
+    try {
+      if (catalog.isRegistered()) {
+        catalog.unregister();
+      }
+      modification.accept(catalog);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  public boolean isRegistered() {
+    lock.readLock().lock();
+    try {
+      return catalog.isRegistered();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** The number of times the catalog has been registered with the local service */
+  public long getRegistrationCount() {
+    lock.readLock().lock();
+    try {
+      return registrationCount;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private void ensureRegistered() {
+    lock.writeLock().lock();
+    try {
+      if (!catalog.isRegistered()) {
+        catalog.register();
+        registrationCount++;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Unregisters the catalog from the local service, releasing its native resources */
+  @Override
+  public void close() {
+    lock.writeLock().lock();
+    try {
+      if (catalog.isRegistered()) {
+        catalog.unregister();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+}
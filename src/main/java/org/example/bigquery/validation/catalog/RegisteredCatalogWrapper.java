@@ -0,0 +1,174 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.catalog;
+
+import com.google.zetasql.SimpleCatalog;
+import com.google.zetasql.SimpleTable;
+import com.google.zetasql.resolvedast.ResolvedCreateStatementEnums.CreateMode;
+import com.google.zetasql.resolvedast.ResolvedCreateStatementEnums.CreateScope;
+import com.google.zetasql.toolkit.catalog.CatalogWrapper;
+import com.google.zetasql.toolkit.catalog.bigquery.FunctionInfo;
+import com.google.zetasql.toolkit.catalog.bigquery.ProcedureInfo;
+import com.google.zetasql.toolkit.catalog.bigquery.TVFInfo;
+import java.util.List;
+
+/**
+ * {@link CatalogWrapper} that keeps the wrapped catalog registered with the ZetaSQL local
+ * service, so that the {@link com.google.zetasql.toolkit.ZetaSQLToolkitAnalyzer} does not
+ * serialize it for every statement it analyzes.
+ *
+ * The underlying SimpleCatalog is registered when {@link #getZetaSQLCatalog()} is called,
+ * which the analyzer does before analyzing each statement. Any operation that adds or removes
+ * resources (including the catalog updates the analyzer performs for DDL statements) unregisters
+ * it first; so the catalog is only registered again after it actually changed.
+ *
+ * To keep reusing the registration across statements, analyze scripts in place:
+ * {@code analyzer.analyzeStatements(query, registeredCatalog, true)}. Otherwise, the analyzer
+ * copies the catalog and registers the copy.
+ *
+ * Like the catalogs it wraps, this class is not thread-safe. Use {@link RegisteredCatalog} to
+ * share a registered SimpleCatalog between threads.
+ */
+public class RegisteredCatalogWrapper implements CatalogWrapper, AutoCloseable {
+
+  private final CatalogWrapper delegate;
+  private long registrationCount = 0;
+
+  public RegisteredCatalogWrapper(CatalogWrapper delegate) {
+    this.delegate = delegate;
+  }
+
+  private void unregister() {
+    SimpleCatalog catalog = delegate.getZetaSQLCatalog();
+    if (catalog.isRegistered()) {
+      catalog.unregister();
+    }
+  }
+
+  @Override
+  public void register(SimpleTable table, CreateMode createMode, CreateScope createScope) {
+    unregister();
+    delegate.register(table, createMode, createScope);
+  }
+
+  @Override
+  public void register(FunctionInfo function, CreateMode createMode, CreateScope createScope) {
+    unregister();
+    delegate.register(function, createMode, createScope);
+  }
+
+  @Override
+  public void register(TVFInfo tvfInfo, CreateMode createMode, CreateScope createScope) {
+    unregister();
+    delegate.register(tvfInfo, createMode, createScope);
+  }
+
+  @Override
+  public void register(ProcedureInfo procedureInfo, CreateMode createMode,
+      CreateScope createScope) {
+    unregister();
+    delegate.register(procedureInfo, createMode, createScope);
+  }
+
+  @Override
+  public void removeTable(String table) {
+    unregister();
+    delegate.removeTable(table);
+  }
+
+  @Override
+  public void removeFunction(String function) {
+    unregister();
+    delegate.removeFunction(function);
+  }
+
+  @Override
+  public void removeTVF(String function) {
+    unregister();
+    delegate.removeTVF(function);
+  }
+
+  @Override
+  public void removeProcedure(String procedure) {
+    unregister();
+    delegate.removeProcedure(procedure);
+  }
+
+  @Override
+  public void addTables(List<String> tables) {
+    unregister();
+    delegate.addTables(tables);
+  }
+
+  @Override
+  public void addFunctions(List<String> functions) {
+    unregister();
+    delegate.addFunctions(functions);
+  }
+
+  @Override
+  public void addTVFs(List<String> functions) {
+    unregister();
+    delegate.addTVFs(functions);
+  }
+
+  @Override
+  public void addProcedures(List<String> procedures) {
+    unregister();
+    delegate.addProcedures(procedures);
+  }
+
+  /**
+   * Returns a registered copy of this catalog. The copy is registered independently of this
+   * catalog, when it's first used for analysis.
+   */
+  @Override
+  public RegisteredCatalogWrapper copy() {
+    return new RegisteredCatalogWrapper(delegate.copy());
+  }
+
+  /**
+   * Returns the underlying SimpleCatalog, registering it first if needed. The returned catalog
+   * must not be modified directly; use the methods of this wrapper instead.
+   */
+  @Override
+  public SimpleCatalog getZetaSQLCatalog() {
+    SimpleCatalog catalog = delegate.getZetaSQLCatalog();
+    if (!catalog.isRegistered()) {
+      catalog.register();
+      registrationCount++;
+    }
+    return catalog;
+  }
+
+  /** The wrapped catalog */
+  public CatalogWrapper getDelegate() {
+    return delegate;
+  }
+
+  /** The number of times the catalog has been registered with the local service */
+  public long getRegistrationCount() {
+    return registrationCount;
+  }
+
+  /** Unregisters the catalog from the local service, releasing its native resources */
+  @Override
+  public void close() {
+    unregister();
+  }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.catalog;
+
+import com.google.common.collect.ImmutableList;
+import com.google.zetasql.SimpleCatalog;
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Shallow copies of SimpleCatalogs.
+ *
+ * SimpleCatalog only offers deep copies through serialization, which cost as much as the
+ * catalog is big. A shallow copy duplicates the catalog's own name maps but shares the tables,
+ * functions and nested catalogs they point to, so it costs as much as the number of entries
+ * directly in the catalog.
+ *
+ * SimpleCatalog does not expose its maps, so they're copied reflectively. The field names
+ * match the zetasql version this project depends on; a mismatch fails when this class is
+ * loaded rather than producing incomplete copies.
+ */
+final class SimpleCatalogs {
+
+  /** Maps and sets holding the catalog's entries, copied entry by entry */
+  private static final ImmutableList<String> COLLECTION_FIELDS = ImmutableList.of(
+      "constants", "tables", "types", "catalogs", "tablesById", "customFunctions", "tvfs",
+      "functionsByFullName", "procedures", "globalNames");
+
+  /** Other state copied by reference. Registration state is not copied. */
+  private static final ImmutableList<String> REFERENCE_FIELDS = ImmutableList.of(
+      "descriptorPool", "builtinFunctionOptions");
+
+  private static final ImmutableList<Field> COLLECTIONS = accessibleFields(COLLECTION_FIELDS);
+  private static final ImmutableList<Field> REFERENCES = accessibleFields(REFERENCE_FIELDS);
+
+  private SimpleCatalogs() {}
+
+  private static ImmutableList<Field> accessibleFields(ImmutableList<String> names) {
+    ImmutableList.Builder<Field> fields = ImmutableList.builder();
+    for (String name : names) {
+      try {
+        Field field = SimpleCatalog.class.getDeclaredField(name);
+        field.setAccessible(true);
+        fields.add(field);
+      } catch (NoSuchFieldException e) {
+        throw new IllegalStateException(
+            "Unsupported zetasql version, SimpleCatalog has no field " + name, e);
+      }
+    }
+    return fields.build();
+  }
+
+  /**
+   * Creates an unregistered copy of a catalog that contains the same tables, functions, TVFs,
+   * procedures, constants, types and nested catalogs. Nested catalogs are shared, not copied.
+   */
+  @SuppressWarnings("unchecked")
+  static SimpleCatalog shallowCopy(SimpleCatalog catalog) {
+    SimpleCatalog copy = new SimpleCatalog(catalog.getFullName(), catalog.getTypeFactory());
+
+    try {
+      for (Field field : COLLECTIONS) {
+        Object source = field.get(catalog);
+        Object target = field.get(copy);
+        if (source instanceof Map) {
+          ((Map<Object, Object>) target).putAll((Map<Object, Object>) source);
+        } else {
+          ((Collection<Object>) target).addAll((Collection<Object>) source);
+        }
+      }
+      for (Field field : REFERENCES) {
+        field.set(copy, field.get(catalog));
+      }
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException("Could not copy SimpleCatalog " + catalog.getFullName(), e);
+    }
+
+    return copy;
+  }
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.guard;
+
+import java.time.Duration;
+
+/**
+ * Thrown by {@link StatementGuard#call} when a ZetaSQL call doesn't finish within the guard's
+ * deadline. The call was abandoned, so whether the statement is valid is unknown.
+ */
+public class DeadlineExceededException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final Duration deadline;
+
+  public DeadlineExceededException(Duration deadline, Throwable cause) {
+    super(String.format("Validation exceeded its deadline of %d ms", deadline.toMillis()), cause);
+    this.deadline = deadline;
+  }
+
+  /** The deadline the call exceeded */
+  public Duration getDeadline() {
+    return deadline;
+  }
+
+}
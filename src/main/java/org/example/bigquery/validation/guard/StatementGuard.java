@@ -0,0 +1,183 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.guard;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.zetasql.io.grpc.Context;
+import com.google.zetasql.io.grpc.Status;
+import com.google.zetasql.io.grpc.StatusRuntimeException;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Protects validation from pathological statements: rejects statements over its
+ * {@link StatementLimits} before they reach ZetaSQL, and gives every ZetaSQL call a deadline.
+ *
+ * Parser and Analyzer calls are blocking gRPC calls to the ZetaSQL local service, so the
+ * deadline is set on the gRPC {@link Context} the call runs in. When it expires, the call fails
+ * and the calling thread moves on, but the local service keeps working on the abandoned request
+ * until it finishes: in this JVM, that's one of the native library's threads. Local services in
+ * child processes are stopped and replaced instead (see
+ * {@link org.example.bigquery.validation.localservice.LocalServicePool}).
+ *
+ * <pre>{@code
+ * StatementGuard guard = new StatementGuard(Duration.ofSeconds(5), StatementLimits.DEFAULT);
+ * Optional<String> rejection = guard.check(query);
+ * ResolvedStatement statement =
+ *     guard.call(() -> Analyzer.analyzeStatement(query, options, catalog));
+ * }</pre>
+ */
+public final class StatementGuard {
+
+  /** The system property setting the deadline in milliseconds; 0 disables it */
+  public static final String DEADLINE_PROPERTY = "bigquery.validation.deadline.millis";
+
+  /** The system property setting {@link StatementLimits#getMaxLength()} */
+  public static final String MAX_LENGTH_PROPERTY = "bigquery.validation.limits.length";
+
+  /** The system property setting {@link StatementLimits#getMaxNestingDepth()} */
+  public static final String MAX_NESTING_DEPTH_PROPERTY = "bigquery.validation.limits.depth";
+
+  /** The system property setting {@link StatementLimits#getMaxSetOperations()} */
+  public static final String MAX_SET_OPERATIONS_PROPERTY =
+      "bigquery.validation.limits.setOperations";
+
+  /** The deadline used when {@link #DEADLINE_PROPERTY} is not set */
+  public static final Duration DEFAULT_DEADLINE = Duration.ofSeconds(10);
+
+  /** A guard with no deadline that accepts every statement */
+  public static final StatementGuard NONE = new StatementGuard(null, StatementLimits.NONE);
+
+  private final Duration deadline;
+  private final StatementLimits limits;
+
+  /**
+   * @param deadline How long each ZetaSQL call may take, or null for no deadline
+   * @param limits The limits statements are checked against
+   */
+  public StatementGuard(Duration deadline, StatementLimits limits) {
+    Preconditions.checkArgument(
+        deadline == null || !deadline.isNegative() && !deadline.isZero(),
+        "deadline must be positive");
+    this.deadline = deadline;
+    this.limits = limits;
+  }
+
+  /**
+   * Creates a guard from the {@code bigquery.validation.deadline.millis} and
+   * {@code bigquery.validation.limits.*} system properties, using {@link #DEFAULT_DEADLINE} and
+   * {@link StatementLimits#DEFAULT} for those not set.
+   */
+  public static StatementGuard fromSystemProperties() {
+    long deadlineMillis = Long.getLong(DEADLINE_PROPERTY, DEFAULT_DEADLINE.toMillis());
+    StatementLimits limits = new StatementLimits(
+        Integer.getInteger(MAX_LENGTH_PROPERTY, StatementLimits.DEFAULT.getMaxLength()),
+        Integer.getInteger(
+            MAX_NESTING_DEPTH_PROPERTY, StatementLimits.DEFAULT.getMaxNestingDepth()),
+        Integer.getInteger(
+            MAX_SET_OPERATIONS_PROPERTY, StatementLimits.DEFAULT.getMaxSetOperations()));
+    return new StatementGuard(
+        deadlineMillis > 0 ? Duration.ofMillis(deadlineMillis) : null, limits);
+  }
+
+  /** The deadline of each ZetaSQL call, if there is one */
+  public Optional<Duration> getDeadline() {
+    return Optional.ofNullable(deadline);
+  }
+
+  public StatementLimits getLimits() {
+    return limits;
+  }
+
+  /**
+   * Checks a statement against the limits.
+   *
+   * @param sql The SQL text
+   * @return Why the statement is rejected, or empty if it may be validated
+   */
+  public Optional<String> check(String sql) {
+    return limits.check(sql);
+  }
+
+  /**
+   * Runs a ZetaSQL call under the deadline.
+   *
+   * @param call Makes the call on the current thread
+   * @return The call's result
+   * @throws DeadlineExceededException if the deadline expires before the call finishes
+   */
+  public <T> T call(Supplier<T> call) {
+    if (deadline == null) {
+      return call.get();
+    }
+
+    Context.CancellableContext context = Context.current().withDeadlineAfter(
+        deadline.toNanos(), TimeUnit.NANOSECONDS, Scheduler.INSTANCE);
+    try {
+      return context.call(call::get);
+    } catch (RuntimeException e) {
+      if (isDeadlineExceeded(e)) {
+        throw new DeadlineExceededException(deadline, e);
+      }
+      throw e;
+    } catch (Exception e) {
+      // Suppliers only throw unchecked exceptions
+      throw new IllegalStateException(e);
+    } finally {
+      context.cancel(null);
+    }
+  }
+
+  /**
+   * Whether an exception comes from a call that ran out of time. ZetaSQL wraps the local
+   * service's gRPC status in a {@link com.google.zetasql.SqlException}.
+   */
+  static boolean isDeadlineExceeded(Throwable error) {
+    for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+      if (cause instanceof StatusRuntimeException
+          && ((StatusRuntimeException) cause).getStatus().getCode()
+              == Status.Code.DEADLINE_EXCEEDED) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("deadline %s, %s",
+        deadline == null ? "none" : deadline.toMillis() + " ms", limits);
+  }
+
+  /** Expires the deadlines of all guards, created on first use */
+  private static final class Scheduler {
+
+    private static final ScheduledExecutorService INSTANCE =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("statement-deadline-%d")
+                .setDaemon(true)
+                .build());
+
+  }
+
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.guard;
+
+import com.google.common.base.Preconditions;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * Size limits checked on a statement's text before it's sent to ZetaSQL.
+ *
+ * The time ZetaSQL takes to parse and analyze a statement grows quickly with its nesting depth,
+ * and a few thousand nested expressions or chained set operations can keep a local service
+ * thread busy for seconds. Deeply nested statements fail anyway once their trees are too deep
+ * for the local service's protocol. This check is a single linear scan in Java: it skips
+ * comments, string literals and quoted identifiers, measures nesting as the depth of
+ * parentheses, brackets and CASE expressions, and counts UNION, INTERSECT and EXCEPT operators.
+ * It never parses, so it can only reject statements, never accept them.
+ */
+public final class StatementLimits {
+
+  /** Limits that never reject a statement */
+  public static final StatementLimits NONE =
+      new StatementLimits(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+  /**
+   * Limits far above what real statements reach, but low enough to keep the slowest statements
+   * they accept to well under a second
+   */
+  public static final StatementLimits DEFAULT = new StatementLimits(1 << 20, 200, 1000);
+
+  private final int maxLength;
+  private final int maxNestingDepth;
+  private final int maxSetOperations;
+
+  /**
+   * @param maxLength The longest statement accepted, in characters
+   * @param maxNestingDepth The deepest nesting of parentheses, brackets and CASE expressions
+   *     accepted
+   * @param maxSetOperations The most UNION, INTERSECT and EXCEPT operators accepted
+   */
+  public StatementLimits(int maxLength, int maxNestingDepth, int maxSetOperations) {
+    Preconditions.checkArgument(maxLength > 0, "maxLength must be positive");
+    Preconditions.checkArgument(maxNestingDepth > 0, "maxNestingDepth must be positive");
+    Preconditions.checkArgument(maxSetOperations >= 0, "maxSetOperations must not be negative");
+    this.maxLength = maxLength;
+    this.maxNestingDepth = maxNestingDepth;
+    this.maxSetOperations = maxSetOperations;
+  }
+
+  public int getMaxLength() {
+    return maxLength;
+  }
+
+  public int getMaxNestingDepth() {
+    return maxNestingDepth;
+  }
+
+  public int getMaxSetOperations() {
+    return maxSetOperations;
+  }
+
+  /**
+   * Checks a statement or script against the limits.
+   *
+   * @param sql The SQL text
+   * @return Why the text exceeds a limit, or empty if it's within all of them
+   */
+  public Optional<String> check(String sql) {
+    if (sql.length() > maxLength) {
+      return Optional.of(String.format(
+          "Statement rejected: length of %d characters exceeds the limit of %d",
+          sql.length(), maxLength));
+    }
+    if (this == NONE) {
+      return Optional.empty();
+    }
+
+    Scan scan = new Scan(sql);
+    scan.run();
+    if (scan.maxDepth > maxNestingDepth) {
+      return Optional.of(String.format(
+          "Statement rejected: nesting depth of %d exceeds the limit of %d",
+          scan.maxDepth, maxNestingDepth));
+    }
+    if (scan.setOperations > maxSetOperations) {
+      return Optional.of(String.format(
+          "Statement rejected: %d set operations exceed the limit of %d",
+          scan.setOperations, maxSetOperations));
+    }
+    return Optional.empty();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("length <= %d, nesting depth <= %d, set operations <= %d",
+        maxLength, maxNestingDepth, maxSetOperations);
+  }
+
+  /** A single pass over a text, measuring its nesting depth and set operations */
+  private static final class Scan {
+
+    private final String sql;
+    private int position = 0;
+    private int bracketDepth = 0;
+    private int caseDepth = 0;
+    private int maxDepth = 0;
+    private int setOperations = 0;
+    // Set after UNION, INTERSECT or EXCEPT, which are only set operators before ALL or DISTINCT
+    private boolean afterSetOperator = false;
+    // Set after END, so that the CASE of END CASE doesn't open a CASE expression
+    private boolean afterEnd = false;
+
+    private Scan(String sql) {
+      this.sql = sql;
+    }
+
+    private void run() {
+      while (position < sql.length()) {
+        char c = sql.charAt(position);
+        if (Character.isWhitespace(c)) {
+          position++;
+        } else if (c == '#' || sql.startsWith("--", position)) {
+          skipLineComment();
+        } else if (sql.startsWith("/*", position)) {
+          int end = sql.indexOf("*/", position + 2);
+          position = end == -1 ? sql.length() : end + 2;
+        } else if (c == '\'' || c == '"' || c == '`') {
+          skipQuoted(c);
+          endKeywordSequence();
+        } else if (Character.isLetter(c) || c == '_') {
+          word();
+        } else {
+          if (c == '(' || c == '[') {
+            bracketDepth++;
+            maxDepth = Math.max(maxDepth, bracketDepth + caseDepth);
+          } else if ((c == ')' || c == ']') && bracketDepth > 0) {
+            bracketDepth--;
+          }
+          position++;
+          endKeywordSequence();
+        }
+      }
+    }
+
+    private void word() {
+      int start = position;
+      while (position < sql.length()
+          && (Character.isLetterOrDigit(sql.charAt(position)) || sql.charAt(position) == '_')) {
+        position++;
+      }
+      // A string literal's prefix, as in r'...' or b"..."
+      if (position < sql.length() && position - start <= 2
+          && (sql.charAt(position) == '\'' || sql.charAt(position) == '"')) {
+        skipQuoted(sql.charAt(position));
+        endKeywordSequence();
+        return;
+      }
+
+      String word = sql.substring(start, position).toUpperCase(Locale.ROOT);
+      boolean setOperator = false;
+      boolean end = false;
+      switch (word) {
+        case "CASE":
+          if (!afterEnd) {
+            caseDepth++;
+            maxDepth = Math.max(maxDepth, bracketDepth + caseDepth);
+          }
+          break;
+        case "END":
+          if (caseDepth > 0) {
+            caseDepth--;
+          }
+          end = true;
+          break;
+        case "UNION":
+        case "INTERSECT":
+        case "EXCEPT":
+          setOperator = true;
+          break;
+        case "ALL":
+        case "DISTINCT":
+          if (afterSetOperator) {
+            setOperations++;
+          }
+          break;
+        default:
+          break;
+      }
+      afterSetOperator = setOperator;
+      afterEnd = end;
+    }
+
+    private void skipLineComment() {
+      int end = sql.indexOf('\n', position);
+      position = end == -1 ? sql.length() : end + 1;
+    }
+
+    /** Skips a quoted literal or identifier starting at the current position */
+    private void skipQuoted(char quote) {
+      if (quote != '`' && sql.startsWith(String.valueOf(quote).repeat(3), position)) {
+        String delimiter = String.valueOf(quote).repeat(3);
+        position += 3;
+        while (position < sql.length()) {
+          if (sql.charAt(position) == '\\') {
+            // Skips the escaped character, which may be a quote or another backslash
+            position += 2;
+          } else if (sql.startsWith(delimiter, position)) {
+            position += 3;
+            return;
+          } else {
+            position++;
+          }
+        }
+        position = sql.length();
+        return;
+      }
+
+      position++;
+      while (position < sql.length()) {
+        char c = sql.charAt(position);
+        if (c == '\\') {
+          position += 2;
+        } else if (c == quote) {
+          position++;
+          return;
+        } else if (c == '\n' && quote != '`') {
+          // Unterminated; let ZetaSQL report it
+          return;
+        } else {
+          position++;
+        }
+      }
+    }
+
+    private void endKeywordSequence() {
+      afterSetOperator = false;
+      afterEnd = false;
+    }
+
+  }
+
+}
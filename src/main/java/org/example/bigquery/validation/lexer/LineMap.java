@@ -0,0 +1,132 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.lexer;
+
+import java.util.Arrays;
+
+/**
+ * Translates char offsets in a text to lines, columns and offsets in its UTF-8 encoding, the
+ * way {@link org.example.bigquery.validation.script.ScriptStatementReader} counts them: lines
+ * are separated by '\n', columns count chars except the second half of surrogate pairs, and
+ * each half of a surrogate pair accounts for 2 of the pair's 4 bytes.
+ *
+ * Built in one pass over the text, after which every translation is a binary search over the
+ * line starts plus a scan of the line.
+ */
+public final class LineMap {
+
+  private final CharSequence text;
+  private final int[] lineStarts;
+  private final long[] lineByteStarts;
+
+  private LineMap(CharSequence text, int[] lineStarts, long[] lineByteStarts) {
+    this.text = text;
+    this.lineStarts = lineStarts;
+    this.lineByteStarts = lineByteStarts;
+  }
+
+  public static LineMap of(CharSequence text) {
+    int[] lineStarts = new int[16];
+    long[] lineByteStarts = new long[16];
+    int lineCount = 1;
+
+    long byteOffset = 0;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      byteOffset += utf8Length(c);
+      if (c == '\n') {
+        if (lineCount == lineStarts.length) {
+          lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+          lineByteStarts = Arrays.copyOf(lineByteStarts, lineCount * 2);
+        }
+        lineStarts[lineCount] = i + 1;
+        lineByteStarts[lineCount] = byteOffset;
+        lineCount++;
+      }
+    }
+
+    return new LineMap(
+        text, Arrays.copyOf(lineStarts, lineCount), Arrays.copyOf(lineByteStarts, lineCount));
+  }
+
+  public int getLineCount() {
+    return lineStarts.length;
+  }
+
+  /** The line of the char at an offset, starting at 1 */
+  public int getLine(int offset) {
+    return lineIndex(offset) + 1;
+  }
+
+  /** The column of the char at an offset, starting at 1 */
+  public int getColumn(int offset) {
+    int column = 1;
+    for (int i = lineStarts[lineIndex(offset)]; i < offset; i++) {
+      if (!Character.isLowSurrogate(text.charAt(i))) {
+        column++;
+      }
+    }
+    return column;
+  }
+
+  /** The offset in the UTF-8 encoded text of the char at an offset */
+  public long getByteOffset(int offset) {
+    int lineIndex = lineIndex(offset);
+    long byteOffset = lineByteStarts[lineIndex];
+    for (int i = lineStarts[lineIndex]; i < offset; i++) {
+      byteOffset += utf8Length(text.charAt(i));
+    }
+    return byteOffset;
+  }
+
+  /**
+   * The offset of the char at an offset in the UTF-8 encoded text, e.g. one reported by ZetaSQL.
+   * An offset in the middle of a char's encoding maps to the char after it.
+   */
+  public int getOffset(long byteOffset) {
+    int index = Arrays.binarySearch(lineByteStarts, byteOffset);
+    int lineIndex = index >= 0 ? index : -index - 2;
+    long lineByteOffset = lineByteStarts[lineIndex];
+    int offset = lineStarts[lineIndex];
+    while (lineByteOffset < byteOffset && offset < text.length()) {
+      lineByteOffset += utf8Length(text.charAt(offset++));
+    }
+    return offset;
+  }
+
+  private int lineIndex(int offset) {
+    if (offset < 0 || offset > text.length()) {
+      throw new IndexOutOfBoundsException(
+          String.format("Offset %d out of bounds for length %d", offset, text.length()));
+    }
+    int index = Arrays.binarySearch(lineStarts, offset);
+    return index >= 0 ? index : -index - 2;
+  }
+
+  private static int utf8Length(char c) {
+    if (c < 0x80) {
+      return 1;
+    } else if (c < 0x800) {
+      return 2;
+    } else if (Character.isSurrogate(c)) {
+      return 2;
+    } else {
+      return 3;
+    }
+  }
+
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.lexer;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * A pure-Java lexer for BigQuery SQL that needs no round trip to the ZetaSQL local service.
+ *
+ * It understands what matters for finding token boundaries: single, double and triple-quoted
+ * strings, raw and bytes literal prefixes ({@code r}, {@code b}, {@code rb}, {@code br}),
+ * backslash escapes, backtick-quoted identifiers, numbers and the three kinds of comment. It
+ * doesn't validate anything beyond that, e.g. escape sequences or keywords; invalid input still
+ * lexes into tokens, and only the parser can tell it's invalid.
+ *
+ * The lexer is a cursor over the text: {@link #next()} advances to the next token, whose
+ * position is then available from {@link #getTokenStart()} and {@link #getTokenEnd()}.
+ * Lexing allocates nothing, and tokens are compared with {@link #tokenEqualsIgnoreCase} rather
+ * than extracted as strings.
+ *
+ * <pre>{@code
+ * SqlLexer lexer = new SqlLexer(sql);
+ * while (lexer.next() != TokenKind.END) {
+ *   if (lexer.getKind() == TokenKind.IDENTIFIER && lexer.tokenEqualsIgnoreCase("SELECT")) {
+ *     ...
+ *   }
+ * }
+ * }</pre>
+ *
+ * Whitespace, including byte order marks, separates tokens and is never returned.
+ */
+public final class SqlLexer {
+
+  private final CharSequence text;
+  private final int end;
+  private int position;
+  private int tokenStart;
+  private int tokenEnd;
+  private TokenKind kind;
+
+  public SqlLexer(CharSequence text) {
+    this(text, 0, text.length());
+  }
+
+  /**
+   * @param text The text to lex
+   * @param start The offset of the first char to lex
+   * @param end The offset after the last char to lex
+   */
+  public SqlLexer(CharSequence text, int start, int end) {
+    if (start < 0 || start > end || end > text.length()) {
+      throw new IndexOutOfBoundsException(
+          String.format("Range [%d, %d) out of bounds for length %d", start, end, text.length()));
+    }
+    this.text = text;
+    this.end = end;
+    this.position = start;
+    this.tokenStart = start;
+    this.tokenEnd = start;
+  }
+
+  /**
+   * Advances to the next token.
+   *
+   * @return The token's kind, {@link TokenKind#END} once the input is exhausted
+   */
+  public TokenKind next() {
+    while (position < end && isWhitespace(text.charAt(position))) {
+      position++;
+    }
+
+    tokenStart = position;
+    if (position == end) {
+      kind = TokenKind.END;
+    } else {
+      kind = lex(text.charAt(position));
+    }
+    tokenEnd = position;
+    return kind;
+  }
+
+  /** The kind of the current token, or null before the first call to {@link #next()} */
+  public TokenKind getKind() {
+    return kind;
+  }
+
+  /** The offset of the current token's first char */
+  public int getTokenStart() {
+    return tokenStart;
+  }
+
+  /** The offset after the current token's last char */
+  public int getTokenEnd() {
+    return tokenEnd;
+  }
+
+  /** The first char of the current token, which must not be {@link TokenKind#END} */
+  public char getFirstChar() {
+    return text.charAt(tokenStart);
+  }
+
+  /** Whether the current token is the given word, ignoring ASCII case, e.g. a keyword */
+  public boolean tokenEqualsIgnoreCase(String word) {
+    int length = tokenEnd - tokenStart;
+    if (length != word.length()) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (toLowerCase(text.charAt(tokenStart + i)) != toLowerCase(word.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Hashes the tokens of a query as written, ignoring only the whitespace and comments between
+   * them. Queries with the same token hash parse to the same tree, so it's a key for memoizing
+   * what's computed from the parse tree without parsing again, as
+   * {@link org.example.bigquery.validation.cache.CachingValidator} does with fingerprints. Since
+   * this lexer may split some tokens the parser sees as one, whether each token directly follows
+   * the previous one is hashed too.
+   *
+   * @param text The query
+   * @return A 128-bit murmur3 hash of the query's tokens
+   */
+  public static HashCode tokenHash(CharSequence text) {
+    SqlLexer lexer = new SqlLexer(text);
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    int previousEnd = -1;
+    TokenKind kind;
+    while ((kind = lexer.next()) != TokenKind.END) {
+      if (kind == TokenKind.COMMENT) {
+        continue;
+      }
+      // The length separates tokens, so that e.g. "ab" and "a b" differ
+      hasher.putInt(kind.ordinal())
+          .putBoolean(lexer.tokenStart == previousEnd)
+          .putInt(lexer.tokenEnd - lexer.tokenStart);
+      for (int i = lexer.tokenStart; i < lexer.tokenEnd; i++) {
+        hasher.putChar(text.charAt(i));
+      }
+      previousEnd = lexer.tokenEnd;
+    }
+    return hasher.hash();
+  }
+
+  private TokenKind lex(char c) {
+    if (c == '#' || (c == '-' && charAt(position + 1) == '-')) {
+      while (position < end && text.charAt(position) != '\n') {
+        position++;
+      }
+      return TokenKind.COMMENT;
+    }
+    if (c == '/' && charAt(position + 1) == '*') {
+      return blockComment();
+    }
+    if (c == '\'' || c == '"') {
+      return quoted(TokenKind.STRING_LITERAL);
+    }
+    if (c == '`') {
+      return quotedIdentifier();
+    }
+    if (isDigit(c) || (c == '.' && isDigit(charAt(position + 1)))) {
+      return number();
+    }
+    if (isIdentifierChar(c)) {
+      return identifierOrPrefixedLiteral();
+    }
+    return symbol(c);
+  }
+
+  private TokenKind blockComment() {
+    position += 2;
+    while (position < end) {
+      if (text.charAt(position) == '*' && charAt(position + 1) == '/') {
+        position += 2;
+        return TokenKind.COMMENT;
+      }
+      position++;
+    }
+    return TokenKind.UNTERMINATED;
+  }
+
+  /** Lexes a string or bytes literal whose opening quote is at the current position */
+  private TokenKind quoted(TokenKind literalKind) {
+    char quote = text.charAt(position);
+    boolean tripleQuoted = charAt(position + 1) == quote && charAt(position + 2) == quote;
+    position += tripleQuoted ? 3 : 1;
+
+    while (position < end) {
+      char c = text.charAt(position);
+      if (c == '\\') {
+        // Raw literals can't escape anything, but a backslash still keeps a quote from closing
+        position += 2;
+      } else if (c == quote
+          && (!tripleQuoted || (charAt(position + 1) == quote && charAt(position + 2) == quote))) {
+        position += tripleQuoted ? 3 : 1;
+        return literalKind;
+      } else {
+        position++;
+      }
+    }
+    position = end;
+    return TokenKind.UNTERMINATED;
+  }
+
+  private TokenKind quotedIdentifier() {
+    position++;
+    while (position < end) {
+      char c = text.charAt(position);
+      if (c == '\\') {
+        position += 2;
+      } else {
+        position++;
+        if (c == '`') {
+          return TokenKind.QUOTED_IDENTIFIER;
+        }
+      }
+    }
+    position = end;
+    return TokenKind.UNTERMINATED;
+  }
+
+  private TokenKind number() {
+    char c = text.charAt(position);
+    if (c == '0' && (charAt(position + 1) == 'x' || charAt(position + 1) == 'X')
+        && isHexDigit(charAt(position + 2))) {
+      position += 2;
+      while (position < end && isHexDigit(text.charAt(position))) {
+        position++;
+      }
+      return TokenKind.NUMBER_LITERAL;
+    }
+
+    skipDigits();
+    if (charAt(position) == '.') {
+      position++;
+      skipDigits();
+    }
+    char exponent = charAt(position);
+    if (exponent == 'e' || exponent == 'E') {
+      int signOffset = charAt(position + 1) == '+' || charAt(position + 1) == '-' ? 1 : 0;
+      if (isDigit(charAt(position + 1 + signOffset))) {
+        position += 1 + signOffset;
+        skipDigits();
+      }
+    }
+    return TokenKind.NUMBER_LITERAL;
+  }
+
+  private void skipDigits() {
+    while (position < end && isDigit(text.charAt(position))) {
+      position++;
+    }
+  }
+
+  private TokenKind identifierOrPrefixedLiteral() {
+    // r, b, rb and br, in any case, make the quoted literal that follows raw and/or bytes
+    int prefixLength = 0;
+    boolean bytes = false;
+    boolean raw = false;
+    while (prefixLength < 2) {
+      char c = toLowerCase(charAt(position + prefixLength));
+      if (c == 'b' && !bytes) {
+        bytes = true;
+      } else if (c == 'r' && !raw) {
+        raw = true;
+      } else {
+        break;
+      }
+      prefixLength++;
+    }
+    if (prefixLength > 0) {
+      char quote = charAt(position + prefixLength);
+      if (quote == '\'' || quote == '"') {
+        position += prefixLength;
+        return quoted(bytes ? TokenKind.BYTES_LITERAL : TokenKind.STRING_LITERAL);
+      }
+    }
+
+    while (position < end && isIdentifierChar(text.charAt(position))) {
+      position++;
+    }
+    return TokenKind.IDENTIFIER;
+  }
+
+  private TokenKind symbol(char c) {
+    char next = charAt(position + 1);
+    boolean twoChars;
+    switch (c) {
+      case '<':
+        twoChars = next == '=' || next == '>' || next == '<';
+        break;
+      case '>':
+        twoChars = next == '=' || next == '>';
+        break;
+      case '!':
+        twoChars = next == '=';
+        break;
+      case '|':
+        twoChars = next == '|';
+        break;
+      case '=':
+      case '-':
+        twoChars = next == '>';
+        break;
+      case '@':
+        twoChars = next == '@';
+        break;
+      default:
+        twoChars = false;
+    }
+    position += twoChars ? 2 : 1;
+    return TokenKind.SYMBOL;
+  }
+
+  /** The char at an offset, or 0 past the end of the input */
+  private char charAt(int offset) {
+    return offset < end ? text.charAt(offset) : 0;
+  }
+
+  private static boolean isWhitespace(char c) {
+    return Character.isWhitespace(c) || c == '\uFEFF';
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean isHexDigit(char c) {
+    return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+  }
+
+  /** The same word characters as the script reader's */
+  static boolean isIdentifierChar(char c) {
+    return Character.isLetterOrDigit(c) || c == '_';
+  }
+
+  private static char toLowerCase(char c) {
+    return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+  }
+
+}
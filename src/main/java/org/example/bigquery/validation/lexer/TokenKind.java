@@ -0,0 +1,49 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.lexer;
+
+/** The kinds of token {@link SqlLexer} produces */
+public enum TokenKind {
+
+  /** An unquoted identifier or keyword, e.g. {@code SELECT} or {@code my_table} */
+  IDENTIFIER,
+
+  /** A backtick-quoted identifier or path, e.g. {@code `project.dataset.table`} */
+  QUOTED_IDENTIFIER,
+
+  /** A string literal, quoted or triple-quoted, optionally raw, e.g. {@code r'\d+'} */
+  STRING_LITERAL,
+
+  /** A bytes literal, optionally raw, e.g. {@code b'abc'} or {@code rb"""\x00"""} */
+  BYTES_LITERAL,
+
+  /** An integer, floating point or hexadecimal number, e.g. {@code 1.5e3} or {@code 0xFF} */
+  NUMBER_LITERAL,
+
+  /** A symbol, including multi-character operators like {@code <=} or {@code ||} */
+  SYMBOL,
+
+  /** A line comment, starting with {@code --} or {@code #}, or a block comment */
+  COMMENT,
+
+  /** A string, bytes, quoted identifier or comment that is still open at the end of the input */
+  UNTERMINATED,
+
+  /** The end of the input */
+  END
+
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.lineage;
+
+import com.google.common.base.Splitter;
+import com.google.zetasql.AnalyzerOptions;
+import com.google.zetasql.Table;
+import com.google.zetasql.resolvedast.ResolvedColumn;
+import com.google.zetasql.resolvedast.ResolvedNode;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedColumnDefinition;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedCreateStatement;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedCreateTableStmtBase;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedCreateViewBase;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedDeleteStmt;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedInsertStmt;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedMergeStmt;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedOutputColumn;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedStatement;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedTableScan;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedUpdateStmt;
+import com.google.zetasql.resolvedast.ResolvedNodes.Visitor;
+import com.google.zetasql.resolvedast.ResolvedStatementEnums.ObjectAccess;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Resolved tree {@link Visitor} that collects the tables and columns a statement reads and
+ * writes.
+ *
+ * Reads come from the table scans anywhere in the statement, including subqueries, CTEs and the
+ * queries of CREATE TABLE AS SELECT and INSERT. Statements must be analyzed with
+ * {@link AnalyzerOptions#setPruneUnusedColumns(boolean)} enabled: otherwise every scan lists all
+ * of its table's columns, and every column of every table read counts as read.
+ *
+ * Writes come from DML statements and from CREATE TABLE and CREATE VIEW statements. The target
+ * table of INSERT, UPDATE, DELETE and MERGE statements is only read for the columns the
+ * analyzer reports as read, e.g. in the WHERE clause or in {@code SET a = a + 1}. Views and
+ * functions are not expanded: a query reading a view reads the view, not its tables.
+ */
+public class LineageCollector extends Visitor {
+
+  private final String defaultProjectId;
+  private final Set<String> readTables = new LinkedHashSet<>();
+  private final Set<String> readColumns = new LinkedHashSet<>();
+  private final Set<String> writtenTables = new LinkedHashSet<>();
+  private final Set<String> writtenColumns = new LinkedHashSet<>();
+  private final Set<ResolvedTableScan> dmlTargets =
+      Collections.newSetFromMap(new IdentityHashMap<>());
+
+  /**
+   * @param defaultProjectId The project of tables created with a {@code dataset.table} name, as
+   *     for the BigQueryCatalog the statement was analyzed with
+   */
+  public LineageCollector(String defaultProjectId) {
+    this.defaultProjectId = defaultProjectId;
+  }
+
+  /**
+   * Collects the lineage of a single statement.
+   *
+   * @param statement The statement, analyzed with unused columns pruned
+   * @param defaultProjectId The project of tables created with a {@code dataset.table} name
+   * @return The tables and columns the statement reads and writes
+   */
+  public static StatementLineage collect(ResolvedStatement statement, String defaultProjectId) {
+    LineageCollector collector = new LineageCollector(defaultProjectId);
+    statement.accept(collector);
+    return collector.getLineage();
+  }
+
+  /** The lineage of the statements visited so far */
+  public StatementLineage getLineage() {
+    return new StatementLineage(readTables, readColumns, writtenTables, writtenColumns);
+  }
+
+  @Override
+  public void visit(ResolvedTableScan node) {
+    if (!dmlTargets.contains(node)) {
+      String table = tableName(node.getTable());
+      readTables.add(table);
+      for (ResolvedColumn column : node.getColumnList()) {
+        readColumns.add(columnName(table, column.getName()));
+      }
+    }
+    super.visit(node);
+  }
+
+  @Override
+  public void visit(ResolvedInsertStmt node) {
+    visitDmlTarget(node.getTableScan(), node.getColumnAccessList());
+    super.visit(node);
+  }
+
+  @Override
+  public void visit(ResolvedUpdateStmt node) {
+    visitDmlTarget(node.getTableScan(), node.getColumnAccessList());
+    super.visit(node);
+  }
+
+  @Override
+  public void visit(ResolvedDeleteStmt node) {
+    visitDmlTarget(node.getTableScan(), node.getColumnAccessList());
+    super.visit(node);
+  }
+
+  @Override
+  public void visit(ResolvedMergeStmt node) {
+    visitDmlTarget(node.getTableScan(), node.getColumnAccessList());
+    super.visit(node);
+  }
+
+  @Override
+  protected void defaultVisit(ResolvedNode node) {
+    // The concrete CREATE TABLE and CREATE VIEW variants all share these base classes
+    if (node instanceof ResolvedCreateTableStmtBase) {
+      List<String> columns = new ArrayList<>();
+      for (ResolvedColumnDefinition column
+          : ((ResolvedCreateTableStmtBase) node).getColumnDefinitionList()) {
+        columns.add(column.getName());
+      }
+      visitCreated((ResolvedCreateStatement) node, columns);
+    } else if (node instanceof ResolvedCreateViewBase) {
+      List<String> columns = new ArrayList<>();
+      for (ResolvedOutputColumn column : ((ResolvedCreateViewBase) node).getOutputColumnList()) {
+        columns.add(column.getName());
+      }
+      visitCreated((ResolvedCreateStatement) node, columns);
+    }
+    super.defaultVisit(node);
+  }
+
+  /**
+   * Records the writes to the target table of a DML statement, and the reads of its columns.
+   * The column access list is parallel to the scan's column list; when the analyzer doesn't
+   * provide it, every column counts as both read and written.
+   */
+  private void visitDmlTarget(ResolvedTableScan scan, List<ObjectAccess> columnAccess) {
+    dmlTargets.add(scan);
+    String table = tableName(scan.getTable());
+    writtenTables.add(table);
+
+    List<ResolvedColumn> columns = scan.getColumnList();
+    for (int i = 0; i < columns.size(); i++) {
+      ObjectAccess access =
+          i < columnAccess.size() ? columnAccess.get(i) : ObjectAccess.READ_WRITE;
+      String column = columnName(table, columns.get(i).getName());
+      if (access == ObjectAccess.READ || access == ObjectAccess.READ_WRITE) {
+        readTables.add(table);
+        readColumns.add(column);
+      }
+      if (access == ObjectAccess.WRITE || access == ObjectAccess.READ_WRITE) {
+        writtenColumns.add(column);
+      }
+    }
+  }
+
+  private void visitCreated(ResolvedCreateStatement statement, List<String> columns) {
+    String table = qualify(statement.getNamePath());
+    writtenTables.add(table);
+    for (String column : columns) {
+      writtenColumns.add(columnName(table, column));
+    }
+  }
+
+  private static String tableName(Table table) {
+    return table.getFullName().replace("`", "").toLowerCase(Locale.ROOT);
+  }
+
+  private static String columnName(String table, String column) {
+    return table + "." + column.toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * The fully qualified name of a created resource. A quoted identifier can hold a whole path,
+   * as in {@code `dataset.table`}, and single-part names, like temporary tables, stay as they are.
+   */
+  private String qualify(List<String> namePath) {
+    List<String> names = new ArrayList<>();
+    for (String name : namePath) {
+      Splitter.on('.').split(name).forEach(names::add);
+    }
+    if (names.size() == 2) {
+      names.add(0, defaultProjectId);
+    }
+    return String.join(".", names).toLowerCase(Locale.ROOT);
+  }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.lineage;
+
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.regex.Matcher;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.example.bigquery.validation.lineage.LineageIndexFormat.Term;
+
+/**
+ * An on-disk inverted index from tables and columns to the queries that read or write them,
+ * answering questions like "which queries read {@code project.dataset.table.column}?" without
+ * analyzing any query again.
+ *
+ * The index is a directory of immutable segments, written by a {@link LineageIndexWriter}. Each
+ * segment maps every table and column name it knows, for reads and writes separately, to a
+ * compressed posting list of query ids (see {@link LineageIndexFormat}). A lookup binary searches
+ * each memory-mapped segment and merges the posting lists it finds, so it takes time
+ * proportional to the number of segments and matching queries, not the size of the index.
+ *
+ * An index is a snapshot of the segments present when it was opened; open it again to see
+ * queries added since. A compaction running at the same time can delete the segments of an
+ * open index, which then fails its lookups on some platforms and must be opened again.
+ */
+public class LineageIndex {
+
+  /** How a query accesses a table or column */
+  public enum Access {
+    READ, WRITE
+  }
+
+  private final ImmutableList<LineageSegment> segments;
+
+  private LineageIndex(List<LineageSegment> segments) {
+    this.segments = ImmutableList.copyOf(segments);
+  }
+
+  /**
+   * Opens the index in a directory. Segments are mapped into memory but not read.
+   *
+   * @param directory The index directory, as passed to the {@link LineageIndexWriter}
+   * @return The index, empty if the directory has no segments
+   */
+  public static LineageIndex open(Path directory) throws IOException {
+    List<LineageSegment> segments = new ArrayList<>();
+    for (Path path : segmentPaths(directory)) {
+      segments.add(LineageSegment.open(path));
+    }
+    return new LineageIndex(segments);
+  }
+
+  /** The segment files in a directory, oldest first */
+  static List<Path> segmentPaths(Path directory) throws IOException {
+    if (!Files.isDirectory(directory)) {
+      return new ArrayList<>();
+    }
+    try (Stream<Path> files = Files.list(directory)) {
+      return files
+          .filter(path -> segmentNumber(path) >= 0)
+          .sorted(Comparator.comparingLong(LineageIndex::segmentNumber))
+          .collect(Collectors.toList());
+    }
+  }
+
+  /** The number of a segment file, or -1 if the path isn't a segment */
+  static long segmentNumber(Path path) {
+    Matcher matcher = LineageIndexFormat.SEGMENT_NAME.matcher(path.getFileName().toString());
+    return matcher.matches() ? Long.parseLong(matcher.group(1)) : -1;
+  }
+
+  public int getSegmentCount() {
+    return segments.size();
+  }
+
+  /**
+   * Finds the queries that access a table or column.
+   *
+   * @param access Whether to find the queries that read or that write the name
+   * @param name The fully qualified table ({@code project.dataset.table}) or column
+   *     ({@code project.dataset.table.column}) name, compared case-insensitively
+   * @return The ids of the queries, sorted and without duplicates
+   */
+  public long[] find(Access access, String name) {
+    Term term = new Term(access, LineageIndexFormat.nameKey(name));
+    List<long[]> postings = new ArrayList<>(segments.size());
+    for (LineageSegment segment : segments) {
+      postings.add(segment.find(term));
+    }
+    return union(postings);
+  }
+
+  /** The ids of the queries that read a table or column; see {@link #find} */
+  public long[] findReaders(String name) {
+    return find(Access.READ, name);
+  }
+
+  /** The ids of the queries that write a table or column; see {@link #find} */
+  public long[] findWriters(String name) {
+    return find(Access.WRITE, name);
+  }
+
+  /**
+   * Merges sorted posting lists into one, sorted and without duplicates. Ids are hashes, so the
+   * lists of different segments interleave; they are merged k ways, like the terms of the
+   * segments in {@link LineageIndexWriter#compact()}.
+   */
+  static long[] union(List<long[]> postings) {
+    if (postings.size() == 1) {
+      return postings.get(0);
+    }
+
+    int total = 0;
+    for (long[] ids : postings) {
+      total += ids.length;
+    }
+
+    // The position of the merge in each list, and the lists by the id at that position
+    int[] positions = new int[postings.size()];
+    PriorityQueue<Integer> lists = new PriorityQueue<>(
+        Math.max(1, postings.size()),
+        Comparator.comparingLong((Integer list) -> postings.get(list)[positions[list]]));
+    for (int list = 0; list < postings.size(); list++) {
+      if (postings.get(list).length > 0) {
+        lists.add(list);
+      }
+    }
+
+    long[] merged = new long[total];
+    int size = 0;
+    while (!lists.isEmpty()) {
+      int list = lists.poll();
+      long[] ids = postings.get(list);
+      long id = ids[positions[list]++];
+      if (size == 0 || merged[size - 1] != id) {
+        merged[size++] = id;
+      }
+      if (positions[list] < ids.length) {
+        lists.add(list);
+      }
+    }
+    return size == total ? merged : Arrays.copyOf(merged, size);
+  }
+
+  /**
+   * Prints the ids of the queries that read or write each name, in the hexadecimal format of
+   * {@link LineageIndexer}'s ids, with lookup times on stderr.
+   *
+   * Usage: {@code LineageIndex <indexDirectory> <read|write> <name>...}
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 3) {
+      System.err.println("Usage: LineageIndex <indexDirectory> <read|write> <name>...");
+      System.exit(1);
+    }
+
+    LineageIndex index = LineageIndex.open(Paths.get(args[0]));
+    Access access = Access.valueOf(args[1].toUpperCase(Locale.ROOT));
+    for (int i = 2; i < args.length; i++) {
+      long startTime = System.nanoTime();
+      long[] ids = index.find(access, args[i]);
+      long elapsedMicros = (System.nanoTime() - startTime) / 1000;
+
+      for (long id : ids) {
+        System.out.printf("%s\t%016x%n", args[i], id);
+      }
+      System.err.printf("%s: %d queries in %d segments, %d us%n",
+          args[i], ids.length, index.getSegmentCount(), elapsedMicros);
+    }
+  }
+
+}
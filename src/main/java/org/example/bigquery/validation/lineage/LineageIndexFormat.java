@@ -0,0 +1,141 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.lineage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * On-disk layout of lineage index segments, shared by {@link LineageSegmentWriter} and
+ * {@link LineageSegment}.
+ *
+ * <pre>
+ * header:    int magic, int version, int termCount, long namesOffset, long indexOffset
+ * postings:  one posting list per term
+ * names:     the lower-cased, fully qualified UTF-8 table and column names
+ * index:     termCount fixed-size entries, sorted by (access, name) as unsigned bytes:
+ *              byte access, int nameOffset, int nameLength, long postingsOffset,
+ *              int postingsLength, int postingCount
+ * </pre>
+ *
+ * A posting list holds the ids of the queries with a term, sorted and without duplicates. The
+ * first id and every gap to the next one are written as unsigned variable-length integers, 7
+ * bits per byte, so ids close together take a byte or two each. Any long can be an id: the gap
+ * between two sorted longs always fits in an unsigned long.
+ * Name and posting offsets in index entries are relative to the start of their section.
+ *
+ * Postings come right after the header so that they can be streamed to disk as they are
+ * produced; the names and index, which are small, are written after them and the header is
+ * filled in last. Like catalog snapshots, segments are memory-mapped and limited to 2GB.
+ */
+final class LineageIndexFormat {
+
+  static final int MAGIC = 0x42514c49; // "BQLI"
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 4 + 4 + 4 + 8 + 8;
+  static final int INDEX_ENTRY_SIZE = 1 + 4 + 4 + 8 + 4 + 4;
+
+  /** Segment file names; the number orders segments by creation */
+  static final String SEGMENT_FORMAT = "segment-%08d.lin";
+  static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d+)\\.lin");
+
+  /** Orders terms as the index does: by access, then by name as unsigned bytes */
+  static final Comparator<Term> TERM_ORDER = Comparator
+      .<Term>comparingInt(term -> term.access.ordinal())
+      .thenComparing(term -> term.name, Arrays::compareUnsigned);
+
+  /** A key in the index: a table or column name and how queries access it */
+  static final class Term {
+
+    final LineageIndex.Access access;
+    final byte[] name;
+
+    Term(LineageIndex.Access access, byte[] name) {
+      this.access = access;
+      this.name = name;
+    }
+
+  }
+
+  private LineageIndexFormat() {}
+
+  /** Normalizes a name as it's indexed. BigQuery names are treated case-insensitively */
+  static String normalizeName(String name) {
+    return name.replace("`", "").toLowerCase(Locale.ROOT);
+  }
+
+  /** Builds the key names are indexed by */
+  static byte[] nameKey(String name) {
+    return normalizeName(name).getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Encodes a posting list.
+   *
+   * @param ids The ids, sorted and without duplicates
+   * @param count The number of ids to encode from the start of the array
+   * @param out Where to write the posting list
+   * @return The number of bytes written
+   */
+  static int writePostings(long[] ids, int count, OutputStream out) throws IOException {
+    int length = 0;
+    long previous = 0;
+    for (int i = 0; i < count; i++) {
+      length += writeVarLong(ids[i] - previous, out);
+      previous = ids[i];
+    }
+    return length;
+  }
+
+  /** Decodes a posting list of {@code count} ids starting at {@code offset} in a buffer */
+  static long[] readPostings(ByteBuffer buffer, int offset, int count) {
+    long[] ids = new long[count];
+    int position = offset;
+    long previous = 0;
+    for (int i = 0; i < count; i++) {
+      long value = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = buffer.get(position++);
+        value |= (long) (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+      previous += value;
+      ids[i] = previous;
+    }
+    return ids;
+  }
+
+  private static int writeVarLong(long value, OutputStream out) throws IOException {
+    int length = 1;
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) (value & 0x7F) | 0x80);
+      value >>>= 7;
+      length++;
+    }
+    out.write((int) value);
+    return length;
+  }
+
+}
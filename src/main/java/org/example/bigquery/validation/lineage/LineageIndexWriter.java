@@ -0,0 +1,278 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.lineage;
+
+import com.google.common.base.Preconditions;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.stream.Stream;
+import org.example.bigquery.validation.lineage.LineageIndex.Access;
+import org.example.bigquery.validation.lineage.LineageIndexFormat.Term;
+
+/**
+ * Appends the lineage of queries to a {@link LineageIndex}.
+ *
+ * Added queries are buffered in memory, as one growable array of ids per table and column, and
+ * written as a new segment when the buffer holds {@code maxBufferedPostings} postings, on
+ * {@link #flush()} and on {@link #close()}. Existing segments are never modified, so queries can
+ * be added at any time, e.g. as they are validated, while readers keep using the index.
+ * {@link #compact()} merges all segments into one, to keep lookups fast after many appends.
+ *
+ * Segments are written to a temporary file and renamed into place once complete, so a crash
+ * loses the buffered queries but never corrupts the index. Adding a query that's already in the
+ * index is harmless: lookups and compaction drop duplicate ids. Only one writer may use a
+ * directory at a time. All methods are thread-safe.
+ */
+public class LineageIndexWriter implements Closeable {
+
+  public static final int DEFAULT_MAX_BUFFERED_POSTINGS = 1 << 20;
+
+  private static final String TEMPORARY_SUFFIX = ".tmp";
+
+  private final Path directory;
+  private final int maxBufferedPostings;
+  private final List<Map<String, PostingList>> buffers = new ArrayList<>();
+  private int bufferedPostings = 0;
+  private long nextSegment;
+
+  /**
+   * Opens an index directory for appending, creating it if needed.
+   *
+   * @param directory The index directory
+   */
+  public LineageIndexWriter(Path directory) throws IOException {
+    this(directory, DEFAULT_MAX_BUFFERED_POSTINGS);
+  }
+
+  /**
+   * Opens an index directory for appending, creating it if needed.
+   *
+   * @param directory The index directory
+   * @param maxBufferedPostings The number of (name, query) pairs buffered before a segment is
+   *     written. Each takes 8 bytes of memory, plus the names themselves.
+   */
+  public LineageIndexWriter(Path directory, int maxBufferedPostings) throws IOException {
+    Preconditions.checkArgument(maxBufferedPostings > 0, "maxBufferedPostings must be positive");
+    this.directory = directory;
+    this.maxBufferedPostings = maxBufferedPostings;
+    for (int i = 0; i < Access.values().length; i++) {
+      buffers.add(new HashMap<>());
+    }
+
+    Files.createDirectories(directory);
+    // Left behind by a writer that crashed before renaming them
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        if (file.getFileName().toString().endsWith(TEMPORARY_SUFFIX)) {
+          Files.delete(file);
+        }
+      }
+    }
+    List<Path> segments = LineageIndex.segmentPaths(directory);
+    this.nextSegment = segments.isEmpty()
+        ? 1
+        : LineageIndex.segmentNumber(segments.get(segments.size() - 1)) + 1;
+  }
+
+  /**
+   * Adds a query's lineage to the index.
+   *
+   * @param queryId The id lookups return for the query
+   * @param lineage The tables and columns the query reads and writes
+   * @throws IOException if the buffer was full and writing a segment failed
+   */
+  public synchronized void add(long queryId, StatementLineage lineage) throws IOException {
+    addPostings(Access.READ, lineage.getReadTables(), queryId);
+    addPostings(Access.READ, lineage.getReadColumns(), queryId);
+    addPostings(Access.WRITE, lineage.getWrittenTables(), queryId);
+    addPostings(Access.WRITE, lineage.getWrittenColumns(), queryId);
+    if (bufferedPostings >= maxBufferedPostings) {
+      flush();
+    }
+  }
+
+  private void addPostings(Access access, Collection<String> names, long queryId) {
+    Map<String, PostingList> buffer = buffers.get(access.ordinal());
+    for (String name : names) {
+      buffer.computeIfAbsent(LineageIndexFormat.normalizeName(name), key -> new PostingList())
+          .add(queryId);
+    }
+    bufferedPostings += names.size();
+  }
+
+  /** Writes the buffered queries as a new segment, if there are any */
+  public synchronized void flush() throws IOException {
+    if (bufferedPostings == 0) {
+      return;
+    }
+
+    List<Term> terms = new ArrayList<>();
+    Map<Term, PostingList> postings = new HashMap<>();
+    for (Access access : Access.values()) {
+      for (Map.Entry<String, PostingList> entry : buffers.get(access.ordinal()).entrySet()) {
+        Term term = new Term(access, entry.getKey().getBytes(StandardCharsets.UTF_8));
+        terms.add(term);
+        postings.put(term, entry.getValue());
+      }
+    }
+    terms.sort(LineageIndexFormat.TERM_ORDER);
+
+    writeSegment(writer -> {
+      for (Term term : terms) {
+        PostingList list = postings.get(term);
+        writer.add(term, list.ids, list.sortAndDeduplicate());
+      }
+    });
+
+    buffers.forEach(Map::clear);
+    bufferedPostings = 0;
+  }
+
+  /**
+   * Flushes the buffer and merges all segments into one. Readers opened before keep the
+   * segments they mapped, but on some platforms can't read them once they are deleted.
+   */
+  public synchronized void compact() throws IOException {
+    flush();
+    List<Path> paths = LineageIndex.segmentPaths(directory);
+    if (paths.size() < 2) {
+      return;
+    }
+
+    PriorityQueue<Cursor> cursors = new PriorityQueue<>(
+        (first, second) -> LineageIndexFormat.TERM_ORDER.compare(first.term, second.term));
+    for (Path path : paths) {
+      Cursor cursor = new Cursor(LineageSegment.open(path));
+      if (cursor.advance()) {
+        cursors.add(cursor);
+      }
+    }
+
+    writeSegment(writer -> {
+      List<long[]> postings = new ArrayList<>();
+      while (!cursors.isEmpty()) {
+        Term term = cursors.peek().term;
+        postings.clear();
+        while (!cursors.isEmpty()
+            && LineageIndexFormat.TERM_ORDER.compare(cursors.peek().term, term) == 0) {
+          Cursor cursor = cursors.poll();
+          postings.add(cursor.segment.postingsAt(cursor.entry));
+          if (cursor.advance()) {
+            cursors.add(cursor);
+          }
+        }
+        long[] ids = LineageIndex.union(postings);
+        writer.add(term, ids, ids.length);
+      }
+    });
+
+    for (Path path : paths) {
+      Files.delete(path);
+    }
+  }
+
+  private interface SegmentContents {
+    void write(LineageSegmentWriter writer) throws IOException;
+  }
+
+  private void writeSegment(SegmentContents contents) throws IOException {
+    Path path = directory.resolve(String.format(LineageIndexFormat.SEGMENT_FORMAT, nextSegment));
+    Path temporary = path.resolveSibling(path.getFileName() + TEMPORARY_SUFFIX);
+    try (LineageSegmentWriter writer = new LineageSegmentWriter(temporary)) {
+      contents.write(writer);
+      writer.finish();
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(temporary);
+      throw e;
+    }
+    Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+    nextSegment++;
+  }
+
+  /** Writes the buffered queries */
+  @Override
+  public synchronized void close() throws IOException {
+    flush();
+  }
+
+  /** A growable array of query ids */
+  private static final class PostingList {
+
+    private long[] ids = new long[4];
+    private int size = 0;
+
+    void add(long id) {
+      // Ids usually arrive in order, and a query adds each name once
+      if (size > 0 && ids[size - 1] == id) {
+        return;
+      }
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, size * 2);
+      }
+      ids[size++] = id;
+    }
+
+    /** Sorts the ids in place and drops duplicates, returning the number left */
+    int sortAndDeduplicate() {
+      Arrays.sort(ids, 0, size);
+      int unique = 0;
+      for (int i = 0; i < size; i++) {
+        if (i == 0 || ids[i] != ids[unique - 1]) {
+          ids[unique++] = ids[i];
+        }
+      }
+      size = unique;
+      return size;
+    }
+
+  }
+
+  /** The position of a compaction in one of the segments it merges */
+  private static final class Cursor {
+
+    private final LineageSegment segment;
+    private int entry = -1;
+    private Term term;
+
+    Cursor(LineageSegment segment) {
+      this.segment = segment;
+    }
+
+    /** Moves to the next term, returning false at the end of the segment */
+    boolean advance() {
+      entry++;
+      if (entry >= segment.getTermCount()) {
+        return false;
+      }
+      term = segment.termAt(entry);
+      return true;
+    }
+
+  }
+
+}
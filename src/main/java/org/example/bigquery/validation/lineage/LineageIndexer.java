@@ -0,0 +1,235 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.lineage;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.zetasql.AnalyzerOptions;
+import com.google.zetasql.SimpleCatalog;
+import com.google.zetasql.SqlException;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedStatement;
+import com.google.zetasql.toolkit.catalog.bigquery.BigQueryCatalog;
+import com.google.zetasql.toolkit.options.BigQueryLanguageOptions;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.example.bigquery.validation.batch.BatchValidationStats;
+import org.example.bigquery.validation.catalog.CatalogSnapshotResourceProvider;
+import org.example.bigquery.validation.catalog.RegisteredCatalog;
+import org.example.bigquery.validation.replay.LongHashSet;
+import org.example.bigquery.validation.replay.LoggedQuery;
+import org.example.bigquery.validation.replay.QueryLogReader;
+import org.example.bigquery.validation.replay.QueryLogReplayer;
+
+/**
+ * Analyzes queries, collects their lineage with a {@link LineageCollector} and appends it to a
+ * {@link LineageIndexWriter}.
+ *
+ * {@link #index(long, String)} indexes a single query as it is validated. {@link #indexLogs}
+ * indexes the queries of historical query logs, as read by a {@link QueryLogReader}, on
+ * parallel workers. Each distinct query text is analyzed once and indexed under the same id
+ * {@link QueryLogReplayer} reports it with, its 64-bit hash, so lookups can be joined with a
+ * replay's verdicts. Re-indexing the same logs adds nothing new to the index. Invalid queries
+ * are skipped, since they have no resolved tree to collect lineage from.
+ */
+public class LineageIndexer implements AutoCloseable {
+
+  private final AnalyzerOptions options;
+  private final RegisteredCatalog catalog;
+  private final String defaultProjectId;
+  private final LineageIndexWriter writer;
+  private final int parallelism;
+  private final ExecutorService executor;
+
+  /**
+   * @param options The AnalyzerOptions to analyze queries with. Unused columns must be pruned.
+   * @param catalog The catalog to analyze queries against. Must not be modified while indexing.
+   * @param defaultProjectId The project unqualified resources belong to, as for the
+   *     BigQueryCatalog the catalog was built with
+   * @param writer The index to add queries to
+   * @param parallelism The number of threads analyzing the queries of logs
+   */
+  public LineageIndexer(AnalyzerOptions options, SimpleCatalog catalog, String defaultProjectId,
+      LineageIndexWriter writer, int parallelism) {
+    Preconditions.checkArgument(options.getPruneUnusedColumns(),
+        "Lineage needs AnalyzerOptions with unused columns pruned");
+    Preconditions.checkArgument(parallelism > 0, "parallelism must be positive");
+    this.options = options;
+    this.catalog = new RegisteredCatalog(catalog);
+    this.defaultProjectId = defaultProjectId;
+    this.writer = writer;
+    this.parallelism = parallelism;
+    this.executor = Executors.newFixedThreadPool(
+        parallelism,
+        new ThreadFactoryBuilder()
+            .setNameFormat("lineage-indexer-%d")
+            .setDaemon(true)
+            .build());
+  }
+
+  /**
+   * Analyzes a query on the calling thread and adds its lineage to the index.
+   *
+   * @param queryId The id lookups return for the query
+   * @param query The query
+   * @return The query's lineage, or empty if the query is invalid and wasn't indexed
+   * @throws IOException if writing to the index fails
+   */
+  public Optional<StatementLineage> index(long queryId, String query) throws IOException {
+    ResolvedStatement statement;
+    try {
+      statement = catalog.analyzeStatement(query, options);
+    } catch (SqlException error) {
+      return Optional.empty();
+    }
+    StatementLineage lineage = LineageCollector.collect(statement, defaultProjectId);
+    writer.add(queryId, lineage);
+    return Optional.of(lineage);
+  }
+
+  /**
+   * Indexes every distinct query in query logs, keeping at most 4 queries per worker in flight.
+   *
+   * @param logFiles The logs, in the formats {@link QueryLogReader} reads
+   * @return The number of distinct queries indexed and skipped as invalid
+   * @throws IOException if reading the logs or writing to the index fails
+   */
+  public BatchValidationStats indexLogs(List<Path> logFiles) throws IOException {
+    long startTime = System.nanoTime();
+    int maxInFlight = parallelism * 4;
+    Deque<Future<Boolean>> window = new ArrayDeque<>(maxInFlight);
+    LongHashSet seen = new LongHashSet();
+    long indexed = 0;
+    long invalid = 0;
+
+    try (QueryLogReader reader = new QueryLogReader(logFiles)) {
+      while (reader.hasNext()) {
+        LoggedQuery logged = reader.next();
+        String query = logged.getQuery();
+        if (query == null) {
+          continue;
+        }
+        long hash = QueryLogReplayer.hash(query);
+        if (!seen.add(hash)) {
+          continue;
+        }
+
+        if (window.size() == maxInFlight) {
+          if (await(window.removeFirst())) {
+            indexed++;
+          } else {
+            invalid++;
+          }
+        }
+        window.addLast(executor.submit(() -> index(hash, query).isPresent()));
+      }
+
+      while (!window.isEmpty()) {
+        if (await(window.removeFirst())) {
+          indexed++;
+        } else {
+          invalid++;
+        }
+      }
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      window.forEach(future -> future.cancel(false));
+    }
+
+    return new BatchValidationStats(
+        indexed, invalid, Duration.ofNanos(System.nanoTime() - startTime));
+  }
+
+  private static boolean await(Future<Boolean> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while indexing queries", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException("Indexing a query failed unexpectedly", cause);
+    }
+  }
+
+  /** Stops the workers and unregisters the catalog. The writer is left open. */
+  @Override
+  public void close() {
+    executor.shutdownNow();
+    catalog.close();
+  }
+
+  /**
+   * Indexes the queries in query logs against a catalog snapshot, then compacts the index.
+   *
+   * Usage: {@code LineageIndexer <projectId> <snapshotFile> <indexDirectory> <logFile>...}
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 4) {
+      System.err.println(
+          "Usage: LineageIndexer <projectId> <snapshotFile> <indexDirectory> <logFile>...");
+      System.exit(1);
+    }
+
+    String projectId = args[0];
+    BigQueryCatalog bigQueryCatalog = new BigQueryCatalog(
+        projectId, CatalogSnapshotResourceProvider.open(Paths.get(args[1])));
+    bigQueryCatalog.addAllTablesInProject(projectId);
+    bigQueryCatalog.addAllFunctionsInProject(projectId);
+    bigQueryCatalog.addAllTVFsInProject(projectId);
+    bigQueryCatalog.addAllProceduresInProject(projectId);
+
+    AnalyzerOptions options = new AnalyzerOptions();
+    options.setLanguageOptions(BigQueryLanguageOptions.get());
+    options.setPruneUnusedColumns(true);
+
+    List<Path> logFiles = new ArrayList<>();
+    for (int i = 3; i < args.length; i++) {
+      logFiles.add(Paths.get(args[i]));
+    }
+
+    Path indexDirectory = Paths.get(args[2]);
+    try (LineageIndexWriter writer = new LineageIndexWriter(indexDirectory);
+        LineageIndexer indexer = new LineageIndexer(options, bigQueryCatalog.getZetaSQLCatalog(),
+            projectId, writer, Runtime.getRuntime().availableProcessors())) {
+      BatchValidationStats stats = indexer.indexLogs(logFiles);
+      writer.compact();
+      System.out.println(stats);
+    }
+    System.out.printf("Index has %d segment(s)%n",
+        LineageIndex.open(indexDirectory).getSegmentCount());
+  }
+
+}
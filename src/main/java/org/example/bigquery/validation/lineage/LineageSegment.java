@@ -0,0 +1,144 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.lineage;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.example.bigquery.validation.lineage.LineageIndexFormat.Term;
+
+/**
+ * A memory-mapped, immutable lineage index segment. Lookups binary search the index in place,
+ * so opening a segment reads nothing but its header.
+ */
+final class LineageSegment {
+
+  private static final LineageIndex.Access[] ACCESSES = LineageIndex.Access.values();
+
+  private final Path path;
+  private final MappedByteBuffer buffer;
+  private final int termCount;
+  private final int namesOffset;
+  private final int indexOffset;
+
+  private LineageSegment(Path path, MappedByteBuffer buffer) {
+    this.path = path;
+    this.buffer = buffer;
+
+    if (buffer.capacity() < LineageIndexFormat.HEADER_SIZE
+        || buffer.getInt(0) != LineageIndexFormat.MAGIC) {
+      throw new IllegalArgumentException("Not a lineage index segment: " + path);
+    }
+    int version = buffer.getInt(4);
+    if (version != LineageIndexFormat.VERSION) {
+      throw new IllegalArgumentException(
+          String.format("Unsupported lineage index version %d in %s", version, path));
+    }
+
+    this.termCount = buffer.getInt(8);
+    this.namesOffset = (int) buffer.getLong(12);
+    this.indexOffset = (int) buffer.getLong(20);
+  }
+
+  static LineageSegment open(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Lineage index segment larger than 2GB: " + path);
+      }
+      // The mapping stays valid after the channel is closed
+      return new LineageSegment(path, channel.map(MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  Path getPath() {
+    return path;
+  }
+
+  int getTermCount() {
+    return termCount;
+  }
+
+  /** The ids of the queries with a term, or an empty array if the segment doesn't have it */
+  long[] find(Term term) {
+    int entry = lowerBound(term);
+    if (entry < termCount && compareEntry(entry, term) == 0) {
+      return postingsAt(entry);
+    }
+    return new long[0];
+  }
+
+  Term termAt(int entry) {
+    int position = entryPosition(entry);
+    byte[] name = new byte[buffer.getInt(position + 5)];
+    int nameStart = namesOffset + buffer.getInt(position + 1);
+    for (int i = 0; i < name.length; i++) {
+      name[i] = buffer.get(nameStart + i);
+    }
+    return new Term(ACCESSES[buffer.get(position)], name);
+  }
+
+  long[] postingsAt(int entry) {
+    int position = entryPosition(entry);
+    int postingsStart =
+        LineageIndexFormat.HEADER_SIZE + (int) buffer.getLong(position + 9);
+    return LineageIndexFormat.readPostings(
+        buffer, postingsStart, buffer.getInt(position + 21));
+  }
+
+  private int entryPosition(int entry) {
+    return indexOffset + entry * LineageIndexFormat.INDEX_ENTRY_SIZE;
+  }
+
+  private int compareEntry(int entry, Term term) {
+    int position = entryPosition(entry);
+    int accessComparison = Integer.compare(buffer.get(position), term.access.ordinal());
+    if (accessComparison != 0) {
+      return accessComparison;
+    }
+
+    int nameStart = namesOffset + buffer.getInt(position + 1);
+    int nameLength = buffer.getInt(position + 5);
+    int commonLength = Math.min(nameLength, term.name.length);
+    for (int i = 0; i < commonLength; i++) {
+      int byteComparison = Integer.compare(
+          buffer.get(nameStart + i) & 0xFF, term.name[i] & 0xFF);
+      if (byteComparison != 0) {
+        return byteComparison;
+      }
+    }
+    return Integer.compare(nameLength, term.name.length);
+  }
+
+  /** Returns the first entry that is not lower than the term */
+  private int lowerBound(Term term) {
+    int low = 0;
+    int high = termCount;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (compareEntry(middle, term) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.lineage;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.CountingOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.example.bigquery.validation.lineage.LineageIndexFormat.Term;
+
+/**
+ * Writes one lineage index segment, term by term in index order. Posting lists are streamed to
+ * the file; only the names and index entries are kept in memory until {@link #finish()}.
+ */
+final class LineageSegmentWriter implements Closeable {
+
+  private final FileChannel channel;
+  private final CountingOutputStream postings;
+  private final ByteArrayOutputStream names = new ByteArrayOutputStream();
+  private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+  private final DataOutputStream indexOut = new DataOutputStream(index);
+  private Term lastTerm;
+  private int termCount = 0;
+
+  LineageSegmentWriter(Path path) throws IOException {
+    this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.WRITE, StandardOpenOption.READ);
+    channel.position(LineageIndexFormat.HEADER_SIZE);
+    // Not closed with the stream: the channel is still needed to write the header
+    this.postings = new CountingOutputStream(new BufferedOutputStream(
+        Channels.newOutputStream(channel), 1 << 16));
+  }
+
+  /**
+   * Adds a term and its posting list.
+   *
+   * @param term The term, which must sort after the previous one
+   * @param ids The ids of the queries with the term, sorted and without duplicates
+   * @param count The number of ids to take from the start of {@code ids}
+   */
+  void add(Term term, long[] ids, int count) throws IOException {
+    Preconditions.checkArgument(count > 0, "A term needs at least one posting");
+    Preconditions.checkArgument(
+        lastTerm == null || LineageIndexFormat.TERM_ORDER.compare(lastTerm, term) < 0,
+        "Terms must be added in index order");
+    lastTerm = term;
+
+    long postingsOffset = postings.getCount();
+    int postingsLength = LineageIndexFormat.writePostings(ids, count, postings);
+    if (postings.getCount() + names.size() + index.size() > Integer.MAX_VALUE) {
+      throw new IOException("Lineage index segment larger than 2GB");
+    }
+
+    indexOut.writeByte(term.access.ordinal());
+    indexOut.writeInt(names.size());
+    indexOut.writeInt(term.name.length);
+    indexOut.writeLong(postingsOffset);
+    indexOut.writeInt(postingsLength);
+    indexOut.writeInt(count);
+    names.write(term.name);
+    termCount++;
+  }
+
+  /** Writes the names, the index and the header, and syncs the file to disk */
+  void finish() throws IOException {
+    long namesOffset = LineageIndexFormat.HEADER_SIZE + postings.getCount();
+    names.writeTo(postings);
+    long indexOffset = namesOffset + names.size();
+    index.writeTo(postings);
+    postings.flush();
+
+    ByteBuffer header = ByteBuffer.allocate(LineageIndexFormat.HEADER_SIZE);
+    header.putInt(LineageIndexFormat.MAGIC)
+        .putInt(LineageIndexFormat.VERSION)
+        .putInt(termCount)
+        .putLong(namesOffset)
+        .putLong(indexOffset)
+        .flip();
+    while (header.hasRemaining()) {
+      channel.write(header, header.position());
+    }
+    channel.force(true);
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+}
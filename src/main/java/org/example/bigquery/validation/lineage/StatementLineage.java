@@ -0,0 +1,74 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.lineage;
+
+import com.google.common.collect.ImmutableSet;
+import java.util.Collection;
+
+/**
+ * The tables and columns a statement reads and writes, as collected by
+ * {@link LineageCollector}.
+ *
+ * Names are lower-cased and fully qualified: {@code project.dataset.table} for tables and
+ * {@code project.dataset.table.column} for columns. Every table a column belongs to is also
+ * listed as a table, and a table can be read or written without any of its columns, e.g. by
+ * {@code SELECT COUNT(*)} or {@code DELETE}.
+ */
+public final class StatementLineage {
+
+  private final ImmutableSet<String> readTables;
+  private final ImmutableSet<String> readColumns;
+  private final ImmutableSet<String> writtenTables;
+  private final ImmutableSet<String> writtenColumns;
+
+  public StatementLineage(Collection<String> readTables, Collection<String> readColumns,
+      Collection<String> writtenTables, Collection<String> writtenColumns) {
+    this.readTables = ImmutableSet.copyOf(readTables);
+    this.readColumns = ImmutableSet.copyOf(readColumns);
+    this.writtenTables = ImmutableSet.copyOf(writtenTables);
+    this.writtenColumns = ImmutableSet.copyOf(writtenColumns);
+  }
+
+  public ImmutableSet<String> getReadTables() {
+    return readTables;
+  }
+
+  public ImmutableSet<String> getReadColumns() {
+    return readColumns;
+  }
+
+  public ImmutableSet<String> getWrittenTables() {
+    return writtenTables;
+  }
+
+  public ImmutableSet<String> getWrittenColumns() {
+    return writtenColumns;
+  }
+
+  /** Whether the statement neither reads nor writes any table, e.g. {@code SELECT 1} */
+  public boolean isEmpty() {
+    return readTables.isEmpty() && writtenTables.isEmpty();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "StatementLineage{readColumns=%s, writtenColumns=%s, readTables=%s, writtenTables=%s}",
+        readColumns, writtenColumns, readTables, writtenTables);
+  }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.lint;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the violations reported while linting a single query. The {@link LintEngine} creates
+ * one per query and points it to each rule before calling it.
+ */
+public final class LintContext {
+
+  private final List<LintViolation> violations = new ArrayList<>();
+  private LintRule currentRule;
+  private boolean blocked = false;
+
+  LintContext() {}
+
+  /**
+   * Reports a violation of the rule being checked.
+   *
+   * @param message A description of the violation
+   */
+  public void report(String message) {
+    violations.add(
+        new LintViolation(currentRule.getName(), message, currentRule.isBlocking()));
+    if (currentRule.isBlocking()) {
+      blocked = true;
+    }
+  }
+
+  void setCurrentRule(LintRule rule) {
+    this.currentRule = rule;
+  }
+
+  int getViolationCount() {
+    return violations.size();
+  }
+
+  List<LintViolation> getViolations() {
+    return violations;
+  }
+
+  /** Whether a blocking rule reported a violation, which ends linting of the query */
+  boolean isBlocked() {
+    return blocked;
+  }
+
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.lint;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.zetasql.LanguageOptions;
+import com.google.zetasql.Parser;
+import com.google.zetasql.parser.ASTNode;
+import com.google.zetasql.parser.ASTNodes;
+import com.google.zetasql.parser.ParseTreeVisitor;
+import com.google.zetasql.toolkit.options.BigQueryLanguageOptions;
+import java.lang.reflect.Modifier;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Checks many {@link LintRule}s on a query in a single traversal of its parse tree.
+ *
+ * Running each rule as its own {@link ParseTreeVisitor} traverses the tree once per rule. The
+ * engine instead traverses it once and, at each node, calls only the rules that declared the
+ * node's type. Which rules apply to each node class is computed when the engine is created, so
+ * nodes no rule cares about cost a single map lookup.
+ *
+ * Linting a query stops as soon as a blocking rule reports a violation. The engine keeps
+ * cumulative per-rule timings, available through {@link #getRuleStats()}, to find slow rules.
+ *
+ * Engines are thread-safe as long as their rules are, and can lint queries concurrently.
+ */
+public class LintEngine {
+
+  private static final RuleCounters[] NO_RULES = new RuleCounters[0];
+
+  private final ImmutableList<RuleCounters> rules;
+  private final Map<Class<?>, RuleCounters[]> dispatchTable = new ConcurrentHashMap<>();
+
+  /**
+   * @param rules The rules to check. Rule names must be unique.
+   */
+  public LintEngine(Collection<? extends LintRule> rules) {
+    Set<String> names = new HashSet<>();
+    ImmutableList.Builder<RuleCounters> counters = ImmutableList.builder();
+    for (LintRule rule : rules) {
+      Preconditions.checkArgument(
+          names.add(rule.getName()), "Duplicate lint rule name: %s", rule.getName());
+      Preconditions.checkArgument(
+          !rule.getNodeTypes().isEmpty(), "Lint rule %s has no node types", rule.getName());
+      counters.add(new RuleCounters(rule));
+    }
+    this.rules = counters.build();
+
+    for (Class<?> nodeClass : ASTNodes.class.getDeclaredClasses()) {
+      if (ASTNode.class.isAssignableFrom(nodeClass)
+          && !Modifier.isAbstract(nodeClass.getModifiers())) {
+        dispatchTable.put(nodeClass, rulesFor(nodeClass));
+      }
+    }
+  }
+
+  private RuleCounters[] rulesFor(Class<?> nodeClass) {
+    List<RuleCounters> matching = new ArrayList<>();
+    for (RuleCounters rule : rules) {
+      if (rule.nodeTypes.stream().anyMatch(type -> type.isAssignableFrom(nodeClass))) {
+        matching.add(rule);
+      }
+    }
+    return matching.isEmpty() ? NO_RULES : matching.toArray(NO_RULES);
+  }
+
+  private RuleCounters[] dispatch(Class<?> nodeClass) {
+    RuleCounters[] matching = dispatchTable.get(nodeClass);
+    // Every node class is precomputed; this only covers classes outside ASTNodes
+    return matching != null ? matching : dispatchTable.computeIfAbsent(nodeClass, this::rulesFor);
+  }
+
+  /**
+   * Parses a script and lints all its statements.
+   *
+   * @param script The script to lint
+   * @param languageOptions The LanguageOptions to parse the script with
+   * @return The violations found
+   * @throws com.google.zetasql.SqlException if the script is not syntactically valid
+   */
+  public LintReport lint(String script, LanguageOptions languageOptions) {
+    return lint(Parser.parseScript(script, languageOptions));
+  }
+
+  /**
+   * Lints a parse tree, such as a statement or a script.
+   *
+   * @param tree The root of the tree to lint
+   * @return The violations found
+   */
+  public LintReport lint(ASTNode tree) {
+    long startTime = System.nanoTime();
+    Traversal traversal = new Traversal();
+    tree.accept(traversal);
+    LintContext context = traversal.context;
+    return new LintReport(
+        ImmutableList.copyOf(context.getViolations()),
+        context.isBlocked(),
+        Duration.ofNanos(System.nanoTime() - startTime));
+  }
+
+  /** Cumulative stats for each rule, slowest first */
+  public ImmutableList<LintRuleStats> getRuleStats() {
+    return rules.stream()
+        .map(RuleCounters::toStats)
+        .sorted(Comparator.comparing(LintRuleStats::getTotalTime).reversed())
+        .collect(ImmutableList.toImmutableList());
+  }
+
+  /** Resets the cumulative stats of every rule */
+  public void resetRuleStats() {
+    rules.forEach(RuleCounters::reset);
+  }
+
+  private final class Traversal extends ParseTreeVisitor {
+
+    private final LintContext context = new LintContext();
+
+    // Every visit(ASTxxx) method of ParseTreeVisitor delegates to defaultVisit
+    @Override
+    protected void defaultVisit(ASTNode node) {
+      if (context.isBlocked()) {
+        return;
+      }
+
+      for (RuleCounters rule : dispatch(node.getClass())) {
+        rule.check(node, context);
+        if (context.isBlocked()) {
+          return;
+        }
+      }
+
+      super.defaultVisit(node);
+    }
+
+  }
+
+  private static final class RuleCounters {
+
+    private final LintRule rule;
+    private final ImmutableSet<Class<? extends ASTNode>> nodeTypes;
+    private final LongAdder invocations = new LongAdder();
+    private final LongAdder violations = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+
+    private RuleCounters(LintRule rule) {
+      this.rule = rule;
+      this.nodeTypes = rule.getNodeTypes();
+    }
+
+    private void check(ASTNode node, LintContext context) {
+      int violationsBefore = context.getViolationCount();
+      context.setCurrentRule(rule);
+
+      long startTime = System.nanoTime();
+      rule.check(node, context);
+      nanos.add(System.nanoTime() - startTime);
+
+      invocations.increment();
+      violations.add(context.getViolationCount() - violationsBefore);
+    }
+
+    private LintRuleStats toStats() {
+      return new LintRuleStats(
+          rule.getName(), invocations.sum(), violations.sum(), Duration.ofNanos(nanos.sum()));
+    }
+
+    private void reset() {
+      invocations.reset();
+      violations.reset();
+      nanos.reset();
+    }
+
+  }
+
+  public static void main(String[] args) {
+    LintEngine engine = new LintEngine(ImmutableList.of(
+        LintRules.noSelectStar(false),
+        LintRules.bannedFunctions(ImmutableList.of("SESSION_USER", "NET.HOST"), false),
+        LintRules.noCrossJoins(true)));
+
+    String script = "SELECT * FROM dataset.t1;\n"
+        + "SELECT NET.HOST(url), session_user() FROM dataset.t2;\n"
+        + "SELECT t1.a FROM dataset.t1 CROSS JOIN dataset.t2;\n"
+        + "SELECT * FROM dataset.t3;";
+
+    LintReport report = engine.lint(script, BigQueryLanguageOptions.get());
+
+    report.getViolations().forEach(System.out::println);
+    System.out.printf("Blocked: %s%n", report.isBlocked());
+    engine.getRuleStats().forEach(System.out::println);
+  }
+
+}
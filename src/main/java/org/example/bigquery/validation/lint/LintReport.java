@@ -0,0 +1,63 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.lint;
+
+import com.google.common.collect.ImmutableList;
+import java.time.Duration;
+
+/** The violations found while linting a single query */
+public final class LintReport {
+
+  private final ImmutableList<LintViolation> violations;
+  private final boolean blocked;
+  private final Duration elapsed;
+
+  public LintReport(ImmutableList<LintViolation> violations, boolean blocked, Duration elapsed) {
+    this.violations = violations;
+    this.blocked = blocked;
+    this.elapsed = elapsed;
+  }
+
+  /** The violations in the order they were found */
+  public ImmutableList<LintViolation> getViolations() {
+    return violations;
+  }
+
+  public boolean hasViolations() {
+    return !violations.isEmpty();
+  }
+
+  /**
+   * Whether a blocking rule reported a violation. Linting stops at the first blocking violation,
+   * so other violations in the query may not have been reported.
+   */
+  public boolean isBlocked() {
+    return blocked;
+  }
+
+  public Duration getElapsed() {
+    return elapsed;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "LintReport{violations=%s, blocked=%s, elapsed=%dus}",
+        violations, blocked, elapsed.toNanos() / 1000);
+  }
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.lint;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.zetasql.parser.ASTNode;
+
+/**
+ * A policy checked on the parse tree of a query by the {@link LintEngine}.
+ *
+ * Rules declare the node types they inspect and are only called for nodes of those types,
+ * including their subclasses (e.g. declaring {@code ASTStatement} matches every statement). The
+ * engine calls every rule during a single traversal of the tree, so rules must not traverse the
+ * tree themselves beyond looking at the node's direct surroundings.
+ *
+ * Rules are shared by all the queries an engine lints, possibly from several threads, so they
+ * should be stateless. Use {@link NodeTypeRule} for rules that inspect a single node type.
+ */
+public interface LintRule {
+
+  /** A unique name for the rule, used in violations and stats */
+  String getName();
+
+  /** The node types this rule is called for */
+  ImmutableSet<Class<? extends ASTNode>> getNodeTypes();
+
+  /**
+   * Whether a violation of this rule makes the query unacceptable regardless of other rules.
+   * The engine stops linting a query as soon as a blocking rule reports a violation.
+   */
+  default boolean isBlocking() {
+    return false;
+  }
+
+  /**
+   * Checks a node, reporting violations through the context.
+   *
+   * @param node A node whose type is one of {@link #getNodeTypes()}
+   * @param context The context to report violations to
+   */
+  void check(ASTNode node, LintContext context);
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.lint;
+
+import java.time.Duration;
+
+/** Cumulative stats for a single rule across all the queries linted by a {@link LintEngine} */
+public final class LintRuleStats {
+
+  private final String ruleName;
+  private final long invocationCount;
+  private final long violationCount;
+  private final Duration totalTime;
+
+  public LintRuleStats(
+      String ruleName, long invocationCount, long violationCount, Duration totalTime) {
+    this.ruleName = ruleName;
+    this.invocationCount = invocationCount;
+    this.violationCount = violationCount;
+    this.totalTime = totalTime;
+  }
+
+  public String getRuleName() {
+    return ruleName;
+  }
+
+  /** The number of nodes the rule checked */
+  public long getInvocationCount() {
+    return invocationCount;
+  }
+
+  public long getViolationCount() {
+    return violationCount;
+  }
+
+  /** The time spent inside the rule */
+  public Duration getTotalTime() {
+    return totalTime;
+  }
+
+  public double getAverageNanosPerInvocation() {
+    return invocationCount == 0 ? 0 : (double) totalTime.toNanos() / invocationCount;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%s: %d invocations, %d violations, %.3f ms total, %.0f ns/invocation",
+        ruleName,
+        invocationCount,
+        violationCount,
+        totalTime.toNanos() / 1e6,
+        getAverageNanosPerInvocation());
+  }
+
+}
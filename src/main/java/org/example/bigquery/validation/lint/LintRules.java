@@ -0,0 +1,103 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.lint;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.zetasql.parser.ASTJoinEnums.JoinType;
+import com.google.zetasql.parser.ASTNodes.ASTDotStar;
+import com.google.zetasql.parser.ASTNodes.ASTDotStarWithModifiers;
+import com.google.zetasql.parser.ASTNodes.ASTExpression;
+import com.google.zetasql.parser.ASTNodes.ASTFunctionCall;
+import com.google.zetasql.parser.ASTNodes.ASTIdentifier;
+import com.google.zetasql.parser.ASTNodes.ASTJoin;
+import com.google.zetasql.parser.ASTNodes.ASTSelectColumn;
+import com.google.zetasql.parser.ASTNodes.ASTStar;
+import com.google.zetasql.parser.ASTNodes.ASTStarWithModifiers;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/** Common {@link LintRule}s */
+public final class LintRules {
+
+  private LintRules() {}
+
+  /**
+   * Disallows CROSS JOINs, including comma joins. The same check as the DetectCrossJoins
+   * visitor in {@link org.example.bigquery.validation.syntax.D_UsingTheParseTreeVisitor}.
+   *
+   * @param blocking Whether violations are blocking
+   */
+  public static LintRule noCrossJoins(boolean blocking) {
+    return new NodeTypeRule<ASTJoin>("no-cross-joins", ASTJoin.class, blocking) {
+      @Override
+      protected void visit(ASTJoin join, LintContext context) {
+        JoinType joinType = join.getJoinType();
+        if (joinType == JoinType.CROSS || joinType == JoinType.COMMA) {
+          context.report("CROSS JOINs are not allowed");
+        }
+      }
+    };
+  }
+
+  /**
+   * Disallows selecting all columns with {@code *} or {@code alias.*}, with or without EXCEPT
+   * and REPLACE modifiers. {@code COUNT(*)} is allowed.
+   *
+   * @param blocking Whether violations are blocking
+   */
+  public static LintRule noSelectStar(boolean blocking) {
+    return new NodeTypeRule<ASTSelectColumn>("no-select-star", ASTSelectColumn.class, blocking) {
+      @Override
+      protected void visit(ASTSelectColumn column, LintContext context) {
+        ASTExpression expression = column.getExpression();
+        if (expression instanceof ASTStar
+            || expression instanceof ASTStarWithModifiers
+            || expression instanceof ASTDotStar
+            || expression instanceof ASTDotStarWithModifiers) {
+          context.report("SELECT * is not allowed, list the columns explicitly");
+        }
+      }
+    };
+  }
+
+  /**
+   * Disallows calling some functions.
+   *
+   * @param functionNames The names of the banned functions, compared case-insensitively. Names
+   *     in a namespace must include it, as in "NET.HOST".
+   * @param blocking Whether violations are blocking
+   */
+  public static LintRule bannedFunctions(Collection<String> functionNames, boolean blocking) {
+    ImmutableSet<String> banned = functionNames.stream()
+        .map(name -> name.toLowerCase(Locale.ROOT))
+        .collect(ImmutableSet.toImmutableSet());
+
+    return new NodeTypeRule<ASTFunctionCall>("banned-functions", ASTFunctionCall.class, blocking) {
+      @Override
+      protected void visit(ASTFunctionCall call, LintContext context) {
+        String name = call.getFunction().getNames().stream()
+            .map(ASTIdentifier::getIdString)
+            .collect(Collectors.joining("."));
+        if (banned.contains(name.toLowerCase(Locale.ROOT))) {
+          context.report(String.format("Function %s is not allowed", name));
+        }
+      }
+    };
+  }
+
+}
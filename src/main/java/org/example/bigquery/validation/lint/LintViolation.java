@@ -0,0 +1,50 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.lint;
+
+/** A policy violation reported by a {@link LintRule} */
+public final class LintViolation {
+
+  private final String ruleName;
+  private final String message;
+  private final boolean blocking;
+
+  public LintViolation(String ruleName, String message, boolean blocking) {
+    this.ruleName = ruleName;
+    this.message = message;
+    this.blocking = blocking;
+  }
+
+  public String getRuleName() {
+    return ruleName;
+  }
+
+  public String getMessage() {
+    return message;
+  }
+
+  /** Whether the violation was reported by a blocking rule */
+  public boolean isBlocking() {
+    return blocking;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("[%s] %s", ruleName, message);
+  }
+
+}
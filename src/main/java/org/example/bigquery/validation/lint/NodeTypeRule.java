@@ -0,0 +1,81 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.lint;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.zetasql.parser.ASTNode;
+
+/**
+ * Base class for {@link LintRule}s that inspect a single node type.
+ *
+ * <pre>{@code
+ * class NoCrossJoins extends NodeTypeRule<ASTJoin> {
+ *   NoCrossJoins() {
+ *     super("no-cross-joins", ASTJoin.class, true);
+ *   }
+ *
+ *   protected void visit(ASTJoin join, LintContext context) {
+ *     if (join.getJoinType() == JoinType.CROSS) {
+ *       context.report("CROSS JOINs are not allowed");
+ *     }
+ *   }
+ * }
+ * }</pre>
+ *
+ * @param <T> The node type the rule inspects
+ */
+public abstract class NodeTypeRule<T extends ASTNode> implements LintRule {
+
+  private final String name;
+  private final Class<T> nodeType;
+  private final boolean blocking;
+
+  protected NodeTypeRule(String name, Class<T> nodeType, boolean blocking) {
+    this.name = name;
+    this.nodeType = nodeType;
+    this.blocking = blocking;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public ImmutableSet<Class<? extends ASTNode>> getNodeTypes() {
+    return ImmutableSet.of(nodeType);
+  }
+
+  @Override
+  public boolean isBlocking() {
+    return blocking;
+  }
+
+  @Override
+  public final void check(ASTNode node, LintContext context) {
+    visit(nodeType.cast(node), context);
+  }
+
+  /**
+   * Checks a node of this rule's type.
+   *
+   * @param node The node to check
+   * @param context The context to report violations to
+   */
+  protected abstract void visit(T node, LintContext context);
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.example.bigquery.validation.localservice;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.zetasql.JniChannelProvider;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs a ZetaSQL local service in its own JVM, for {@link LocalServicePool} instances that run as
+ * child processes.
+ *
+ * The ZetaSQL JNI library only hands out connections to its service as in-process socket pairs.
+ * The host accepts TCP connections on a loopback port and relays each one to a socket pair of
+ * its own, so the parent talks gRPC to the service as if it were in-process. The port is printed
+ * on stdout once the host is listening, and the host exits when its stdin is closed.
+ */
+public class LocalServiceHost {
+
+  static final String PORT_PREFIX = "port ";
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  public static void main(String[] args) throws Exception {
+    Method getSocketChannel = JniChannelProvider.class.getDeclaredMethod("getSocketChannel");
+    getSocketChannel.setAccessible(true);
+
+    ExecutorService relays = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder()
+            .setNameFormat("local-service-relay-%d")
+            .setDaemon(true)
+            .build());
+
+    ServerSocketChannel server = ServerSocketChannel.open();
+    server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    System.out.println(PORT_PREFIX + ((InetSocketAddress) server.getLocalAddress()).getPort());
+    System.out.flush();
+
+    Thread parentWatcher = new Thread(() -> {
+      try {
+        while (System.in.read() != -1) {
+          // Nothing is ever sent on stdin; EOF means the parent is gone
+        }
+      } catch (IOException e) {
+        // Treated like EOF
+      }
+      System.exit(0);
+    }, "local-service-parent-watcher");
+    parentWatcher.setDaemon(true);
+    parentWatcher.start();
+
+    while (true) {
+      SocketChannel client = server.accept();
+      SocketChannel service = newServiceChannel(getSocketChannel);
+      relays.execute(() -> relay(client, service));
+      relays.execute(() -> relay(service, client));
+    }
+  }
+
+  private static SocketChannel newServiceChannel(Method getSocketChannel) throws IOException {
+    try {
+      SocketChannel channel = (SocketChannel) getSocketChannel.invoke(null);
+      channel.configureBlocking(true);
+      return channel;
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    } catch (InvocationTargetException e) {
+      throw new IOException("Could not connect to the ZetaSQL local service", e.getCause());
+    }
+  }
+
+  /** Copies bytes from one channel to the other until either is closed, then closes both */
+  private static void relay(SocketChannel from, SocketChannel to) {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    try (from; to) {
+      while (from.read(buffer) != -1) {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+          to.write(buffer);
+        }
+        buffer.clear();
+      }
+    } catch (IOException e) {
+      // The other direction notices the closed channels and stops as well
+    }
+  }
+
+}
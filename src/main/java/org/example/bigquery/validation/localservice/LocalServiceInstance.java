@@ -0,0 +1,170 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.example.bigquery.validation.localservice;
+
+import com.google.zetasql.JniChannelProvider;
+import com.google.zetasql.io.grpc.Channel;
+import com.google.zetasql.io.grpc.LoadBalancerRegistry;
+import com.google.zetasql.io.grpc.ManagedChannel;
+import com.google.zetasql.io.grpc.internal.PickFirstLoadBalancerProvider;
+import com.google.zetasql.io.grpc.netty.NettyChannelBuilder;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One ZetaSQL local service a {@link LocalServicePool} routes requests to. An instance is
+ * started once and stopped once; the pool replaces instances that fail rather than restarting
+ * them.
+ */
+abstract class LocalServiceInstance {
+
+  /**
+   * Starts the instance.
+   *
+   * @return The channel to send requests to the instance
+   * @throws IOException if the instance can't be started
+   */
+  abstract Channel start() throws IOException;
+
+  /**
+   * Completes when the instance stops on its own, e.g. because its process crashed. Never
+   * completes for instances that can only stop with the JVM.
+   */
+  abstract CompletableFuture<?> onExit();
+
+  /** Stops the instance, releasing its channel and any process */
+  abstract void stop();
+
+  /**
+   * Whether stopping the instance also stops the calls it's still working on. Only then is it
+   * worth replacing an instance whose call was abandoned after its deadline.
+   */
+  abstract boolean stopsRunningCalls();
+
+  /** An instance served by the JNI library loaded in this JVM, over its own connection */
+  static final class InProcess extends LocalServiceInstance {
+
+    private ManagedChannel channel;
+
+    @Override
+    Channel start() {
+      channel = (ManagedChannel) new JniChannelProvider().newChannel();
+      return channel;
+    }
+
+    @Override
+    CompletableFuture<?> onExit() {
+      return new CompletableFuture<>();
+    }
+
+    @Override
+    void stop() {
+      if (channel != null) {
+        channel.shutdownNow();
+      }
+    }
+
+    @Override
+    boolean stopsRunningCalls() {
+      // The native library keeps running calls on its own threads, whatever the channel
+      return false;
+    }
+
+    @Override
+    public String toString() {
+      return "in-process";
+    }
+
+  }
+
+  /**
+   * An instance served by a child JVM running {@link LocalServiceHost}, so that it has its own
+   * native heap and threads, and a crash only takes down that instance.
+   */
+  static final class ChildProcess extends LocalServiceInstance {
+
+    static {
+      // ZetaSQL's gRPC is shaded without its load balancer service files. JniChannelProvider
+      // registers the default policy when loaded, but loading it here would load the native
+      // library into this JVM for nothing.
+      LoadBalancerRegistry.getDefaultRegistry().register(new PickFirstLoadBalancerProvider());
+    }
+
+    private Process process;
+    private ManagedChannel channel;
+
+    @Override
+    Channel start() throws IOException {
+      String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+      process = new ProcessBuilder(
+          java, "-cp", System.getProperty("java.class.path"), LocalServiceHost.class.getName())
+          .redirectError(ProcessBuilder.Redirect.INHERIT)
+          .start();
+
+      // The host prints its port once it's listening. Its stdin stays open for as long as this
+      // process runs, so it exits on its own if this JVM dies without stopping it.
+      BufferedReader output = new BufferedReader(
+          new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+      String line = output.readLine();
+      if (line == null || !line.startsWith(LocalServiceHost.PORT_PREFIX)) {
+        process.destroyForcibly();
+        throw new IOException("Local service host failed to start, printed: " + line);
+      }
+      int port = Integer.parseInt(line.substring(LocalServiceHost.PORT_PREFIX.length()).trim());
+
+      channel = NettyChannelBuilder
+          .forAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), port))
+          .usePlaintext()
+          .build();
+      return channel;
+    }
+
+    @Override
+    CompletableFuture<?> onExit() {
+      return process.onExit();
+    }
+
+    @Override
+    void stop() {
+      if (channel != null) {
+        channel.shutdownNow();
+      }
+      if (process != null) {
+        process.destroy();
+      }
+    }
+
+    @Override
+    boolean stopsRunningCalls() {
+      return true;
+    }
+
+    @Override
+    public String toString() {
+      return process == null ? "child process" : "child process " + process.pid();
+    }
+
+  }
+
+}
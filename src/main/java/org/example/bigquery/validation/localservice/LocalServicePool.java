@@ -0,0 +1,722 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.example.bigquery.validation.localservice;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
+import com.google.zetasql.LocalService.LanguageOptionsRequest;
+import com.google.zetasql.ZetaSqlLocalServiceGrpc;
+import com.google.zetasql.io.grpc.CallOptions;
+import com.google.zetasql.io.grpc.Channel;
+import com.google.zetasql.io.grpc.ClientCall;
+import com.google.zetasql.io.grpc.Metadata;
+import com.google.zetasql.io.grpc.MethodDescriptor;
+import com.google.zetasql.io.grpc.Status;
+import com.google.zetasql.io.grpc.StatusException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Spreads ZetaSQL local service calls across several service instances.
+ *
+ * By default every Parser and Analyzer call goes through a single connection to a single local
+ * service, which caps throughput no matter how many threads make calls. A pool runs several
+ * instances, either as separate connections to the service in this JVM or as child processes
+ * (see {@link LocalServiceHost}), and sends each call to the instance with the fewest
+ * outstanding calls. Install it for the whole JVM with {@link PooledChannelProvider}.
+ *
+ * Registering a catalog or preparing an expression creates state in the instance that handled
+ * the call, identified by an id the caller passes back later. The pool hands out ids of its own
+ * in place of the instances' ids, which would clash across processes, and routes every call
+ * using an id to the instance that created it. Such calls are not balanced: all analysis against
+ * one registered catalog runs on one instance.
+ *
+ * A background task checks every instance periodically and replaces instances that fail the
+ * check or whose process exits. State created on a replaced instance is lost; calls using it
+ * fail with {@code NOT_FOUND} and the caller must register or prepare again. So do calls with
+ * ids the pool never handed out.
+ *
+ * Child process instances are also replaced when one of their calls fails with
+ * {@code DEADLINE_EXCEEDED}, e.g. from a
+ * {@link org.example.bigquery.validation.guard.StatementGuard}. The caller has given up on the
+ * call, but the instance would keep working on it, taking a thread and memory from every other
+ * call it's sent, for as long as the pathological statement takes.
+ */
+public class LocalServicePool implements AutoCloseable {
+
+  private static final Logger LOGGER = Logger.getLogger(LocalServicePool.class.getName());
+
+  /** Fields holding ids of state created in an instance, mapped to the kind of state */
+  private static final Map<String, String> ID_FIELD_KINDS = Map.of(
+      "registered_catalog_id", "catalog",
+      "registered_id", "catalog",
+      "prepared_expression_id", "expression",
+      "prepared_query_id", "query",
+      "prepared_modify_id", "modify");
+
+  /** The only message field searched for ids; responses nest prepared state ids in it */
+  private static final String NESTED_ID_FIELD = "prepared";
+
+  /** Methods releasing the state identified by the ids in their request */
+  private static final ImmutableSet<String> RELEASING_METHODS = ImmutableSet.of(
+      "UnregisterCatalog", "Unprepare", "UnprepareQuery", "UnprepareModify");
+
+  private static final Duration RESTART_BACKOFF = Duration.ofSeconds(1);
+
+  private final Supplier<LocalServiceInstance> instanceFactory;
+  private final Duration healthCheckTimeout;
+  private final ImmutableList<Slot> slots;
+  private final ScheduledExecutorService scheduler;
+  private final AtomicInteger nextSlot = new AtomicInteger();
+  private final AtomicLong nextId = new AtomicLong(1);
+  private final Map<Long, StateId> statesById = new ConcurrentHashMap<>();
+  private final Map<StateId, Long> idsByState = new ConcurrentHashMap<>();
+  private final Map<Descriptor, List<FieldDescriptor>> idFields = new ConcurrentHashMap<>();
+  private final LongAdder restarts = new LongAdder();
+  private final LongAdder deadlineRestarts = new LongAdder();
+  private volatile boolean closed = false;
+
+  /**
+   * Creates a pool and starts its instances.
+   *
+   * @param instanceCount The number of instances
+   * @param instanceFactory Creates a new, unstarted instance; called again to replace instances
+   * @param healthCheckInterval How often to check each instance
+   * @param healthCheckTimeout How long an instance may take to answer a check
+   * @throws IOException if an instance can't be started
+   */
+  LocalServicePool(int instanceCount, Supplier<LocalServiceInstance> instanceFactory,
+      Duration healthCheckInterval, Duration healthCheckTimeout) throws IOException {
+    Preconditions.checkArgument(instanceCount > 0, "instanceCount must be positive");
+    this.instanceFactory = instanceFactory;
+    this.healthCheckTimeout = healthCheckTimeout;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder()
+            .setNameFormat("local-service-pool-%d")
+            .setDaemon(true)
+            .build());
+
+    ImmutableList.Builder<Slot> slots = ImmutableList.builder();
+    for (int i = 0; i < instanceCount; i++) {
+      Slot slot = new Slot(i);
+      try {
+        startInstance(slot);
+      } catch (IOException e) {
+        scheduler.shutdownNow();
+        this.slots = slots.build();
+        close();
+        throw e;
+      }
+      slots.add(slot);
+    }
+    this.slots = slots.build();
+
+    long intervalMillis = healthCheckInterval.toMillis();
+    scheduler.scheduleWithFixedDelay(
+        this::checkHealth, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Creates a pool of connections to the local service in this JVM. The service handles each
+   * connection on its own threads, so this removes the single-connection bottleneck but not
+   * contention inside the service.
+   *
+   * @param instanceCount The number of connections
+   */
+  public static LocalServicePool inProcess(int instanceCount) throws IOException {
+    return new LocalServicePool(instanceCount, LocalServiceInstance.InProcess::new,
+        Duration.ofSeconds(10), Duration.ofSeconds(10));
+  }
+
+  /**
+   * Creates a pool of local services running in child JVMs, each with its own native heap and
+   * threads. Each child takes a few seconds to start and its own memory for the ZetaSQL library.
+   *
+   * @param instanceCount The number of child processes
+   */
+  public static LocalServicePool childProcesses(int instanceCount) throws IOException {
+    return new LocalServicePool(instanceCount, LocalServiceInstance.ChildProcess::new,
+        Duration.ofSeconds(10), Duration.ofSeconds(10));
+  }
+
+  /** A channel routing calls across the pool's instances */
+  public Channel getChannel() {
+    return new PoolChannel();
+  }
+
+  public int getInstanceCount() {
+    return slots.size();
+  }
+
+  /** The number of calls each instance is handling, by instance index */
+  public List<Integer> getOutstandingCalls() {
+    List<Integer> outstanding = new ArrayList<>(slots.size());
+    for (Slot slot : slots) {
+      outstanding.add(slot.outstanding.get());
+    }
+    return outstanding;
+  }
+
+  /** The number of calls each instance has handled, by instance index */
+  public List<Long> getCompletedCalls() {
+    List<Long> completed = new ArrayList<>(slots.size());
+    for (Slot slot : slots) {
+      completed.add(slot.completed.sum());
+    }
+    return completed;
+  }
+
+  /** The number of times an instance was replaced after failing */
+  public long getRestartCount() {
+    return restarts.sum();
+  }
+
+  /** The number of instances replaced because a call to them exceeded its deadline */
+  public long getDeadlineRestartCount() {
+    return deadlineRestarts.sum();
+  }
+
+  private void startInstance(Slot slot) throws IOException {
+    LocalServiceInstance instance = instanceFactory.get();
+    Channel channel = instance.start();
+    // New instances are slow to answer their first call. Make it here rather than under a
+    // caller's deadline, which it could exceed and get the instance replaced again.
+    try {
+      checkInstance(channel);
+    } catch (RuntimeException e) {
+      instance.stop();
+      throw new IOException("ZetaSQL local service instance " + instance + " did not answer", e);
+    }
+    Incarnation incarnation = new Incarnation(slot.nextGeneration++, instance, channel);
+    slot.current = incarnation;
+    instance.onExit().thenRun(() -> {
+      if (!closed) {
+        scheduler.execute(() -> restart(slot, incarnation, "instance exited"));
+      }
+    });
+  }
+
+  /** Replaces a failed instance, unless it was already replaced */
+  private void restart(Slot slot, Incarnation failed, String reason) {
+    synchronized (slot) {
+      if (closed || slot.current != failed) {
+        return;
+      }
+      LOGGER.log(Level.WARNING,
+          "Replacing ZetaSQL local service instance {0} ({1}): {2}",
+          new Object[] {slot.index, failed.instance, reason});
+      slot.current = null;
+      failed.instance.stop();
+      try {
+        startInstance(slot);
+        restarts.increment();
+      } catch (IOException | RuntimeException e) {
+        LOGGER.log(Level.WARNING, "Could not start ZetaSQL local service instance", e);
+        scheduler.schedule(
+            () -> retryStart(slot), RESTART_BACKOFF.toMillis(), TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+
+  private void retryStart(Slot slot) {
+    synchronized (slot) {
+      if (closed || slot.current != null) {
+        return;
+      }
+      try {
+        startInstance(slot);
+        restarts.increment();
+      } catch (IOException | RuntimeException e) {
+        LOGGER.log(Level.WARNING, "Could not start ZetaSQL local service instance", e);
+        scheduler.schedule(
+            () -> retryStart(slot), RESTART_BACKOFF.toMillis(), TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+
+  private void checkHealth() {
+    for (Slot slot : slots) {
+      Incarnation incarnation = slot.current;
+      if (incarnation == null) {
+        continue;
+      }
+      try {
+        checkInstance(incarnation.channel);
+      } catch (RuntimeException e) {
+        restart(slot, incarnation, "health check failed: " + e.getMessage());
+      }
+    }
+  }
+
+  /** Sends a cheap call to an instance, throwing if it doesn't answer in time */
+  private void checkInstance(Channel channel) {
+    ZetaSqlLocalServiceGrpc.newBlockingStub(channel)
+        .withDeadlineAfter(healthCheckTimeout.toMillis(), TimeUnit.MILLISECONDS)
+        .getLanguageOptions(LanguageOptionsRequest.getDefaultInstance());
+  }
+
+  /** The live instance with the fewest outstanding calls, or null if none is live */
+  private Slot leastLoaded() {
+    // Start the scan at a rotating index so that ties don't all go to the first instance
+    int start = Math.floorMod(nextSlot.getAndIncrement(), slots.size());
+    Slot best = null;
+    int bestOutstanding = Integer.MAX_VALUE;
+    for (int i = 0; i < slots.size(); i++) {
+      Slot slot = slots.get((start + i) % slots.size());
+      int outstanding = slot.outstanding.get();
+      if (slot.current != null && outstanding < bestOutstanding) {
+        best = slot;
+        bestOutstanding = outstanding;
+      }
+    }
+    return best;
+  }
+
+  /** The fields of a message type holding state ids, and the nested field holding more */
+  private List<FieldDescriptor> idFields(Descriptor type) {
+    return idFields.computeIfAbsent(type, t -> {
+      List<FieldDescriptor> fields = new ArrayList<>();
+      for (FieldDescriptor field : t.getFields()) {
+        boolean isId = ID_FIELD_KINDS.containsKey(field.getName())
+            && field.getJavaType() == FieldDescriptor.JavaType.LONG
+            && !field.isRepeated();
+        boolean isNested = field.getName().equals(NESTED_ID_FIELD)
+            && field.getJavaType() == FieldDescriptor.JavaType.MESSAGE
+            && !field.isRepeated();
+        if (isId || isNested) {
+          fields.add(field);
+        }
+      }
+      return fields;
+    });
+  }
+
+  /**
+   * Picks the instance for a request and translates the pool ids in it to that instance's ids.
+   *
+   * @param method The name of the method called
+   * @param request The request
+   * @return The route, or null if the call releases state that was lost with a replaced
+   *     instance, and so has nothing left to do
+   * @throws StatusException if the request can't be routed
+   */
+  private Route route(String method, Object request) throws StatusException {
+    Map<FieldDescriptor, StateId> states = new HashMap<>();
+    if (request instanceof Message) {
+      Message message = (Message) request;
+      for (FieldDescriptor field : idFields(message.getDescriptorForType())) {
+        if (field.getJavaType() == FieldDescriptor.JavaType.LONG && message.hasField(field)) {
+          long id = (Long) message.getField(field);
+          StateId state = statesById.get(id);
+          if (state == null && id != 0) {
+            // Passing it on as is would reach an arbitrary instance, where it may name
+            // unrelated state
+            throw Status.NOT_FOUND
+                .withDescription(String.format(
+                    "Unknown %s id %d", ID_FIELD_KINDS.get(field.getName()), id))
+                .asException();
+          }
+          if (state != null) {
+            states.put(field, state);
+          }
+        }
+      }
+    }
+
+    if (states.isEmpty()) {
+      Slot slot = leastLoaded();
+      if (slot == null) {
+        throw Status.UNAVAILABLE
+            .withDescription("No ZetaSQL local service instance is available")
+            .asException();
+      }
+      return new Route(slot, slot.current, request, states);
+    }
+
+    StateId first = states.values().iterator().next();
+    Slot slot = slots.get(first.slot);
+    Incarnation incarnation = slot.current;
+    for (StateId state : states.values()) {
+      if (state.slot != first.slot) {
+        throw Status.INVALID_ARGUMENT
+            .withDescription("Request uses state from more than one ZetaSQL instance")
+            .asException();
+      }
+      if (incarnation == null || state.generation != incarnation.generation) {
+        if (RELEASING_METHODS.contains(method)) {
+          release(states.values());
+          return null;
+        }
+        throw Status.NOT_FOUND
+            .withDescription(String.format(
+                "The %s with id %d was lost when ZetaSQL local service instance %d was replaced",
+                state.kind, idsByState.getOrDefault(state, -1L), state.slot))
+            .asException();
+      }
+    }
+
+    Message.Builder translated = ((Message) request).toBuilder();
+    for (Map.Entry<FieldDescriptor, StateId> entry : states.entrySet()) {
+      translated.setField(entry.getKey(), entry.getValue().localId);
+    }
+    return new Route(slot, incarnation, translated.build(), states);
+  }
+
+  /** Replaces the instance ids of new state in a response with pool ids */
+  private Object translateResponse(Route route, Object response) {
+    if (!(response instanceof Message)) {
+      return response;
+    }
+    Message message = (Message) response;
+    List<FieldDescriptor> fields = idFields(message.getDescriptorForType());
+    if (fields.isEmpty()) {
+      return response;
+    }
+
+    Message.Builder translated = null;
+    for (FieldDescriptor field : fields) {
+      if (!message.hasField(field)) {
+        continue;
+      }
+      Object value = message.getField(field);
+      Object newValue = value instanceof Message
+          ? translateResponse(route, value)
+          : (Object) poolId(route, ID_FIELD_KINDS.get(field.getName()), (Long) value);
+      if (!newValue.equals(value)) {
+        if (translated == null) {
+          translated = message.toBuilder();
+        }
+        translated.setField(field, newValue);
+      }
+    }
+    return translated == null ? response : translated.build();
+  }
+
+  private long poolId(Route route, String kind, long localId) {
+    StateId state = new StateId(route.slot.index, route.incarnation.generation, kind, localId);
+    return idsByState.computeIfAbsent(state, s -> {
+      long id = nextId.getAndIncrement();
+      statesById.put(id, s);
+      return id;
+    });
+  }
+
+  private void release(Iterable<StateId> states) {
+    for (StateId state : states) {
+      Long id = idsByState.remove(state);
+      if (id != null) {
+        statesById.remove(id);
+      }
+    }
+  }
+
+  /** Stops all instances */
+  @Override
+  public void close() {
+    closed = true;
+    scheduler.shutdownNow();
+    for (Slot slot : slots) {
+      synchronized (slot) {
+        if (slot.current != null) {
+          slot.current.instance.stop();
+          slot.current = null;
+        }
+      }
+    }
+  }
+
+  /** A position in the pool, holding its current instance */
+  private static final class Slot {
+
+    private final int index;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private volatile Incarnation current;
+    private long nextGeneration = 0;
+
+    private Slot(int index) {
+      this.index = index;
+    }
+
+  }
+
+  /** An instance running in a slot, until it fails and is replaced by the next incarnation */
+  private static final class Incarnation {
+
+    private final long generation;
+    private final LocalServiceInstance instance;
+    private final Channel channel;
+
+    private Incarnation(long generation, LocalServiceInstance instance, Channel channel) {
+      this.generation = generation;
+      this.instance = instance;
+      this.channel = channel;
+    }
+
+  }
+
+  /** State created in an instance, as identified by that instance */
+  private static final class StateId {
+
+    private final int slot;
+    private final long generation;
+    private final String kind;
+    private final long localId;
+
+    private StateId(int slot, long generation, String kind, long localId) {
+      this.slot = slot;
+      this.generation = generation;
+      this.kind = kind;
+      this.localId = localId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof StateId)) {
+        return false;
+      }
+      StateId other = (StateId) o;
+      return slot == other.slot
+          && generation == other.generation
+          && localId == other.localId
+          && kind.equals(other.kind);
+    }
+
+    @Override
+    public int hashCode() {
+      return ((31 * slot + Long.hashCode(generation)) * 31 + kind.hashCode()) * 31
+          + Long.hashCode(localId);
+    }
+
+  }
+
+  /** Where a call goes, with its request translated to that instance's ids */
+  private static final class Route {
+
+    private final Slot slot;
+    private final Incarnation incarnation;
+    private final Object request;
+    private final Map<FieldDescriptor, StateId> states;
+
+    private Route(Slot slot, Incarnation incarnation, Object request,
+        Map<FieldDescriptor, StateId> states) {
+      this.slot = slot;
+      this.incarnation = incarnation;
+      this.request = request;
+      this.states = states;
+    }
+
+  }
+
+  private final class PoolChannel extends Channel {
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(
+        MethodDescriptor<ReqT, RespT> method, CallOptions callOptions) {
+      return new RoutingCall<>(method, callOptions);
+    }
+
+    @Override
+    public String authority() {
+      return "zetasql-local-service-pool";
+    }
+
+  }
+
+  /**
+   * A call that picks its instance when its request is sent. All local service methods are
+   * unary, so the request is the only message and carries every id the call depends on.
+   */
+  private final class RoutingCall<ReqT, RespT> extends ClientCall<ReqT, RespT> {
+
+    private final MethodDescriptor<ReqT, RespT> method;
+    private final CallOptions callOptions;
+    private Listener<RespT> listener;
+    private Metadata headers;
+    private int pendingRequests = 0;
+    private Boolean messageCompression;
+    private Route route;
+    private ClientCall<ReqT, RespT> delegate;
+    private boolean done = false;
+
+    private RoutingCall(MethodDescriptor<ReqT, RespT> method, CallOptions callOptions) {
+      this.method = method;
+      this.callOptions = callOptions;
+    }
+
+    @Override
+    public void start(Listener<RespT> listener, Metadata headers) {
+      this.listener = listener;
+      this.headers = headers;
+    }
+
+    @Override
+    public void request(int numMessages) {
+      if (delegate != null) {
+        delegate.request(numMessages);
+      } else {
+        pendingRequests += numMessages;
+      }
+    }
+
+    @Override
+    public void setMessageCompression(boolean enabled) {
+      if (delegate != null) {
+        delegate.setMessageCompression(enabled);
+      } else {
+        messageCompression = enabled;
+      }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void sendMessage(ReqT message) {
+      if (done) {
+        return;
+      }
+      if (delegate == null) {
+        try {
+          route = route(method.getBareMethodName(), message);
+        } catch (StatusException e) {
+          fail(e.getStatus());
+          return;
+        }
+        if (route == null) {
+          completeWithoutCall();
+          return;
+        }
+        startDelegate();
+        message = (ReqT) route.request;
+      }
+      delegate.sendMessage(message);
+    }
+
+    @Override
+    public void halfClose() {
+      if (done) {
+        return;
+      }
+      if (delegate == null) {
+        fail(Status.INTERNAL.withDescription("Call closed without a request"));
+        return;
+      }
+      delegate.halfClose();
+    }
+
+    @Override
+    public void cancel(String message, Throwable cause) {
+      if (delegate != null) {
+        delegate.cancel(message, cause);
+      } else if (listener != null && !done) {
+        fail(Status.CANCELLED.withDescription(message).withCause(cause));
+      }
+    }
+
+    @Override
+    public boolean isReady() {
+      return delegate == null || delegate.isReady();
+    }
+
+    /** Answers with an empty response, as releasing methods do */
+    private void completeWithoutCall() {
+      done = true;
+      listener.onHeaders(new Metadata());
+      listener.onMessage(method.parseResponse(new ByteArrayInputStream(new byte[0])));
+      listener.onClose(Status.OK, new Metadata());
+    }
+
+    private void fail(Status status) {
+      done = true;
+      listener.onClose(status, new Metadata());
+    }
+
+    private void startDelegate() {
+      Slot slot = route.slot;
+      slot.outstanding.incrementAndGet();
+      delegate = route.incarnation.channel.newCall(method, callOptions);
+      delegate.start(new Listener<RespT>() {
+        @Override
+        public void onHeaders(Metadata headers) {
+          listener.onHeaders(headers);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void onMessage(RespT message) {
+          listener.onMessage((RespT) translateResponse(route, message));
+        }
+
+        @Override
+        public void onClose(Status status, Metadata trailers) {
+          slot.outstanding.decrementAndGet();
+          slot.completed.increment();
+          if (status.isOk() && RELEASING_METHODS.contains(method.getBareMethodName())) {
+            release(route.states.values());
+          }
+          if (status.getCode() == Status.Code.DEADLINE_EXCEEDED
+              && route.incarnation.instance.stopsRunningCalls() && !closed) {
+            Incarnation incarnation = route.incarnation;
+            scheduler.execute(() -> {
+              if (slot.current == incarnation) {
+                deadlineRestarts.increment();
+                restart(slot, incarnation, "a call exceeded its deadline");
+              }
+            });
+          }
+          listener.onClose(status, trailers);
+        }
+
+        @Override
+        public void onReady() {
+          listener.onReady();
+        }
+      }, headers);
+      if (messageCompression != null) {
+        delegate.setMessageCompression(messageCompression);
+      }
+      if (pendingRequests > 0) {
+        delegate.request(pendingRequests);
+      }
+    }
+
+  }
+
+}
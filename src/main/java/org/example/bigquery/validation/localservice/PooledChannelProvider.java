@@ -0,0 +1,87 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.example.bigquery.validation.localservice;
+
+import com.google.zetasql.ClientChannelProvider;
+import com.google.zetasql.JniChannelProvider;
+import com.google.zetasql.io.grpc.Channel;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Optional;
+
+/**
+ * Makes every ZetaSQL call in the JVM go through a {@link LocalServicePool}, when configured
+ * with system properties:
+ * <ul>
+ *   <li>{@value #INSTANCES_PROPERTY}: the number of instances, 1 by default
+ *   <li>{@value #MODE_PROPERTY}: {@code in-process} (the default) or {@code process}, to run
+ *       each instance in a child JVM
+ * </ul>
+ *
+ * ZetaSQL creates its channel with the first {@link ClientChannelProvider} found on the
+ * classpath, once per JVM, so the properties must be set before the first Parser or Analyzer
+ * call. This provider is listed in this project's {@code META-INF/services}, which comes before
+ * the ZetaSQL jars on the classpath. With a single in-process instance, it returns the same
+ * channel as ZetaSQL's own {@link JniChannelProvider}.
+ */
+public class PooledChannelProvider implements ClientChannelProvider {
+
+  public static final String INSTANCES_PROPERTY = "bigquery.validation.zetasql.instances";
+  public static final String MODE_PROPERTY = "bigquery.validation.zetasql.mode";
+
+  private static LocalServicePool pool;
+
+  @Override
+  public Channel newChannel() {
+    int instances = Integer.getInteger(INSTANCES_PROPERTY, 1);
+    String mode = System.getProperty(MODE_PROPERTY, "in-process");
+
+    if (instances == 1 && mode.equals("in-process")) {
+      return new JniChannelProvider().newChannel();
+    }
+
+    try {
+      LocalServicePool newPool;
+      switch (mode) {
+        case "in-process":
+          newPool = LocalServicePool.inProcess(instances);
+          break;
+        case "process":
+          newPool = LocalServicePool.childProcesses(instances);
+          break;
+        default:
+          throw new IllegalArgumentException(
+              "Unknown " + MODE_PROPERTY + " " + mode + ", expected in-process or process");
+      }
+      setPool(newPool);
+      return newPool.getChannel();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not start the ZetaSQL local service pool", e);
+    }
+  }
+
+  private static synchronized void setPool(LocalServicePool newPool) {
+    pool = newPool;
+  }
+
+  /** The pool serving ZetaSQL calls, if the JVM uses one */
+  public static synchronized Optional<LocalServicePool> getPool() {
+    return Optional.ofNullable(pool);
+  }
+
+}
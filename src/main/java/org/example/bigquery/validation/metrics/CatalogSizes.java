@@ -0,0 +1,80 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.metrics;
+
+import com.google.zetasql.SimpleCatalog;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Measures the size of a catalog, by kind of resource, and records it in a
+ * {@link ValidationMetrics}.
+ *
+ * Catalogs like the BigQueryCatalog register each resource under several paths, in nested
+ * catalogs. Resources are counted by object identity, so a resource registered under several
+ * paths counts once, as long as the same object was registered for all of them.
+ */
+public final class CatalogSizes {
+
+  public static final String TABLES = "tables";
+  public static final String FUNCTIONS = "functions";
+  public static final String TVFS = "tvfs";
+  public static final String PROCEDURES = "procedures";
+
+  private CatalogSizes() {}
+
+  /**
+   * Counts the resources in a catalog and its nested catalogs and records the counts.
+   *
+   * @param catalog The catalog to measure
+   * @param metrics Where to record the catalog size
+   */
+  public static void record(SimpleCatalog catalog, ValidationMetrics metrics) {
+    if (metrics == ValidationMetrics.NOOP) {
+      return;
+    }
+
+    Set<Object> tables = identitySet();
+    Set<Object> functions = identitySet();
+    Set<Object> tvfs = identitySet();
+    Set<Object> procedures = identitySet();
+
+    Deque<SimpleCatalog> pending = new ArrayDeque<>();
+    pending.push(catalog);
+    while (!pending.isEmpty()) {
+      SimpleCatalog current = pending.pop();
+      tables.addAll(current.getTableList());
+      functions.addAll(current.getFunctionList());
+      tvfs.addAll(current.getTVFList());
+      procedures.addAll(current.getProcedureList());
+      current.getCatalogList().forEach(pending::push);
+    }
+
+    metrics.recordCatalogSize(TABLES, tables.size());
+    metrics.recordCatalogSize(FUNCTIONS, functions.size());
+    metrics.recordCatalogSize(TVFS, tvfs.size());
+    metrics.recordCatalogSize(PROCEDURES, procedures.size());
+  }
+
+  private static Set<Object> identitySet() {
+    return Collections.newSetFromMap(new IdentityHashMap<>());
+  }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.metrics;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.zetasql.SqlException;
+import java.util.Map;
+
+/**
+ * Groups ZetaSQL errors into a small, fixed set of classes, so that errors can be counted by
+ * class without the unbounded cardinality of their messages.
+ */
+public final class ErrorClasses {
+
+  public static final String SYNTAX_ERROR = "syntax_error";
+  public static final String DEADLINE_EXCEEDED = "deadline_exceeded";
+  public static final String LIMIT_EXCEEDED = "limit_exceeded";
+  public static final String OTHER = "other";
+
+  /** Message fragments identifying each class, checked in order */
+  private static final ImmutableMap<String, String> MESSAGE_FRAGMENTS =
+      ImmutableMap.<String, String>builder()
+          .put("Statement rejected", LIMIT_EXCEEDED)
+          .put("exceeded its deadline", DEADLINE_EXCEEDED)
+          .put("Syntax error", SYNTAX_ERROR)
+          .put("Table not found", "table_not_found")
+          .put("Function not found", "function_not_found")
+          .put("Table-valued function not found", "function_not_found")
+          .put("Procedure not found", "procedure_not_found")
+          .put("Unrecognized name", "unrecognized_name")
+          .put("not found inside", "field_not_found")
+          .put("No matching signature", "no_matching_signature")
+          .put("already exists", "already_exists")
+          .put("not supported", "unsupported")
+          .put("Unsupported", "unsupported")
+          .put("Received message larger than max", "request_too_large")
+          .build();
+
+  private ErrorClasses() {}
+
+  /**
+   * Classifies a ZetaSQL error.
+   *
+   * @param error The error thrown by the Parser or the Analyzer
+   * @return The error class, {@link #OTHER} if the error is not recognized
+   */
+  public static String classify(SqlException error) {
+    return classify(error.getMessage());
+  }
+
+  /**
+   * Classifies a ZetaSQL error message.
+   *
+   * @param message The error message
+   * @return The error class, {@link #OTHER} if the message is not recognized
+   */
+  public static String classify(String message) {
+    if (message == null) {
+      return OTHER;
+    }
+    for (Map.Entry<String, String> fragment : MESSAGE_FRAGMENTS.entrySet()) {
+      if (message.contains(fragment.getKey())) {
+        return fragment.getValue();
+      }
+    }
+    return OTHER;
+  }
+
+}
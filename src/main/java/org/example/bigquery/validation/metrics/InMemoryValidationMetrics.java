@@ -0,0 +1,238 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.metrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link ValidationMetrics} that keeps measurements in memory and dumps them in the Prometheus
+ * text exposition format.
+ *
+ * Recording is lock-free: latencies go to one {@link LatencyHistogram} per phase, looked up by
+ * the phase's ordinal, and counters are {@link LongAdder}s. Only the first error of each class
+ * allocates. Writing the dump reads the counters without stopping writers, so a dump taken
+ * while validation is running can be slightly inconsistent between metrics.
+ *
+ * Exported metrics:
+ *
+ * <ul>
+ *   <li>{@code bigquery_validation_phase_duration_seconds}: histogram of phase latencies, by
+ *   {@code phase}
+ *   <li>{@code bigquery_validation_statements_total}: validated statements, by {@code result}
+ *   <li>{@code bigquery_validation_errors_total}: errors, by {@code error_class}
+ *   <li>{@code bigquery_validation_timeouts_total}: ZetaSQL calls abandoned after exceeding
+ *   their deadline, by {@code phase}
+ *   <li>{@code bigquery_validation_catalog_resources}: the last recorded size of the catalog,
+ *   by {@code kind}
+ * </ul>
+ */
+public class InMemoryValidationMetrics implements ValidationMetrics {
+
+  private static final String PREFIX = "bigquery_validation_";
+
+  private final LatencyHistogram[] latencies = new LatencyHistogram[Phase.values().length];
+  private final LongAdder validStatements = new LongAdder();
+  private final LongAdder invalidStatements = new LongAdder();
+  private final ConcurrentMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+  private final LongAdder[] timeouts = new LongAdder[Phase.values().length];
+  private final ConcurrentMap<String, AtomicLong> catalogSizes = new ConcurrentHashMap<>();
+
+  public InMemoryValidationMetrics() {
+    for (int i = 0; i < latencies.length; i++) {
+      latencies[i] = new LatencyHistogram();
+      timeouts[i] = new LongAdder();
+    }
+  }
+
+  @Override
+  public void recordLatency(Phase phase, long nanos) {
+    latencies[phase.ordinal()].record(nanos);
+  }
+
+  @Override
+  public void recordStatement(boolean valid) {
+    (valid ? validStatements : invalidStatements).increment();
+  }
+
+  @Override
+  public void recordError(String errorClass) {
+    errors.computeIfAbsent(errorClass, key -> new LongAdder()).increment();
+  }
+
+  @Override
+  public void recordTimeout(Phase phase) {
+    timeouts[phase.ordinal()].increment();
+  }
+
+  @Override
+  public void recordCatalogSize(String resourceKind, long count) {
+    catalogSizes.computeIfAbsent(resourceKind, key -> new AtomicLong()).set(count);
+  }
+
+  /** The latency histogram of a phase */
+  public LatencyHistogram getLatency(Phase phase) {
+    return latencies[phase.ordinal()];
+  }
+
+  /** The number of statements recorded as valid */
+  public long getValidStatementCount() {
+    return validStatements.sum();
+  }
+
+  /** The number of statements recorded as invalid */
+  public long getInvalidStatementCount() {
+    return invalidStatements.sum();
+  }
+
+  /** The number of errors recorded, by error class */
+  public Map<String, Long> getErrorCounts() {
+    Map<String, Long> counts = new TreeMap<>();
+    errors.forEach((errorClass, count) -> counts.put(errorClass, count.sum()));
+    return counts;
+  }
+
+  /** The number of calls abandoned after exceeding their deadline during a phase */
+  public long getTimeoutCount(Phase phase) {
+    return timeouts[phase.ordinal()].sum();
+  }
+
+  /** The last recorded catalog size, by resource kind */
+  public Map<String, Long> getCatalogSizes() {
+    Map<String, Long> sizes = new TreeMap<>();
+    catalogSizes.forEach((kind, size) -> sizes.put(kind, size.get()));
+    return sizes;
+  }
+
+  /** Discards all measurements */
+  public void reset() {
+    for (LatencyHistogram latency : latencies) {
+      latency.reset();
+    }
+    for (LongAdder timeout : timeouts) {
+      timeout.reset();
+    }
+    validStatements.reset();
+    invalidStatements.reset();
+    errors.clear();
+    catalogSizes.clear();
+  }
+
+  /**
+   * Writes all metrics in the Prometheus text exposition format.
+   *
+   * @param out Where to write the metrics
+   * @throws IOException if writing to {@code out} fails
+   */
+  public void writePrometheusText(Appendable out) throws IOException {
+    String phaseDuration = PREFIX + "phase_duration_seconds";
+    writeHeader(out, phaseDuration, "histogram", "Latency of each validation phase");
+    for (Phase phase : Phase.values()) {
+      LatencyHistogram histogram = getLatency(phase);
+      long cumulative = 0;
+      for (int bucket = 0; bucket < histogram.getNumberOfBuckets(); bucket++) {
+        cumulative += histogram.getBucketCount(bucket);
+        double upperBound = histogram.getUpperBoundSeconds(bucket);
+        out.append(phaseDuration).append("_bucket{phase=\"").append(phase.getLabel())
+            .append("\",le=\"").append(formatBound(upperBound)).append("\"} ")
+            .append(Long.toString(cumulative)).append('\n');
+      }
+      out.append(phaseDuration).append("_sum{phase=\"").append(phase.getLabel()).append("\"} ")
+          .append(Double.toString(histogram.getSumNanos() / 1e9)).append('\n');
+      out.append(phaseDuration).append("_count{phase=\"").append(phase.getLabel()).append("\"} ")
+          .append(Long.toString(cumulative)).append('\n');
+    }
+
+    String statements = PREFIX + "statements_total";
+    writeHeader(out, statements, "counter", "Validated statements by result");
+    writeSample(out, statements, "result", "valid", getValidStatementCount());
+    writeSample(out, statements, "result", "invalid", getInvalidStatementCount());
+
+    String errorsTotal = PREFIX + "errors_total";
+    writeHeader(out, errorsTotal, "counter", "Validation errors by error class");
+    for (Map.Entry<String, Long> entry : getErrorCounts().entrySet()) {
+      writeSample(out, errorsTotal, "error_class", entry.getKey(), entry.getValue());
+    }
+
+    String timeoutsTotal = PREFIX + "timeouts_total";
+    writeHeader(out, timeoutsTotal, "counter", "Calls abandoned after their deadline by phase");
+    for (Phase phase : Phase.values()) {
+      writeSample(out, timeoutsTotal, "phase", phase.getLabel(), getTimeoutCount(phase));
+    }
+
+    String catalogResources = PREFIX + "catalog_resources";
+    writeHeader(out, catalogResources, "gauge", "Resources in the validation catalog by kind");
+    for (Map.Entry<String, Long> entry : getCatalogSizes().entrySet()) {
+      writeSample(out, catalogResources, "kind", entry.getKey(), entry.getValue());
+    }
+  }
+
+  /** Returns all metrics in the Prometheus text exposition format */
+  public String toPrometheusText() {
+    StringBuilder builder = new StringBuilder();
+    try {
+      writePrometheusText(builder);
+    } catch (IOException e) {
+      // StringBuilder does not throw IOException
+      throw new UncheckedIOException(e);
+    }
+    return builder.toString();
+  }
+
+  private static void writeHeader(Appendable out, String name, String type, String help)
+      throws IOException {
+    out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  private static void writeSample(Appendable out, String name, String label, String labelValue,
+      long value) throws IOException {
+    out.append(name).append('{').append(label).append("=\"");
+    escapeLabelValue(out, labelValue);
+    out.append("\"} ").append(Long.toString(value)).append('\n');
+  }
+
+  private static void escapeLabelValue(Appendable out, String value) throws IOException {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '\\':
+          out.append("\\\\");
+          break;
+        case '"':
+          out.append("\\\"");
+          break;
+        case '\n':
+          out.append("\\n");
+          break;
+        default:
+          out.append(c);
+      }
+    }
+  }
+
+  private static String formatBound(double upperBound) {
+    return upperBound == Double.POSITIVE_INFINITY ? "+Inf" : Double.toString(upperBound);
+  }
+
+}
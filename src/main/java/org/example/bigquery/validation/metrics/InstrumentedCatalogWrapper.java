@@ -0,0 +1,137 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.metrics;
+
+import com.google.zetasql.SimpleCatalog;
+import com.google.zetasql.SimpleTable;
+import com.google.zetasql.resolvedast.ResolvedCreateStatementEnums.CreateMode;
+import com.google.zetasql.resolvedast.ResolvedCreateStatementEnums.CreateScope;
+import com.google.zetasql.toolkit.catalog.CatalogWrapper;
+import com.google.zetasql.toolkit.catalog.bigquery.FunctionInfo;
+import com.google.zetasql.toolkit.catalog.bigquery.ProcedureInfo;
+import com.google.zetasql.toolkit.catalog.bigquery.TVFInfo;
+import java.util.List;
+
+/**
+ * {@link CatalogWrapper} that records the latency of the operations on the wrapped catalog:
+ * adding resources as {@link Phase#CATALOG_LOOKUP}, the updates the analyzer performs for DDL
+ * statements as {@link Phase#CATALOG_UPDATE}, and copies as {@link Phase#CATALOG_COPY}.
+ *
+ * Copies are instrumented as well, so the updates made to the copy the analyzer takes when
+ * analyzing a script not in place are still recorded.
+ */
+public class InstrumentedCatalogWrapper implements CatalogWrapper {
+
+  private final CatalogWrapper delegate;
+  private final ValidationMetrics metrics;
+
+  public InstrumentedCatalogWrapper(CatalogWrapper delegate, ValidationMetrics metrics) {
+    this.delegate = delegate;
+    this.metrics = metrics;
+  }
+
+  private void timed(Phase phase, Runnable operation) {
+    long start = System.nanoTime();
+    try {
+      operation.run();
+    } finally {
+      metrics.recordLatency(phase, System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void register(SimpleTable table, CreateMode createMode, CreateScope createScope) {
+    timed(Phase.CATALOG_UPDATE, () -> delegate.register(table, createMode, createScope));
+  }
+
+  @Override
+  public void register(FunctionInfo function, CreateMode createMode, CreateScope createScope) {
+    timed(Phase.CATALOG_UPDATE, () -> delegate.register(function, createMode, createScope));
+  }
+
+  @Override
+  public void register(TVFInfo tvfInfo, CreateMode createMode, CreateScope createScope) {
+    timed(Phase.CATALOG_UPDATE, () -> delegate.register(tvfInfo, createMode, createScope));
+  }
+
+  @Override
+  public void register(ProcedureInfo procedureInfo, CreateMode createMode,
+      CreateScope createScope) {
+    timed(Phase.CATALOG_UPDATE, () -> delegate.register(procedureInfo, createMode, createScope));
+  }
+
+  @Override
+  public void removeTable(String table) {
+    timed(Phase.CATALOG_UPDATE, () -> delegate.removeTable(table));
+  }
+
+  @Override
+  public void removeFunction(String function) {
+    timed(Phase.CATALOG_UPDATE, () -> delegate.removeFunction(function));
+  }
+
+  @Override
+  public void removeTVF(String function) {
+    timed(Phase.CATALOG_UPDATE, () -> delegate.removeTVF(function));
+  }
+
+  @Override
+  public void removeProcedure(String procedure) {
+    timed(Phase.CATALOG_UPDATE, () -> delegate.removeProcedure(procedure));
+  }
+
+  @Override
+  public void addTables(List<String> tables) {
+    timed(Phase.CATALOG_LOOKUP, () -> delegate.addTables(tables));
+  }
+
+  @Override
+  public void addFunctions(List<String> functions) {
+    timed(Phase.CATALOG_LOOKUP, () -> delegate.addFunctions(functions));
+  }
+
+  @Override
+  public void addTVFs(List<String> functions) {
+    timed(Phase.CATALOG_LOOKUP, () -> delegate.addTVFs(functions));
+  }
+
+  @Override
+  public void addProcedures(List<String> procedures) {
+    timed(Phase.CATALOG_LOOKUP, () -> delegate.addProcedures(procedures));
+  }
+
+  @Override
+  public InstrumentedCatalogWrapper copy() {
+    long start = System.nanoTime();
+    try {
+      return new InstrumentedCatalogWrapper(delegate.copy(), metrics);
+    } finally {
+      metrics.recordLatency(Phase.CATALOG_COPY, System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public SimpleCatalog getZetaSQLCatalog() {
+    return delegate.getZetaSQLCatalog();
+  }
+
+  /** The wrapped catalog */
+  public CatalogWrapper getDelegate() {
+    return delegate;
+  }
+
+}
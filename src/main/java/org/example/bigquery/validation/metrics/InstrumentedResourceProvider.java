@@ -0,0 +1,114 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.metrics;
+
+import com.google.zetasql.SimpleTable;
+import com.google.zetasql.toolkit.catalog.bigquery.BigQueryResourceProvider;
+import com.google.zetasql.toolkit.catalog.bigquery.FunctionInfo;
+import com.google.zetasql.toolkit.catalog.bigquery.ProcedureInfo;
+import com.google.zetasql.toolkit.catalog.bigquery.TVFInfo;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * {@link BigQueryResourceProvider} that records the latency of every call to the wrapped
+ * provider as {@link Phase#CATALOG_FETCH}.
+ *
+ * Wrap the provider given to a BigQueryCatalog to see how much of the catalog lookup time is
+ * spent fetching metadata, e.g. from the BigQuery API, rather than building the catalog.
+ */
+public class InstrumentedResourceProvider implements BigQueryResourceProvider {
+
+  private final BigQueryResourceProvider delegate;
+  private final ValidationMetrics metrics;
+
+  public InstrumentedResourceProvider(BigQueryResourceProvider delegate,
+      ValidationMetrics metrics) {
+    this.delegate = delegate;
+    this.metrics = metrics;
+  }
+
+  private <T> T timed(Supplier<T> fetch) {
+    long start = System.nanoTime();
+    try {
+      return fetch.get();
+    } finally {
+      metrics.recordLatency(Phase.CATALOG_FETCH, System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public List<SimpleTable> getTables(String projectId, List<String> tableReferences) {
+    return timed(() -> delegate.getTables(projectId, tableReferences));
+  }
+
+  @Override
+  public List<SimpleTable> getAllTablesInDataset(String projectId, String datasetName) {
+    return timed(() -> delegate.getAllTablesInDataset(projectId, datasetName));
+  }
+
+  @Override
+  public List<SimpleTable> getAllTablesInProject(String projectId) {
+    return timed(() -> delegate.getAllTablesInProject(projectId));
+  }
+
+  @Override
+  public List<FunctionInfo> getFunctions(String projectId, List<String> functionReferences) {
+    return timed(() -> delegate.getFunctions(projectId, functionReferences));
+  }
+
+  @Override
+  public List<FunctionInfo> getAllFunctionsInDataset(String projectId, String datasetName) {
+    return timed(() -> delegate.getAllFunctionsInDataset(projectId, datasetName));
+  }
+
+  @Override
+  public List<FunctionInfo> getAllFunctionsInProject(String projectId) {
+    return timed(() -> delegate.getAllFunctionsInProject(projectId));
+  }
+
+  @Override
+  public List<TVFInfo> getTVFs(String projectId, List<String> functionReferences) {
+    return timed(() -> delegate.getTVFs(projectId, functionReferences));
+  }
+
+  @Override
+  public List<TVFInfo> getAllTVFsInDataset(String projectId, String datasetName) {
+    return timed(() -> delegate.getAllTVFsInDataset(projectId, datasetName));
+  }
+
+  @Override
+  public List<TVFInfo> getAllTVFsInProject(String projectId) {
+    return timed(() -> delegate.getAllTVFsInProject(projectId));
+  }
+
+  @Override
+  public List<ProcedureInfo> getProcedures(String projectId, List<String> procedureReferences) {
+    return timed(() -> delegate.getProcedures(projectId, procedureReferences));
+  }
+
+  @Override
+  public List<ProcedureInfo> getAllProceduresInDataset(String projectId, String datasetName) {
+    return timed(() -> delegate.getAllProceduresInDataset(projectId, datasetName));
+  }
+
+  @Override
+  public List<ProcedureInfo> getAllProceduresInProject(String projectId) {
+    return timed(() -> delegate.getAllProceduresInProject(projectId));
+  }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with fixed, exponentially sized buckets, from 100 microseconds up
+ * to 10 seconds.
+ *
+ * Recording is a bucket search over a dozen longs and two {@link LongAdder} increments, so it
+ * can be called for every statement from many threads without contention.
+ */
+public final class LatencyHistogram {
+
+  /** The upper bounds of the buckets in nanoseconds, not counting the implicit +Inf bucket */
+  private static final long[] UPPER_BOUNDS_NANOS = {
+      100_000L, 250_000L, 500_000L,
+      1_000_000L, 2_500_000L, 5_000_000L,
+      10_000_000L, 25_000_000L, 50_000_000L,
+      100_000_000L, 250_000_000L, 500_000_000L,
+      1_000_000_000L, 2_500_000_000L, 5_000_000_000L,
+      10_000_000_000L
+  };
+
+  private final LongAdder[] buckets = new LongAdder[UPPER_BOUNDS_NANOS.length + 1];
+  private final LongAdder sumNanos = new LongAdder();
+
+  public LatencyHistogram() {
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * Records an observation.
+   *
+   * @param nanos The observed latency in nanoseconds
+   */
+  public void record(long nanos) {
+    int bucket = 0;
+    while (bucket < UPPER_BOUNDS_NANOS.length && nanos > UPPER_BOUNDS_NANOS[bucket]) {
+      bucket++;
+    }
+    buckets[bucket].increment();
+    sumNanos.add(nanos);
+  }
+
+  /** The number of buckets, including the +Inf bucket */
+  public int getNumberOfBuckets() {
+    return buckets.length;
+  }
+
+  /**
+   * The upper bound of a bucket in seconds.
+   *
+   * @param bucket The index of the bucket
+   * @return The bucket's upper bound, {@link Double#POSITIVE_INFINITY} for the last bucket
+   */
+  public double getUpperBoundSeconds(int bucket) {
+    if (bucket == UPPER_BOUNDS_NANOS.length) {
+      return Double.POSITIVE_INFINITY;
+    }
+    return UPPER_BOUNDS_NANOS[bucket] / (double) TimeUnit.SECONDS.toNanos(1);
+  }
+
+  /**
+   * The number of observations that fell into a bucket. Counts are not cumulative.
+   *
+   * @param bucket The index of the bucket
+   * @return The number of observations in the bucket
+   */
+  public long getBucketCount(int bucket) {
+    return buckets[bucket].sum();
+  }
+
+  /** The total number of observations */
+  public long getCount() {
+    long count = 0;
+    for (LongAdder bucket : buckets) {
+      count += bucket.sum();
+    }
+    return count;
+  }
+
+  /** The sum of all observations in nanoseconds */
+  public long getSumNanos() {
+    return sumNanos.sum();
+  }
+
+  /** Discards all observations */
+  public void reset() {
+    for (LongAdder bucket : buckets) {
+      bucket.reset();
+    }
+    sumNanos.reset();
+  }
+
+}
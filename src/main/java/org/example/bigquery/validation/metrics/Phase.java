@@ -0,0 +1,63 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.metrics;
+
+/**
+ * The phases of validating a query whose latency is recorded by {@link ValidationMetrics}.
+ *
+ * Phases can nest: catalog fetches happen during catalog lookups, and the analyzer applies DDL
+ * statements to the catalog while analyzing a script.
+ */
+public enum Phase {
+
+  /** Parsing a statement or script */
+  PARSE("parse"),
+
+  /**
+   * Adding resources to a catalog by name, as in {@code BigQueryCatalog.addTable}. Includes
+   * fetching their metadata, if the catalog needs to.
+   */
+  CATALOG_LOOKUP("catalog_lookup"),
+
+  /** Fetching resource metadata from a BigQueryResourceProvider, e.g. the BigQuery API */
+  CATALOG_FETCH("catalog_fetch"),
+
+  /** Copying a catalog, which the analyzer does before analyzing a script not in place */
+  CATALOG_COPY("catalog_copy"),
+
+  /**
+   * Analyzing a statement. Includes serializing the catalog and sending it to the ZetaSQL local
+   * service, unless the catalog is registered, and parsing when the analyzer parses the query
+   * itself.
+   */
+  ANALYZE("analyze"),
+
+  /** Creating, replacing or dropping resources in a catalog as a result of DDL statements */
+  CATALOG_UPDATE("catalog_update");
+
+  private final String label;
+
+  Phase(String label) {
+    this.label = label;
+  }
+
+  /** The name of the phase in exported metrics */
+  public String getLabel() {
+    return label;
+  }
+
+}
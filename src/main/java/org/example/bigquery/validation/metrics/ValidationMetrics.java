@@ -0,0 +1,84 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.metrics;
+
+/**
+ * Receives measurements from the validation pipeline.
+ *
+ * Implementations are called from validation threads, often concurrently, and must be
+ * thread-safe and cheap. {@link InMemoryValidationMetrics} is the default implementation;
+ * implement this interface to forward measurements to another metrics library instead.
+ */
+public interface ValidationMetrics {
+
+  /** Implementation that discards all measurements */
+  ValidationMetrics NOOP = new ValidationMetrics() {
+    @Override
+    public void recordLatency(Phase phase, long nanos) {}
+
+    @Override
+    public void recordStatement(boolean valid) {}
+
+    @Override
+    public void recordError(String errorClass) {}
+
+    @Override
+    public void recordTimeout(Phase phase) {}
+
+    @Override
+    public void recordCatalogSize(String resourceKind, long count) {}
+  };
+
+  /**
+   * Records how long a phase took.
+   *
+   * @param phase The phase
+   * @param nanos The phase's duration in nanoseconds
+   */
+  void recordLatency(Phase phase, long nanos);
+
+  /**
+   * Records that a statement was validated.
+   *
+   * @param valid Whether the statement was valid
+   */
+  void recordStatement(boolean valid);
+
+  /**
+   * Records a validation error.
+   *
+   * @param errorClass The kind of error, as returned by {@link ErrorClasses#classify}
+   */
+  void recordError(String errorClass);
+
+  /**
+   * Records that a ZetaSQL call was abandoned after exceeding its deadline. The statement is
+   * also recorded as invalid, with the {@link ErrorClasses#DEADLINE_EXCEEDED} error class.
+   *
+   * @param phase The phase the call was part of
+   */
+  void recordTimeout(Phase phase);
+
+  /**
+   * Records the number of resources of a kind in the catalog used for validation.
+   *
+   * @param resourceKind The kind of resource, as in {@link CatalogSizes}
+   * @param count The number of resources of that kind
+   */
+  void recordCatalogSize(String resourceKind, long count);
+
+}
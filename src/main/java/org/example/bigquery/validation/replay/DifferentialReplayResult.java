@@ -0,0 +1,109 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.replay;
+
+import java.time.Duration;
+
+/** Counts and throughput of a differential replay of query logs */
+public final class DifferentialReplayResult {
+
+  private final long rowCount;
+  private final long skippedCount;
+  private final long duplicateCount;
+  private final long syntaxErrorCount;
+  private final long unaffectedCount;
+  private final long analyzedCount;
+  private final long changedCount;
+  private final Duration elapsed;
+
+  DifferentialReplayResult(long rowCount, long skippedCount, long duplicateCount,
+      long syntaxErrorCount, long unaffectedCount, long analyzedCount, long changedCount,
+      Duration elapsed) {
+    this.rowCount = rowCount;
+    this.skippedCount = skippedCount;
+    this.duplicateCount = duplicateCount;
+    this.syntaxErrorCount = syntaxErrorCount;
+    this.unaffectedCount = unaffectedCount;
+    this.analyzedCount = analyzedCount;
+    this.changedCount = changedCount;
+    this.elapsed = elapsed;
+  }
+
+  /** The number of rows read from the logs */
+  public long getRowCount() {
+    return rowCount;
+  }
+
+  /** The number of rows without a query */
+  public long getSkippedCount() {
+    return skippedCount;
+  }
+
+  /** The number of rows whose query text had already been compared */
+  public long getDuplicateCount() {
+    return duplicateCount;
+  }
+
+  /** The number of distinct queries compared */
+  public long getUniqueCount() {
+    return syntaxErrorCount + unaffectedCount + analyzedCount;
+  }
+
+  /**
+   * The number of distinct queries that passed the textual check but don't parse, which fail
+   * the same way against both catalogs
+   */
+  public long getSyntaxErrorCount() {
+    return syntaxErrorCount;
+  }
+
+  /** The number of distinct queries that reference no changed resource, and weren't analyzed */
+  public long getUnaffectedCount() {
+    return unaffectedCount;
+  }
+
+  /** The number of distinct queries analyzed against both catalogs */
+  public long getAnalyzedCount() {
+    return analyzedCount;
+  }
+
+  /** The number of distinct queries whose verdict changed */
+  public long getChangedCount() {
+    return changedCount;
+  }
+
+  public Duration getElapsed() {
+    return elapsed;
+  }
+
+  /** Log rows processed per second */
+  public double getRowsPerSecond() {
+    double seconds = elapsed.toNanos() / 1e9;
+    return seconds == 0 ? 0 : rowCount / seconds;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%,d rows (%,d without a query, %,d duplicates), %,d unique queries: %,d syntax "
+            + "errors, %,d unaffected, %,d analyzed, %,d changed; %,.0f rows/s over %.1fs",
+        rowCount, skippedCount, duplicateCount, getUniqueCount(), syntaxErrorCount,
+        unaffectedCount, analyzedCount, changedCount, getRowsPerSecond(),
+        elapsed.toMillis() / 1000.0);
+  }
+
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.replay;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.zetasql.AnalyzerOptions;
+import com.google.zetasql.SimpleCatalog;
+import com.google.zetasql.SqlException;
+import com.google.zetasql.toolkit.catalog.bigquery.BigQueryCatalog;
+import com.google.zetasql.toolkit.options.BigQueryLanguageOptions;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import org.example.bigquery.validation.batch.ValidationResult;
+import org.example.bigquery.validation.catalog.CatalogDiff;
+import org.example.bigquery.validation.catalog.CatalogSnapshotResourceProvider;
+import org.example.bigquery.validation.catalog.ReferencedResourceCollector;
+import org.example.bigquery.validation.catalog.ReferencedResources;
+import org.example.bigquery.validation.catalog.RegisteredCatalog;
+
+/**
+ * Replays historical query logs against two versions of a catalog and reports only the queries
+ * whose verdict changed, typically to review a schema change before it is rolled out.
+ *
+ * Unlike running a {@link QueryLogReplayer} per catalog and diffing the verdicts, the cost
+ * scales with how much of the schema changed rather than with the size of the logs. Queries
+ * that reference none of the resources in the {@link CatalogDiff} are guaranteed the same
+ * verdict against both catalogs, so they are filtered out as early as possible: first
+ * textually with {@link CatalogDiff#mayAffect}, then by parsing each remaining distinct query
+ * once and collecting the resources it references with a {@link ReferencedResourceCollector}.
+ * Queries that don't parse fail the same way against both catalogs and are dropped too. Only
+ * the queries left are analyzed, against both catalogs, and reported when their verdicts
+ * differ.
+ *
+ * The Java analyzer API takes SQL text rather than a parse tree, so each of the two analyses
+ * parses the query again; the parse shared across both catalogs is the one that decides
+ * whether they are needed at all.
+ */
+public class DifferentialReplayer implements AutoCloseable {
+
+  private final AnalyzerOptions options;
+  private final String defaultProjectId;
+  private final RegisteredCatalog before;
+  private final RegisteredCatalog after;
+  private final CatalogDiff diff;
+  private final int parallelism;
+  private final ExecutorService executor;
+
+  /**
+   * @param options The AnalyzerOptions to use for every query
+   * @param defaultProjectId The project unqualified resources belong to, as for the
+   *     BigQueryCatalogs the catalogs were built with
+   * @param before The current catalog. Must not be modified while replaying.
+   * @param after The changed catalog. Must not be modified while replaying.
+   * @param diff The resources that differ between the catalogs
+   * @param parallelism The number of worker threads
+   */
+  public DifferentialReplayer(AnalyzerOptions options, String defaultProjectId,
+      SimpleCatalog before, SimpleCatalog after, CatalogDiff diff, int parallelism) {
+    Preconditions.checkArgument(parallelism > 0, "parallelism must be positive");
+    this.options = options;
+    this.defaultProjectId = defaultProjectId;
+    this.before = new RegisteredCatalog(before);
+    this.after = new RegisteredCatalog(after);
+    this.diff = diff;
+    this.parallelism = parallelism;
+    this.executor = Executors.newFixedThreadPool(
+        parallelism,
+        new ThreadFactoryBuilder()
+            .setNameFormat("differential-replayer-%d")
+            .setDaemon(true)
+            .build());
+  }
+
+  /** How comparing one query ended */
+  private enum Outcome {
+    SYNTAX_ERROR, UNAFFECTED, UNCHANGED, CHANGED
+  }
+
+  private static final class Compared {
+
+    private final Outcome outcome;
+    private final VerdictChange change;
+
+    Compared(Outcome outcome, VerdictChange change) {
+      this.outcome = outcome;
+      this.change = change;
+    }
+
+  }
+
+  /**
+   * Compares the verdicts of every distinct query in query logs, keeping at most 4 queries per
+   * worker in flight.
+   *
+   * @param logFiles The logs, in the formats {@link QueryLogReader} reads
+   * @param changes Receives each changed verdict, in log order, on the calling thread
+   * @return The counts for the whole replay
+   * @throws IOException if reading the logs fails
+   */
+  public DifferentialReplayResult replay(List<Path> logFiles, Consumer<VerdictChange> changes)
+      throws IOException {
+    long startTime = System.nanoTime();
+    int maxInFlight = parallelism * 4;
+    Deque<Future<Compared>> window = new ArrayDeque<>(maxInFlight);
+    LongHashSet seen = new LongHashSet();
+    long[] counts = new long[Outcome.values().length];
+    long skipped = 0;
+    long duplicates = 0;
+    long rows;
+
+    try (QueryLogReader reader = new QueryLogReader(logFiles)) {
+      while (reader.hasNext()) {
+        LoggedQuery logged = reader.next();
+        String query = logged.getQuery();
+        if (query == null) {
+          skipped++;
+          continue;
+        }
+        long hash = QueryLogReplayer.hash(query);
+        if (!seen.add(hash)) {
+          duplicates++;
+          continue;
+        }
+        if (!diff.mayAffect(query)) {
+          counts[Outcome.UNAFFECTED.ordinal()]++;
+          continue;
+        }
+
+        if (window.size() == maxInFlight) {
+          report(await(window.removeFirst()), counts, changes);
+        }
+        window.addLast(executor.submit(() -> compare(logged, hash)));
+      }
+
+      while (!window.isEmpty()) {
+        report(await(window.removeFirst()), counts, changes);
+      }
+      rows = reader.getRowCount();
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      window.forEach(future -> future.cancel(false));
+    }
+
+    return new DifferentialReplayResult(rows, skipped, duplicates,
+        counts[Outcome.SYNTAX_ERROR.ordinal()], counts[Outcome.UNAFFECTED.ordinal()],
+        counts[Outcome.UNCHANGED.ordinal()] + counts[Outcome.CHANGED.ordinal()],
+        counts[Outcome.CHANGED.ordinal()], Duration.ofNanos(System.nanoTime() - startTime));
+  }
+
+  private static void report(Compared compared, long[] counts, Consumer<VerdictChange> changes) {
+    counts[compared.outcome.ordinal()]++;
+    if (compared.change != null) {
+      changes.accept(compared.change);
+    }
+  }
+
+  private Compared compare(LoggedQuery logged, long hash) {
+    String query = logged.getQuery();
+    ReferencedResources references;
+    try {
+      references = ReferencedResourceCollector.collect(query, options.getLanguageOptions());
+    } catch (SqlException error) {
+      return new Compared(Outcome.SYNTAX_ERROR, null);
+    }
+    if (!diff.affects(defaultProjectId, references)) {
+      return new Compared(Outcome.UNAFFECTED, null);
+    }
+
+    ValidationResult beforeResult = analyze(before, logged.getRow(), query);
+    ValidationResult afterResult = analyze(after, logged.getRow(), query);
+    if (beforeResult.isValid() == afterResult.isValid()
+        && beforeResult.getErrorMessage().equals(afterResult.getErrorMessage())) {
+      return new Compared(Outcome.UNCHANGED, null);
+    }
+    return new Compared(Outcome.CHANGED, new VerdictChange(
+        logged.getRow(), hash, logged.getId().orElse(null), beforeResult, afterResult));
+  }
+
+  private ValidationResult analyze(RegisteredCatalog catalog, long row, String query) {
+    try {
+      catalog.analyzeStatement(query, options);
+      return ValidationResult.valid(row, query);
+    } catch (SqlException error) {
+      return ValidationResult.invalid(row, query, error);
+    }
+  }
+
+  private static Compared await(Future<Compared> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while comparing queries", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException("Comparing a query failed unexpectedly", cause);
+    }
+  }
+
+  /** Stops the workers and unregisters both catalogs */
+  @Override
+  public void close() {
+    executor.shutdownNow();
+    before.close();
+    after.close();
+  }
+
+  private static BigQueryCatalog loadCatalog(
+      String projectId, CatalogSnapshotResourceProvider provider) {
+    BigQueryCatalog catalog = new BigQueryCatalog(projectId, provider);
+    catalog.addAllTablesInProject(projectId);
+    catalog.addAllFunctionsInProject(projectId);
+    catalog.addAllTVFsInProject(projectId);
+    catalog.addAllProceduresInProject(projectId);
+    return catalog;
+  }
+
+  /**
+   * Replays query logs against the catalogs in two snapshots, writing one line per changed
+   * verdict to stdout, as tab-separated fields:
+   * <pre>
+   * row  hash  job_id  broken|fixed|changed  before_error  after_error
+   * </pre>
+   * where errors are empty for valid verdicts and escaped like {@link QueryLogReplayer}'s.
+   *
+   * Usage:
+   * {@code DifferentialReplayer <projectId> <beforeSnapshot> <afterSnapshot> <logFile>...}
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 4) {
+      System.err.println("Usage: DifferentialReplayer <projectId> <beforeSnapshot> "
+          + "<afterSnapshot> <logFile>...");
+      System.exit(1);
+    }
+
+    String projectId = args[0];
+    CatalogSnapshotResourceProvider beforeSnapshot =
+        CatalogSnapshotResourceProvider.open(Paths.get(args[1]));
+    CatalogSnapshotResourceProvider afterSnapshot =
+        CatalogSnapshotResourceProvider.open(Paths.get(args[2]));
+    CatalogDiff diff = CatalogDiff.between(beforeSnapshot, afterSnapshot);
+    System.err.printf("%,d changed resource(s)%n", diff.size());
+
+    AnalyzerOptions options = new AnalyzerOptions();
+    options.setLanguageOptions(BigQueryLanguageOptions.get());
+
+    List<Path> logFiles = new ArrayList<>();
+    for (int i = 3; i < args.length; i++) {
+      logFiles.add(Paths.get(args[i]));
+    }
+
+    Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+    try (DifferentialReplayer replayer = new DifferentialReplayer(options, projectId,
+        loadCatalog(projectId, beforeSnapshot).getZetaSQLCatalog(),
+        loadCatalog(projectId, afterSnapshot).getZetaSQLCatalog(),
+        diff, Runtime.getRuntime().availableProcessors())) {
+      DifferentialReplayResult result = replayer.replay(logFiles, change -> {
+        try {
+          writeChange(change, out);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+      out.flush();
+      System.err.println(result);
+    }
+  }
+
+  private static void writeChange(VerdictChange change, Writer out) throws IOException {
+    out.append(Long.toString(change.getRow())).append('\t')
+        .append(String.format("%016x", change.getHash())).append('\t');
+    if (change.getId().isPresent()) {
+      QueryLogReplayer.escape(change.getId().get(), out);
+    }
+    out.append('\t').append(change.getKind().getLabel()).append('\t');
+    QueryLogReplayer.escape(change.getBefore().getErrorMessage().orElse(""), out);
+    out.append('\t');
+    QueryLogReplayer.escape(change.getAfter().getErrorMessage().orElse(""), out);
+    out.append('\n');
+  }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.example.bigquery.validation.replay;
+
+import java.util.Optional;
+
+/** A query read from a query log, with its position in the log */
+public final class LoggedQuery {
+
+  private final long row;
+  private final String id;
+  private final String query;
+
+  LoggedQuery(long row, String id, String query) {
+    this.row = row;
+    this.id = id;
+    this.query = query;
+  }
+
+  /** The 0-based row in the log, across all files, header rows excluded */
+  public long getRow() {
+    return row;
+  }
+
+  /** The id of the job that ran the query, if the log has one */
+  public Optional<String> getId() {
+    return Optional.ofNullable(id);
+  }
+
+  /** The query text, or null if the row has none, as for jobs that are not queries */
+  public String getQuery() {
+    return query;
+  }
+
+}
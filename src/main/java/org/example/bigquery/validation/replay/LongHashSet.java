@@ -0,0 +1,83 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.example.bigquery.validation.replay;
+
+/**
+ * Open-addressing set of longs, using 8 bytes per slot instead of the ~50 bytes per element of
+ * a {@code HashSet<Long>}, so that hashes of millions of queries fit in memory. Not thread-safe.
+ */
+public final class LongHashSet {
+
+  private static final double MAX_LOAD = 0.6;
+
+  /** Marks empty slots. 0 itself is tracked separately */
+  private static final long EMPTY = 0;
+
+  private long[] slots = new long[1 << 10];
+  private int size = 0;
+  private boolean containsZero = false;
+
+  /** Adds a value, returning whether it was not already present */
+  public boolean add(long value) {
+    if (value == EMPTY) {
+      boolean added = !containsZero;
+      containsZero = true;
+      if (added) {
+        size++;
+      }
+      return added;
+    }
+    if (size + 1 > slots.length * MAX_LOAD) {
+      resize();
+    }
+    if (insert(slots, value)) {
+      size++;
+      return true;
+    }
+    return false;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  private static boolean insert(long[] slots, long value) {
+    int mask = slots.length - 1;
+    // The values are hashes already, but mix them so that patterned keys still spread
+    int index = (int) (value ^ (value >>> 32)) * 0x9E3779B9 & mask;
+    while (slots[index] != EMPTY) {
+      if (slots[index] == value) {
+        return false;
+      }
+      index = (index + 1) & mask;
+    }
+    slots[index] = value;
+    return true;
+  }
+
+  private void resize() {
+    long[] resized = new long[slots.length * 2];
+    for (long value : slots) {
+      if (value != EMPTY) {
+        insert(resized, value);
+      }
+    }
+    slots = resized;
+  }
+
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.example.bigquery.validation.replay;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Streams the queries in a set of query log files, such as exports of
+ * {@code INFORMATION_SCHEMA.JOBS}, one row at a time.
+ *
+ * Files ending in {@code .csv} are read as CSV with a header row, where quoted fields may span
+ * lines; any other file is read as JSON lines, one object per line. Queries are read from the
+ * {@code query} column or field and job ids from {@code job_id}, if present. Rows that can't be
+ * parsed are returned with a null query.
+ */
+public class QueryLogReader extends AbstractIterator<LoggedQuery> implements Closeable {
+
+  static final String QUERY_COLUMN = "query";
+  static final String ID_COLUMN = "job_id";
+
+  private final Iterator<Path> files;
+  private RowReader current;
+  private long row = 0;
+
+  /**
+   * @param files The log files, read in order
+   */
+  public QueryLogReader(List<Path> files) {
+    this.files = new ArrayList<>(files).iterator();
+  }
+
+  @Override
+  protected LoggedQuery computeNext() {
+    try {
+      while (true) {
+        if (current == null) {
+          if (!files.hasNext()) {
+            return endOfData();
+          }
+          current = open(files.next());
+        }
+        LoggedQuery next = current.next(row);
+        if (next != null) {
+          row++;
+          return next;
+        }
+        current.close();
+        current = null;
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** The number of rows read or skipped so far */
+  public long getRowCount() {
+    return row;
+  }
+
+  /**
+   * Skips rows without parsing more than needed to find where they end.
+   *
+   * @param count The number of rows to skip
+   * @return The number of rows skipped, less than {@code count} at the end of the log
+   */
+  public long skip(long count) {
+    try {
+      long skipped = 0;
+      while (skipped < count) {
+        if (current == null) {
+          if (!files.hasNext()) {
+            break;
+          }
+          current = open(files.next());
+        }
+        if (current.skipRow()) {
+          skipped++;
+          row++;
+        } else {
+          current.close();
+          current = null;
+        }
+      }
+      return skipped;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static RowReader open(Path file) throws IOException {
+    BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+    if (file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv")) {
+      return new CsvRowReader(reader);
+    }
+    return new JsonLinesRowReader(reader);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (current != null) {
+      current.close();
+      current = null;
+    }
+  }
+
+  private abstract static class RowReader implements Closeable {
+
+    protected final BufferedReader reader;
+
+    RowReader(BufferedReader reader) {
+      this.reader = reader;
+    }
+
+    /** Reads the next row, or returns null at the end of the file */
+    abstract LoggedQuery next(long row) throws IOException;
+
+    /** Skips the next row, or returns false at the end of the file */
+    abstract boolean skipRow() throws IOException;
+
+    @Override
+    public void close() throws IOException {
+      reader.close();
+    }
+
+  }
+
+  private static final class JsonLinesRowReader extends RowReader {
+
+    JsonLinesRowReader(BufferedReader reader) {
+      super(reader);
+    }
+
+    private String nextLine() throws IOException {
+      String line;
+      do {
+        line = reader.readLine();
+      } while (line != null && line.isBlank());
+      return line;
+    }
+
+    @Override
+    LoggedQuery next(long row) throws IOException {
+      String line = nextLine();
+      if (line == null) {
+        return null;
+      }
+      try {
+        JsonObject object = JsonParser.parseString(line).getAsJsonObject();
+        return new LoggedQuery(row, string(object, ID_COLUMN), string(object, QUERY_COLUMN));
+      } catch (JsonSyntaxException | IllegalStateException e) {
+        return new LoggedQuery(row, null, null);
+      }
+    }
+
+    private static String string(JsonObject object, String field) {
+      JsonElement value = object.get(field);
+      // Objects and arrays aren't queries or ids; getAsString() would throw for them
+      return value != null && value.isJsonPrimitive() ? value.getAsString() : null;
+    }
+
+    @Override
+    boolean skipRow() throws IOException {
+      return nextLine() != null;
+    }
+
+  }
+
+  /** Reads RFC 4180 CSV: comma-separated, with quotes around fields and doubled inside them */
+  private static final class CsvRowReader extends RowReader {
+
+    private final int queryColumn;
+    private final int idColumn;
+    private final StringBuilder field = new StringBuilder();
+
+    CsvRowReader(BufferedReader reader) throws IOException {
+      super(reader);
+      List<String> header = readRecord();
+      this.queryColumn = header == null ? -1 : header.indexOf(QUERY_COLUMN);
+      this.idColumn = header == null ? -1 : header.indexOf(ID_COLUMN);
+    }
+
+    @Override
+    LoggedQuery next(long row) throws IOException {
+      List<String> record = readRecord();
+      if (record == null) {
+        return null;
+      }
+      return new LoggedQuery(row, column(record, idColumn), column(record, queryColumn));
+    }
+
+    private static String column(List<String> record, int column) {
+      return column >= 0 && column < record.size() ? record.get(column) : null;
+    }
+
+    @Override
+    boolean skipRow() throws IOException {
+      return readRecord() != null;
+    }
+
+    /** Reads the fields of the next record, or returns null at the end of the file */
+    private List<String> readRecord() throws IOException {
+      int c = reader.read();
+      while (c == '\r' || c == '\n') {
+        c = reader.read();
+      }
+      if (c == -1) {
+        return null;
+      }
+
+      List<String> fields = new ArrayList<>();
+      field.setLength(0);
+      boolean quoted = false;
+      while (true) {
+        if (quoted) {
+          if (c == -1) {
+            fields.add(field.toString());
+            return fields;
+          }
+          if (c == '"') {
+            reader.mark(1);
+            int following = reader.read();
+            if (following == '"') {
+              field.append('"');
+            } else {
+              quoted = false;
+              reader.reset();
+            }
+          } else {
+            field.append((char) c);
+          }
+        } else if (c == '"' && field.length() == 0) {
+          quoted = true;
+        } else if (c == ',') {
+          fields.add(field.toString());
+          field.setLength(0);
+        } else if (c == '\n' || c == '\r' || c == -1) {
+          fields.add(field.toString());
+          return fields;
+        } else {
+          field.append((char) c);
+        }
+        c = reader.read();
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,450 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.example.bigquery.validation.replay;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.CountingOutputStream;
+import com.google.zetasql.AnalyzerOptions;
+import com.google.zetasql.SimpleCatalog;
+import com.google.zetasql.toolkit.catalog.bigquery.BigQueryCatalog;
+import com.google.zetasql.toolkit.options.BigQueryLanguageOptions;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.Consumer;
+import org.example.bigquery.validation.batch.BatchValidator;
+import org.example.bigquery.validation.batch.ErrorLocation;
+import org.example.bigquery.validation.batch.ValidationResult;
+import org.example.bigquery.validation.catalog.CatalogSnapshotResourceProvider;
+import org.example.bigquery.validation.catalog.RegisteredCatalog;
+import org.example.bigquery.validation.metrics.ErrorClasses;
+import org.example.bigquery.validation.metrics.ValidationMetrics;
+
+/**
+ * Re-validates the queries in historical query logs, such as exports of
+ * {@code INFORMATION_SCHEMA.JOBS}, against a catalog; typically one describing a schema change
+ * before it is rolled out.
+ *
+ * Logs are streamed with a {@link QueryLogReader} and each distinct query text is validated
+ * once, on all cores, with a {@link BatchValidator}. Query texts are compared by their 64-bit
+ * murmur3 hash, so memory use is 8 bytes per distinct query (plus slack). The probability of
+ * two distinct texts colliding, which would skip one of them, is about n²/2⁶⁵: under 3 in a
+ * million for 10 million distinct queries.
+ *
+ * One verdict is written per distinct query, as a line of tab-separated fields:
+ * <pre>
+ * row  hash  job_id  valid|invalid  error_class  line:column  message
+ * </pre>
+ * where {@code row} is the row of the first occurrence in the logs and the error fields are
+ * empty for valid queries. Tabs, newlines and backslashes in the job id and message are
+ * escaped with backslashes.
+ *
+ * Progress is checkpointed to {@code <output>.checkpoint} periodically. Replaying the same logs
+ * to the same output resumes from the last checkpoint: the output is truncated to what was
+ * checkpointed, the hashes of its queries are read back, and the rows already processed are
+ * skipped. The checkpoint is deleted when the replay finishes.
+ */
+public class QueryLogReplayer implements AutoCloseable {
+
+  private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+  private static final String ROWS = "rows";
+  private static final String SKIPPED = "skipped";
+  private static final String DUPLICATES = "duplicates";
+  private static final String VALID = "valid";
+  private static final String INVALID = "invalid";
+  private static final String OUTPUT_BYTES = "outputBytes";
+
+  private final RegisteredCatalog catalog;
+  private final BatchValidator validator;
+  private final Duration checkpointInterval;
+
+  /**
+   * Creates a replayer that validates on all cores and checkpoints every 10 seconds.
+   *
+   * @param options The AnalyzerOptions to use for every query
+   * @param catalog The catalog to validate against. Must not be modified while replaying.
+   */
+  public QueryLogReplayer(AnalyzerOptions options, SimpleCatalog catalog) {
+    this(options, catalog, Runtime.getRuntime().availableProcessors(), Duration.ofSeconds(10),
+        ValidationMetrics.NOOP);
+  }
+
+  /**
+   * @param options The AnalyzerOptions to use for every query
+   * @param catalog The catalog to validate against. Must not be modified while replaying.
+   * @param parallelism The number of worker threads
+   * @param checkpointInterval How often to checkpoint and report progress
+   * @param metrics Receives the analysis latency, result and error class of every query
+   */
+  public QueryLogReplayer(AnalyzerOptions options, SimpleCatalog catalog, int parallelism,
+      Duration checkpointInterval, ValidationMetrics metrics) {
+    Preconditions.checkArgument(
+        !checkpointInterval.isNegative(), "checkpointInterval must not be negative");
+    this.catalog = new RegisteredCatalog(catalog);
+    this.validator =
+        new BatchValidator(options, catalog, parallelism, parallelism * 4, metrics);
+    this.checkpointInterval = checkpointInterval;
+  }
+
+  /**
+   * The hash identifying a query text in verdicts, also used as its id by
+   * {@link org.example.bigquery.validation.lineage.LineageIndexer}
+   */
+  public static long hash(String query) {
+    return HASH_FUNCTION.hashString(query, StandardCharsets.UTF_8).asLong();
+  }
+
+  /** The checkpoint file used for an output file */
+  public static Path checkpointFile(Path output) {
+    return output.resolveSibling(output.getFileName() + ".checkpoint");
+  }
+
+  /**
+   * Replays query logs, resuming from the checkpoint for {@code output} if there is one.
+   *
+   * @param logFiles The logs, in order. Must be the same files when resuming.
+   * @param output Where to write verdicts
+   * @param progress Receives the counts so far every checkpoint interval
+   * @return The counts for the whole replay
+   * @throws IOException if reading the logs or writing the output fails
+   * @throws IllegalStateException if the checkpoint doesn't match the logs or the output
+   */
+  public ReplayResult replay(List<Path> logFiles, Path output, Consumer<ReplayResult> progress)
+      throws IOException {
+    long startTime = System.nanoTime();
+    Path checkpointFile = checkpointFile(output);
+    Properties checkpoint = readCheckpoint(checkpointFile);
+    Replay replay = new Replay(checkpoint, startTime, progress, checkpointFile);
+
+    long outputBytes = Long.parseLong(checkpoint.getProperty(OUTPUT_BYTES, "0"));
+    try (FileChannel channel = FileChannel.open(
+        output, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+      if (channel.size() < outputBytes) {
+        throw new IllegalStateException(String.format(
+            "%s is shorter than its checkpoint: %d < %d bytes",
+            output, channel.size(), outputBytes));
+      }
+      channel.truncate(outputBytes);
+    }
+    replay.seen = readHashes(output);
+
+    try (QueryLogReader reader = new QueryLogReader(logFiles);
+        CountingOutputStream counter = new CountingOutputStream(
+            Files.newOutputStream(output, StandardOpenOption.APPEND));
+        Writer out = new BufferedWriter(
+            new OutputStreamWriter(counter, StandardCharsets.UTF_8), 1 << 16)) {
+      if (reader.skip(replay.rows) < replay.rows) {
+        throw new IllegalStateException(String.format(
+            "The logs have fewer than the %d rows in the checkpoint", replay.rows));
+      }
+      replay.out = out;
+      replay.counter = counter;
+      replay.initialOutputBytes = outputBytes;
+
+      catalog.withRegisteredCatalog(
+          registered -> validator.validate(replay.queries(reader), replay::write));
+
+      replay.rows = reader.getRowCount();
+      replay.skipped = replay.totalSkipped;
+      replay.duplicates = replay.totalDuplicates;
+      out.flush();
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+
+    Files.deleteIfExists(checkpointFile);
+    return replay.result();
+  }
+
+  /** The state of a replay, updated from the thread calling {@link #replay} */
+  private final class Replay {
+
+    private final long resumedFromRow;
+    private final long startTime;
+    private final Consumer<ReplayResult> progress;
+    private final Path checkpointFile;
+
+    private LongHashSet seen;
+    private Writer out;
+    private CountingOutputStream counter;
+    private long initialOutputBytes;
+    private long outputBytes;
+    private long lastCheckpoint;
+
+    /** Counts up to the last written verdict, which is what a checkpoint saves */
+    private long rows;
+    private long skipped;
+    private long duplicates;
+    private long valid;
+    private long invalid;
+
+    /** Counts up to the last row read */
+    private long totalSkipped;
+    private long totalDuplicates;
+
+    /** Queries submitted for validation, whose verdicts are not written yet */
+    private final Deque<Submitted> submitted = new ArrayDeque<>();
+
+    Replay(Properties checkpoint, long startTime, Consumer<ReplayResult> progress,
+        Path checkpointFile) {
+      this.rows = Long.parseLong(checkpoint.getProperty(ROWS, "0"));
+      this.skipped = Long.parseLong(checkpoint.getProperty(SKIPPED, "0"));
+      this.duplicates = Long.parseLong(checkpoint.getProperty(DUPLICATES, "0"));
+      this.valid = Long.parseLong(checkpoint.getProperty(VALID, "0"));
+      this.invalid = Long.parseLong(checkpoint.getProperty(INVALID, "0"));
+      this.totalSkipped = skipped;
+      this.totalDuplicates = duplicates;
+      this.resumedFromRow = rows;
+      this.startTime = startTime;
+      this.lastCheckpoint = startTime;
+      this.progress = progress;
+      this.checkpointFile = checkpointFile;
+    }
+
+    /** The distinct queries in the logs, recording each one submitted */
+    AbstractIterator<String> queries(QueryLogReader reader) {
+      return new AbstractIterator<String>() {
+        @Override
+        protected String computeNext() {
+          while (reader.hasNext()) {
+            LoggedQuery logged = reader.next();
+            String query = logged.getQuery();
+            if (query == null) {
+              totalSkipped++;
+              continue;
+            }
+            long hash = hash(query);
+            if (!seen.add(hash)) {
+              totalDuplicates++;
+              continue;
+            }
+            submitted.addLast(new Submitted(
+                logged.getRow(), hash, logged.getId().orElse(null), totalSkipped,
+                totalDuplicates));
+            return query;
+          }
+          return endOfData();
+        }
+      };
+    }
+
+    void write(ValidationResult result) {
+      Submitted query = submitted.removeFirst();
+      try {
+        writeVerdict(query, result);
+        rows = query.row + 1;
+        skipped = query.skippedBefore;
+        duplicates = query.duplicatesBefore;
+        if (result.isValid()) {
+          valid++;
+        } else {
+          invalid++;
+        }
+
+        long now = System.nanoTime();
+        if (now - lastCheckpoint >= checkpointInterval.toNanos()) {
+          lastCheckpoint = now;
+          out.flush();
+          outputBytes = initialOutputBytes + counter.getCount();
+          writeCheckpoint();
+          progress.accept(result());
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    private void writeVerdict(Submitted query, ValidationResult result) throws IOException {
+      out.append(Long.toString(query.row)).append('\t')
+          .append(String.format("%016x", query.hash)).append('\t');
+      if (query.id != null) {
+        escape(query.id, out);
+      }
+      out.append('\t');
+      if (result.isValid()) {
+        out.append("valid\t\t\t\n");
+        return;
+      }
+      String message = result.getErrorMessage().orElse("");
+      out.append("invalid\t").append(ErrorClasses.classify(message)).append('\t');
+      ErrorLocation location = result.getErrorLocation().orElse(null);
+      if (location != null) {
+        out.append(Integer.toString(location.getLine())).append(':')
+            .append(Integer.toString(location.getColumn()));
+      }
+      out.append('\t');
+      escape(message, out);
+      out.append('\n');
+    }
+
+    private void writeCheckpoint() throws IOException {
+      Properties checkpoint = new Properties();
+      checkpoint.setProperty(ROWS, Long.toString(rows));
+      checkpoint.setProperty(SKIPPED, Long.toString(skipped));
+      checkpoint.setProperty(DUPLICATES, Long.toString(duplicates));
+      checkpoint.setProperty(VALID, Long.toString(valid));
+      checkpoint.setProperty(INVALID, Long.toString(invalid));
+      checkpoint.setProperty(OUTPUT_BYTES, Long.toString(outputBytes));
+
+      Path temp = Files.createTempFile(
+          checkpointFile.toAbsolutePath().getParent(), checkpointFile.getFileName().toString(),
+          ".tmp");
+      try {
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.ISO_8859_1)) {
+          checkpoint.store(writer, null);
+        }
+        Files.move(temp, checkpointFile, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(temp);
+      }
+    }
+
+    ReplayResult result() {
+      return new ReplayResult(rows, skipped, duplicates, valid, invalid, resumedFromRow,
+          Duration.ofNanos(System.nanoTime() - startTime));
+    }
+
+  }
+
+  private static final class Submitted {
+
+    private final long row;
+    private final long hash;
+    private final String id;
+    private final long skippedBefore;
+    private final long duplicatesBefore;
+
+    Submitted(long row, long hash, String id, long skippedBefore, long duplicatesBefore) {
+      this.row = row;
+      this.hash = hash;
+      this.id = id;
+      this.skippedBefore = skippedBefore;
+      this.duplicatesBefore = duplicatesBefore;
+    }
+
+  }
+
+  private static Properties readCheckpoint(Path checkpointFile) throws IOException {
+    Properties checkpoint = new Properties();
+    if (Files.exists(checkpointFile)) {
+      try (BufferedReader reader =
+          Files.newBufferedReader(checkpointFile, StandardCharsets.ISO_8859_1)) {
+        checkpoint.load(reader);
+      }
+    }
+    return checkpoint;
+  }
+
+  /** Reads the hashes of the queries that already have a verdict in the output */
+  private static LongHashSet readHashes(Path output) throws IOException {
+    LongHashSet hashes = new LongHashSet();
+    try (BufferedReader reader = Files.newBufferedReader(output, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        int start = line.indexOf('\t') + 1;
+        hashes.add(Long.parseUnsignedLong(line.substring(start, start + 16), 16));
+      }
+    }
+    return hashes;
+  }
+
+  static void escape(String value, Writer out) throws IOException {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '\\':
+          out.append("\\\\");
+          break;
+        case '\t':
+          out.append("\\t");
+          break;
+        case '\n':
+          out.append("\\n");
+          break;
+        case '\r':
+          out.append("\\r");
+          break;
+        default:
+          out.append(c);
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    validator.close();
+    catalog.close();
+  }
+
+  /**
+   * Replays query logs against the catalog in a snapshot, printing progress to stderr.
+   *
+   * Usage: {@code QueryLogReplayer <projectId> <snapshotFile> <output> <logFile>...}
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 4) {
+      System.err.println(
+          "Usage: QueryLogReplayer <projectId> <snapshotFile> <output> <logFile>...");
+      System.exit(1);
+    }
+
+    String projectId = args[0];
+    BigQueryCatalog bigQueryCatalog = new BigQueryCatalog(
+        projectId, CatalogSnapshotResourceProvider.open(Paths.get(args[1])));
+    bigQueryCatalog.addAllTablesInProject(projectId);
+    bigQueryCatalog.addAllFunctionsInProject(projectId);
+    bigQueryCatalog.addAllTVFsInProject(projectId);
+    bigQueryCatalog.addAllProceduresInProject(projectId);
+
+    AnalyzerOptions options = new AnalyzerOptions();
+    options.setLanguageOptions(BigQueryLanguageOptions.get());
+
+    List<Path> logFiles = new ArrayList<>();
+    for (int i = 3; i < args.length; i++) {
+      logFiles.add(Paths.get(args[i]));
+    }
+
+    try (QueryLogReplayer replayer =
+        new QueryLogReplayer(options, bigQueryCatalog.getZetaSQLCatalog())) {
+      ReplayResult result =
+          replayer.replay(logFiles, Paths.get(args[2]), System.err::println);
+      System.out.println(result);
+    }
+  }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.example.bigquery.validation.replay;
+
+import java.time.Duration;
+
+/** Counts and throughput of a query log replay. Counts include rows replayed before a resume */
+public final class ReplayResult {
+
+  private final long rowCount;
+  private final long skippedCount;
+  private final long duplicateCount;
+  private final long validCount;
+  private final long invalidCount;
+  private final long resumedFromRow;
+  private final Duration elapsed;
+
+  ReplayResult(long rowCount, long skippedCount, long duplicateCount, long validCount,
+      long invalidCount, long resumedFromRow, Duration elapsed) {
+    this.rowCount = rowCount;
+    this.skippedCount = skippedCount;
+    this.duplicateCount = duplicateCount;
+    this.validCount = validCount;
+    this.invalidCount = invalidCount;
+    this.resumedFromRow = resumedFromRow;
+    this.elapsed = elapsed;
+  }
+
+  /** The number of rows read from the log */
+  public long getRowCount() {
+    return rowCount;
+  }
+
+  /** The number of rows without a query */
+  public long getSkippedCount() {
+    return skippedCount;
+  }
+
+  /** The number of rows whose query text had already been validated */
+  public long getDuplicateCount() {
+    return duplicateCount;
+  }
+
+  /** The number of distinct queries validated, which is the number of verdicts written */
+  public long getUniqueCount() {
+    return validCount + invalidCount;
+  }
+
+  public long getValidCount() {
+    return validCount;
+  }
+
+  public long getInvalidCount() {
+    return invalidCount;
+  }
+
+  /** The row this run resumed from, 0 if it started from the beginning */
+  public long getResumedFromRow() {
+    return resumedFromRow;
+  }
+
+  /** How long this run took, excluding runs before a resume */
+  public Duration getElapsed() {
+    return elapsed;
+  }
+
+  /** Log rows processed per second by this run */
+  public double getRowsPerSecond() {
+    return perSecond(rowCount - resumedFromRow);
+  }
+
+  private double perSecond(long count) {
+    double seconds = elapsed.toNanos() / 1e9;
+    return seconds == 0 ? 0 : count / seconds;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%,d rows (%,d without a query, %,d duplicates), %,d unique queries: %,d valid, "
+            + "%,d invalid; %,.0f rows/s over %.1fs%s",
+        rowCount, skippedCount, duplicateCount, getUniqueCount(), validCount, invalidCount,
+        getRowsPerSecond(), elapsed.toMillis() / 1000.0,
+        resumedFromRow > 0 ? String.format(", resumed from row %,d", resumedFromRow) : "");
+  }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.replay;
+
+import java.util.Optional;
+import org.example.bigquery.validation.batch.ValidationResult;
+
+/** A logged query whose verdict differs between two versions of a catalog */
+public final class VerdictChange {
+
+  /** How the verdict changed */
+  public enum Kind {
+    /** Valid before, invalid after */
+    BROKEN("broken"),
+    /** Invalid before, valid after */
+    FIXED("fixed"),
+    /** Invalid both before and after, with a different error */
+    CHANGED("changed");
+
+    private final String label;
+
+    Kind(String label) {
+      this.label = label;
+    }
+
+    /** The name of the kind in reports */
+    public String getLabel() {
+      return label;
+    }
+  }
+
+  private final long row;
+  private final long hash;
+  private final String id;
+  private final ValidationResult before;
+  private final ValidationResult after;
+
+  VerdictChange(long row, long hash, String id, ValidationResult before,
+      ValidationResult after) {
+    this.row = row;
+    this.hash = hash;
+    this.id = id;
+    this.before = before;
+    this.after = after;
+  }
+
+  /** The row of the query's first occurrence in the logs */
+  public long getRow() {
+    return row;
+  }
+
+  /** The query's hash, as computed by {@link QueryLogReplayer#hash(String)} */
+  public long getHash() {
+    return hash;
+  }
+
+  /** The id of the job that first ran the query, if the log has one */
+  public Optional<String> getId() {
+    return Optional.ofNullable(id);
+  }
+
+  public String getQuery() {
+    return after.getQuery();
+  }
+
+  /** The verdict against the current catalog */
+  public ValidationResult getBefore() {
+    return before;
+  }
+
+  /** The verdict against the changed catalog */
+  public ValidationResult getAfter() {
+    return after;
+  }
+
+  public Kind getKind() {
+    if (before.isValid()) {
+      return Kind.BROKEN;
+    }
+    return after.isValid() ? Kind.FIXED : Kind.CHANGED;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("VerdictChange{row=%d, hash=%016x, kind=%s, before=%s, after=%s}",
+        row, hash, getKind().getLabel(), before, after);
+  }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.script;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Tracks the compound statements open in a script, such as BEGIN...END, IF...END IF or CASE, to
+ * tell the semicolons that end a top-level statement from the ones inside a block. Fed the tokens
+ * of a statement one at a time by {@link ScriptStatementReader} and {@link ScriptSplitter}, so
+ * that both split scripts the same way.
+ *
+ * Blocks are recognized by their keywords only, so this is a heuristic; see
+ * {@link ScriptStatementReader#extend(ScriptStatement)}.
+ */
+final class BlockTracker {
+
+  /** Keywords that open a block when they start a statement */
+  private static final ImmutableSet<String> STATEMENT_BLOCK_KEYWORDS =
+      ImmutableSet.of("IF", "LOOP", "WHILE", "REPEAT", "FOR");
+
+  /** Keywords that may follow END to say which block it closes */
+  private static final ImmutableSet<String> END_SUFFIXES =
+      ImmutableSet.of("IF", "LOOP", "WHILE", "REPEAT", "FOR", "CASE");
+
+  /** Blocks whose THEN and ELSE branches contain statements */
+  private static final ImmutableSet<String> BRANCHING_BLOCKS =
+      ImmutableSet.of("IF", "CASE_STATEMENT", "BEGIN");
+
+  /** Blocks whose DO clause contains statements */
+  private static final ImmutableSet<String> DO_BLOCKS = ImmutableSet.of("WHILE", "FOR");
+
+  /** Every keyword this tracker reacts to */
+  private static final ImmutableList<String> KEYWORDS = ImmutableList.of(
+      "BEGIN", "END", "CASE", "THEN", "ELSE", "DO", "TRANSACTION",
+      "IF", "LOOP", "WHILE", "REPEAT", "FOR");
+
+  private final Deque<String> openBlocks = new ArrayDeque<>();
+  private boolean atStatementStart;
+  private boolean lastWordStartedStatement;
+  private boolean pendingBegin;
+  private boolean pendingEnd;
+
+  BlockTracker() {
+    reset();
+  }
+
+  /** Forgets everything, to start tracking a new statement */
+  void reset() {
+    openBlocks.clear();
+    atStatementStart = true;
+    lastWordStartedStatement = false;
+    pendingBegin = false;
+    pendingEnd = false;
+  }
+
+  /**
+   * Handles a keyword or unquoted identifier.
+   *
+   * @param text The text containing the word
+   * @param start The offset of the word's first char
+   * @param end The offset after the word's last char
+   */
+  void word(CharSequence text, int start, int end) {
+    String keyword = keyword(text, start, end);
+
+    boolean startedStatement = atStatementStart;
+    atStatementStart = false;
+    lastWordStartedStatement = startedStatement;
+
+    if (pendingBegin) {
+      pendingBegin = false;
+      if ("TRANSACTION".equals(keyword)) {
+        return;
+      }
+      openBlocks.push("BEGIN");
+    }
+
+    if (pendingEnd) {
+      pendingEnd = false;
+      if (keyword != null && END_SUFFIXES.contains(keyword)) {
+        return;
+      }
+    }
+
+    if (keyword == null) {
+      return;
+    }
+
+    String currentBlock = openBlocks.peek();
+
+    switch (keyword) {
+      case "BEGIN":
+        // Pushed when the next token shows it's not BEGIN TRANSACTION
+        pendingBegin = true;
+        atStatementStart = true;
+        break;
+      case "END":
+        openBlocks.poll();
+        pendingEnd = true;
+        break;
+      case "CASE":
+        openBlocks.push(startedStatement ? "CASE_STATEMENT" : "CASE");
+        break;
+      case "THEN":
+      case "ELSE":
+        atStatementStart = currentBlock != null && BRANCHING_BLOCKS.contains(currentBlock);
+        break;
+      case "DO":
+        atStatementStart = currentBlock != null && DO_BLOCKS.contains(currentBlock);
+        break;
+      default:
+        if (startedStatement && STATEMENT_BLOCK_KEYWORDS.contains(keyword)) {
+          openBlocks.push(keyword);
+          // LOOP and REPEAT are directly followed by their body
+          atStatementStart = keyword.equals("LOOP") || keyword.equals("REPEAT");
+        }
+    }
+  }
+
+  /** Handles a token other than a keyword, identifier, semicolon or colon */
+  void token() {
+    if (pendingBegin) {
+      pendingBegin = false;
+      openBlocks.push("BEGIN");
+    }
+    pendingEnd = false;
+    atStatementStart = false;
+    lastWordStartedStatement = false;
+  }
+
+  /**
+   * Handles a semicolon.
+   *
+   * @return Whether the semicolon ends the top-level statement
+   */
+  boolean semicolon() {
+    // "BEGIN;" is a shorthand for BEGIN TRANSACTION
+    pendingBegin = false;
+    pendingEnd = false;
+    if (openBlocks.isEmpty()) {
+      return true;
+    }
+    atStatementStart = true;
+    lastWordStartedStatement = false;
+    return false;
+  }
+
+  /** Handles a colon */
+  void colon() {
+    if (lastWordStartedStatement) {
+      // A label, as in "my_label: LOOP"
+      atStatementStart = true;
+      lastWordStartedStatement = false;
+    } else {
+      token();
+    }
+  }
+
+  /** Returns the keyword a word is, ignoring case, or null if it is none of {@link #KEYWORDS} */
+  private static String keyword(CharSequence text, int start, int end) {
+    for (int i = 0; i < KEYWORDS.size(); i++) {
+      String keyword = KEYWORDS.get(i);
+      if (equalsIgnoreCase(keyword, text, start, end)) {
+        return keyword;
+      }
+    }
+    return null;
+  }
+
+  private static boolean equalsIgnoreCase(
+      String keyword, CharSequence text, int start, int end) {
+    if (end - start != keyword.length()) {
+      return false;
+    }
+    for (int i = 0; i < keyword.length(); i++) {
+      char c = text.charAt(start + i);
+      if (c >= 'a' && c <= 'z') {
+        c = (char) (c - ('a' - 'A'));
+      }
+      if (c != keyword.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
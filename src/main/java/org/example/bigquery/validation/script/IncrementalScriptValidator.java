@@ -0,0 +1,519 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.example.bigquery.validation.script;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.zetasql.AnalyzerOptions;
+import com.google.zetasql.LanguageOptions;
+import com.google.zetasql.Parser;
+import com.google.zetasql.SimpleCatalog;
+import com.google.zetasql.SimpleColumn;
+import com.google.zetasql.SimpleTable;
+import com.google.zetasql.SqlException;
+import com.google.zetasql.TypeFactory;
+import com.google.zetasql.ZetaSQLBuiltinFunctionOptions;
+import com.google.zetasql.ZetaSQLType.TypeKind;
+import com.google.zetasql.parser.ASTNodes.ASTDeleteStatement;
+import com.google.zetasql.parser.ASTNodes.ASTInsertStatement;
+import com.google.zetasql.parser.ASTNodes.ASTMergeStatement;
+import com.google.zetasql.parser.ASTNodes.ASTQueryStatement;
+import com.google.zetasql.parser.ASTNodes.ASTScript;
+import com.google.zetasql.parser.ASTNodes.ASTStatement;
+import com.google.zetasql.parser.ASTNodes.ASTTruncateStatement;
+import com.google.zetasql.parser.ASTNodes.ASTUpdateStatement;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedColumnDefinition;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedCreateFunctionStmt;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedCreateProcedureStmt;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedCreateStatement;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedCreateTableFunctionStmt;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedCreateTableStmtBase;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedCreateViewBase;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedDropFunctionStmt;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedDropStmt;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedDropTableFunctionStmt;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedOutputColumn;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedStatement;
+import com.google.zetasql.toolkit.ZetaSQLToolkitAnalyzer;
+import com.google.zetasql.toolkit.catalog.CatalogWrapper;
+import com.google.zetasql.toolkit.catalog.exceptions.CatalogException;
+import com.google.zetasql.toolkit.options.BigQueryLanguageOptions;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import org.example.bigquery.validation.catalog.CatalogOverlay;
+import org.example.bigquery.validation.guard.DeadlineExceededException;
+import org.example.bigquery.validation.guard.StatementGuard;
+
+/**
+ * Validates successive versions of a script, as a user edits it, re-validating only the
+ * statements an edit can affect.
+ *
+ * For every statement of the last version validated, the validator keeps its result, its
+ * position and the catalog after it. When validating a new version, it finds the first and last
+ * characters that changed:
+ *
+ * <ul>
+ *   <li>Statements that end before the first change keep their results, and validation resumes
+ *       right after them, from the catalog they left behind.
+ *   <li>Statements from there on are parsed and analyzed again, until one starts at the same
+ *       text after the last change as in the previous version and the catalog before it is the
+ *       same as before. The rest of the previous results are then reused, moved to their new
+ *       positions.
+ * </ul>
+ *
+ * The catalog is compared by a hash chained through the effect of every DDL statement analyzed
+ * successfully: the name of what it creates or drops, and its column names and types or its
+ * signature. Editing a SELECT, or editing a DDL statement in a way that doesn't change what it
+ * creates, such as the filter of a CREATE TABLE AS SELECT, only re-validates the edited
+ * statement.
+ *
+ * Statements that may change the catalog are analyzed on a copy of the catalog before them, so
+ * the base catalog should be a {@link CatalogOverlay}, whose copies are cheap. Like
+ * {@link StreamingScriptValidator}, scripting statements are only parsed, and a
+ * {@link StatementGuard} rejects statements over its limits and sets the deadline of each parse
+ * and analysis. A validator keeps the state of a single script and is meant to be used by one
+ * thread at a time.
+ */
+public class IncrementalScriptValidator {
+
+  private static final HashFunction CATALOG_STATE_HASH = Hashing.murmur3_128();
+
+  /** State of the catalog before the first statement of a script */
+  private static final long INITIAL_CATALOG_STATE = 0;
+
+  private final LanguageOptions languageOptions;
+  private final ZetaSQLToolkitAnalyzer analyzer;
+  private final CatalogWrapper catalog;
+  private final StatementGuard guard;
+
+  // The last version validated and its statements, in script order
+  private String script = "";
+  private List<ValidatedStatement> statements = ImmutableList.of();
+
+  /**
+   * @param analyzerOptions The AnalyzerOptions to analyze statements with
+   * @param catalog The catalog scripts start from. It is never modified; DDL statements are
+   *     applied to copies of it.
+   */
+  public IncrementalScriptValidator(AnalyzerOptions analyzerOptions, CatalogWrapper catalog) {
+    this(analyzerOptions, catalog, StatementGuard.NONE);
+  }
+
+  /**
+   * @param analyzerOptions The AnalyzerOptions to analyze statements with
+   * @param catalog The catalog scripts start from. It is never modified; DDL statements are
+   *     applied to copies of it.
+   * @param guard Checks every statement before it's parsed, and sets the deadline of each
+   *     parse and analysis
+   */
+  public IncrementalScriptValidator(
+      AnalyzerOptions analyzerOptions, CatalogWrapper catalog, StatementGuard guard) {
+    this.languageOptions = analyzerOptions.getLanguageOptions();
+    this.analyzer = new ZetaSQLToolkitAnalyzer(analyzerOptions);
+    this.catalog = catalog;
+    this.guard = guard;
+  }
+
+  /**
+   * Validates a new version of the script, reusing the results of the last version validated
+   * wherever the edits in between can't change them.
+   *
+   * @param newScript The whole text of the new version
+   * @return The results for every statement of the new version
+   */
+  public IncrementalValidationReport validate(String newScript) {
+    int prefixLength = commonPrefixLength(script, newScript);
+    int suffixLength = commonSuffixLength(script, newScript, prefixLength);
+
+    int reusedPrefixCount = 0;
+    while (reusedPrefixCount < statements.size()
+        && statements.get(reusedPrefixCount).endsBefore(prefixLength)) {
+      reusedPrefixCount++;
+    }
+
+    List<ValidatedStatement> validated =
+        new ArrayList<>(statements.subList(0, reusedPrefixCount));
+
+    // Statements of the last version that are entirely after the last change, by where they
+    // start in the new version
+    int lengthDelta = newScript.length() - script.length();
+    Map<Integer, Integer> unchangedStatements = new HashMap<>();
+    for (int i = reusedPrefixCount; i < statements.size(); i++) {
+      int start = statements.get(i).start;
+      if (start >= script.length() - suffixLength) {
+        unchangedStatements.put(start + lengthDelta, i);
+      }
+    }
+
+    ValidatedStatement last = reusedPrefixCount == 0 ? null : validated.get(reusedPrefixCount - 1);
+    // Splitting is pure Java and much cheaper than analysis, so the whole script is split again;
+    // the statements before the change split the same way as in the last version
+    ScriptSplitter split = ScriptSplitter.split(newScript);
+    ScriptSplitter.Cursor cursor = split.cursor(
+        split.statementAt(last == null ? 0 : last.end),
+        last == null ? 0 : last.getStatement().getIndex() + 1);
+    CatalogWrapper catalogBefore = last == null ? catalog : last.catalogAfter;
+    long stateBefore = last == null ? INITIAL_CATALOG_STATE : last.stateAfter;
+
+    int validatedCount = 0;
+    int reusedSuffixCount = 0;
+
+    ScriptStatement statement;
+    while ((statement = cursor.next()) != null) {
+      Integer unchanged = unchangedStatements.get(cursor.getStart());
+      if (unchanged != null && statements.get(unchanged).stateBefore == stateBefore) {
+        List<ValidatedStatement> rest = statements.subList(unchanged, statements.size());
+        moveStatements(rest, statement, lengthDelta, validated);
+        reusedSuffixCount = rest.size();
+        break;
+      }
+
+      ValidatedStatement current =
+          validateStatement(cursor, statement, catalogBefore, stateBefore);
+      validated.add(current);
+      validatedCount++;
+      catalogBefore = current.catalogAfter;
+      stateBefore = current.stateAfter;
+    }
+
+    script = newScript;
+    statements = validated;
+
+    return new IncrementalValidationReport(
+        validated.stream().map(current -> current.result).collect(Collectors.toList()),
+        reusedPrefixCount,
+        validatedCount,
+        reusedSuffixCount);
+  }
+
+  /** Forgets the last version validated, so that the next one is validated from scratch */
+  public void reset() {
+    script = "";
+    statements = ImmutableList.of();
+  }
+
+  private static int commonPrefixLength(String a, String b) {
+    int maxLength = Math.min(a.length(), b.length());
+    int length = 0;
+    while (length < maxLength && a.charAt(length) == b.charAt(length)) {
+      length++;
+    }
+    return length;
+  }
+
+  /** The length of the common suffix of two strings, not overlapping their common prefix */
+  private static int commonSuffixLength(String a, String b, int prefixLength) {
+    int maxLength = Math.min(a.length(), b.length()) - prefixLength;
+    int length = 0;
+    while (length < maxLength
+        && a.charAt(a.length() - length - 1) == b.charAt(b.length() - length - 1)) {
+      length++;
+    }
+    return length;
+  }
+
+  /**
+   * Appends the statements of the last version that follow the last change to the new version's
+   * statements, moved by the edit.
+   *
+   * @param unchanged The statements to move
+   * @param firstMoved The first of them as read from the new version
+   * @param lengthDelta How many chars longer the new version is
+   * @param validated The statements of the new version
+   */
+  private static void moveStatements(
+      List<ValidatedStatement> unchanged,
+      ScriptStatement firstMoved,
+      int lengthDelta,
+      List<ValidatedStatement> validated) {
+    ScriptStatement first = unchanged.get(0).getStatement();
+    long indexDelta = firstMoved.getIndex() - first.getIndex();
+    long byteDelta = firstMoved.getByteOffset() - first.getByteOffset();
+    int lineDelta = firstMoved.getLine() - first.getLine();
+    // Only positions on the same line as the first statement move horizontally
+    int columnDelta = firstMoved.getColumn() - first.getColumn();
+
+    for (ValidatedStatement old : unchanged) {
+      ScriptStatement statement = old.getStatement();
+      ScriptStatement moved = new ScriptStatement(
+          statement.getIndex() + indexDelta,
+          statement.getText(),
+          statement.getByteOffset() + byteDelta,
+          statement.getByteLength(),
+          statement.getLine() + lineDelta,
+          statement.getLine() == first.getLine()
+              ? statement.getColumn() + columnDelta
+              : statement.getColumn());
+      validated.add(new ValidatedStatement(
+          old.result.relocate(moved),
+          old.start + lengthDelta,
+          old.stateBefore,
+          old.catalogAfter,
+          old.stateAfter));
+    }
+  }
+
+  /** Whether no statement of a parsed script can modify the catalog */
+  private static boolean isReadOnly(ASTScript parsed) {
+    for (ASTStatement statement : parsed.getStatementListNode().getStatementList()) {
+      boolean readOnly = statement instanceof ASTQueryStatement
+          || statement instanceof ASTInsertStatement
+          || statement instanceof ASTUpdateStatement
+          || statement instanceof ASTDeleteStatement
+          || statement instanceof ASTMergeStatement
+          || statement instanceof ASTTruncateStatement;
+      if (!readOnly) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private ValidatedStatement validateStatement(
+      ScriptSplitter.Cursor cursor,
+      ScriptStatement statement,
+      CatalogWrapper catalogBefore,
+      long stateBefore) {
+    int start = cursor.getStart();
+    ASTScript parsed = null;
+
+    while (parsed == null) {
+      Optional<String> rejection = guard.check(statement.getText());
+      if (rejection.isPresent()) {
+        return new ValidatedStatement(
+            StatementResult.rejected(statement, rejection.get()),
+            start, stateBefore, catalogBefore, stateBefore);
+      }
+
+      String text = statement.getText();
+      try {
+        parsed = guard.call(() -> Parser.parseScript(text, languageOptions));
+      } catch (DeadlineExceededException error) {
+        return new ValidatedStatement(
+            StatementResult.timedOut(statement, false, error.getMessage()),
+            start, stateBefore, catalogBefore, stateBefore);
+      } catch (SqlException error) {
+        ScriptStatement extended = StreamingScriptValidator.isIncomplete(error)
+            && statement.getText().length() < StreamingScriptValidator.MAX_STATEMENT_LENGTH
+            ? cursor.extend(statement)
+            : null;
+        if (extended == null) {
+          return new ValidatedStatement(
+              StatementResult.invalid(statement, false, error),
+              start, stateBefore, catalogBefore, stateBefore);
+        }
+        statement = extended;
+      }
+    }
+
+    if (StreamingScriptValidator.containsScriptingStatements(parsed)) {
+      return new ValidatedStatement(
+          StatementResult.valid(statement, false),
+          start, stateBefore, catalogBefore, stateBefore);
+    }
+
+    // Read-only statements are analyzed directly on the catalog before them, which is shared
+    // with the statements around them
+    boolean readOnly = isReadOnly(parsed);
+    CatalogWrapper catalogAfter = readOnly ? catalogBefore : catalogBefore.copy();
+    Hasher stateAfter = CATALOG_STATE_HASH.newHasher().putLong(stateBefore);
+
+    String text = statement.getText();
+    try {
+      List<ResolvedStatement> resolvedStatements = guard.call(() ->
+          StreamingScriptValidator.analyzeInPlace(analyzer, text, catalogAfter));
+      if (!readOnly) {
+        for (ResolvedStatement resolved : resolvedStatements) {
+          putCatalogEffect(stateAfter, resolved);
+        }
+      }
+    } catch (DeadlineExceededException error) {
+      // The abandoned analysis may still modify its copy of the catalog, which is discarded
+      return new ValidatedStatement(
+          StatementResult.timedOut(statement, true, error.getMessage()),
+          start, stateBefore, catalogBefore, stateBefore);
+    } catch (SqlException error) {
+      return new ValidatedStatement(
+          StatementResult.invalid(statement, true, error),
+          start, stateBefore, catalogBefore, stateBefore);
+    } catch (CatalogException error) {
+      return new ValidatedStatement(
+          StatementResult.invalid(statement, true, error.getMessage()),
+          start, stateBefore, catalogBefore, stateBefore);
+    }
+
+    return new ValidatedStatement(
+        StatementResult.valid(statement, true),
+        start, stateBefore,
+        catalogAfter, readOnly ? stateBefore : stateAfter.hash().asLong());
+  }
+
+  /**
+   * Hashes what a statement does to the catalog: the resource it creates or drops, with its
+   * columns or signature, but not the query or body it's defined by. Other statements are
+   * hashed in full.
+   */
+  private static void putCatalogEffect(Hasher hasher, ResolvedStatement resolved) {
+    putString(hasher, resolved.getClass().getSimpleName());
+
+    if (resolved instanceof ResolvedDropStmt) {
+      ResolvedDropStmt drop = (ResolvedDropStmt) resolved;
+      putString(hasher, drop.getObjectType());
+      putString(hasher, String.join(".", drop.getNamePath()));
+    } else if (resolved instanceof ResolvedDropFunctionStmt) {
+      putString(hasher, String.join(".", ((ResolvedDropFunctionStmt) resolved).getNamePath()));
+    } else if (resolved instanceof ResolvedDropTableFunctionStmt) {
+      putString(
+          hasher, String.join(".", ((ResolvedDropTableFunctionStmt) resolved).getNamePath()));
+    } else if (resolved instanceof ResolvedCreateStatement) {
+      ResolvedCreateStatement create = (ResolvedCreateStatement) resolved;
+      putString(hasher, String.join(".", create.getNamePath()));
+      putString(hasher, create.getCreateScope().name());
+      putString(hasher, create.getCreateMode().name());
+
+      if (create instanceof ResolvedCreateTableStmtBase) {
+        ResolvedCreateTableStmtBase table = (ResolvedCreateTableStmtBase) create;
+        hasher.putBoolean(table.getIsValueTable());
+        for (ResolvedColumnDefinition column : table.getColumnDefinitionList()) {
+          putString(hasher, column.getName());
+          putString(hasher, column.getType().debugString());
+        }
+      } else if (create instanceof ResolvedCreateViewBase) {
+        ResolvedCreateViewBase view = (ResolvedCreateViewBase) create;
+        hasher.putBoolean(view.getIsValueTable());
+        putOutputColumns(hasher, view.getOutputColumnList());
+      } else if (create instanceof ResolvedCreateFunctionStmt) {
+        ResolvedCreateFunctionStmt function = (ResolvedCreateFunctionStmt) create;
+        hasher.putBoolean(function.getIsAggregate());
+        putString(hasher, function.getSignature().toString());
+      } else if (create instanceof ResolvedCreateTableFunctionStmt) {
+        ResolvedCreateTableFunctionStmt tvf = (ResolvedCreateTableFunctionStmt) create;
+        putString(hasher, tvf.getSignature().toString());
+        putOutputColumns(hasher, tvf.getOutputColumnList());
+      } else if (create instanceof ResolvedCreateProcedureStmt) {
+        putString(hasher, ((ResolvedCreateProcedureStmt) create).getSignature().toString());
+      } else {
+        putString(hasher, create.debugString());
+      }
+    } else {
+      putString(hasher, resolved.debugString());
+    }
+  }
+
+  private static void putOutputColumns(Hasher hasher, List<ResolvedOutputColumn> columns) {
+    for (ResolvedOutputColumn column : columns) {
+      putString(hasher, column.getName());
+      putString(hasher, column.getColumn().getType().debugString());
+    }
+  }
+
+  /** Hashes a string with its length, so that consecutive strings can't run into each other */
+  private static void putString(Hasher hasher, String value) {
+    hasher.putInt(value.length()).putString(value, StandardCharsets.UTF_8);
+  }
+
+  /** A statement of the last version validated, with everything needed to reuse its result */
+  private static final class ValidatedStatement {
+
+    private final StatementResult result;
+    // Char offsets of the statement's text in the script
+    private final int start;
+    private final int end;
+    private final long stateBefore;
+    private final CatalogWrapper catalogAfter;
+    private final long stateAfter;
+
+    ValidatedStatement(
+        StatementResult result,
+        int start,
+        long stateBefore,
+        CatalogWrapper catalogAfter,
+        long stateAfter) {
+      this.result = result;
+      this.start = start;
+      this.end = start + result.getStatement().getText().length();
+      this.stateBefore = stateBefore;
+      this.catalogAfter = catalogAfter;
+      this.stateAfter = stateAfter;
+    }
+
+    ScriptStatement getStatement() {
+      return result.getStatement();
+    }
+
+    /**
+     * Whether an edit starting at {@code offset} leaves the statement unchanged. A statement
+     * ending right at the edit is only unchanged if it ends with a semicolon; otherwise the
+     * edit may extend it.
+     */
+    boolean endsBefore(int offset) {
+      return end < offset || (end == offset && result.getStatement().getText().endsWith(";"));
+    }
+
+  }
+
+  public static void main(String[] args) {
+    SimpleCatalog base = new SimpleCatalog("catalog");
+    base.addZetaSQLFunctionsAndTypes(new ZetaSQLBuiltinFunctionOptions());
+    base.addSimpleTable("dataset.orders", new SimpleTable(
+        "dataset.orders",
+        ImmutableList.of(
+            new SimpleColumn(
+                "dataset.orders", "id", TypeFactory.createSimpleType(TypeKind.TYPE_INT64)),
+            new SimpleColumn(
+                "dataset.orders", "amount", TypeFactory.createSimpleType(TypeKind.TYPE_INT64)))));
+
+    AnalyzerOptions options = new AnalyzerOptions();
+    options.setLanguageOptions(BigQueryLanguageOptions.get());
+
+    IncrementalScriptValidator validator =
+        new IncrementalScriptValidator(options, new CatalogOverlay("project", base));
+
+    String script =
+        "CREATE TEMP TABLE big AS SELECT id, amount FROM `dataset.orders` WHERE amount > 10;\n"
+        + "SELECT id FROM big;\n"
+        + "CREATE TEMP TABLE totals AS SELECT SUM(amount) AS total FROM big;\n"
+        + "SELECT total FROM totals;\n";
+
+    System.out.println(validator.validate(script));
+    // Editing a query only re-validates that query
+    System.out.println(validator.validate(script.replace("SELECT id FROM", "SELECT idd FROM")));
+    // The edits below are each made to the original script
+    validator.validate(script);
+    // Editing the query of a CREATE TABLE AS SELECT without changing its columns only
+    // re-validates that statement
+    System.out.println(validator.validate(script.replace("amount > 10", "amount > 100")));
+    validator.validate(script);
+    // Renaming a column it creates re-validates everything after it
+    System.out.println(validator.validate(script.replace("id, amount", "id AS order_id, amount")));
+    validator.validate(script);
+    // Inserting whitespace only moves the results after it
+    System.out.println(validator.validate(script.replace(";\nSELECT id", ";\n\n  SELECT id")));
+    validator.validate(script.replace("SELECT total", "SELECT totl")).getResults().stream()
+        .filter(result -> !result.isValid())
+        .forEach(System.out::println);
+  }
+
+}
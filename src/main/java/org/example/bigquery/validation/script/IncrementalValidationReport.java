@@ -0,0 +1,74 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.example.bigquery.validation.script;
+
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+
+/**
+ * The results of validating a version of a script with an {@link IncrementalScriptValidator},
+ * for all its statements in script order, plus how many of them were actually validated.
+ */
+public final class IncrementalValidationReport {
+
+  private final ImmutableList<StatementResult> results;
+  private final int reusedPrefixCount;
+  private final int validatedCount;
+  private final int reusedSuffixCount;
+
+  public IncrementalValidationReport(
+      List<StatementResult> results,
+      int reusedPrefixCount,
+      int validatedCount,
+      int reusedSuffixCount) {
+    this.results = ImmutableList.copyOf(results);
+    this.reusedPrefixCount = reusedPrefixCount;
+    this.validatedCount = validatedCount;
+    this.reusedSuffixCount = reusedSuffixCount;
+  }
+
+  public ImmutableList<StatementResult> getResults() {
+    return results;
+  }
+
+  /** The number of statements before the first edit, whose results were reused as they were */
+  public int getReusedPrefixCount() {
+    return reusedPrefixCount;
+  }
+
+  /** The number of statements that were parsed and analyzed again */
+  public int getValidatedCount() {
+    return validatedCount;
+  }
+
+  /**
+   * The number of statements after the last edit whose results were reused, because the catalog
+   * before them came out the same as in the previous version
+   */
+  public int getReusedSuffixCount() {
+    return reusedSuffixCount;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%d statements: %d reused before the edit, %d validated, %d reused after the edit",
+        results.size(), reusedPrefixCount, validatedCount, reusedSuffixCount);
+  }
+
+}
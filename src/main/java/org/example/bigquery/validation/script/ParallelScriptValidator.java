@@ -0,0 +1,506 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.example.bigquery.validation.script;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.zetasql.Analyzer;
+import com.google.zetasql.AnalyzerOptions;
+import com.google.zetasql.LanguageOptions;
+import com.google.zetasql.Parser;
+import com.google.zetasql.SimpleCatalog;
+import com.google.zetasql.SimpleColumn;
+import com.google.zetasql.SimpleTable;
+import com.google.zetasql.SqlException;
+import com.google.zetasql.TypeFactory;
+import com.google.zetasql.ZetaSQLBuiltinFunctionOptions;
+import com.google.zetasql.ZetaSQLType.TypeKind;
+import com.google.zetasql.parser.ASTNodes.ASTScript;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedStatement;
+import com.google.zetasql.toolkit.CatalogUpdates;
+import com.google.zetasql.toolkit.ZetaSQLToolkitAnalyzer;
+import com.google.zetasql.toolkit.catalog.CatalogWrapper;
+import com.google.zetasql.toolkit.catalog.exceptions.CatalogException;
+import com.google.zetasql.toolkit.options.BigQueryLanguageOptions;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import org.example.bigquery.validation.batch.BatchValidationStats;
+import org.example.bigquery.validation.catalog.CatalogOverlay;
+import org.example.bigquery.validation.guard.DeadlineExceededException;
+import org.example.bigquery.validation.guard.StatementGuard;
+
+/**
+ * Validates the statements of a script concurrently, while producing the same results as
+ * validating them one after another with a {@link StreamingScriptValidator}.
+ *
+ * The script is split and every statement parsed up front, in parallel. Then a dependency graph
+ * is built from the resources each statement reads and the ones it creates, replaces or drops
+ * (see {@link StatementDependencies}). Each statement is analyzed as soon as the statements that
+ * change the resources it uses have been applied to the catalog, so statements that only read
+ * permanent tables are all analyzed concurrently, and so are independent DDL statements.
+ *
+ * Every statement that changes the catalog produces a new version of it: a copy of the previous
+ * version with the statement applied. Versions are applied in script order, which only costs a
+ * copy per DDL statement; the expensive part, analysis, is what runs concurrently. Statements
+ * are analyzed against the first version that includes everything they depend on, which is
+ * never modified afterwards, so any number of them can read it at the same time. Use a
+ * {@link CatalogOverlay} as the catalog to keep copies cheap.
+ *
+ * Results are delivered in script order, and invalid statements don't stop validation. Like
+ * {@link StreamingScriptValidator}, scripting statements are only parsed, and with a
+ * {@link StatementGuard}, statements over its limits are rejected without being parsed, and
+ * parses and analyses that exceed its deadline are abandoned and reported as timed out.
+ *
+ * <pre>{@code
+ * try (ParallelScriptValidator validator = new ParallelScriptValidator(options, overlay, 8)) {
+ *   BatchValidationStats stats = validator.validate(script, result -> ...);
+ * }
+ * }</pre>
+ */
+public class ParallelScriptValidator implements AutoCloseable {
+
+  private final AnalyzerOptions options;
+  private final LanguageOptions languageOptions;
+  private final ZetaSQLToolkitAnalyzer analyzer;
+  private final CatalogWrapper catalog;
+  private final ExecutorService executor;
+  private final StatementGuard guard;
+
+  /**
+   * @param options The AnalyzerOptions to analyze statements with
+   * @param catalog The catalog scripts start from. It is never modified; DDL statements are
+   *     applied to copies of it.
+   * @param parallelism The number of worker threads
+   */
+  public ParallelScriptValidator(
+      AnalyzerOptions options, CatalogWrapper catalog, int parallelism) {
+    this(options, catalog, parallelism, StatementGuard.NONE);
+  }
+
+  /**
+   * @param options The AnalyzerOptions to analyze statements with
+   * @param catalog The catalog scripts start from. It is never modified; DDL statements are
+   *     applied to copies of it.
+   * @param parallelism The number of worker threads
+   * @param guard Checks every statement before it's parsed, and sets the deadline of each
+   *     parse and analysis
+   */
+  public ParallelScriptValidator(
+      AnalyzerOptions options, CatalogWrapper catalog, int parallelism, StatementGuard guard) {
+    Preconditions.checkArgument(parallelism > 0, "parallelism must be positive");
+    this.options = options;
+    this.languageOptions = options.getLanguageOptions();
+    this.analyzer = new ZetaSQLToolkitAnalyzer(options);
+    this.catalog = catalog;
+    this.executor = Executors.newFixedThreadPool(
+        parallelism,
+        new ThreadFactoryBuilder()
+            .setNameFormat("parallel-script-validator-%d")
+            .setDaemon(true)
+            .build());
+    this.guard = guard;
+  }
+
+  /**
+   * Validates a script and returns the results for all its statements in script order.
+   *
+   * @param script The script
+   * @return The result for each statement
+   */
+  public List<StatementResult> validate(String script) {
+    List<StatementResult> results = new ArrayList<>();
+    validate(script, results::add);
+    return results;
+  }
+
+  /**
+   * Validates a script, delivering each statement's result to the consumer in script order.
+   *
+   * @param script The script
+   * @param consumer Receives the result for each statement. Called from the calling thread.
+   * @return The stats for the run, where each statement counts as a query
+   */
+  public BatchValidationStats validate(String script, Consumer<StatementResult> consumer) {
+    long startTime = System.nanoTime();
+
+    // The parse trees are no longer referenced once scheduled
+    List<ScheduledStatement> statements = schedule(parse(script));
+
+    // Lowercase names of the resources created by invalid statements
+    Set<String> failedCreations = new HashSet<>();
+    long validCount = 0;
+    long invalidCount = 0;
+
+    for (ScheduledStatement statement : statements) {
+      StatementResult result = join(statement.result);
+      if (statement.createdResource != null) {
+        if (result.isValid()) {
+          failedCreations.remove(statement.createdResource);
+        } else {
+          failedCreations.add(statement.createdResource);
+        }
+      }
+      if (StreamingScriptValidator.isCascading(
+          result.getErrorMessage().orElse(null), failedCreations)) {
+        result = result.asCascading();
+      }
+
+      if (result.isValid()) {
+        validCount++;
+      } else {
+        invalidCount++;
+      }
+      consumer.accept(result);
+    }
+
+    return new BatchValidationStats(
+        validCount, invalidCount, Duration.ofNanos(System.nanoTime() - startTime));
+  }
+
+  private static <T> T join(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  private ParsedStatement parse(ScriptStatement statement) {
+    Optional<String> rejection = guard.check(statement.getText());
+    if (rejection.isPresent()) {
+      return new ParsedStatement(statement, null, null, rejection.get(), null);
+    }
+
+    try {
+      return new ParsedStatement(
+          statement,
+          guard.call(() -> Parser.parseScript(statement.getText(), languageOptions)),
+          null, null, null);
+    } catch (DeadlineExceededException error) {
+      return new ParsedStatement(statement, null, null, null, error.getMessage());
+    } catch (SqlException error) {
+      return new ParsedStatement(statement, null, error, null, null);
+    }
+  }
+
+  /**
+   * Splits a script into statements with a {@link ScriptSplitter} and parses them in parallel.
+   * Statements the splitter cut short are then joined with the ones after them, as
+   * {@link ScriptStatementReader#extend} does.
+   */
+  private List<ParsedStatement> parse(String script) {
+    ScriptSplitter split = ScriptSplitter.split(script);
+    List<CompletableFuture<ParsedStatement>> parsed =
+        new ArrayList<>(split.getStatementCount());
+    for (int i = 0; i < split.getStatementCount(); i++) {
+      ScriptStatement statement = split.getStatement(i);
+      parsed.add(CompletableFuture.supplyAsync(() -> parse(statement), executor));
+    }
+
+    List<ParsedStatement> statements = new ArrayList<>(split.getStatementCount());
+    for (int i = 0; i < split.getStatementCount(); i++) {
+      ParsedStatement statement = join(parsed.get(i));
+
+      if (statement.isIncomplete() && i + 1 < split.getStatementCount()) {
+        ScriptSplitter.Cursor cursor = split.cursor(i, i);
+        ScriptStatement extended = cursor.next();
+        while (statement.isIncomplete() && (extended = cursor.extend(extended)) != null) {
+          statement = parse(extended);
+          i++;
+        }
+      }
+
+      statements.add(statement.withIndex(statements.size()));
+    }
+    return statements;
+  }
+
+  /**
+   * Schedules the analysis of every statement, each one after the catalog versions it depends
+   * on, and the application of every statement that changes the catalog, in script order.
+   */
+  private List<ScheduledStatement> schedule(List<ParsedStatement> statements) {
+    // Catalog versions, each one with one more statement applied than the one before
+    List<CompletableFuture<CatalogWrapper>> versions = new ArrayList<>();
+    versions.add(CompletableFuture.completedFuture(catalog));
+    // For each resource, the first version that includes the last change to it
+    Map<String, Integer> lastChanges = new HashMap<>();
+    int lastBarrier = 0;
+
+    List<ScheduledStatement> scheduled = new ArrayList<>(statements.size());
+    for (ParsedStatement statement : statements) {
+      ScriptStatement toAnalyze = statement.statement;
+      CompletableFuture<StatementResult> result;
+
+      if (statement.rejection != null) {
+        result = CompletableFuture.completedFuture(
+            StatementResult.rejected(toAnalyze, statement.rejection));
+      } else if (statement.timeout != null) {
+        result = CompletableFuture.completedFuture(
+            StatementResult.timedOut(toAnalyze, false, statement.timeout));
+      } else if (statement.error != null) {
+        result = CompletableFuture.completedFuture(
+            StatementResult.invalid(toAnalyze, false, statement.error));
+      } else if (StreamingScriptValidator.containsScriptingStatements(statement.parsed)) {
+        result = CompletableFuture.completedFuture(StatementResult.valid(toAnalyze, false));
+      } else {
+        StatementDependencies dependencies = StatementDependencies.of(statement.parsed);
+        CompletableFuture<CatalogWrapper> latest = versions.get(versions.size() - 1);
+
+        if (dependencies.isBarrier()) {
+          CompletableFuture<Applied> applied =
+              latest.thenApplyAsync(catalog -> analyzeAndApply(toAnalyze, catalog), executor);
+          versions.add(applied.thenApply(outcome -> outcome.catalog));
+          lastBarrier = versions.size() - 1;
+          result = applied.thenApply(outcome -> outcome.result);
+        } else {
+          int version = lastBarrier;
+          for (String resource : Sets.union(dependencies.getReads(), dependencies.getWrites())) {
+            version = Math.max(version, lastChanges.getOrDefault(resource, 0));
+          }
+          CompletableFuture<Analysis> analysis = versions.get(version)
+              .thenApplyAsync(catalog -> analyze(toAnalyze, catalog), executor);
+
+          if (dependencies.isWriter()) {
+            CompletableFuture<Applied> applied = latest.thenCombine(analysis, this::apply);
+            versions.add(applied.thenApply(outcome -> outcome.catalog));
+            for (String resource : dependencies.getWrites()) {
+              lastChanges.put(resource, versions.size() - 1);
+            }
+            result = applied.thenApply(outcome -> outcome.result);
+          } else {
+            result = analysis.thenApply(outcome -> outcome.result);
+          }
+        }
+      }
+
+      scheduled.add(new ScheduledStatement(result, statement.createdResource));
+    }
+    return scheduled;
+  }
+
+  /** Analyzes a statement without modifying the catalog, which other threads may be reading */
+  private Analysis analyze(ScriptStatement statement, CatalogWrapper catalog) {
+    try {
+      ResolvedStatement resolved = guard.call(() -> Analyzer.analyzeStatement(
+          statement.getText(), options, catalog.getZetaSQLCatalog()));
+      return new Analysis(StatementResult.valid(statement, true), resolved);
+    } catch (DeadlineExceededException error) {
+      return new Analysis(StatementResult.timedOut(statement, true, error.getMessage()), null);
+    } catch (SqlException error) {
+      return new Analysis(StatementResult.invalid(statement, true, error), null);
+    }
+  }
+
+  /** Applies an analyzed statement to a copy of the catalog before it */
+  private Applied apply(CatalogWrapper catalogBefore, Analysis analysis) {
+    if (analysis.resolved == null) {
+      return new Applied(analysis.result, catalogBefore);
+    }
+
+    CatalogWrapper catalogAfter = catalogBefore.copy();
+    try {
+      CatalogUpdates.apply(analysis.resolved, catalogAfter);
+      return new Applied(analysis.result, catalogAfter);
+    } catch (CatalogException error) {
+      return new Applied(
+          StatementResult.invalid(analysis.result.getStatement(), true, error.getMessage()),
+          catalogBefore);
+    }
+  }
+
+  /** Analyzes a barrier, which may change the catalog in any way, on a copy of the catalog */
+  private Applied analyzeAndApply(ScriptStatement statement, CatalogWrapper catalogBefore) {
+    CatalogWrapper catalogAfter = catalogBefore.copy();
+    try {
+      guard.call(() ->
+          StreamingScriptValidator.analyzeInPlace(analyzer, statement.getText(), catalogAfter));
+      return new Applied(StatementResult.valid(statement, true), catalogAfter);
+    } catch (DeadlineExceededException error) {
+      // The abandoned analysis may still modify the copy, so it's discarded
+      return new Applied(
+          StatementResult.timedOut(statement, true, error.getMessage()), catalogBefore);
+    } catch (SqlException error) {
+      return new Applied(StatementResult.invalid(statement, true, error), catalogBefore);
+    } catch (CatalogException error) {
+      return new Applied(
+          StatementResult.invalid(statement, true, error.getMessage()), catalogBefore);
+    }
+  }
+
+  @Override
+  public void close() {
+    executor.shutdown();
+  }
+
+  private static final class ParsedStatement {
+
+    private final ScriptStatement statement;
+    private final ASTScript parsed;
+    private final SqlException error;
+    // Why the guard rejected the statement, or why parsing it timed out
+    private final String rejection;
+    private final String timeout;
+    // Lowercase name of the resource the statement creates, if any
+    private final String createdResource;
+
+    ParsedStatement(ScriptStatement statement, ASTScript parsed, SqlException error,
+        String rejection, String timeout) {
+      this.statement = statement;
+      this.parsed = parsed;
+      this.error = error;
+      this.rejection = rejection;
+      this.timeout = timeout;
+      this.createdResource =
+          parsed == null ? null : StreamingScriptValidator.createdResourceName(parsed);
+    }
+
+    /** Whether the statement ended before its closing END and should be joined with the next */
+    boolean isIncomplete() {
+      return error != null
+          && StreamingScriptValidator.isIncomplete(error)
+          && statement.getText().length() < StreamingScriptValidator.MAX_STATEMENT_LENGTH;
+    }
+
+    /** Returns the same statement at another index, after earlier ones were joined */
+    ParsedStatement withIndex(long index) {
+      if (index == statement.getIndex()) {
+        return this;
+      }
+      return new ParsedStatement(
+          new ScriptStatement(
+              index,
+              statement.getText(),
+              statement.getByteOffset(),
+              statement.getByteLength(),
+              statement.getLine(),
+              statement.getColumn()),
+          parsed,
+          error,
+          rejection,
+          timeout);
+    }
+
+  }
+
+  private static final class ScheduledStatement {
+
+    private final CompletableFuture<StatementResult> result;
+    private final String createdResource;
+
+    ScheduledStatement(CompletableFuture<StatementResult> result, String createdResource) {
+      this.result = result;
+      this.createdResource = createdResource;
+    }
+
+  }
+
+  /** A statement's result and, if it's valid, its resolved tree */
+  private static final class Analysis {
+
+    private final StatementResult result;
+    private final ResolvedStatement resolved;
+
+    Analysis(StatementResult result, ResolvedStatement resolved) {
+      this.result = result;
+      this.resolved = resolved;
+    }
+
+  }
+
+  /** A statement's result and the catalog version after it */
+  private static final class Applied {
+
+    private final StatementResult result;
+    private final CatalogWrapper catalog;
+
+    Applied(StatementResult result, CatalogWrapper catalog) {
+      this.result = result;
+      this.catalog = catalog;
+    }
+
+  }
+
+  public static void main(String[] args) {
+    int groupCount = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+    int parallelism = Runtime.getRuntime().availableProcessors();
+
+    SimpleCatalog base = new SimpleCatalog("catalog");
+    base.addZetaSQLFunctionsAndTypes(new ZetaSQLBuiltinFunctionOptions());
+    for (int i = 0; i < 10; i++) {
+      String name = "dataset.orders_" + i;
+      base.addSimpleTable(name, new SimpleTable(
+          name,
+          ImmutableList.of(
+              new SimpleColumn(name, "id", TypeFactory.createSimpleType(TypeKind.TYPE_INT64)),
+              new SimpleColumn(
+                  name, "amount", TypeFactory.createSimpleType(TypeKind.TYPE_INT64)))));
+    }
+
+    // Each group creates a temp table, queries permanent tables and then the temp table
+    StringBuilder script = new StringBuilder();
+    for (int i = 0; i < groupCount; i++) {
+      script.append(String.format(
+          "CREATE TEMP TABLE tmp_%d AS SELECT id, amount FROM `dataset.orders_%d` "
+              + "WHERE amount > %d;\n", i, i % 10, i));
+      for (int j = 0; j < 4; j++) {
+        script.append(String.format(
+            "SELECT o.id, SUM(o.amount) FROM `dataset.orders_%d` AS o "
+                + "JOIN `dataset.orders_%d` AS p USING (id) GROUP BY o.id;\n",
+            (i + j) % 10, (i + j + 1) % 10));
+      }
+      script.append(String.format("SELECT SUM(amount) FROM tmp_%d;\n", i));
+    }
+
+    AnalyzerOptions options = new AnalyzerOptions();
+    options.setLanguageOptions(BigQueryLanguageOptions.get());
+
+    List<StatementResult> sequentialResults = new ArrayList<>();
+    BatchValidationStats sequentialStats =
+        new StreamingScriptValidator(options, new CatalogOverlay("project", base))
+            .validate(script.toString(), sequentialResults::add);
+    System.out.println("Sequential: " + sequentialStats);
+
+    try (ParallelScriptValidator validator = new ParallelScriptValidator(
+        options, new CatalogOverlay("project", base), parallelism)) {
+      List<StatementResult> parallelResults = new ArrayList<>();
+      BatchValidationStats parallelStats =
+          validator.validate(script.toString(), parallelResults::add);
+      System.out.printf("Parallel (%d threads): %s%n", parallelism, parallelStats);
+      System.out.println("Same results: "
+          + sequentialResults.toString().equals(parallelResults.toString()));
+    }
+  }
+
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.script;
+
+import java.util.Arrays;
+import org.example.bigquery.validation.lexer.LineMap;
+import org.example.bigquery.validation.lexer.SqlLexer;
+import org.example.bigquery.validation.lexer.TokenKind;
+
+/**
+ * Splits a script held in memory into its top-level statements in pure Java, without a round
+ * trip to the ZetaSQL local service per statement.
+ *
+ * Uses {@link SqlLexer} for tokens and the same block tracking as {@link ScriptStatementReader},
+ * so both split scripts the same way and share its limitations. Statements are kept as offsets
+ * into the script, so splitting allocates a few arrays rather than a string per statement;
+ * callers take the text of the statements they actually parse or analyze with
+ * {@link #getText(int)} or {@link #getStatement(int)}. The script validators read scripts held
+ * in memory through a {@link #cursor}, which joins statements that were cut short the way
+ * {@link ScriptStatementReader#extend} does.
+ *
+ * {@link ScriptSplitterCheck} compares the statements found here with the ones the ZetaSQL
+ * parser finds.
+ */
+public final class ScriptSplitter {
+
+  private final String script;
+  private final int statementCount;
+  private final int[] starts;
+  private final int[] contentEnds;
+  private final int[] ends;
+  private final LineMap lineMap;
+
+  private ScriptSplitter(
+      String script, int statementCount, int[] starts, int[] contentEnds, int[] ends) {
+    this.script = script;
+    this.statementCount = statementCount;
+    this.starts = starts;
+    this.contentEnds = contentEnds;
+    this.ends = ends;
+    this.lineMap = LineMap.of(script);
+  }
+
+  /**
+   * Splits a script into its top-level statements.
+   *
+   * @param script The script
+   * @return The statements' positions in the script
+   */
+  public static ScriptSplitter split(String script) {
+    int[] starts = new int[16];
+    int[] contentEnds = new int[16];
+    int[] ends = new int[16];
+    int count = 0;
+
+    SqlLexer lexer = new SqlLexer(script);
+    BlockTracker blocks = new BlockTracker();
+    int start = -1;
+    int contentEnd = -1;
+
+    TokenKind kind;
+    while ((kind = lexer.next()) != TokenKind.END) {
+      if (kind == TokenKind.COMMENT) {
+        continue;
+      }
+      if (start < 0) {
+        start = lexer.getTokenStart();
+        blocks.reset();
+      }
+
+      boolean endsStatement = false;
+      if (kind == TokenKind.IDENTIFIER) {
+        blocks.word(script, lexer.getTokenStart(), lexer.getTokenEnd());
+      } else if (kind == TokenKind.SYMBOL && lexer.getFirstChar() == ';') {
+        endsStatement = blocks.semicolon();
+      } else if (kind == TokenKind.SYMBOL && lexer.getFirstChar() == ':') {
+        blocks.colon();
+      } else {
+        blocks.token();
+      }
+
+      if (endsStatement) {
+        if (count == starts.length) {
+          starts = Arrays.copyOf(starts, count * 2);
+          contentEnds = Arrays.copyOf(contentEnds, count * 2);
+          ends = Arrays.copyOf(ends, count * 2);
+        }
+        starts[count] = start;
+        // A statement that is just a semicolon has no content
+        contentEnds[count] = contentEnd < 0 ? start : contentEnd;
+        ends[count] = lexer.getTokenEnd();
+        count++;
+        start = -1;
+        contentEnd = -1;
+      } else {
+        contentEnd = lexer.getTokenEnd();
+      }
+    }
+
+    if (start >= 0) {
+      // The last statement may omit its semicolon, in which case it runs to the end of the script
+      if (count == starts.length) {
+        starts = Arrays.copyOf(starts, count + 1);
+        contentEnds = Arrays.copyOf(contentEnds, count + 1);
+        ends = Arrays.copyOf(ends, count + 1);
+      }
+      starts[count] = start;
+      contentEnds[count] = contentEnd;
+      ends[count] = script.length();
+      count++;
+    }
+
+    return new ScriptSplitter(script, count, starts, contentEnds, ends);
+  }
+
+  public String getScript() {
+    return script;
+  }
+
+  public int getStatementCount() {
+    return statementCount;
+  }
+
+  /** The offset of a statement's first token in the script */
+  public int getStart(int index) {
+    return starts[checkIndex(index)];
+  }
+
+  /** The offset after a statement's last token before its terminating semicolon */
+  public int getContentEnd(int index) {
+    return contentEnds[checkIndex(index)];
+  }
+
+  /**
+   * The offset after a statement's terminating semicolon, or the length of the script if it's
+   * the last statement and has none
+   */
+  public int getEnd(int index) {
+    return ends[checkIndex(index)];
+  }
+
+  /** The text of a statement, including its terminating semicolon, if any */
+  public String getText(int index) {
+    return script.substring(getStart(index), getEnd(index));
+  }
+
+  /**
+   * Returns a statement as {@link ScriptStatementReader} would read it, positioned in the
+   * script.
+   *
+   * @param index The position of the statement in the script, starting at 0
+   * @return The statement
+   */
+  public ScriptStatement getStatement(int index) {
+    return statement(index, getStart(index), getEnd(index));
+  }
+
+  private ScriptStatement statement(long index, int start, int end) {
+    long byteOffset = lineMap.getByteOffset(start);
+    return new ScriptStatement(
+        index,
+        script.substring(start, end),
+        byteOffset,
+        lineMap.getByteOffset(end) - byteOffset,
+        lineMap.getLine(start),
+        lineMap.getColumn(start));
+  }
+
+  /**
+   * Reads the statements from a given one on. Statements are numbered as
+   * {@link ScriptStatementReader} numbers them, which differs from their index here once one
+   * has been extended.
+   *
+   * @param first The index of the first statement to read
+   * @param firstNumber The number to give the first statement read
+   */
+  Cursor cursor(int first, long firstNumber) {
+    return new Cursor(first, firstNumber);
+  }
+
+  /** The index of the first statement that starts at or after an offset in the script */
+  int statementAt(int offset) {
+    int index = Arrays.binarySearch(starts, 0, statementCount, offset);
+    return index >= 0 ? index : -index - 1;
+  }
+
+  /** Reads a split script's statements in order, extending them when asked to */
+  final class Cursor implements StatementSource {
+
+    private int next;
+    private long nextNumber;
+    // Offsets of the statement last returned
+    private int start = -1;
+    private int end = -1;
+
+    private Cursor(int next, long nextNumber) {
+      this.next = next;
+      this.nextNumber = nextNumber;
+    }
+
+    @Override
+    public ScriptStatement next() {
+      if (next == statementCount) {
+        return null;
+      }
+      start = starts[next];
+      end = ends[next];
+      next++;
+      return statement(nextNumber++, start, end);
+    }
+
+    @Override
+    public ScriptStatement extend(ScriptStatement statement) {
+      if (next == statementCount) {
+        return null;
+      }
+      end = ends[next];
+      next++;
+      return statement(statement.getIndex(), start, end);
+    }
+
+    /** The offset in the script of the statement last returned */
+    int getStart() {
+      return start;
+    }
+
+    /** The offset in the script right after the statement last returned */
+    int getEnd() {
+      return end;
+    }
+
+  }
+
+  /** Translates offsets in the script to lines, columns and byte offsets */
+  public LineMap getLineMap() {
+    return lineMap;
+  }
+
+  private int checkIndex(int index) {
+    if (index < 0 || index >= statementCount) {
+      throw new IndexOutOfBoundsException(
+          String.format("Statement %d out of bounds for %d statements", index, statementCount));
+    }
+    return index;
+  }
+
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.script;
+
+import com.google.zetasql.LanguageOptions;
+import com.google.zetasql.ParseResumeLocation;
+import com.google.zetasql.Parser;
+import com.google.zetasql.toolkit.options.BigQueryLanguageOptions;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks {@link ScriptSplitter} against the ZetaSQL parser on generated scripts, and compares
+ * how long each takes to split them.
+ *
+ * The scripts mix the constructs that make splitting hard: semicolons and keywords inside
+ * string, bytes and raw literals, triple-quoted strings, quoted identifiers and comments,
+ * nested BEGIN...END, IF, CASE, LOOP, WHILE, REPEAT and FOR blocks, labels, BEGIN TRANSACTION,
+ * non-ASCII text and CRLF line endings. For every statement, the parser's resume position after
+ * {@link Parser#parseNextScriptStatement} must be where the splitter says the statement ends;
+ * after the last statement, the parser skips to the end of the script.
+ *
+ * Usage: {@code ScriptSplitterCheck [scriptCount] [seed]}. Exits with status 1 if the splitter
+ * and the parser disagree on any script.
+ */
+public class ScriptSplitterCheck {
+
+  private static final int MAX_REPORTED_MISMATCHES = 10;
+  private static final int MAX_DEPTH = 3;
+
+  private static final String[] QUERIES = {
+      "SELECT 'a;b', \"it's; fine\", 'escaped \\'; quote' AS x",
+      "SELECT '''multi;\nline ' and '' quotes''' AS t, \"\"\"double \"quoted\"; END\"\"\"",
+      "SELECT r'\\d+;', b'by;tes', rb\"raw; bytes\", BR'end;' AS raw_bytes",
+      "SELECT 1 AS `semi;colon`, 2 AS `back\\`tick`",
+      "SELECT 1 -- BEGIN; END;\n, 2 # CASE WHEN;\n, /* BEGIN ; END IF; */ 3",
+      "SELECT CASE WHEN x > 1 THEN 'a;' ELSE 'b' END AS c FROM (SELECT 1 AS x)",
+      "SELECT CASE x WHEN 1 THEN (SELECT 'nested; END') END FROM t",
+      "SELECT 'ñandú 😀; ünïcödé' AS `émoji`",
+      "SELECT t.id, 1.5e3, 0x1F, .5 FROM `project.dataset.table` AS t WHERE t.s != ';'",
+      "SELECT ARRAY(SELECT AS STRUCT 1 AS a, 'b' AS b) AS arr",
+      "WITH q AS (SELECT 'if' AS then_, \"loop\" AS do_) SELECT * FROM q",
+      "SELECT x FROM UNNEST([1, 2, 3]) AS x WHERE x IN (SELECT 1 UNION ALL SELECT 2)",
+  };
+
+  private static final String[] SIMPLE_STATEMENTS = {
+      "DECLARE x INT64 DEFAULT 0",
+      "SET x = x + 1",
+      "CREATE TEMP FUNCTION add_one(x INT64) AS (x + 1)",
+      "CREATE TEMP FUNCTION label(s STRING) RETURNS STRING LANGUAGE js AS r\"\"\"\n"
+          + "  return s + ';';\n\"\"\"",
+      "CREATE TEMP TABLE tmp AS SELECT 1 AS id",
+      "INSERT INTO t (a, b) VALUES (1, 'end;'), (2, \"begin;\")",
+      "DELETE FROM t WHERE s = 'CASE; END CASE'",
+      "BEGIN TRANSACTION",
+      "BEGIN",
+      "COMMIT TRANSACTION",
+      "ROLLBACK",
+      "RETURN",
+  };
+
+  private final Random random;
+  private final String lineBreak;
+
+  private ScriptSplitterCheck(Random random) {
+    this.random = random;
+    this.lineBreak = random.nextInt(4) == 0 ? "\r\n" : "\n";
+  }
+
+  /** Generates a random script that the ZetaSQL parser accepts */
+  static String generateScript(Random random) {
+    ScriptSplitterCheck generator = new ScriptSplitterCheck(random);
+    StringBuilder script = new StringBuilder();
+    int statementCount = 1 + random.nextInt(12);
+    for (int i = 0; i < statementCount; i++) {
+      generator.trivia(script);
+      generator.statement(script, 0);
+      // The last statement's semicolon is optional
+      if (i < statementCount - 1 || random.nextBoolean()) {
+        script.append(';');
+      }
+    }
+    if (random.nextBoolean()) {
+      generator.trivia(script);
+    }
+    return script.toString();
+  }
+
+  private String pick(String[] options) {
+    return options[random.nextInt(options.length)].replace("\n", lineBreak);
+  }
+
+  private void trivia(StringBuilder script) {
+    switch (random.nextInt(5)) {
+      case 0:
+        script.append(lineBreak).append("-- a comment; BEGIN").append(lineBreak);
+        break;
+      case 1:
+        script.append(" /* END; */ ");
+        break;
+      case 2:
+        script.append(lineBreak).append("\t# IF;").append(lineBreak);
+        break;
+      default:
+        script.append(random.nextBoolean() ? lineBreak : " ");
+    }
+  }
+
+  /** Appends a statement, without its terminating semicolon */
+  private void statement(StringBuilder script, int depth) {
+    int kind = random.nextInt(depth < MAX_DEPTH ? 12 : 2);
+    switch (kind) {
+      case 0:
+        script.append(pick(QUERIES));
+        break;
+      case 1:
+        script.append(pick(SIMPLE_STATEMENTS));
+        break;
+      case 2:
+        script.append("BEGIN");
+        body(script, depth);
+        if (random.nextBoolean()) {
+          script.append("EXCEPTION WHEN ERROR THEN");
+          body(script, depth);
+        }
+        script.append("END");
+        break;
+      case 3:
+        script.append("IF (SELECT COUNT(*) FROM t WHERE s = 'END IF;') > 0 THEN");
+        body(script, depth);
+        if (random.nextBoolean()) {
+          script.append("ELSEIF x = 1 THEN");
+          body(script, depth);
+        }
+        if (random.nextBoolean()) {
+          script.append("ELSE");
+          body(script, depth);
+        }
+        script.append("END IF");
+        break;
+      case 4:
+        script.append("CASE WHEN x > 0 THEN");
+        body(script, depth);
+        script.append("ELSE");
+        body(script, depth);
+        script.append("END CASE");
+        break;
+      case 5:
+        script.append("LOOP");
+        body(script, depth);
+        script.append("END LOOP");
+        break;
+      case 6:
+        script.append("WHILE x < 10 DO");
+        body(script, depth);
+        script.append("END WHILE");
+        break;
+      case 7:
+        script.append("REPEAT");
+        body(script, depth);
+        script.append("UNTIL x >= 10 END REPEAT");
+        break;
+      case 8:
+        script.append("FOR row IN (SELECT 'do; end' AS s) DO");
+        body(script, depth);
+        script.append("END FOR");
+        break;
+      case 9:
+        script.append("outer_loop: LOOP");
+        body(script, depth);
+        script.append("BREAK outer_loop; END LOOP outer_loop");
+        break;
+      case 10:
+        script.append("CREATE TEMP PROCEDURE proc(IN x INT64) BEGIN");
+        body(script, depth);
+        script.append("END");
+        break;
+      default:
+        script.append("SELECT CASE WHEN x THEN 'then;' ELSE (CASE 1 WHEN 1 THEN 2 END) END");
+    }
+  }
+
+  /** Appends the statements of a block, surrounded by whitespace */
+  private void body(StringBuilder script, int depth) {
+    int statementCount = 1 + random.nextInt(3);
+    for (int i = 0; i < statementCount; i++) {
+      trivia(script);
+      statement(script, depth + 1);
+      script.append(';');
+    }
+    script.append(random.nextBoolean() ? lineBreak : " ");
+  }
+
+  /**
+   * Returns where the parser resumes after each of a script's statements, as UTF-8 byte offsets.
+   */
+  private static List<Integer> parseResumePositions(String script, LanguageOptions options) {
+    List<Integer> positions = new ArrayList<>();
+    int length = script.getBytes(StandardCharsets.UTF_8).length;
+    ParseResumeLocation location = new ParseResumeLocation(script);
+    while (location.getBytePosition() < length) {
+      Parser.parseNextScriptStatement(location, options);
+      positions.add(location.getBytePosition());
+    }
+    return positions;
+  }
+
+  /** Returns where the parser should resume after each statement the splitter found */
+  private static List<Integer> expectedResumePositions(String script, ScriptSplitter splitter) {
+    List<Integer> positions = new ArrayList<>();
+    int length = script.getBytes(StandardCharsets.UTF_8).length;
+    for (int i = 0; i < splitter.getStatementCount(); i++) {
+      boolean last = i == splitter.getStatementCount() - 1;
+      positions.add(
+          last ? length : (int) splitter.getLineMap().getByteOffset(splitter.getEnd(i)));
+    }
+    return positions;
+  }
+
+  public static void main(String[] args) {
+    int scriptCount = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+
+    Random random = new Random(seed);
+    List<String> scripts = new ArrayList<>(scriptCount);
+    long statementCount = 0;
+    for (int i = 0; i < scriptCount; i++) {
+      String script = generateScript(random);
+      scripts.add(script);
+      statementCount += ScriptSplitter.split(script).getStatementCount();
+    }
+
+    LanguageOptions options = BigQueryLanguageOptions.get();
+    int mismatches = 0;
+    long javaNanos = 0;
+    long nativeNanos = 0;
+
+    for (String script : scripts) {
+      long start = System.nanoTime();
+      ScriptSplitter splitter = ScriptSplitter.split(script);
+      javaNanos += System.nanoTime() - start;
+
+      start = System.nanoTime();
+      List<Integer> actual = parseResumePositions(script, options);
+      nativeNanos += System.nanoTime() - start;
+
+      List<Integer> expected = expectedResumePositions(script, splitter);
+      if (!expected.equals(actual)) {
+        if (++mismatches <= MAX_REPORTED_MISMATCHES) {
+          System.out.printf("Mismatch: splitter %s, parser %s in script:%n%s%n%n",
+              expected, actual, script);
+        }
+      }
+    }
+
+    System.out.printf("%,d scripts, %,d statements; %,d disagreements%n",
+        scriptCount, statementCount, mismatches);
+    System.out.printf("Java splitter: %,d ms; ZetaSQL parser: %,d ms%n",
+        javaNanos / 1_000_000, nativeNanos / 1_000_000);
+    if (mismatches > 0) {
+      System.exit(1);
+    }
+  }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.script;
+
+import org.example.bigquery.validation.batch.ErrorLocation;
+
+/**
+ * A single top-level statement read from a script, together with where it is in the script.
+ *
+ * The text starts at the statement's first token and includes its terminating semicolon, if
+ * any. Comments and whitespace between statements are not part of any statement.
+ */
+public final class ScriptStatement {
+
+  private final long index;
+  private final String text;
+  private final long byteOffset;
+  private final long byteLength;
+  private final int line;
+  private final int column;
+
+  public ScriptStatement(
+      long index, String text, long byteOffset, long byteLength, int line, int column) {
+    this.index = index;
+    this.text = text;
+    this.byteOffset = byteOffset;
+    this.byteLength = byteLength;
+    this.line = line;
+    this.column = column;
+  }
+
+  /** Position of the statement in the script, starting at 0 */
+  public long getIndex() {
+    return index;
+  }
+
+  public String getText() {
+    return text;
+  }
+
+  /** Offset of the statement's first byte in the UTF-8 encoded script */
+  public long getByteOffset() {
+    return byteOffset;
+  }
+
+  /** Length of the statement in the UTF-8 encoded script */
+  public long getByteLength() {
+    return byteLength;
+  }
+
+  /** Line where the statement starts in the script, starting at 1 */
+  public int getLine() {
+    return line;
+  }
+
+  /** Column where the statement starts in the script, starting at 1 */
+  public int getColumn() {
+    return column;
+  }
+
+  /**
+   * Translates a location relative to this statement's text, like the ones ZetaSQL reports when
+   * parsing or analyzing it, to a location in the whole script.
+   *
+   * @param location The location relative to the statement
+   * @return The same location relative to the script
+   */
+  public ErrorLocation toScriptLocation(ErrorLocation location) {
+    // Only the first line of the statement is shifted horizontally
+    int scriptColumn = location.getLine() == 1
+        ? column + location.getColumn() - 1
+        : location.getColumn();
+    return new ErrorLocation(line + location.getLine() - 1, scriptColumn);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("#%d at %d:%d (byte %d)", index, line, column, byteOffset);
+  }
+
+}
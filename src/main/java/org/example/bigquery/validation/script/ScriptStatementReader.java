@@ -0,0 +1,437 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.script;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the top-level statements of a SQL script one at a time, without holding the whole script
+ * in memory.
+ *
+ * Statements are split at semicolons, skipping the ones inside string literals, quoted
+ * identifiers, comments and compound statements such as BEGIN...END, IF...END IF or CREATE
+ * PROCEDURE. Compound statements are recognized by their keywords only, so this is a heuristic;
+ * when the parser finds a statement was cut short, {@link #extend(ScriptStatement)} appends the
+ * following statement to it. {@link StreamingScriptValidator} does that automatically.
+ *
+ * Only the statement being read is kept in memory, so memory use depends on the size of the
+ * largest statement rather than the size of the script. Files are read through memory-mapped
+ * regions; other sources through an {@link InputStream} or {@link Reader}. Scripts are expected
+ * to be UTF-8 encoded.
+ */
+public class ScriptStatementReader implements StatementSource, Closeable {
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final Reader reader;
+  private final char[] buffer = new char[BUFFER_SIZE];
+  private int bufferPosition = 0;
+  private int bufferLimit = 0;
+
+  // Position of the next character in the script
+  private long byteOffset = 0;
+  private int line = 1;
+  private int column = 1;
+
+  private long nextIndex = 0;
+
+  // Lexical state of the statement being read
+  private final BlockTracker blocks = new BlockTracker();
+  private final StringBuilder word = new StringBuilder();
+
+  public ScriptStatementReader(Reader reader) {
+    this.reader = reader;
+  }
+
+  public ScriptStatementReader(InputStream inputStream) {
+    this(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Opens a script file, reading it through memory-mapped regions.
+   *
+   * @param path The path to the script
+   * @return A reader for the script's statements, which must be closed after use
+   * @throws IOException if the file cannot be opened
+   */
+  public static ScriptStatementReader open(Path path) throws IOException {
+    return new ScriptStatementReader(
+        new MappedFileReader(FileChannel.open(path, StandardOpenOption.READ)));
+  }
+
+  /**
+   * Reads the next statement of the script.
+   *
+   * @return The next statement, or null if there are no more statements
+   * @throws IOException if the script cannot be read
+   */
+  @Override
+  public ScriptStatement next() throws IOException {
+    if (!skipToNextToken(null)) {
+      return null;
+    }
+
+    long startOffset = byteOffset;
+    int startLine = line;
+    int startColumn = column;
+
+    StringBuilder text = new StringBuilder();
+    readStatement(text);
+
+    return new ScriptStatement(
+        nextIndex++,
+        text.toString(),
+        startOffset,
+        byteOffset - startOffset,
+        startLine,
+        startColumn);
+  }
+
+  /**
+   * Appends the next statement of the script to the statement last returned by this reader. Used
+   * when the statement turns out to be incomplete, e.g. because it contains a compound statement
+   * this reader did not recognize.
+   *
+   * @param statement The statement last returned by {@link #next()} or this method
+   * @return The extended statement, which keeps the original's index and position, or null if
+   *     there are no more statements
+   * @throws IOException if the script cannot be read
+   */
+  @Override
+  public ScriptStatement extend(ScriptStatement statement) throws IOException {
+    StringBuilder text = new StringBuilder(statement.getText());
+    if (!skipToNextToken(text)) {
+      return null;
+    }
+
+    readStatement(text);
+
+    return new ScriptStatement(
+        statement.getIndex(),
+        text.toString(),
+        statement.getByteOffset(),
+        byteOffset - statement.getByteOffset(),
+        statement.getLine(),
+        statement.getColumn());
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+
+  private boolean fill(int required) throws IOException {
+    if (bufferLimit - bufferPosition >= required) {
+      return true;
+    }
+
+    System.arraycopy(buffer, bufferPosition, buffer, 0, bufferLimit - bufferPosition);
+    bufferLimit -= bufferPosition;
+    bufferPosition = 0;
+
+    while (bufferLimit < required) {
+      int read = reader.read(buffer, bufferLimit, buffer.length - bufferLimit);
+      if (read < 0) {
+        return false;
+      }
+      bufferLimit += read;
+    }
+
+    return true;
+  }
+
+  /** Returns the character {@code ahead} positions after the next one, or -1 at the end */
+  private int peek(int ahead) throws IOException {
+    return fill(ahead + 1) ? buffer[bufferPosition + ahead] : -1;
+  }
+
+  private boolean nextIs(char expected) throws IOException {
+    return peek(0) == expected;
+  }
+
+  /** Consumes the next character, keeping track of its position in the script */
+  private int read() throws IOException {
+    if (!fill(1)) {
+      return -1;
+    }
+
+    char c = buffer[bufferPosition++];
+
+    if (c < 0x80) {
+      byteOffset += 1;
+    } else if (c < 0x800) {
+      byteOffset += 2;
+    } else if (Character.isSurrogate(c)) {
+      // Each half of a surrogate pair accounts for half of its 4 bytes
+      byteOffset += 2;
+    } else {
+      byteOffset += 3;
+    }
+
+    if (c == '\n') {
+      line++;
+      column = 1;
+    } else if (!Character.isLowSurrogate(c)) {
+      column++;
+    }
+
+    return c;
+  }
+
+  private void consume(StringBuilder sink) throws IOException {
+    int c = read();
+    if (c >= 0 && sink != null) {
+      sink.append((char) c);
+    }
+  }
+
+  /**
+   * Consumes whitespace and comments up to the next token.
+   *
+   * @param sink Where to append the consumed characters, or null to drop them
+   * @return Whether there is a token, false if the end of the script was reached
+   */
+  private boolean skipToNextToken(StringBuilder sink) throws IOException {
+    while (true) {
+      int c = peek(0);
+      if (c < 0) {
+        return false;
+      } else if (Character.isWhitespace(c) || c == '\uFEFF') {
+        consume(sink);
+      } else if (c == '#' || (c == '-' && peek(1) == '-')) {
+        skipLineComment(sink);
+      } else if (c == '/' && peek(1) == '*') {
+        consume(sink);
+        consume(sink);
+        skipBlockComment(sink);
+      } else {
+        return true;
+      }
+    }
+  }
+
+  private void skipLineComment(StringBuilder sink) throws IOException {
+    int c;
+    do {
+      c = read();
+      if (c >= 0 && sink != null) {
+        sink.append((char) c);
+      }
+    } while (c >= 0 && c != '\n');
+  }
+
+  private void skipBlockComment(StringBuilder sink) throws IOException {
+    int c;
+    while ((c = read()) >= 0) {
+      if (sink != null) {
+        sink.append((char) c);
+      }
+      if (c == '*' && nextIs('/')) {
+        consume(sink);
+        return;
+      }
+    }
+  }
+
+  /** Reads a statement's characters up to and including its terminating semicolon */
+  private void readStatement(StringBuilder text) throws IOException {
+    blocks.reset();
+    word.setLength(0);
+
+    int c;
+    while ((c = read()) >= 0) {
+      char character = (char) c;
+      text.append(character);
+
+      if (Character.isLetterOrDigit(character) || character == '_') {
+        word.append(character);
+        continue;
+      }
+
+      endWord();
+
+      if (Character.isWhitespace(character)) {
+        continue;
+      }
+
+      if (character == '#' || (character == '-' && nextIs('-'))) {
+        skipLineComment(text);
+      } else if (character == '/' && nextIs('*')) {
+        consume(text);
+        skipBlockComment(text);
+      } else if (character == '\'' || character == '"') {
+        readStringLiteral(character, text);
+        blocks.token();
+      } else if (character == '`') {
+        readQuotedIdentifier(text);
+        blocks.token();
+      } else if (character == ';') {
+        if (blocks.semicolon()) {
+          return;
+        }
+      } else if (character == ':') {
+        blocks.colon();
+      } else {
+        blocks.token();
+      }
+    }
+
+    endWord();
+  }
+
+  private void readStringLiteral(char quote, StringBuilder text) throws IOException {
+    boolean tripleQuoted = false;
+    if (nextIs(quote)) {
+      consume(text);
+      if (!nextIs(quote)) {
+        // Empty string
+        return;
+      }
+      consume(text);
+      tripleQuoted = true;
+    }
+
+    int c;
+    while ((c = read()) >= 0) {
+      text.append((char) c);
+      if (c == '\\') {
+        consume(text);
+      } else if (c == quote) {
+        if (!tripleQuoted) {
+          return;
+        }
+        if (nextIs(quote) && peek(1) == quote) {
+          consume(text);
+          consume(text);
+          return;
+        }
+      }
+    }
+  }
+
+  private void readQuotedIdentifier(StringBuilder text) throws IOException {
+    int c;
+    while ((c = read()) >= 0) {
+      text.append((char) c);
+      if (c == '\\') {
+        consume(text);
+      } else if (c == '`') {
+        return;
+      }
+    }
+  }
+
+  private void endWord() {
+    if (word.length() > 0) {
+      blocks.word(word, 0, word.length());
+      word.setLength(0);
+    }
+  }
+
+  /**
+   * Reader that decodes a UTF-8 file through read-only memory-mapped regions, so that reading
+   * it neither copies it to the heap nor maps all of it at once.
+   */
+  private static final class MappedFileReader extends Reader {
+
+    private static final int REGION_SIZE = 64 * 1024 * 1024;
+
+    /** Bytes in the longest UTF-8 encoded character */
+    private static final int MAX_CHARACTER_BYTES = 4;
+
+    private final FileChannel channel;
+    private final long size;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPORT)
+        .onUnmappableCharacter(CodingErrorAction.REPORT);
+
+    private MappedByteBuffer region;
+    private long regionStart = 0;
+    private boolean finished = false;
+
+    private MappedFileReader(FileChannel channel) throws IOException {
+      this.channel = channel;
+      this.size = channel.size();
+    }
+
+    private boolean isLastRegion() {
+      return regionStart + region.limit() == size;
+    }
+
+    private void mapNextRegion() throws IOException {
+      // The next region starts at the first byte not decoded yet, which may be in the middle of
+      // a character split between regions
+      long position = region == null ? 0 : regionStart + region.position();
+      region = channel.map(MapMode.READ_ONLY, position, Math.min(REGION_SIZE, size - position));
+      regionStart = position;
+    }
+
+    @Override
+    public int read(char[] chars, int offset, int length) throws IOException {
+      if (finished) {
+        return -1;
+      }
+      if (length == 0) {
+        return 0;
+      }
+
+      CharBuffer output = CharBuffer.wrap(chars, offset, length);
+
+      while (output.position() == offset) {
+        if (region == null
+            || (region.remaining() < MAX_CHARACTER_BYTES && !isLastRegion())) {
+          mapNextRegion();
+        }
+
+        boolean endOfInput = isLastRegion();
+        CoderResult result = decoder.decode(region, output, endOfInput);
+        if (result.isError()) {
+          result.throwException();
+        }
+
+        if (endOfInput && !region.hasRemaining() && output.position() == offset) {
+          decoder.flush(output);
+          finished = output.position() == offset;
+          return finished ? -1 : output.position() - offset;
+        }
+      }
+
+      return output.position() - offset;
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+
+  }
+
+}
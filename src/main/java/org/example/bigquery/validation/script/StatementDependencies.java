@@ -0,0 +1,250 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.example.bigquery.validation.script;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.zetasql.parser.ASTNodes.ASTCallStatement;
+import com.google.zetasql.parser.ASTNodes.ASTCreateFunctionStmtBase;
+import com.google.zetasql.parser.ASTNodes.ASTCreateProcedureStatement;
+import com.google.zetasql.parser.ASTNodes.ASTCreateSnapshotTableStatement;
+import com.google.zetasql.parser.ASTNodes.ASTCreateTableStatement;
+import com.google.zetasql.parser.ASTNodes.ASTCreateTableStmtBase;
+import com.google.zetasql.parser.ASTNodes.ASTCreateViewStatementBase;
+import com.google.zetasql.parser.ASTNodes.ASTDeleteStatement;
+import com.google.zetasql.parser.ASTNodes.ASTDropFunctionStatement;
+import com.google.zetasql.parser.ASTNodes.ASTDropMaterializedViewStatement;
+import com.google.zetasql.parser.ASTNodes.ASTDropSnapshotTableStatement;
+import com.google.zetasql.parser.ASTNodes.ASTDropStatement;
+import com.google.zetasql.parser.ASTNodes.ASTDropTableFunctionStatement;
+import com.google.zetasql.parser.ASTNodes.ASTFunctionCall;
+import com.google.zetasql.parser.ASTNodes.ASTGeneralizedPathExpression;
+import com.google.zetasql.parser.ASTNodes.ASTIdentifier;
+import com.google.zetasql.parser.ASTNodes.ASTInsertStatement;
+import com.google.zetasql.parser.ASTNodes.ASTMergeStatement;
+import com.google.zetasql.parser.ASTNodes.ASTPathExpression;
+import com.google.zetasql.parser.ASTNodes.ASTQueryStatement;
+import com.google.zetasql.parser.ASTNodes.ASTScript;
+import com.google.zetasql.parser.ASTNodes.ASTStatement;
+import com.google.zetasql.parser.ASTNodes.ASTTVF;
+import com.google.zetasql.parser.ASTNodes.ASTTablePathExpression;
+import com.google.zetasql.parser.ASTNodes.ASTTruncateStatement;
+import com.google.zetasql.parser.ASTNodes.ASTUpdateStatement;
+import com.google.zetasql.parser.ParseTreeVisitor;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The catalog resources a statement reads and the ones it creates, replaces or drops, used by
+ * {@link ParallelScriptValidator} to tell which statements of a script depend on each other.
+ *
+ * Resources are keyed by kind and by the last part of their name, so {@code dataset.t},
+ * {@code project.dataset.t} and a temp table {@code t} share a key. This over-approximates
+ * dependencies, which only costs parallelism, but never misses one through a differently
+ * qualified name. For the same reason, CTE names and range variables count as reads.
+ *
+ * Statements this class doesn't understand, such as ALTER statements, and texts with more than
+ * one statement are barriers: they depend on every earlier statement that changes the catalog,
+ * and every later statement depends on them.
+ */
+final class StatementDependencies extends ParseTreeVisitor {
+
+  private static final String TABLE = "table:";
+  private static final String FUNCTION = "function:";
+  private static final String PROCEDURE = "procedure:";
+
+  private final Set<String> reads = new HashSet<>();
+  private final Set<String> writes = new HashSet<>();
+  private boolean barrier = false;
+
+  private StatementDependencies() {}
+
+  /**
+   * Collects the dependencies of a parsed statement.
+   *
+   * @param parsed The statement, parsed as a script
+   * @return Its dependencies
+   */
+  static StatementDependencies of(ASTScript parsed) {
+    StatementDependencies dependencies = new StatementDependencies();
+    List<ASTStatement> statements = parsed.getStatementListNode().getStatementList();
+    // Statements are analyzed on their own, so several statements are analyzed like a script
+    dependencies.barrier = statements.size() != 1;
+    for (ASTStatement statement : statements) {
+      if (!dependencies.collectWrites(statement)) {
+        dependencies.barrier = true;
+      }
+      statement.accept(dependencies);
+    }
+    return dependencies;
+  }
+
+  /** The resources the statement resolves names against */
+  ImmutableSet<String> getReads() {
+    return ImmutableSet.copyOf(reads);
+  }
+
+  /** The resources the statement creates, replaces or drops */
+  ImmutableSet<String> getWrites() {
+    return ImmutableSet.copyOf(writes);
+  }
+
+  /** Whether the statement may change the catalog */
+  boolean isWriter() {
+    return barrier || !writes.isEmpty();
+  }
+
+  /** Whether the statement must be ordered after and before every writer */
+  boolean isBarrier() {
+    return barrier;
+  }
+
+  private static String key(String kind, ASTPathExpression path) {
+    List<ASTIdentifier> names = path.getNames();
+    // A quoted identifier can contain a whole path, as in `project.dataset.table`
+    String last = names.get(names.size() - 1).getIdString();
+    return kind + last.substring(last.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+  }
+
+  private void read(String kind, ASTGeneralizedPathExpression path) {
+    if (path instanceof ASTPathExpression) {
+      reads.add(key(kind, (ASTPathExpression) path));
+    }
+  }
+
+  private void write(String kind, ASTPathExpression path) {
+    if (path != null) {
+      writes.add(key(kind, path));
+    }
+  }
+
+  /**
+   * Collects the resources a statement creates, replaces or drops.
+   *
+   * @return Whether the statement's effects on the catalog are fully described by its writes and
+   *     reads, false if it must be treated as a barrier
+   */
+  private boolean collectWrites(ASTStatement statement) {
+    if (statement instanceof ASTQueryStatement
+        || statement instanceof ASTInsertStatement
+        || statement instanceof ASTUpdateStatement
+        || statement instanceof ASTDeleteStatement
+        || statement instanceof ASTMergeStatement
+        || statement instanceof ASTTruncateStatement
+        || statement instanceof ASTCallStatement) {
+      return true;
+    } else if (statement instanceof ASTCreateTableStmtBase) {
+      write(TABLE, ((ASTCreateTableStmtBase) statement).getName());
+    } else if (statement instanceof ASTCreateSnapshotTableStatement) {
+      write(TABLE, ((ASTCreateSnapshotTableStatement) statement).getName());
+    } else if (statement instanceof ASTCreateViewStatementBase) {
+      write(TABLE, ((ASTCreateViewStatementBase) statement).getName());
+    } else if (statement instanceof ASTCreateFunctionStmtBase) {
+      write(
+          FUNCTION,
+          ((ASTCreateFunctionStmtBase) statement).getFunctionDeclaration().getName());
+    } else if (statement instanceof ASTCreateProcedureStatement) {
+      write(PROCEDURE, ((ASTCreateProcedureStatement) statement).getName());
+    } else if (statement instanceof ASTDropStatement) {
+      // The kind of the dropped resource doesn't matter, so all kinds are written
+      ASTPathExpression name = ((ASTDropStatement) statement).getName();
+      write(TABLE, name);
+      write(FUNCTION, name);
+      write(PROCEDURE, name);
+    } else if (statement instanceof ASTDropFunctionStatement) {
+      write(FUNCTION, ((ASTDropFunctionStatement) statement).getName());
+    } else if (statement instanceof ASTDropTableFunctionStatement) {
+      write(FUNCTION, ((ASTDropTableFunctionStatement) statement).getName());
+    } else if (statement instanceof ASTDropMaterializedViewStatement) {
+      write(TABLE, ((ASTDropMaterializedViewStatement) statement).getName());
+    } else if (statement instanceof ASTDropSnapshotTableStatement) {
+      write(TABLE, ((ASTDropSnapshotTableStatement) statement).getName());
+    } else {
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public void visit(ASTTablePathExpression node) {
+    read(TABLE, node.getPathExpr());
+    super.visit(node);
+  }
+
+  @Override
+  public void visit(ASTFunctionCall node) {
+    read(FUNCTION, node.getFunction());
+    super.visit(node);
+  }
+
+  @Override
+  public void visit(ASTTVF node) {
+    read(FUNCTION, node.getName());
+    super.visit(node);
+  }
+
+  @Override
+  public void visit(ASTCallStatement node) {
+    read(PROCEDURE, node.getProcedureName());
+    super.visit(node);
+  }
+
+  @Override
+  public void visit(ASTInsertStatement node) {
+    read(TABLE, node.getTargetPath());
+    super.visit(node);
+  }
+
+  @Override
+  public void visit(ASTUpdateStatement node) {
+    read(TABLE, node.getTargetPath());
+    super.visit(node);
+  }
+
+  @Override
+  public void visit(ASTDeleteStatement node) {
+    read(TABLE, node.getTargetPath());
+    super.visit(node);
+  }
+
+  @Override
+  public void visit(ASTMergeStatement node) {
+    read(TABLE, node.getTargetPath());
+    super.visit(node);
+  }
+
+  @Override
+  public void visit(ASTTruncateStatement node) {
+    read(TABLE, node.getTargetPath());
+    super.visit(node);
+  }
+
+  @Override
+  public void visit(ASTCreateTableStatement node) {
+    read(TABLE, node.getLikeTableName());
+    if (node.getCloneDataSource() != null) {
+      read(TABLE, node.getCloneDataSource().getPathExpr());
+    }
+    if (node.getCopyDataSource() != null) {
+      read(TABLE, node.getCopyDataSource().getPathExpr());
+    }
+    super.visit(node);
+  }
+
+}
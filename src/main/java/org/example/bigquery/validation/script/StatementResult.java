@@ -0,0 +1,153 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.script;
+
+import com.google.zetasql.SqlException;
+import java.util.Optional;
+import org.example.bigquery.validation.batch.ErrorLocation;
+import org.example.bigquery.validation.batch.ValidationStatus;
+
+/**
+ * The outcome of validating a single statement of a script.
+ *
+ * Like {@link org.example.bigquery.validation.batch.ValidationResult}, results never keep the
+ * parsed or resolved tree. Error locations are relative to the whole script.
+ */
+public final class StatementResult {
+
+  private final ScriptStatement statement;
+  private final boolean analyzed;
+  private final ValidationStatus status;
+  private final String errorMessage;
+  // Relative to the statement, kept to relocate the result when the statement moves
+  private final ErrorLocation statementErrorLocation;
+  private final boolean cascading;
+
+  private StatementResult(
+      ScriptStatement statement,
+      boolean analyzed,
+      ValidationStatus status,
+      String errorMessage,
+      ErrorLocation statementErrorLocation,
+      boolean cascading) {
+    this.statement = statement;
+    this.analyzed = analyzed;
+    this.status = status;
+    this.errorMessage = errorMessage;
+    this.statementErrorLocation = statementErrorLocation;
+    this.cascading = cascading;
+  }
+
+  public static StatementResult valid(ScriptStatement statement, boolean analyzed) {
+    return new StatementResult(statement, analyzed, ValidationStatus.VALID, null, null, false);
+  }
+
+  public static StatementResult invalid(
+      ScriptStatement statement, boolean analyzed, SqlException error) {
+    ErrorLocation location = ErrorLocation.fromSqlException(error).orElse(null);
+    return new StatementResult(
+        statement, analyzed, ValidationStatus.INVALID, error.getMessage(), location, false);
+  }
+
+  /**
+   * Creates the result of a statement that failed without a ZetaSQL error, e.g. because it
+   * couldn't be applied to the catalog. There's no error location.
+   */
+  public static StatementResult invalid(
+      ScriptStatement statement, boolean analyzed, String errorMessage) {
+    return new StatementResult(
+        statement, analyzed, ValidationStatus.INVALID, errorMessage, null, false);
+  }
+
+  /** Creates the result of a statement whose validation was abandoned after its deadline */
+  public static StatementResult timedOut(
+      ScriptStatement statement, boolean analyzed, String errorMessage) {
+    return new StatementResult(
+        statement, analyzed, ValidationStatus.TIMED_OUT, errorMessage, null, false);
+  }
+
+  /** Creates the result of a statement rejected by a size limit before validation */
+  public static StatementResult rejected(ScriptStatement statement, String errorMessage) {
+    return new StatementResult(
+        statement, false, ValidationStatus.REJECTED, errorMessage, null, false);
+  }
+
+  /**
+   * Returns the same result for the same statement text at another position in the script, e.g.
+   * after an edit earlier in the script moved it.
+   */
+  StatementResult relocate(ScriptStatement movedStatement) {
+    return new StatementResult(
+        movedStatement, analyzed, status, errorMessage, statementErrorLocation, cascading);
+  }
+
+  /** Returns the same result, marked as caused by an earlier invalid statement */
+  StatementResult asCascading() {
+    return new StatementResult(
+        statement, analyzed, status, errorMessage, statementErrorLocation, true);
+  }
+
+  public ScriptStatement getStatement() {
+    return statement;
+  }
+
+  /**
+   * Whether the statement went through semantic analysis. Statements are only parsed when
+   * validating syntax, when they have syntax errors and when they are scripting statements,
+   * such as DECLARE or IF, which the analyzer does not support.
+   */
+  public boolean isAnalyzed() {
+    return analyzed;
+  }
+
+  public ValidationStatus getStatus() {
+    return status;
+  }
+
+  /** Whether the statement is valid. Timed out and rejected statements are not. */
+  public boolean isValid() {
+    return status == ValidationStatus.VALID;
+  }
+
+  /**
+   * Whether the statement is only invalid because it references a resource that an earlier,
+   * invalid statement of the script creates. Fixing that statement fixes this one too.
+   */
+  public boolean isCascading() {
+    return cascading;
+  }
+
+  public Optional<String> getErrorMessage() {
+    return Optional.ofNullable(errorMessage);
+  }
+
+  /** The location of the error in the script, if ZetaSQL reported one */
+  public Optional<ErrorLocation> getErrorLocation() {
+    return Optional.ofNullable(statementErrorLocation).map(statement::toScriptLocation);
+  }
+
+  @Override
+  public String toString() {
+    if (isValid()) {
+      return String.format("%s: valid", statement);
+    }
+    return String.format(
+        "%s: %s%s - %s",
+        statement, status.getLabel(), cascading ? " (cascading)" : "", errorMessage);
+  }
+
+}
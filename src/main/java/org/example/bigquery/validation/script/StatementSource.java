@@ -0,0 +1,45 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.script;
+
+import java.io.IOException;
+
+/**
+ * The statements of a script, in order, as the script validators read them: from a
+ * {@link ScriptStatementReader} for scripts streamed from files or streams, or from a
+ * {@link ScriptSplitter} for scripts already in memory.
+ */
+interface StatementSource {
+
+  /**
+   * @return The next statement of the script, or null if there are no more
+   * @throws IOException if the script cannot be read
+   */
+  ScriptStatement next() throws IOException;
+
+  /**
+   * Appends the next statement of the script to the statement last returned by this source,
+   * when the parser finds it was cut short.
+   *
+   * @param statement The statement last returned by {@link #next()} or this method
+   * @return The extended statement, which keeps the original's index and position, or null if
+   *     there are no more statements
+   * @throws IOException if the script cannot be read
+   */
+  ScriptStatement extend(ScriptStatement statement) throws IOException;
+
+}
@@ -0,0 +1,438 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.script;
+
+import com.google.zetasql.AnalyzerOptions;
+import com.google.zetasql.LanguageOptions;
+import com.google.zetasql.Parser;
+import com.google.zetasql.SqlException;
+import com.google.zetasql.parser.ASTNodes.ASTCreateFunctionStmtBase;
+import com.google.zetasql.parser.ASTNodes.ASTCreateProcedureStatement;
+import com.google.zetasql.parser.ASTNodes.ASTCreateTableStmtBase;
+import com.google.zetasql.parser.ASTNodes.ASTCreateViewStatementBase;
+import com.google.zetasql.parser.ASTNodes.ASTIdentifier;
+import com.google.zetasql.parser.ASTNodes.ASTPathExpression;
+import com.google.zetasql.parser.ASTNodes.ASTScript;
+import com.google.zetasql.parser.ASTNodes.ASTScriptStatement;
+import com.google.zetasql.parser.ASTNodes.ASTStatement;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedStatement;
+import com.google.zetasql.toolkit.CatalogUpdates;
+import com.google.zetasql.toolkit.ZetaSQLToolkitAnalyzer;
+import com.google.zetasql.toolkit.catalog.CatalogWrapper;
+import com.google.zetasql.toolkit.catalog.exceptions.CatalogException;
+import com.google.zetasql.toolkit.options.BigQueryLanguageOptions;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.example.bigquery.validation.batch.BatchValidationStats;
+import org.example.bigquery.validation.guard.DeadlineExceededException;
+import org.example.bigquery.validation.guard.StatementGuard;
+import org.example.bigquery.validation.metrics.CatalogSizes;
+import org.example.bigquery.validation.metrics.ErrorClasses;
+import org.example.bigquery.validation.metrics.InMemoryValidationMetrics;
+import org.example.bigquery.validation.metrics.InstrumentedCatalogWrapper;
+import org.example.bigquery.validation.metrics.Phase;
+import org.example.bigquery.validation.metrics.ValidationMetrics;
+
+/**
+ * Validates a SQL script statement by statement as it's read, delivering one
+ * {@link StatementResult} per statement.
+ *
+ * Parsing the whole script with {@link Parser#parseScript} or walking it with a
+ * {@link com.google.zetasql.ParseResumeLocation} requires the whole script as a single String,
+ * and every call sends that String to the ZetaSQL local service. Here, each statement is parsed
+ * and analyzed on its own, so the cost of validating a script grows linearly with its size and
+ * memory use only depends on the size of its largest statement.
+ *
+ * When created with a catalog, statements are also analyzed, and DDL statements are applied to
+ * that catalog so that later statements see their effects. Use a
+ * {@link org.example.bigquery.validation.catalog.CatalogOverlay} to keep the original catalog
+ * untouched. Scripting statements, such as DECLARE, IF or BEGIN...END blocks, are only parsed.
+ *
+ * Invalid statements don't stop validation, so a single pass reports every error in a script,
+ * each with its line and column. When a statement that creates a resource fails, the resource
+ * is remembered as missing; later statements that fail only because they can't find it are
+ * reported as cascading errors (see {@link StatementResult#isCascading()}), which go away once
+ * the failed statement is fixed.
+ *
+ * With a {@link StatementGuard}, statements over its limits are rejected without being parsed,
+ * and statements whose parsing or analysis exceeds its deadline are reported as timed out. Both
+ * count as failed statements for the rest of the script.
+ */
+public class StreamingScriptValidator {
+
+  /**
+   * Statements are not extended past this length. Beyond it, an incomplete statement is most
+   * likely an unterminated block that would otherwise swallow the rest of the script.
+   */
+  static final int MAX_STATEMENT_LENGTH = 16 * 1024 * 1024;
+
+  /** Syntax errors meaning the statement ended before its closing END */
+  private static final Pattern INCOMPLETE_STATEMENT_ERROR =
+      Pattern.compile("end of (script|statement)|Expected (keyword )?END");
+
+  /** Errors for resources missing from the catalog, capturing the resource's name */
+  private static final Pattern NOT_FOUND_ERROR = Pattern.compile(
+      "(?:Table|Function|Table-valued function|Procedure) not found: ([^\\s;]+)");
+
+  private final LanguageOptions languageOptions;
+  private final ZetaSQLToolkitAnalyzer analyzer;
+  private final CatalogWrapper catalog;
+  private final ValidationMetrics metrics;
+  private final StatementGuard guard;
+
+  /**
+   * Creates a validator that only validates syntax.
+   *
+   * @param languageOptions The LanguageOptions to parse statements with
+   */
+  public StreamingScriptValidator(LanguageOptions languageOptions) {
+    this(languageOptions, ValidationMetrics.NOOP);
+  }
+
+  /**
+   * Creates a validator that only validates syntax.
+   *
+   * @param languageOptions The LanguageOptions to parse statements with
+   * @param metrics Receives the parse latency, result and error class of every statement
+   */
+  public StreamingScriptValidator(LanguageOptions languageOptions, ValidationMetrics metrics) {
+    this.languageOptions = languageOptions;
+    this.analyzer = null;
+    this.catalog = null;
+    this.metrics = metrics;
+    this.guard = StatementGuard.NONE;
+  }
+
+  /**
+   * Creates a validator that parses and analyzes statements.
+   *
+   * @param analyzerOptions The AnalyzerOptions to analyze statements with
+   * @param catalog The catalog to analyze statements against. DDL statements modify it.
+   */
+  public StreamingScriptValidator(AnalyzerOptions analyzerOptions, CatalogWrapper catalog) {
+    this(analyzerOptions, catalog, ValidationMetrics.NOOP);
+  }
+
+  /**
+   * Creates a validator that parses and analyzes statements.
+   *
+   * @param analyzerOptions The AnalyzerOptions to analyze statements with
+   * @param catalog The catalog to analyze statements against. DDL statements modify it.
+   * @param metrics Receives the latency of every phase, the result and error class of every
+   *     statement, and the size of the catalog before and after each script
+   */
+  public StreamingScriptValidator(AnalyzerOptions analyzerOptions, CatalogWrapper catalog,
+      ValidationMetrics metrics) {
+    this(analyzerOptions, catalog, metrics, StatementGuard.NONE);
+  }
+
+  /**
+   * Creates a validator that parses and analyzes statements, protected by a guard.
+   *
+   * @param analyzerOptions The AnalyzerOptions to analyze statements with
+   * @param catalog The catalog to analyze statements against. DDL statements modify it.
+   * @param metrics Receives the latency of every phase, the result and error class of every
+   *     statement, and the size of the catalog before and after each script
+   * @param guard Checks every statement before it's parsed, and sets the deadline of each
+   *     parse and analysis
+   */
+  public StreamingScriptValidator(AnalyzerOptions analyzerOptions, CatalogWrapper catalog,
+      ValidationMetrics metrics, StatementGuard guard) {
+    this.languageOptions = analyzerOptions.getLanguageOptions();
+    this.analyzer = new ZetaSQLToolkitAnalyzer(analyzerOptions);
+    this.catalog = metrics == ValidationMetrics.NOOP
+        ? catalog
+        : new InstrumentedCatalogWrapper(catalog, metrics);
+    this.metrics = metrics;
+    this.guard = guard;
+  }
+
+  /**
+   * Validates a script file, reading it through memory-mapped regions.
+   *
+   * @param script The path to the script
+   * @param consumer Receives the result for each statement, in script order
+   * @return The stats for the run, where each statement counts as a query
+   * @throws IOException if the script cannot be read
+   */
+  public BatchValidationStats validate(Path script, Consumer<StatementResult> consumer)
+      throws IOException {
+    try (ScriptStatementReader reader = ScriptStatementReader.open(script)) {
+      return validate(reader, consumer);
+    }
+  }
+
+  /**
+   * Validates a UTF-8 encoded script read from a stream. The stream is not closed.
+   *
+   * @param script The stream to read the script from
+   * @param consumer Receives the result for each statement, in script order
+   * @return The stats for the run, where each statement counts as a query
+   * @throws IOException if the script cannot be read
+   */
+  public BatchValidationStats validate(InputStream script, Consumer<StatementResult> consumer)
+      throws IOException {
+    return validate(new ScriptStatementReader(script), consumer);
+  }
+
+  /**
+   * Validates a script held in memory, splitting it with a {@link ScriptSplitter}.
+   *
+   * @param script The script
+   * @param consumer Receives the result for each statement, in script order
+   * @return The stats for the run, where each statement counts as a query
+   */
+  public BatchValidationStats validate(String script, Consumer<StatementResult> consumer) {
+    try {
+      return validateStatements(ScriptSplitter.split(script).cursor(0, 0), consumer);
+    } catch (IOException e) {
+      // Reading from a String never fails
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Validates the remaining statements of a reader.
+   *
+   * @param reader The reader to read statements from
+   * @param consumer Receives the result for each statement, in script order
+   * @return The stats for the run, where each statement counts as a query
+   * @throws IOException if the script cannot be read
+   */
+  public BatchValidationStats validate(
+      ScriptStatementReader reader, Consumer<StatementResult> consumer) throws IOException {
+    return validateStatements(reader, consumer);
+  }
+
+  private BatchValidationStats validateStatements(
+      StatementSource reader, Consumer<StatementResult> consumer) throws IOException {
+    long startTime = System.nanoTime();
+    long validCount = 0;
+    long invalidCount = 0;
+    recordCatalogSize();
+
+    // Lowercase names of the resources created by invalid statements
+    Set<String> failedCreations = new HashSet<>();
+
+    ScriptStatement statement;
+    while ((statement = reader.next()) != null) {
+      StatementResult result = validateStatement(reader, statement, failedCreations);
+      if (result.isValid()) {
+        validCount++;
+      } else {
+        invalidCount++;
+      }
+      consumer.accept(result);
+    }
+
+    recordCatalogSize();
+    return new BatchValidationStats(
+        validCount, invalidCount, Duration.ofNanos(System.nanoTime() - startTime));
+  }
+
+  private void recordCatalogSize() {
+    if (catalog != null) {
+      CatalogSizes.record(catalog.getZetaSQLCatalog(), metrics);
+    }
+  }
+
+  static boolean isIncomplete(SqlException error) {
+    return error.getMessage() != null
+        && INCOMPLETE_STATEMENT_ERROR.matcher(error.getMessage()).find();
+  }
+
+  static boolean containsScriptingStatements(ASTScript script) {
+    return script.getStatementListNode().getStatementList().stream()
+        .anyMatch(statement -> statement instanceof ASTScriptStatement);
+  }
+
+  /**
+   * Analyzes the statements in a text in place, applying all their changes to the catalog. The
+   * toolkit's analyzer applies each statement's changes when the next one is requested, so the
+   * last statement's are applied here.
+   *
+   * @return The resolved statements, in order
+   * @throws SqlException if a statement is invalid
+   * @throws CatalogException if a statement's changes can't be applied to the catalog
+   */
+  static List<ResolvedStatement> analyzeInPlace(
+      ZetaSQLToolkitAnalyzer analyzer, String text, CatalogWrapper catalog) {
+    List<ResolvedStatement> resolvedStatements = new ArrayList<>();
+    analyzer.analyzeStatements(text, catalog, true).forEachRemaining(resolvedStatements::add);
+    if (!resolvedStatements.isEmpty()) {
+      CatalogUpdates.apply(resolvedStatements.get(resolvedStatements.size() - 1), catalog);
+    }
+    return resolvedStatements;
+  }
+
+  /**
+   * The lowercase name of the resource a statement creates, or null if it isn't a CREATE
+   * statement
+   */
+  static String createdResourceName(ASTScript parsed) {
+    List<ASTStatement> statements = parsed.getStatementListNode().getStatementList();
+    if (statements.size() != 1) {
+      return null;
+    }
+
+    ASTStatement statement = statements.get(0);
+    ASTPathExpression name = null;
+    if (statement instanceof ASTCreateTableStmtBase) {
+      name = ((ASTCreateTableStmtBase) statement).getName();
+    } else if (statement instanceof ASTCreateViewStatementBase) {
+      name = ((ASTCreateViewStatementBase) statement).getName();
+    } else if (statement instanceof ASTCreateFunctionStmtBase) {
+      name = ((ASTCreateFunctionStmtBase) statement).getFunctionDeclaration().getName();
+    } else if (statement instanceof ASTCreateProcedureStatement) {
+      name = ((ASTCreateProcedureStatement) statement).getName();
+    }
+
+    return name == null
+        ? null
+        : name.getNames().stream()
+            .map(ASTIdentifier::getIdString)
+            .collect(Collectors.joining("."))
+            .toLowerCase(Locale.ROOT);
+  }
+
+  /** Whether an error is only about a resource that an earlier invalid statement creates */
+  static boolean isCascading(String errorMessage, Set<String> failedCreations) {
+    if (errorMessage == null || failedCreations.isEmpty()) {
+      return false;
+    }
+    Matcher matcher = NOT_FOUND_ERROR.matcher(errorMessage);
+    return matcher.find()
+        && failedCreations.contains(
+            matcher.group(1).replace("`", "").toLowerCase(Locale.ROOT));
+  }
+
+  private StatementResult validateStatement(
+      StatementSource reader, ScriptStatement statement, Set<String> failedCreations)
+      throws IOException {
+    StatementResult result = analyzeStatement(reader, statement, failedCreations);
+    metrics.recordStatement(result.isValid());
+    if (!result.isValid()) {
+      metrics.recordError(ErrorClasses.classify(result.getErrorMessage().orElse(null)));
+    }
+    return result;
+  }
+
+  private StatementResult analyzeStatement(
+      StatementSource reader, ScriptStatement statement, Set<String> failedCreations)
+      throws IOException {
+    ASTScript parsed = null;
+
+    while (parsed == null) {
+      Optional<String> rejection = guard.check(statement.getText());
+      if (rejection.isPresent()) {
+        return StatementResult.rejected(statement, rejection.get());
+      }
+
+      String text = statement.getText();
+      long parseStart = System.nanoTime();
+      try {
+        parsed = guard.call(() -> Parser.parseScript(text, languageOptions));
+      } catch (DeadlineExceededException error) {
+        metrics.recordTimeout(Phase.PARSE);
+        return StatementResult.timedOut(statement, false, error.getMessage());
+      } catch (SqlException error) {
+        ScriptStatement extended =
+            isIncomplete(error) && statement.getText().length() < MAX_STATEMENT_LENGTH
+                ? reader.extend(statement)
+                : null;
+        if (extended == null) {
+          return StatementResult.invalid(statement, false, error);
+        }
+        statement = extended;
+      } finally {
+        metrics.recordLatency(Phase.PARSE, System.nanoTime() - parseStart);
+      }
+    }
+
+    if (analyzer == null || containsScriptingStatements(parsed)) {
+      return StatementResult.valid(statement, false);
+    }
+
+    String createdResource = createdResourceName(parsed);
+    StatementResult result;
+    long analyzeStart = System.nanoTime();
+    String text = statement.getText();
+    try {
+      guard.call(() -> analyzeInPlace(analyzer, text, catalog));
+      result = StatementResult.valid(statement, true);
+    } catch (DeadlineExceededException error) {
+      metrics.recordTimeout(Phase.ANALYZE);
+      result = StatementResult.timedOut(statement, true, error.getMessage());
+    } catch (SqlException error) {
+      result = StatementResult.invalid(statement, true, error);
+    } catch (CatalogException error) {
+      result = StatementResult.invalid(statement, true, error.getMessage());
+    } finally {
+      metrics.recordLatency(Phase.ANALYZE, System.nanoTime() - analyzeStart);
+    }
+
+    if (createdResource != null) {
+      if (result.isValid()) {
+        failedCreations.remove(createdResource);
+      } else {
+        failedCreations.add(createdResource);
+      }
+    }
+    if (isCascading(result.getErrorMessage().orElse(null), failedCreations)) {
+      result = result.asCascading();
+    }
+    return result;
+  }
+
+  public static void main(String[] args) throws IOException {
+    Path script = Paths.get(args[0]);
+
+    InMemoryValidationMetrics metrics = new InMemoryValidationMetrics();
+    StreamingScriptValidator validator =
+        new StreamingScriptValidator(BigQueryLanguageOptions.get(), metrics);
+
+    BatchValidationStats stats = validator.validate(script, result -> {
+      if (!result.isValid()) {
+        System.out.printf(
+            "Statement %d at %s: %s%n",
+            result.getStatement().getIndex(),
+            result.getErrorLocation()
+                .map(Object::toString)
+                .orElse(result.getStatement().getLine() + ":" + result.getStatement().getColumn()),
+            result.getErrorMessage().orElse(""));
+      }
+    });
+
+    System.out.println(stats);
+    System.out.print(metrics.toPrometheusText());
+  }
+
+}
@@ -44,7 +44,8 @@ public class F_BuildingACatalogForBigQuery {
     // will connect to the BigQuery API using application-default credentials to access BigQuery
     // resources.
     // You can also provide your own BigQuery API client or a custom implementation of
-    // BigQueryResourceProvider.
+    // BigQueryResourceProvider; such as the CatalogSnapshotResourceProvider, which reads
+    // resources from an offline snapshot file instead of calling the BigQuery API.
     BigQueryCatalog catalog = new BigQueryCatalog("bigquery-public-data");
 
     // Step 2: Add tables to the catalog before analyzing
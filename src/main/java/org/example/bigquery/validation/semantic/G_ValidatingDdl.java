@@ -23,6 +23,8 @@ import com.google.zetasql.toolkit.ZetaSQLToolkitAnalyzer;
 import com.google.zetasql.toolkit.catalog.bigquery.BigQueryCatalog;
 import com.google.zetasql.toolkit.options.BigQueryLanguageOptions;
 import java.util.Iterator;
+import org.example.bigquery.validation.catalog.CatalogOverlay;
+import org.example.bigquery.validation.script.StreamingScriptValidator;
 
 /**
  * ZetaSQL can also be used to validate SQL scripts that contain DDL statements, which BigQuery
@@ -31,6 +33,10 @@ import java.util.Iterator;
  * Using the zetasql-toolkit, analyzing a DDL statement will perform semantic validation and
  * update the catalog accordingly. This allows validating queries that, for example, create a temp
  * table and later query it.
+ *
+ * The analyzer stops at the first invalid statement. To find every error in a script in a single
+ * pass, validate it with a {@link StreamingScriptValidator}, which analyzes statements one at a
+ * time and keeps going after errors.
  */
 public class G_ValidatingDdl {
 
@@ -54,12 +60,39 @@ public class G_ValidatingDdl {
 
     // Iterating the analyzed statements will lazily run the analyzer and update the catalog
     // when necessary
+    // analyzeStatements works on a copy of the catalog by default, so the temp table is not
+    // added to the original catalog. When validating many scripts against a large catalog, a
+    // CatalogOverlay avoids copying the whole catalog for each of them.
     try {
       statementIterator.forEachRemaining(statement -> System.out.println(statement.debugString()));
     } catch(SqlException error) {
       System.out.printf("Invalid script: %s\n\n", error.getMessage());
     }
 
+    // This script has three errors: the first SELECT filters on a column that doesn't exist,
+    // the second CREATE sums a column that doesn't exist, and the last SELECT calls a function
+    // that doesn't exist. The SELECT from totals also fails, but only because totals could not
+    // be created, so it's reported as a cascading error.
+    String scriptWithErrors =
+        "CREATE TEMP TABLE t AS (SELECT 1 AS column UNION ALL SELECT 2 AS column);\n"
+            + "SELECT * FROM t WHERE column2 = 5;\n"
+            + "CREATE TEMP TABLE totals AS SELECT SUM(amount) AS total FROM t;\n"
+            + "SELECT total FROM totals;\n"
+            + "SELECT UNKNOWN_FUNCTION(column) FROM t;";
+
+    StreamingScriptValidator validator = new StreamingScriptValidator(
+        options, new CatalogOverlay("bigquery-public-data", catalog.getZetaSQLCatalog()));
+
+    validator.validate(scriptWithErrors, result -> {
+      if (!result.isValid()) {
+        System.out.printf(
+            "%s at %s: %s\n",
+            result.isCascading() ? "Cascading error" : "Error",
+            result.getErrorLocation().map(Object::toString).orElse("?"),
+            result.getErrorMessage().orElse(""));
+      }
+    });
+
   }
 
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.example.bigquery.validation.service;
+
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits how many requests use the ZetaSQL local service at once, and how many may wait for it.
+ *
+ * Every parse or analysis call ends up in the native analyzer, whose throughput is bounded by
+ * the number of cores. Accepting more concurrent work than that only makes every request slower
+ * and grows memory with queued requests. Requests beyond {@code maxConcurrent} wait for a permit
+ * for at most {@code maxWait}; requests beyond {@code maxQueued} waiting ones are rejected right
+ * away, so that clients back off instead of piling up.
+ */
+public class AdmissionController {
+
+  private static final String PREFIX = "bigquery_validation_";
+
+  private final Semaphore permits;
+  private final int maxConcurrent;
+  private final int maxQueued;
+  private final long maxWaitNanos;
+  private final AtomicInteger queued = new AtomicInteger();
+  private final LongAdder admitted = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+
+  /**
+   * @param maxConcurrent The number of requests allowed to run at once
+   * @param maxQueued The number of requests allowed to wait for a permit
+   * @param maxWait How long a request may wait for a permit before being rejected
+   */
+  public AdmissionController(int maxConcurrent, int maxQueued, Duration maxWait) {
+    Preconditions.checkArgument(maxConcurrent > 0, "maxConcurrent must be positive");
+    Preconditions.checkArgument(maxQueued >= 0, "maxQueued must not be negative");
+    this.permits = new Semaphore(maxConcurrent, true);
+    this.maxConcurrent = maxConcurrent;
+    this.maxQueued = maxQueued;
+    this.maxWaitNanos = maxWait.toNanos();
+  }
+
+  /**
+   * Waits for a permit to run a request. Every successful call must be followed by a call to
+   * {@link #release()}.
+   *
+   * @return Whether the request was admitted, false if it must be rejected
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public boolean tryAcquire() throws InterruptedException {
+    if (!permits.tryAcquire()) {
+      if (queued.incrementAndGet() > maxQueued) {
+        queued.decrementAndGet();
+        rejected.increment();
+        return false;
+      }
+      try {
+        if (!permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS)) {
+          rejected.increment();
+          return false;
+        }
+      } finally {
+        queued.decrementAndGet();
+      }
+    }
+    admitted.increment();
+    return true;
+  }
+
+  /** Releases the permit of an admitted request */
+  public void release() {
+    permits.release();
+  }
+
+  /** The number of requests currently running */
+  public int getInFlightCount() {
+    return maxConcurrent - permits.availablePermits();
+  }
+
+  /** The number of requests currently waiting for a permit */
+  public int getQueuedCount() {
+    return queued.get();
+  }
+
+  public long getAdmittedCount() {
+    return admitted.sum();
+  }
+
+  public long getRejectedCount() {
+    return rejected.sum();
+  }
+
+  /**
+   * Writes the admission gauges and counters in the Prometheus text exposition format.
+   *
+   * @param out Where to write the metrics
+   * @throws IOException if writing to {@code out} fails
+   */
+  public void writePrometheusText(Appendable out) throws IOException {
+    writeMetric(out, "requests_in_flight", "gauge", "Requests currently running",
+        getInFlightCount());
+    writeMetric(out, "requests_queued", "gauge", "Requests waiting for admission",
+        getQueuedCount());
+    writeMetric(out, "requests_admitted_total", "counter", "Requests admitted",
+        getAdmittedCount());
+    writeMetric(out, "requests_rejected_total", "counter", "Requests rejected by admission",
+        getRejectedCount());
+  }
+
+  private static void writeMetric(Appendable out, String name, String type, String help,
+      long value) throws IOException {
+    out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+    out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    out.append(PREFIX).append(name).append(' ').append(Long.toString(value)).append('\n');
+  }
+
+}
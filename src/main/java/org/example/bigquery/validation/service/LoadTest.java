@@ -0,0 +1,190 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.example.bigquery.validation.service;
+
+import com.google.zetasql.AnalyzerOptions;
+import com.google.zetasql.SimpleCatalog;
+import com.google.zetasql.ZetaSQLBuiltinFunctionOptions;
+import com.google.zetasql.toolkit.options.BigQueryLanguageOptions;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.example.bigquery.validation.metrics.InMemoryValidationMetrics;
+
+/**
+ * Measures the latency distribution and throughput of a {@link ValidationServer} under a fixed
+ * number of concurrent clients, each sending its next request as soon as the previous one is
+ * answered. A client that gets a 503 waits for the {@code Retry-After} the server asks for, or
+ * backs off exponentially up to {@link #MAX_BACKOFF} without one, before trying again.
+ *
+ * Usage: {@code LoadTest <concurrency> <seconds> [url]}. Without a URL, the test starts a
+ * server on a free port in the same JVM, with only the builtin functions in its catalog, and
+ * analyzes queries that use them.
+ */
+public class LoadTest {
+
+  private static final Duration MIN_BACKOFF = Duration.ofMillis(10);
+  private static final Duration MAX_BACKOFF = Duration.ofSeconds(1);
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 2 || args.length > 3) {
+      System.err.println("Usage: LoadTest <concurrency> <seconds> [url]");
+      System.exit(1);
+    }
+
+    int concurrency = Integer.parseInt(args[0]);
+    Duration duration = Duration.ofSeconds(Long.parseLong(args[1]));
+
+    if (args.length == 3) {
+      run(URI.create(args[2]), concurrency, duration);
+      return;
+    }
+
+    AnalyzerOptions options = new AnalyzerOptions();
+    options.setLanguageOptions(BigQueryLanguageOptions.get());
+    SimpleCatalog catalog = new SimpleCatalog("catalog");
+    catalog.addZetaSQLFunctionsAndTypes(
+        new ZetaSQLBuiltinFunctionOptions(BigQueryLanguageOptions.get()));
+
+    int cores = Runtime.getRuntime().availableProcessors();
+    InMemoryValidationMetrics metrics = new InMemoryValidationMetrics();
+    try (ValidationService service =
+            new ValidationService(options, catalog, "project", metrics);
+        ValidationServer server = new ValidationServer(
+            0, service,
+            new AdmissionController(cores * 2, cores * 64, Duration.ofSeconds(2)),
+            metrics, 1 << 20)) {
+      server.start();
+      run(URI.create("http://localhost:" + server.getPort() + "/analyze"),
+          concurrency, duration);
+    }
+  }
+
+  private static void run(URI uri, int concurrency, Duration duration)
+      throws InterruptedException, ExecutionException {
+    HttpClient client = HttpClient.newBuilder()
+        .connectTimeout(Duration.ofSeconds(5))
+        .build();
+    ExecutorService clients = RequestExecutors.newRequestExecutor();
+    AtomicLong rejected = new AtomicLong();
+    AtomicLong failed = new AtomicLong();
+    long startNanos = System.nanoTime();
+    long deadline = startNanos + duration.toNanos();
+
+    List<Future<long[]>> workers = new ArrayList<>();
+    for (int i = 0; i < concurrency; i++) {
+      int worker = i;
+      workers.add(clients.submit(() -> {
+        long[] latencies = new long[1024];
+        int count = 0;
+        int rejections = 0;
+        for (long n = 0; System.nanoTime() < deadline; n++) {
+          HttpRequest request = HttpRequest.newBuilder(uri)
+              .POST(HttpRequest.BodyPublishers.ofString(String.format(
+                  "SELECT %d AS id, UPPER('worker %d') AS name, DATE_ADD(CURRENT_DATE(), "
+                      + "INTERVAL %d DAY) AS day",
+                  n, worker, n % 30)))
+              .build();
+          long startTime = System.nanoTime();
+          try {
+            HttpResponse<Void> response =
+                client.send(request, HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() == 503) {
+              rejected.incrementAndGet();
+              long delay = retryDelay(response, rejections++).toNanos();
+              TimeUnit.NANOSECONDS.sleep(Math.min(delay, deadline - System.nanoTime()));
+              continue;
+            } else if (response.statusCode() != 200) {
+              failed.incrementAndGet();
+              continue;
+            }
+            rejections = 0;
+          } catch (IOException e) {
+            failed.incrementAndGet();
+            continue;
+          }
+          if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+          }
+          latencies[count++] = System.nanoTime() - startTime;
+        }
+        return Arrays.copyOf(latencies, count);
+      }));
+    }
+
+    long[] latencies = new long[0];
+    for (Future<long[]> worker : workers) {
+      long[] workerLatencies = worker.get();
+      int offset = latencies.length;
+      latencies = Arrays.copyOf(latencies, offset + workerLatencies.length);
+      System.arraycopy(workerLatencies, 0, latencies, offset, workerLatencies.length);
+    }
+    double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+    clients.shutdown();
+    Arrays.sort(latencies);
+
+    System.out.printf(
+        "%d clients, %.1f s: %d ok (%.1f/s), %d rejected, %d failed%n",
+        concurrency, elapsedSeconds, latencies.length,
+        latencies.length / elapsedSeconds, rejected.get(), failed.get());
+    if (latencies.length > 0) {
+      System.out.printf(
+          "latency ms: p50 %.2f, p90 %.2f, p99 %.2f, max %.2f%n",
+          percentile(latencies, 0.50), percentile(latencies, 0.90),
+          percentile(latencies, 0.99), latencies[latencies.length - 1] / 1e6);
+    }
+  }
+
+  /**
+   * Returns how long to wait before retrying a rejected request: the {@code Retry-After} delay in
+   * seconds if the server sent one, or an exponential backoff capped at {@link #MAX_BACKOFF}.
+   */
+  private static Duration retryDelay(HttpResponse<?> response, int previousRejections) {
+    Optional<String> retryAfter = response.headers().firstValue("Retry-After");
+    if (retryAfter.isPresent()) {
+      try {
+        long seconds = Long.parseLong(retryAfter.get().trim());
+        if (seconds >= 0) {
+          return Duration.ofSeconds(seconds);
+        }
+      } catch (NumberFormatException e) {
+        // An HTTP date or garbage; fall back to backing off
+      }
+    }
+    Duration backoff = MIN_BACKOFF.multipliedBy(1L << Math.min(previousRejections, 10));
+    return backoff.compareTo(MAX_BACKOFF) < 0 ? backoff : MAX_BACKOFF;
+  }
+
+  private static double percentile(long[] sortedLatencies, double percentile) {
+    int index = (int) Math.ceil(percentile * sortedLatencies.length) - 1;
+    return sortedLatencies[Math.max(index, 0)] / 1e6;
+  }
+
+}
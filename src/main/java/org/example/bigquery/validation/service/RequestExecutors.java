@@ -0,0 +1,38 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.service;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the executor that runs HTTP requests: one virtual thread per request.
+ *
+ * Requests spend most of their time blocked on the ZetaSQL local service or waiting for
+ * admission, which is what virtual threads make cheap; the {@link AdmissionController}, not the
+ * executor, bounds how many requests run at once.
+ */
+final class RequestExecutors {
+
+  private RequestExecutors() {}
+
+  /** @return The executor for requests */
+  static ExecutorService newRequestExecutor() {
+    return Executors.newVirtualThreadPerTaskExecutor();
+  }
+
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.example.bigquery.validation.service;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.zetasql.AnalyzerOptions;
+import com.google.zetasql.SimpleCatalog;
+import com.google.zetasql.toolkit.catalog.bigquery.BigQueryCatalog;
+import com.google.zetasql.toolkit.options.BigQueryLanguageOptions;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+import org.example.bigquery.validation.batch.ValidationResult;
+import org.example.bigquery.validation.catalog.CatalogSnapshotResourceProvider;
+import org.example.bigquery.validation.guard.StatementGuard;
+import org.example.bigquery.validation.metrics.CatalogSizes;
+import org.example.bigquery.validation.metrics.InMemoryValidationMetrics;
+import org.example.bigquery.validation.script.StatementResult;
+import org.example.bigquery.validation.startup.BuiltinFunctionsSnapshot;
+import org.example.bigquery.validation.startup.WarmUp;
+
+/**
+ * A resident HTTP server in front of a {@link ValidationService}, so that clients pay for JVM
+ * startup, loading the ZetaSQL local service and building the catalog once rather than on every
+ * validation.
+ *
+ * Endpoints take the SQL as the raw request body and answer with JSON:
+ * <ul>
+ *   <li>{@code POST /parse}: validates the syntax of a script
+ *   <li>{@code POST /analyze}: analyzes a single statement against the catalog
+ *   <li>{@code POST /script}: validates every statement of a script, applying its DDL
+ *   <li>{@code GET /metrics}: validation and admission metrics in the Prometheus text format
+ *   <li>{@code GET /healthz}: liveness check
+ * </ul>
+ *
+ * Requests run on virtual threads, and go through an {@link AdmissionController} before their
+ * body is read. Rejected requests get a 503 with a {@code Retry-After} header; bodies over the
+ * size limit get a 413, and malformed Content-Length headers a 400.
+ *
+ * Results carry a {@code status} of {@code valid}, {@code invalid}, {@code timed_out} or
+ * {@code rejected}. The last two come from the service's {@link StatementGuard}, configured by
+ * {@link #main} from the {@code bigquery.validation.deadline.millis} and
+ * {@code bigquery.validation.limits.*} system properties.
+ */
+public class ValidationServer implements AutoCloseable {
+
+  private static final int DEFAULT_PORT = 8080;
+  private static final int DEFAULT_MAX_BODY_BYTES = 1 << 20;
+  private static final int WARM_UP_ITERATIONS = 3;
+  private static final Gson GSON = new Gson();
+
+  private final ValidationService service;
+  private final AdmissionController admission;
+  private final InMemoryValidationMetrics metrics;
+  private final int maxBodyBytes;
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  /**
+   * @param port The port to listen on, 0 for any free port
+   * @param service The service handling requests
+   * @param admission Limits the requests running at once
+   * @param metrics The metrics the service records to, exported on {@code /metrics}
+   * @param maxBodyBytes The largest request body accepted
+   * @throws IOException if the server can't bind to the port
+   */
+  public ValidationServer(int port, ValidationService service, AdmissionController admission,
+      InMemoryValidationMetrics metrics, int maxBodyBytes) throws IOException {
+    this.service = service;
+    this.admission = admission;
+    this.metrics = metrics;
+    this.maxBodyBytes = maxBodyBytes;
+    this.executor = RequestExecutors.newRequestExecutor();
+    this.server = HttpServer.create(new InetSocketAddress(port), 0);
+    this.server.setExecutor(executor);
+
+    server.createContext("/parse", exchange -> handleValidation(exchange, this::parse));
+    server.createContext("/analyze", exchange -> handleValidation(exchange, this::analyze));
+    server.createContext("/script", exchange -> handleValidation(exchange, this::script));
+    server.createContext("/metrics", this::handleMetrics);
+    server.createContext("/healthz", exchange -> {
+      if (requireMethod(exchange, "GET")) {
+        respond(exchange, 200, "text/plain; charset=utf-8", "ok\n");
+      }
+    });
+  }
+
+  /** Starts accepting requests */
+  public void start() {
+    server.start();
+  }
+
+  /** The port the server listens on */
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  private JsonObject parse(String query) {
+    return toJson(service.parse(query));
+  }
+
+  private JsonObject analyze(String query) {
+    return toJson(service.analyze(query));
+  }
+
+  private JsonObject script(String script) {
+    List<StatementResult> results = service.validateScript(script);
+
+    JsonArray statements = new JsonArray();
+    int invalidCount = 0;
+    for (StatementResult result : results) {
+      JsonObject statement = new JsonObject();
+      statement.addProperty("index", result.getStatement().getIndex());
+      statement.addProperty("line", result.getStatement().getLine());
+      statement.addProperty("column", result.getStatement().getColumn());
+      statement.addProperty("valid", result.isValid());
+      statement.addProperty("status", result.getStatus().getLabel());
+      if (!result.isValid()) {
+        invalidCount++;
+        statement.addProperty("error", result.getErrorMessage().orElse(null));
+        result.getErrorLocation().ifPresent(location -> {
+          statement.addProperty("errorLine", location.getLine());
+          statement.addProperty("errorColumn", location.getColumn());
+        });
+        statement.addProperty("cascading", result.isCascading());
+      }
+      statements.add(statement);
+    }
+
+    JsonObject response = new JsonObject();
+    response.addProperty("valid", invalidCount == 0);
+    response.addProperty("statementCount", results.size());
+    response.addProperty("invalidCount", invalidCount);
+    response.add("statements", statements);
+    return response;
+  }
+
+  private static JsonObject toJson(ValidationResult result) {
+    JsonObject response = new JsonObject();
+    response.addProperty("valid", result.isValid());
+    response.addProperty("status", result.getStatus().getLabel());
+    if (!result.isValid()) {
+      response.addProperty("error", result.getErrorMessage().orElse(null));
+      result.getErrorLocation().ifPresent(location -> {
+        response.addProperty("line", location.getLine());
+        response.addProperty("column", location.getColumn());
+      });
+    }
+    return response;
+  }
+
+  private void handleValidation(HttpExchange exchange, Function<String, JsonObject> handler)
+      throws IOException {
+    try (exchange) {
+      if (!requireMethod(exchange, "POST")) {
+        return;
+      }
+
+      String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+      long length;
+      try {
+        length = contentLength == null ? 0 : Long.parseLong(contentLength.trim());
+      } catch (NumberFormatException e) {
+        length = -1;
+      }
+      if (length < 0) {
+        respondError(exchange, 400, "Malformed Content-Length header: " + contentLength);
+        return;
+      }
+
+      if (length > maxBodyBytes) {
+        respondError(exchange, 413, "Request body larger than " + maxBodyBytes + " bytes");
+        return;
+      }
+
+      boolean admitted;
+      try {
+        admitted = admission.tryAcquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        admitted = false;
+      }
+      if (!admitted) {
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        respondError(exchange, 503, "Too many requests");
+        return;
+      }
+
+      JsonObject response;
+      try {
+        String body = readBody(exchange.getRequestBody());
+        if (body == null) {
+          respondError(exchange, 413, "Request body larger than " + maxBodyBytes + " bytes");
+          return;
+        }
+        response = handler.apply(body);
+      } catch (RuntimeException e) {
+        respondError(exchange, 500, String.valueOf(e.getMessage()));
+        return;
+      } finally {
+        admission.release();
+      }
+      respond(exchange, 200, "application/json", GSON.toJson(response));
+    }
+  }
+
+  private void handleMetrics(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      if (!requireMethod(exchange, "GET")) {
+        return;
+      }
+      StringBuilder text = new StringBuilder();
+      metrics.writePrometheusText(text);
+      admission.writePrometheusText(text);
+      respond(exchange, 200, "text/plain; version=0.0.4; charset=utf-8", text.toString());
+    }
+  }
+
+  /** Reads the body as UTF-8, or returns null if it's larger than the limit */
+  private String readBody(InputStream input) throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = input.read(buffer)) != -1) {
+      if (body.size() + read > maxBodyBytes) {
+        return null;
+      }
+      body.write(buffer, 0, read);
+    }
+    return body.toString(StandardCharsets.UTF_8);
+  }
+
+  private static boolean requireMethod(HttpExchange exchange, String method) throws IOException {
+    if (exchange.getRequestMethod().equals(method)) {
+      return true;
+    }
+    exchange.getResponseHeaders().set("Allow", method);
+    respondError(exchange, 405, "Method not allowed");
+    return false;
+  }
+
+  private static void respondError(HttpExchange exchange, int status, String message)
+      throws IOException {
+    JsonObject error = new JsonObject();
+    error.addProperty("error", message);
+    respond(exchange, status, "application/json", GSON.toJson(error));
+  }
+
+  private static void respond(HttpExchange exchange, int status, String contentType, String body)
+      throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", contentType);
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream output = exchange.getResponseBody()) {
+      output.write(bytes);
+    }
+  }
+
+  /** Stops accepting requests, waiting up to a second for running ones to finish */
+  @Override
+  public void close() {
+    server.stop(1);
+    executor.shutdownNow();
+  }
+
+  /**
+   * Runs the server until the JVM is stopped. Without a snapshot, the catalog only has the
+   * builtin functions. The server starts listening after a {@link WarmUp}.
+   *
+   * Usage: {@code ValidationServer [port] [<projectId> <snapshotFile>]}
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length > 3 || args.length == 2) {
+      System.err.println("Usage: ValidationServer [port] [<projectId> <snapshotFile>]");
+      System.exit(1);
+    }
+
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+    CompletableFuture<Void> localService = WarmUp.loadLocalServiceAsync();
+
+    AnalyzerOptions options = new AnalyzerOptions();
+    options.setLanguageOptions(BigQueryLanguageOptions.get());
+
+    String projectId;
+    SimpleCatalog catalog;
+    if (args.length == 3) {
+      projectId = args[1];
+      BigQueryCatalog bigQueryCatalog = BuiltinFunctionsSnapshot.newBigQueryCatalog(
+          projectId, CatalogSnapshotResourceProvider.open(Paths.get(args[2])));
+      bigQueryCatalog.addAllTablesInProject(projectId);
+      bigQueryCatalog.addAllFunctionsInProject(projectId);
+      bigQueryCatalog.addAllTVFsInProject(projectId);
+      bigQueryCatalog.addAllProceduresInProject(projectId);
+      catalog = bigQueryCatalog.getZetaSQLCatalog();
+    } else {
+      projectId = "project";
+      catalog = new SimpleCatalog("catalog");
+      BuiltinFunctionsSnapshot.addBigQueryFunctionsAndTypes(catalog);
+    }
+    localService.join();
+
+    int cores = Runtime.getRuntime().availableProcessors();
+    InMemoryValidationMetrics metrics = new InMemoryValidationMetrics();
+    StatementGuard guard = StatementGuard.fromSystemProperties();
+    ValidationService service =
+        new ValidationService(options, catalog, projectId, metrics, guard);
+    AdmissionController admission =
+        new AdmissionController(cores * 2, cores * 64, Duration.ofSeconds(2));
+
+    // Only start listening once warm, so that readiness checks don't pass before then
+    Duration warmUp = WarmUp.run(service, WARM_UP_ITERATIONS);
+    metrics.reset();
+    CatalogSizes.record(catalog, metrics);
+
+    ValidationServer server =
+        new ValidationServer(port, service, admission, metrics, DEFAULT_MAX_BODY_BYTES);
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      server.close();
+      service.close();
+    }));
+    server.start();
+    System.out.printf(
+        "Listening on port %d after a %d ms warm-up (%s)%n",
+        server.getPort(), warmUp.toMillis(), guard);
+  }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.example.bigquery.validation.service;
+
+import com.google.zetasql.AnalyzerOptions;
+import com.google.zetasql.LanguageOptions;
+import com.google.zetasql.Parser;
+import com.google.zetasql.SimpleCatalog;
+import com.google.zetasql.SqlException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+import org.example.bigquery.validation.batch.ValidationResult;
+import org.example.bigquery.validation.catalog.CatalogOverlay;
+import org.example.bigquery.validation.catalog.RegisteredCatalog;
+import org.example.bigquery.validation.guard.DeadlineExceededException;
+import org.example.bigquery.validation.guard.StatementGuard;
+import org.example.bigquery.validation.metrics.CatalogSizes;
+import org.example.bigquery.validation.metrics.ErrorClasses;
+import org.example.bigquery.validation.metrics.Phase;
+import org.example.bigquery.validation.metrics.ValidationMetrics;
+import org.example.bigquery.validation.script.StatementResult;
+import org.example.bigquery.validation.script.StreamingScriptValidator;
+
+/**
+ * The validation operations of a long-running service, sharing everything that is expensive to
+ * build: the options, the catalog and its registration with the ZetaSQL local service.
+ *
+ * The catalog is registered once, so analyzing a statement only sends its id to the local
+ * service. Scripts are validated on their own {@link CatalogOverlay} over the shared catalog, so
+ * their DDL statements never affect other requests. All methods can be called concurrently.
+ *
+ * A {@link StatementGuard} keeps pathological requests from tying up the service: requests over
+ * its limits are rejected before reaching ZetaSQL, and every ZetaSQL call is abandoned once it
+ * exceeds the guard's deadline, so the request answers with a timed out result.
+ */
+public class ValidationService implements AutoCloseable {
+
+  private final AnalyzerOptions options;
+  private final LanguageOptions languageOptions;
+  private final String defaultProjectId;
+  private final RegisteredCatalog catalog;
+  private final ValidationMetrics metrics;
+  private final StatementGuard guard;
+
+  /**
+   * @param options The AnalyzerOptions for every request
+   * @param catalog The catalog to analyze against. Must not be modified while the service runs.
+   * @param defaultProjectId The project unqualified resources belong to, as for the
+   *     BigQueryCatalog the catalog was built with
+   * @param metrics Receives the latency, result and error class of every statement
+   */
+  public ValidationService(AnalyzerOptions options, SimpleCatalog catalog,
+      String defaultProjectId, ValidationMetrics metrics) {
+    this(options, catalog, defaultProjectId, metrics, StatementGuard.NONE);
+  }
+
+  /**
+   * @param options The AnalyzerOptions for every request
+   * @param catalog The catalog to analyze against. Must not be modified while the service runs.
+   * @param defaultProjectId The project unqualified resources belong to, as for the
+   *     BigQueryCatalog the catalog was built with
+   * @param metrics Receives the latency, result and error class of every statement
+   * @param guard The limits and deadline applied to every request. Scripts are checked, and
+   *     get a deadline, statement by statement.
+   */
+  public ValidationService(AnalyzerOptions options, SimpleCatalog catalog,
+      String defaultProjectId, ValidationMetrics metrics, StatementGuard guard) {
+    this.options = options;
+    this.languageOptions = options.getLanguageOptions();
+    this.defaultProjectId = defaultProjectId;
+    this.catalog = new RegisteredCatalog(catalog);
+    this.metrics = metrics;
+    this.guard = guard;
+    CatalogSizes.record(catalog, metrics);
+  }
+
+  /**
+   * Validates the syntax of a script.
+   *
+   * @param query The SQL to parse, one or more statements
+   * @return The result, with index 0
+   */
+  public ValidationResult parse(String query) {
+    return guarded(query, Phase.PARSE, () -> Parser.parseScript(query, languageOptions));
+  }
+
+  /**
+   * Analyzes a single statement against the catalog.
+   *
+   * @param query The statement to analyze
+   * @return The result, with index 0
+   */
+  public ValidationResult analyze(String query) {
+    return guarded(query, Phase.ANALYZE, () -> catalog.analyzeStatement(query, options));
+  }
+
+  /**
+   * Validates every statement of a script, applying its DDL statements to a private overlay of
+   * the catalog.
+   *
+   * @param script The script
+   * @return The result of each statement, in script order
+   */
+  public List<StatementResult> validateScript(String script) {
+    List<StatementResult> results = new ArrayList<>();
+    catalog.withRegisteredCatalog(registeredCatalog -> {
+      StreamingScriptValidator validator = new StreamingScriptValidator(
+          options, new CatalogOverlay(defaultProjectId, registeredCatalog), metrics, guard);
+      return validator.validate(script, results::add);
+    });
+    return results;
+  }
+
+  /** Checks a query against the guard's limits and makes a ZetaSQL call under its deadline */
+  private ValidationResult guarded(String query, Phase phase, Supplier<?> call) {
+    Optional<String> rejection = guard.check(query);
+    if (rejection.isPresent()) {
+      return record(ValidationResult.rejected(0, query, rejection.get()));
+    }
+
+    long startTime = System.nanoTime();
+    try {
+      guard.call(call);
+      return record(ValidationResult.valid(0, query));
+    } catch (DeadlineExceededException error) {
+      metrics.recordTimeout(phase);
+      return record(ValidationResult.timedOut(0, query, error.getMessage()));
+    } catch (SqlException error) {
+      return record(ValidationResult.invalid(0, query, error));
+    } finally {
+      metrics.recordLatency(phase, System.nanoTime() - startTime);
+    }
+  }
+
+  private ValidationResult record(ValidationResult result) {
+    metrics.recordStatement(result.isValid());
+    if (!result.isValid()) {
+      metrics.recordError(ErrorClasses.classify(result.getErrorMessage().orElse(null)));
+    }
+    return result;
+  }
+
+  @Override
+  public void close() {
+    catalog.close();
+  }
+
+}
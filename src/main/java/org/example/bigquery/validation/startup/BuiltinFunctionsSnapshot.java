@@ -0,0 +1,238 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.example.bigquery.validation.startup;
+
+import com.google.zetasql.LocalService.GetBuiltinFunctionsResponse;
+import com.google.zetasql.SimpleCatalog;
+import com.google.zetasql.ZetaSQLBuiltinFunctionOptions;
+import com.google.zetasql.ZetaSQLOptionsProto.ZetaSQLBuiltinFunctionOptionsProto;
+import com.google.zetasql.ZetaSqlLocalServiceGrpc.ZetaSqlLocalServiceBlockingStub;
+import com.google.zetasql.toolkit.catalog.bigquery.BigQueryCatalog;
+import com.google.zetasql.toolkit.catalog.bigquery.BigQueryResourceProvider;
+import com.google.zetasql.toolkit.options.BigQueryLanguageOptions;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * A serialized copy of the BigQuery builtin functions and types, bundled with the application
+ * so that new catalogs get them without calling the ZetaSQL local service.
+ *
+ * {@link SimpleCatalog#addZetaSQLFunctionsAndTypes} asks the local service for the builtin
+ * functions on every call, which first needs the native library loaded, and deserializes the
+ * response. The snapshot is that same response, written at build time by {@link #main} with
+ * the ZetaSQL version the application ships with, and loaded with a single read. Catalogs
+ * built from it are indistinguishable from catalogs built through the local service: they
+ * also record the builtin function options, so the local service adds its own builtins when
+ * they are serialized.
+ *
+ * The snapshot is generated by the {@code startup} Maven profile. Without it, or if it was
+ * written for different options, the methods here fall back to the local service.
+ */
+public final class BuiltinFunctionsSnapshot {
+
+  static final String RESOURCE = "bigquery-builtin-functions.bin";
+
+  private static volatile Snapshot bundled;
+
+  private BuiltinFunctionsSnapshot() {}
+
+  private static final class Snapshot {
+
+    private final ZetaSQLBuiltinFunctionOptionsProto options;
+    private final GetBuiltinFunctionsResponse response;
+
+    Snapshot(ZetaSQLBuiltinFunctionOptionsProto options, GetBuiltinFunctionsResponse response) {
+      this.options = options;
+      this.response = response;
+    }
+
+  }
+
+  /** Whether the application was built with a snapshot */
+  public static boolean isBundled() {
+    return BuiltinFunctionsSnapshot.class.getResource(RESOURCE) != null;
+  }
+
+  /**
+   * Adds the ZetaSQL builtin functions and types for BigQuery to a catalog, as
+   * {@code catalog.addZetaSQLFunctionsAndTypes(new ZetaSQLBuiltinFunctionOptions(
+   * BigQueryLanguageOptions.get()))} does.
+   *
+   * @param catalog The catalog, which must not have builtin functions yet
+   */
+  public static void addBigQueryFunctionsAndTypes(SimpleCatalog catalog) {
+    ZetaSQLBuiltinFunctionOptions options =
+        new ZetaSQLBuiltinFunctionOptions(BigQueryLanguageOptions.get());
+    Snapshot snapshot = loadBundled();
+    if (snapshot == null || !snapshot.options.equals(serialize(options))) {
+      catalog.addZetaSQLFunctionsAndTypes(options);
+      return;
+    }
+
+    Field builtinFunctionOptions;
+    Method process;
+    try {
+      builtinFunctionOptions = SimpleCatalog.class.getDeclaredField("builtinFunctionOptions");
+      builtinFunctionOptions.setAccessible(true);
+      process = SimpleCatalog.class.getDeclaredMethod(
+          "processGetBuiltinFunctionsResponse", GetBuiltinFunctionsResponse.class);
+      process.setAccessible(true);
+    } catch (NoSuchFieldException | NoSuchMethodException e) {
+      catalog.addZetaSQLFunctionsAndTypes(options);
+      return;
+    }
+
+    try {
+      if (builtinFunctionOptions.get(catalog) != null) {
+        throw new IllegalStateException("The catalog already has builtin functions");
+      }
+      builtinFunctionOptions.set(catalog, snapshot.options);
+      process.invoke(catalog, snapshot.response);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    } catch (InvocationTargetException e) {
+      throw new IllegalStateException("Invalid builtin functions snapshot", e.getCause());
+    }
+  }
+
+  /**
+   * Creates a BigQueryCatalog as {@code new BigQueryCatalog(projectId, provider)} does, adding
+   * the ZetaSQL builtins from the snapshot.
+   *
+   * @param projectId The default BigQuery project
+   * @param provider The provider for BigQuery resources
+   * @return The new catalog
+   */
+  public static BigQueryCatalog newBigQueryCatalog(
+      String projectId, BigQueryResourceProvider provider) {
+    Method addBigQueryBuiltIns;
+    Constructor<BigQueryCatalog> constructor;
+    try {
+      // BigQueryBuiltIns is package-private. The public constructors always add the builtins
+      // through the local service; this one, used by BigQueryCatalog.copy(), takes a catalog
+      // that has them already.
+      addBigQueryBuiltIns = Class
+          .forName(BigQueryCatalog.class.getPackageName() + ".BigQueryBuiltIns")
+          .getDeclaredMethod("addToCatalog", SimpleCatalog.class);
+      addBigQueryBuiltIns.setAccessible(true);
+      constructor = BigQueryCatalog.class.getDeclaredConstructor(
+          String.class, BigQueryResourceProvider.class, SimpleCatalog.class);
+      constructor.setAccessible(true);
+    } catch (ClassNotFoundException | NoSuchMethodException e) {
+      return new BigQueryCatalog(projectId, provider);
+    }
+
+    SimpleCatalog catalog = new SimpleCatalog("catalog");
+    addBigQueryFunctionsAndTypes(catalog);
+    try {
+      addBigQueryBuiltIns.invoke(null, catalog);
+      return constructor.newInstance(projectId, provider, catalog);
+    } catch (IllegalAccessException | InstantiationException e) {
+      throw new IllegalStateException(e);
+    } catch (InvocationTargetException e) {
+      throw new IllegalStateException("Failed to create BigQueryCatalog", e.getCause());
+    }
+  }
+
+  private static Snapshot loadBundled() {
+    if (bundled == null) {
+      synchronized (BuiltinFunctionsSnapshot.class) {
+        if (bundled == null && isBundled()) {
+          try (InputStream in = new BufferedInputStream(
+              BuiltinFunctionsSnapshot.class.getResourceAsStream(RESOURCE), 1 << 17)) {
+            bundled = new Snapshot(
+                ZetaSQLBuiltinFunctionOptionsProto.parseDelimitedFrom(in),
+                GetBuiltinFunctionsResponse.parseDelimitedFrom(in));
+          } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + RESOURCE, e);
+          }
+        }
+      }
+    }
+    return bundled;
+  }
+
+  /** ZetaSQLBuiltinFunctionOptions.serialize() is package-private */
+  private static ZetaSQLBuiltinFunctionOptionsProto serialize(
+      ZetaSQLBuiltinFunctionOptions options) {
+    try {
+      Method serialize = ZetaSQLBuiltinFunctionOptions.class.getDeclaredMethod("serialize");
+      serialize.setAccessible(true);
+      return (ZetaSQLBuiltinFunctionOptionsProto) serialize.invoke(options);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Unsupported ZetaSQL version", e);
+    }
+  }
+
+  /**
+   * Asks the local service for the BigQuery builtin functions and writes them as a snapshot.
+   *
+   * @param output Where to write the snapshot
+   */
+  public static void write(Path output) throws IOException {
+    ZetaSQLBuiltinFunctionOptionsProto options =
+        serialize(new ZetaSQLBuiltinFunctionOptions(BigQueryLanguageOptions.get()));
+
+    GetBuiltinFunctionsResponse response;
+    try {
+      // The Client holding the local service stub is package-private
+      Method getStub = Class.forName("com.google.zetasql.Client").getDeclaredMethod("getStub");
+      getStub.setAccessible(true);
+      ZetaSqlLocalServiceBlockingStub stub = (ZetaSqlLocalServiceBlockingStub) getStub.invoke(null);
+      response = stub.getBuiltinFunctions(options);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Unsupported ZetaSQL version", e);
+    }
+
+    Files.createDirectories(output.toAbsolutePath().getParent());
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(output))) {
+      options.writeDelimitedTo(out);
+      response.writeDelimitedTo(out);
+    }
+  }
+
+  /**
+   * Writes the snapshot bundled by the {@code startup} profile.
+   *
+   * Usage: {@code BuiltinFunctionsSnapshot <classesDirectory>}
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 1) {
+      System.err.println("Usage: BuiltinFunctionsSnapshot <classesDirectory>");
+      System.exit(1);
+    }
+
+    Path output = Paths.get(args[0])
+        .resolve(BuiltinFunctionsSnapshot.class.getPackageName().replace('.', '/'))
+        .resolve(RESOURCE);
+    write(output);
+    System.out.printf("Wrote %s (%,d bytes)%n", output, Files.size(output));
+  }
+
+}
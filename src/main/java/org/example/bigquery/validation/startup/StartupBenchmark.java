@@ -0,0 +1,166 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.example.bigquery.validation.startup;
+
+import com.google.zetasql.Analyzer;
+import com.google.zetasql.AnalyzerOptions;
+import com.google.zetasql.SimpleColumn;
+import com.google.zetasql.SimpleTable;
+import com.google.zetasql.TypeFactory;
+import com.google.zetasql.ZetaSQLType.TypeKind;
+import com.google.zetasql.toolkit.catalog.bigquery.BigQueryCatalog;
+import com.google.zetasql.toolkit.options.BigQueryLanguageOptions;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.example.bigquery.validation.catalog.InMemoryResourceProvider;
+
+/**
+ * Measures time-to-first-validation: how long a new JVM takes from being launched to having
+ * analyzed its first query against a BigQueryCatalog.
+ *
+ * Each configuration is measured by launching {@code runs} JVMs, one at a time, on this JVM's
+ * classpath, and timing each one until it reports its first validation. The configurations
+ * are:
+ * <ul>
+ *   <li>{@code baseline}: the builtin functions come from the local service
+ *   <li>{@code snapshot}: the builtin functions come from the {@link BuiltinFunctionsSnapshot},
+ *       while the native library loads in the background
+ *   <li>{@code snapshot+cds}: as {@code snapshot}, with an AppCDS archive, if one is given
+ * </ul>
+ *
+ * An AppCDS archive is only used if it was created with this same classpath and JVM; the
+ * {@code startup} Maven profile writes a matching classpath file next to its archive.
+ */
+public final class StartupBenchmark {
+
+  private static final String VALIDATED = "validated";
+
+  private StartupBenchmark() {}
+
+  /** Runs in the launched JVM: builds a catalog and analyzes one query */
+  private static void firstValidation(boolean useSnapshot) {
+    CompletableFuture<Void> localService =
+        useSnapshot ? WarmUp.loadLocalServiceAsync() : CompletableFuture.completedFuture(null);
+
+    InMemoryResourceProvider provider = new InMemoryResourceProvider(Duration.ZERO);
+    String tableName = "startup-project.startup.events";
+    provider.addTable(new SimpleTable(tableName, List.of(
+        new SimpleColumn(tableName, "id", TypeFactory.createSimpleType(TypeKind.TYPE_INT64)))));
+    BigQueryCatalog catalog = useSnapshot
+        ? BuiltinFunctionsSnapshot.newBigQueryCatalog("startup-project", provider)
+        : new BigQueryCatalog("startup-project", provider);
+    catalog.addAllTablesInProject("startup-project");
+
+    AnalyzerOptions options = new AnalyzerOptions();
+    options.setLanguageOptions(BigQueryLanguageOptions.get());
+    localService.join();
+    Analyzer.analyzeStatement(
+        "SELECT id, COUNT(*) FROM startup.events GROUP BY id", options,
+        catalog.getZetaSQLCatalog());
+    System.out.println(VALIDATED);
+    System.out.flush();
+    System.exit(0);
+  }
+
+  /** Launches a JVM and returns how long it took to report its first validation */
+  private static Duration launch(List<String> jvmFlags, String mode)
+      throws IOException, InterruptedException {
+    List<String> command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    command.addAll(jvmFlags);
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(StartupBenchmark.class.getName());
+    command.add("--child");
+    command.add(mode);
+
+    long startTime = System.nanoTime();
+    Process process = new ProcessBuilder(command)
+        .redirectError(ProcessBuilder.Redirect.INHERIT)
+        .start();
+    Duration elapsed = null;
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.equals(VALIDATED) && elapsed == null) {
+          elapsed = Duration.ofNanos(System.nanoTime() - startTime);
+        }
+      }
+    }
+    if (process.waitFor() != 0 || elapsed == null) {
+      throw new IllegalStateException("The " + mode + " run failed: " + command);
+    }
+    return elapsed;
+  }
+
+  /**
+   * Usage: {@code StartupBenchmark <runs> [<cdsArchive>]}
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    if (args.length == 2 && args[0].equals("--child")) {
+      firstValidation(args[1].equals("snapshot"));
+      return;
+    }
+    if (args.length < 1 || args.length > 2) {
+      System.err.println("Usage: StartupBenchmark <runs> [<cdsArchive>]");
+      System.exit(1);
+    }
+
+    int runs = Integer.parseInt(args[0]);
+    Map<String, List<String>> configurations = new LinkedHashMap<>();
+    configurations.put("baseline", List.of("-Xshare:auto"));
+    configurations.put("snapshot", List.of("-Xshare:auto"));
+    if (args.length == 2) {
+      if (!Files.exists(Paths.get(args[1]))) {
+        throw new IllegalArgumentException("No such archive: " + args[1]);
+      }
+      configurations.put(
+          "snapshot+cds", List.of("-Xshare:auto", "-XX:SharedArchiveFile=" + args[1]));
+    }
+    if (!BuiltinFunctionsSnapshot.isBundled()) {
+      System.out.println(
+          "No builtin functions snapshot is bundled; build with -Pstartup to include one");
+    }
+
+    System.out.printf("%-14s %10s %10s %10s%n", "configuration", "min ms", "median ms", "max ms");
+    for (Map.Entry<String, List<String>> configuration : configurations.entrySet()) {
+      String mode = configuration.getKey().startsWith("snapshot") ? "snapshot" : "baseline";
+      long[] millis = new long[runs];
+      for (int i = 0; i < runs; i++) {
+        millis[i] = launch(configuration.getValue(), mode).toMillis();
+      }
+      Arrays.sort(millis);
+      System.out.printf(
+          "%-14s %10d %10d %10d%n",
+          configuration.getKey(), millis[0], millis[runs / 2], millis[runs - 1]);
+    }
+  }
+
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.example.bigquery.validation.startup;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.zetasql.AnalyzerOptions;
+import com.google.zetasql.Parser;
+import com.google.zetasql.SimpleColumn;
+import com.google.zetasql.SimpleTable;
+import com.google.zetasql.TypeFactory;
+import com.google.zetasql.ZetaSQLType.TypeKind;
+import com.google.zetasql.toolkit.catalog.bigquery.BigQueryCatalog;
+import com.google.zetasql.toolkit.options.BigQueryLanguageOptions;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import org.example.bigquery.validation.catalog.InMemoryResourceProvider;
+import org.example.bigquery.validation.metrics.InMemoryValidationMetrics;
+import org.example.bigquery.validation.service.AdmissionController;
+import org.example.bigquery.validation.service.ValidationServer;
+import org.example.bigquery.validation.service.ValidationService;
+
+/**
+ * Runs representative validations before a service reports ready, so that the first real
+ * requests don't pay for loading the native library, class loading, the JIT or registering the
+ * catalog.
+ *
+ * The statements only use builtin functions, so they can run against any catalog. Some are
+ * invalid on purpose, to also warm up the error paths.
+ *
+ * {@link #main} is the training workload for the AppCDS archive built by the {@code startup}
+ * Maven profile: it runs the warm-up through a {@link ValidationServer}, so that the archive
+ * covers every class loaded while serving requests.
+ */
+public final class WarmUp {
+
+  private static final List<String> QUERIES = List.of(
+      "SELECT 1",
+      "WITH numbers AS (SELECT n FROM UNNEST(GENERATE_ARRAY(1, 100)) AS n)\n"
+          + "SELECT n, SUM(n) OVER (ORDER BY n) AS running, IF(MOD(n, 2) = 0, 'even', 'odd')\n"
+          + "FROM numbers WHERE n > 10 ORDER BY running DESC LIMIT 10",
+      "SELECT STRUCT(1 AS id, 'a' AS name).name, ARRAY_LENGTH(['x', 'y']),\n"
+          + "  DATE_TRUNC(CURRENT_DATE(), MONTH), FORMAT_TIMESTAMP('%F', CURRENT_TIMESTAMP()),\n"
+          + "  REGEXP_EXTRACT('abc123', r'[0-9]+'), JSON_VALUE(JSON '{\"a\": 1}', '$.a'),\n"
+          + "  SAFE_CAST('1.5' AS NUMERIC), APPROX_COUNT_DISTINCT(x)\n"
+          + "FROM UNNEST([1, 2, 3]) AS x GROUP BY 1, 2, 3, 4, 5, 6, 7",
+      "SELECT * FROM warmup_missing_dataset.warmup_missing_table",
+      "SELECT FROM WHERE");
+
+  private static final String SCRIPT =
+      "DECLARE threshold INT64 DEFAULT 10;\n"
+          + "CREATE TEMP FUNCTION double_it(x INT64) AS (x * 2);\n"
+          + "CREATE TEMP TABLE warmup_numbers AS\n"
+          + "  SELECT n, double_it(n) AS doubled FROM UNNEST(GENERATE_ARRAY(1, 10)) AS n;\n"
+          + "SET threshold = (SELECT MAX(doubled) FROM warmup_numbers);\n"
+          + "SELECT n FROM warmup_numbers WHERE doubled > threshold;\n"
+          + "SELECT missing_column FROM warmup_numbers;\n";
+
+  private WarmUp() {}
+
+  /**
+   * Loads the ZetaSQL native library on a background thread, so that it loads while the
+   * calling thread does other startup work, such as building the catalog.
+   *
+   * @return Completes once the local service has answered a request
+   */
+  public static CompletableFuture<Void> loadLocalServiceAsync() {
+    ThreadFactory threadFactory = new ThreadFactoryBuilder()
+        .setNameFormat("local-service-loader-%d")
+        .setDaemon(true)
+        .build();
+    CompletableFuture<Void> loaded = new CompletableFuture<>();
+    threadFactory.newThread(() -> {
+      try {
+        Parser.parseStatement("SELECT 1", BigQueryLanguageOptions.get());
+        loaded.complete(null);
+      } catch (Throwable e) {
+        loaded.completeExceptionally(e);
+      }
+    }).start();
+    return loaded;
+  }
+
+  /**
+   * Validates the warm-up statements and script with a service. The service's metrics record
+   * them as they would any other request.
+   *
+   * @param service The service to warm up
+   * @param iterations How many times to validate everything
+   * @return How long it took
+   */
+  public static Duration run(ValidationService service, int iterations) {
+    long startTime = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      for (String query : QUERIES) {
+        service.parse(query);
+        service.analyze(query);
+      }
+      service.validateScript(SCRIPT);
+    }
+    return Duration.ofNanos(System.nanoTime() - startTime);
+  }
+
+  private static void post(int port, String path, String body) throws IOException {
+    HttpURLConnection connection =
+        (HttpURLConnection) URI.create("http://localhost:" + port + path).toURL().openConnection();
+    connection.setRequestMethod(body == null ? "GET" : "POST");
+    if (body != null) {
+      connection.setDoOutput(true);
+      try (OutputStream out = connection.getOutputStream()) {
+        out.write(body.getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    try (InputStream in = connection.getResponseCode() < 400
+        ? connection.getInputStream()
+        : connection.getErrorStream()) {
+      in.readAllBytes();
+    }
+  }
+
+  /**
+   * The AppCDS training workload: starts a ValidationServer on an ephemeral port and sends it
+   * every warm-up statement.
+   *
+   * Usage: {@code WarmUp [iterations]}
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length > 1) {
+      System.err.println("Usage: WarmUp [iterations]");
+      System.exit(1);
+    }
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+    long startTime = System.nanoTime();
+    CompletableFuture<Void> localService = loadLocalServiceAsync();
+
+    InMemoryResourceProvider provider = new InMemoryResourceProvider(Duration.ZERO);
+    String tableName = "warmup-project.warmup.events";
+    provider.addTable(new SimpleTable(tableName, List.of(
+        new SimpleColumn(tableName, "id", TypeFactory.createSimpleType(TypeKind.TYPE_INT64)),
+        new SimpleColumn(
+            tableName, "name", TypeFactory.createSimpleType(TypeKind.TYPE_STRING)))));
+    BigQueryCatalog catalog =
+        BuiltinFunctionsSnapshot.newBigQueryCatalog("warmup-project", provider);
+    catalog.addAllTablesInProject("warmup-project");
+
+    AnalyzerOptions options = new AnalyzerOptions();
+    options.setLanguageOptions(BigQueryLanguageOptions.get());
+    InMemoryValidationMetrics metrics = new InMemoryValidationMetrics();
+    localService.join();
+
+    try (ValidationService service = new ValidationService(
+            options, catalog.getZetaSQLCatalog(), "warmup-project", metrics);
+        ValidationServer server = new ValidationServer(
+            0, service, new AdmissionController(4, 16, Duration.ofSeconds(2)), metrics, 1 << 20)) {
+      server.start();
+      for (int i = 0; i < iterations; i++) {
+        for (String query : QUERIES) {
+          post(server.getPort(), "/parse", query);
+          post(server.getPort(), "/analyze", query);
+        }
+        post(server.getPort(), "/analyze", "SELECT id, UPPER(name) FROM warmup.events");
+        post(server.getPort(), "/script", SCRIPT);
+      }
+      post(server.getPort(), "/metrics", null);
+      post(server.getPort(), "/healthz", null);
+    }
+
+    System.out.printf(
+        "Warm-up workload done in %d ms (builtin functions snapshot: %s)%n",
+        Duration.ofNanos(System.nanoTime() - startTime).toMillis(),
+        BuiltinFunctionsSnapshot.isBundled());
+  }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.summary;
+
+import java.util.Objects;
+
+/**
+ * A change a DDL statement makes to the catalog, for the statements
+ * {@link com.google.zetasql.toolkit.CatalogUpdates} applies: creating or dropping tables,
+ * external tables, views, materialized views, functions, table functions and procedures.
+ */
+public final class CatalogMutation {
+
+  /** What the statement does to the resource */
+  public enum Action {
+    CREATE,
+    CREATE_OR_REPLACE,
+    CREATE_IF_NOT_EXISTS,
+    DROP,
+    DROP_IF_EXISTS
+  }
+
+  private final Action action;
+  private final String objectType;
+  private final String name;
+  private final boolean temporary;
+
+  /**
+   * @param action What the statement does to the resource
+   * @param objectType The kind of resource as written in SQL, e.g. "TABLE" or "TABLE FUNCTION"
+   * @param name The resource's name path joined with dots, as written in the statement
+   * @param temporary Whether the resource is a temporary one
+   */
+  public CatalogMutation(Action action, String objectType, String name, boolean temporary) {
+    this.action = action;
+    this.objectType = objectType;
+    this.name = name;
+    this.temporary = temporary;
+  }
+
+  public Action getAction() {
+    return action;
+  }
+
+  public String getObjectType() {
+    return objectType;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public boolean isTemporary() {
+    return temporary;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof CatalogMutation)) {
+      return false;
+    }
+    CatalogMutation mutation = (CatalogMutation) other;
+    return action == mutation.action
+        && temporary == mutation.temporary
+        && objectType.equals(mutation.objectType)
+        && name.equals(mutation.name);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(action, objectType, name, temporary);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s %s%s %s",
+        action, temporary ? "TEMP " : "", objectType, name);
+  }
+
+}
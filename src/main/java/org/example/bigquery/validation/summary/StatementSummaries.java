@@ -0,0 +1,48 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.summary;
+
+import com.google.common.collect.Iterators;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedStatement;
+import java.util.Iterator;
+
+/** Summary mode for the statements of an analysis */
+public final class StatementSummaries {
+
+  private StatementSummaries() {}
+
+  /**
+   * Summarizes statements as they are analyzed, so that no resolved tree outlives the call to
+   * {@code next()} that produced it.
+   *
+   * <pre>{@code
+   * Iterator<StatementSummary> summaries =
+   *     StatementSummaries.summarize(analyzer.analyzeStatements(script, catalog));
+   * }</pre>
+   *
+   * {@link com.google.zetasql.toolkit.ZetaSQLToolkitAnalyzer}'s iterator holds on to the last
+   * statement until the next one is requested, to apply its catalog changes, so at most one
+   * tree is alive at a time.
+   *
+   * @param statements The analyzed statements, consumed lazily
+   * @return Their summaries, in order
+   */
+  public static Iterator<StatementSummary> summarize(Iterator<ResolvedStatement> statements) {
+    return Iterators.transform(statements, StatementSummary::of);
+  }
+
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.summary;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedStatement;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * A compact, immutable summary of an analyzed statement: its kind, output schema, the
+ * resources it references and the change it makes to the catalog, if any.
+ *
+ * A resolved tree keeps every expression, column and type of the statement, plus the
+ * deserialized catalog objects it references, and takes tens to hundreds of kilobytes of heap.
+ * Jobs that analyze many statements and only need these facts should summarize each statement
+ * with {@link #of(ResolvedStatement)} as soon as it's analyzed, or use
+ * {@link StatementSummaries#summarize}, and drop the tree. Summaries can be serialized with
+ * {@link #toBytes()} to keep even less in memory, or to spill them to disk.
+ */
+public final class StatementSummary {
+
+  /** A column of a statement's output, e.g. of a query or of the table a DDL creates */
+  public static final class Column {
+
+    private final String name;
+    private final String type;
+
+    /**
+     * @param name The column's name, which is empty for anonymous columns
+     * @param type The column's type, as a BigQuery type name, e.g. "ARRAY<STRUCT<a INT64>>"
+     */
+    public Column(String name, String type) {
+      this.name = name;
+      this.type = type;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getType() {
+      return type;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof Column)) {
+        return false;
+      }
+      Column column = (Column) other;
+      return name.equals(column.name) && type.equals(column.type);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(name, type);
+    }
+
+    @Override
+    public String toString() {
+      return name + " " + type;
+    }
+
+  }
+
+  private final String kind;
+  private final ImmutableList<Column> outputColumns;
+  private final ImmutableSet<String> tables;
+  private final ImmutableSet<String> functions;
+  private final ImmutableSet<String> tvfs;
+  private final ImmutableSet<String> procedures;
+  private final CatalogMutation mutation;
+
+  /**
+   * @param kind The kind of statement, as reported by the resolved node, e.g. "QueryStmt"
+   * @param outputColumns The statement's output schema
+   * @param tables The full names of the tables and views the statement references
+   * @param functions The full names of the user-defined functions it calls
+   * @param tvfs The full names of the table-valued functions it calls
+   * @param procedures The full names of the procedures it calls
+   * @param mutation The change it makes to the catalog, or null if it makes none
+   */
+  public StatementSummary(String kind, List<Column> outputColumns, Collection<String> tables,
+      Collection<String> functions, Collection<String> tvfs, Collection<String> procedures,
+      CatalogMutation mutation) {
+    this.kind = kind;
+    this.outputColumns = ImmutableList.copyOf(outputColumns);
+    this.tables = ImmutableSet.copyOf(tables);
+    this.functions = ImmutableSet.copyOf(functions);
+    this.tvfs = ImmutableSet.copyOf(tvfs);
+    this.procedures = ImmutableSet.copyOf(procedures);
+    this.mutation = mutation;
+  }
+
+  /** Summarizes an analyzed statement. The summary keeps no reference to the tree. */
+  public static StatementSummary of(ResolvedStatement statement) {
+    return SummaryCollector.summarize(statement);
+  }
+
+  /** Reads a summary written by {@link #writeTo(DataOutput)} */
+  public static StatementSummary readFrom(DataInput input) throws IOException {
+    return StatementSummaryFormat.read(input);
+  }
+
+  /** Deserializes a summary serialized by {@link #toBytes()} */
+  public static StatementSummary fromBytes(byte[] bytes) {
+    return StatementSummaryFormat.decode(bytes);
+  }
+
+  /** Writes the summary in its compact binary format */
+  public void writeTo(DataOutput output) throws IOException {
+    StatementSummaryFormat.write(this, output);
+  }
+
+  /** Serializes the summary in its compact binary format */
+  public byte[] toBytes() {
+    return StatementSummaryFormat.encode(this);
+  }
+
+  public String getKind() {
+    return kind;
+  }
+
+  /**
+   * The columns the statement outputs: the columns of a query, or of the table or view a DDL
+   * statement creates. Empty for other statements.
+   */
+  public ImmutableList<Column> getOutputColumns() {
+    return outputColumns;
+  }
+
+  public ImmutableSet<String> getTables() {
+    return tables;
+  }
+
+  public ImmutableSet<String> getFunctions() {
+    return functions;
+  }
+
+  public ImmutableSet<String> getTVFs() {
+    return tvfs;
+  }
+
+  public ImmutableSet<String> getProcedures() {
+    return procedures;
+  }
+
+  public Optional<CatalogMutation> getMutation() {
+    return Optional.ofNullable(mutation);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof StatementSummary)) {
+      return false;
+    }
+    StatementSummary summary = (StatementSummary) other;
+    return kind.equals(summary.kind)
+        && outputColumns.equals(summary.outputColumns)
+        && tables.equals(summary.tables)
+        && functions.equals(summary.functions)
+        && tvfs.equals(summary.tvfs)
+        && procedures.equals(summary.procedures)
+        && Objects.equals(mutation, summary.mutation);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(kind, outputColumns, tables, functions, tvfs, procedures, mutation);
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "StatementSummary{kind=%s, outputColumns=%s, tables=%s, functions=%s, tvfs=%s, "
+            + "procedures=%s, mutation=%s}",
+        kind, outputColumns, tables, functions, tvfs, procedures, mutation);
+  }
+
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.summary;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.example.bigquery.validation.summary.CatalogMutation.Action;
+import org.example.bigquery.validation.summary.StatementSummary.Column;
+
+/**
+ * Binary layout of {@link StatementSummary}, written with unsigned varints:
+ *
+ * <pre>
+ * byte version
+ * strings:    count, then each distinct string as its UTF-8 length and bytes
+ * kind:       string index
+ * columns:    count, then (name index, type index) per column
+ * references: for tables, functions, TVFs and procedures: count, then string indexes
+ * mutation:   byte 0 if there's none, otherwise action ordinal + 1, then
+ *             object type index, name index, byte temporary
+ * </pre>
+ *
+ * Each distinct string is written once and referenced by its index, so a type or table name
+ * that appears many times in a statement costs one or two bytes per repetition. A typical
+ * query's summary takes a few hundred bytes.
+ */
+final class StatementSummaryFormat {
+
+  static final int VERSION = 1;
+
+  private static final Interner<String> STRINGS = Interners.newWeakInterner();
+
+  private StatementSummaryFormat() {}
+
+  /** Shares the strings summaries keep, which repeat across statements */
+  static String intern(String value) {
+    return STRINGS.intern(value);
+  }
+
+  static byte[] encode(StatementSummary summary) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    try {
+      write(summary, new DataOutputStream(bytes));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  static StatementSummary decode(byte[] bytes) {
+    try {
+      return read(new DataInputStream(new ByteArrayInputStream(bytes)));
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Corrupt statement summary", e);
+    }
+  }
+
+  static void write(StatementSummary summary, DataOutput output) throws IOException {
+    Map<String, Integer> strings = new LinkedHashMap<>();
+    index(strings, summary.getKind());
+    for (Column column : summary.getOutputColumns()) {
+      index(strings, column.getName());
+      index(strings, column.getType());
+    }
+    List<Collection<String>> references = references(summary);
+    for (Collection<String> names : references) {
+      names.forEach(name -> index(strings, name));
+    }
+    CatalogMutation mutation = summary.getMutation().orElse(null);
+    if (mutation != null) {
+      index(strings, mutation.getObjectType());
+      index(strings, mutation.getName());
+    }
+
+    output.writeByte(VERSION);
+    writeVarInt(strings.size(), output);
+    for (String value : strings.keySet()) {
+      byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+      writeVarInt(utf8.length, output);
+      output.write(utf8);
+    }
+
+    writeVarInt(strings.get(summary.getKind()), output);
+    writeVarInt(summary.getOutputColumns().size(), output);
+    for (Column column : summary.getOutputColumns()) {
+      writeVarInt(strings.get(column.getName()), output);
+      writeVarInt(strings.get(column.getType()), output);
+    }
+    for (Collection<String> names : references) {
+      writeVarInt(names.size(), output);
+      for (String name : names) {
+        writeVarInt(strings.get(name), output);
+      }
+    }
+
+    if (mutation == null) {
+      output.writeByte(0);
+    } else {
+      output.writeByte(mutation.getAction().ordinal() + 1);
+      writeVarInt(strings.get(mutation.getObjectType()), output);
+      writeVarInt(strings.get(mutation.getName()), output);
+      output.writeBoolean(mutation.isTemporary());
+    }
+  }
+
+  static StatementSummary read(DataInput input) throws IOException {
+    int version = input.readUnsignedByte();
+    if (version != VERSION) {
+      throw new IOException("Unsupported statement summary version " + version);
+    }
+
+    String[] strings = new String[readVarInt(input)];
+    for (int i = 0; i < strings.length; i++) {
+      byte[] utf8 = new byte[readVarInt(input)];
+      input.readFully(utf8);
+      strings[i] = intern(new String(utf8, StandardCharsets.UTF_8));
+    }
+
+    String kind = readString(strings, input);
+    int columnCount = readVarInt(input);
+    List<Column> columns = new ArrayList<>(columnCount);
+    for (int i = 0; i < columnCount; i++) {
+      columns.add(new Column(readString(strings, input), readString(strings, input)));
+    }
+    List<String> tables = readStrings(strings, input);
+    List<String> functions = readStrings(strings, input);
+    List<String> tvfs = readStrings(strings, input);
+    List<String> procedures = readStrings(strings, input);
+
+    CatalogMutation mutation = null;
+    int action = input.readUnsignedByte();
+    if (action > Action.values().length) {
+      throw new IOException("Invalid catalog mutation action " + action);
+    }
+    if (action > 0) {
+      mutation = new CatalogMutation(Action.values()[action - 1],
+          readString(strings, input), readString(strings, input), input.readBoolean());
+    }
+
+    return new StatementSummary(
+        kind, columns, tables, functions, tvfs, procedures, mutation);
+  }
+
+  private static List<Collection<String>> references(StatementSummary summary) {
+    return List.of(summary.getTables(), summary.getFunctions(), summary.getTVFs(),
+        summary.getProcedures());
+  }
+
+  private static void index(Map<String, Integer> strings, String value) {
+    strings.putIfAbsent(value, strings.size());
+  }
+
+  private static String readString(String[] strings, DataInput input) throws IOException {
+    int index = readVarInt(input);
+    if (index >= strings.length) {
+      throw new IOException("Invalid string index " + index);
+    }
+    return strings[index];
+  }
+
+  private static List<String> readStrings(String[] strings, DataInput input)
+      throws IOException {
+    int count = readVarInt(input);
+    List<String> values = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      values.add(readString(strings, input));
+    }
+    return values;
+  }
+
+  private static void writeVarInt(int value, DataOutput output) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      output.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    output.writeByte(value);
+  }
+
+  private static int readVarInt(DataInput input) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      int b = input.readUnsignedByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint");
+  }
+
+}
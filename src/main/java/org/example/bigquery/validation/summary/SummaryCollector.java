@@ -0,0 +1,217 @@
+/*
+ * Copyright 2023 Pablo Paglilla All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.bigquery.validation.summary;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.zetasql.Function;
+import com.google.zetasql.Type;
+import com.google.zetasql.ZetaSQLOptions.ProductMode;
+import com.google.zetasql.resolvedast.ResolvedCreateStatementEnums.CreateMode;
+import com.google.zetasql.resolvedast.ResolvedCreateStatementEnums.CreateScope;
+import com.google.zetasql.resolvedast.ResolvedNode;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedCallStmt;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedColumnDefinition;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedCreateExternalTableStmt;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedCreateFunctionStmt;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedCreateMaterializedViewStmt;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedCreateProcedureStmt;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedCreateStatement;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedCreateTableAsSelectStmt;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedCreateTableFunctionStmt;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedCreateTableStmt;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedCreateTableStmtBase;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedCreateViewBase;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedCreateViewStmt;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedDropFunctionStmt;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedDropMaterializedViewStmt;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedDropStmt;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedDropTableFunctionStmt;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedFunctionCallBase;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedOutputColumn;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedQueryStmt;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedStatement;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedTVFScan;
+import com.google.zetasql.resolvedast.ResolvedNodes.ResolvedTableScan;
+import com.google.zetasql.resolvedast.ResolvedNodes.Visitor;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import org.example.bigquery.validation.summary.CatalogMutation.Action;
+import org.example.bigquery.validation.summary.StatementSummary.Column;
+
+/**
+ * Resolved tree {@link Visitor} that builds a {@link StatementSummary}.
+ *
+ * References are collected anywhere in the statement, including subqueries, CTEs and the
+ * bodies of SQL functions created by the statement. Builtin functions are not collected. Every
+ * string is interned, since the same table, column and type names repeat across statements.
+ */
+final class SummaryCollector extends Visitor {
+
+  /** The object types of the CREATE statements that change the catalog */
+  private static final ImmutableMap<Class<?>, String> CREATED_OBJECT_TYPES =
+      ImmutableMap.<Class<?>, String>builder()
+          .put(ResolvedCreateTableStmt.class, "TABLE")
+          .put(ResolvedCreateTableAsSelectStmt.class, "TABLE")
+          .put(ResolvedCreateExternalTableStmt.class, "EXTERNAL TABLE")
+          .put(ResolvedCreateViewStmt.class, "VIEW")
+          .put(ResolvedCreateMaterializedViewStmt.class, "MATERIALIZED VIEW")
+          .put(ResolvedCreateFunctionStmt.class, "FUNCTION")
+          .put(ResolvedCreateTableFunctionStmt.class, "TABLE FUNCTION")
+          .put(ResolvedCreateProcedureStmt.class, "PROCEDURE")
+          .build();
+
+  private final Set<String> tables = new LinkedHashSet<>();
+  private final Set<String> functions = new LinkedHashSet<>();
+  private final Set<String> tvfs = new LinkedHashSet<>();
+  private final Set<String> procedures = new LinkedHashSet<>();
+
+  private SummaryCollector() {}
+
+  static StatementSummary summarize(ResolvedStatement statement) {
+    SummaryCollector collector = new SummaryCollector();
+    statement.accept(collector);
+    return new StatementSummary(
+        StatementSummaryFormat.intern(statement.nodeKindString()),
+        outputColumns(statement),
+        collector.tables,
+        collector.functions,
+        collector.tvfs,
+        collector.procedures,
+        mutation(statement));
+  }
+
+  @Override
+  public void visit(ResolvedTableScan node) {
+    tables.add(StatementSummaryFormat.intern(node.getTable().getFullName()));
+    super.visit(node);
+  }
+
+  @Override
+  public void visit(ResolvedTVFScan node) {
+    tvfs.add(StatementSummaryFormat.intern(node.getTvf().getFullName()));
+    super.visit(node);
+  }
+
+  @Override
+  public void visit(ResolvedCallStmt node) {
+    procedures.add(StatementSummaryFormat.intern(node.getProcedure().getFullName()));
+    super.visit(node);
+  }
+
+  @Override
+  protected void defaultVisit(ResolvedNode node) {
+    // Scalar, aggregate and analytic function calls all share this base class
+    if (node instanceof ResolvedFunctionCallBase) {
+      Function function = ((ResolvedFunctionCallBase) node).getFunction();
+      if (!function.isZetaSQLBuiltin()) {
+        functions.add(StatementSummaryFormat.intern(function.getFullName(false)));
+      }
+    }
+    super.defaultVisit(node);
+  }
+
+  private static List<Column> outputColumns(ResolvedStatement statement) {
+    List<ResolvedOutputColumn> outputColumns;
+    if (statement instanceof ResolvedQueryStmt) {
+      outputColumns = ((ResolvedQueryStmt) statement).getOutputColumnList();
+    } else if (statement instanceof ResolvedCreateViewBase) {
+      outputColumns = ((ResolvedCreateViewBase) statement).getOutputColumnList();
+    } else if (statement instanceof ResolvedCreateTableFunctionStmt) {
+      outputColumns = ((ResolvedCreateTableFunctionStmt) statement).getOutputColumnList();
+    } else if (statement instanceof ResolvedCreateTableStmtBase) {
+      List<Column> columns = new ArrayList<>();
+      for (ResolvedColumnDefinition definition
+          : ((ResolvedCreateTableStmtBase) statement).getColumnDefinitionList()) {
+        columns.add(column(definition.getName(), definition.getType()));
+      }
+      return columns;
+    } else {
+      return List.of();
+    }
+
+    List<Column> columns = new ArrayList<>(outputColumns.size());
+    for (ResolvedOutputColumn outputColumn : outputColumns) {
+      columns.add(column(outputColumn.getName(), outputColumn.getColumn().getType()));
+    }
+    return columns;
+  }
+
+  private static Column column(String name, Type type) {
+    return new Column(
+        StatementSummaryFormat.intern(name),
+        StatementSummaryFormat.intern(type.typeName(ProductMode.PRODUCT_EXTERNAL)));
+  }
+
+  private static CatalogMutation mutation(ResolvedStatement statement) {
+    String createdObjectType = CREATED_OBJECT_TYPES.get(statement.getClass());
+    if (createdObjectType != null) {
+      ResolvedCreateStatement create = (ResolvedCreateStatement) statement;
+      return new CatalogMutation(
+          createAction(create.getCreateMode()),
+          createdObjectType,
+          name(create.getNamePath()),
+          create.getCreateScope() == CreateScope.CREATE_TEMP);
+    }
+
+    if (statement instanceof ResolvedDropStmt) {
+      ResolvedDropStmt drop = (ResolvedDropStmt) statement;
+      return dropMutation(drop.getIsIfExists(),
+          drop.getObjectType().toUpperCase(Locale.ROOT), drop.getNamePath());
+    }
+    if (statement instanceof ResolvedDropMaterializedViewStmt) {
+      ResolvedDropMaterializedViewStmt drop = (ResolvedDropMaterializedViewStmt) statement;
+      return dropMutation(drop.getIsIfExists(), "MATERIALIZED VIEW", drop.getNamePath());
+    }
+    if (statement instanceof ResolvedDropFunctionStmt) {
+      ResolvedDropFunctionStmt drop = (ResolvedDropFunctionStmt) statement;
+      return dropMutation(drop.getIsIfExists(), "FUNCTION", drop.getNamePath());
+    }
+    if (statement instanceof ResolvedDropTableFunctionStmt) {
+      ResolvedDropTableFunctionStmt drop = (ResolvedDropTableFunctionStmt) statement;
+      return dropMutation(drop.getIsIfExists(), "TABLE FUNCTION", drop.getNamePath());
+    }
+    return null;
+  }
+
+  private static Action createAction(CreateMode createMode) {
+    switch (createMode) {
+      case CREATE_OR_REPLACE:
+        return Action.CREATE_OR_REPLACE;
+      case CREATE_IF_NOT_EXISTS:
+        return Action.CREATE_IF_NOT_EXISTS;
+      default:
+        return Action.CREATE;
+    }
+  }
+
+  private static CatalogMutation dropMutation(
+      boolean ifExists, String objectType, List<String> namePath) {
+    return new CatalogMutation(
+        ifExists ? Action.DROP_IF_EXISTS : Action.DROP,
+        StatementSummaryFormat.intern(objectType),
+        name(namePath),
+        false);
+  }
+
+  private static String name(List<String> namePath) {
+    return StatementSummaryFormat.intern(String.join(".", namePath));
+  }
+
+}
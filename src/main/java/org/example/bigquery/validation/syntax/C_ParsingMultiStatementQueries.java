@@ -23,6 +23,7 @@ import com.google.zetasql.Parser;
 import com.google.zetasql.parser.ASTNodes.ASTScript;
 import com.google.zetasql.parser.ASTNodes.ASTStatement;
 import com.google.zetasql.toolkit.options.BigQueryLanguageOptions;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Example showing how to parse multi-statement queries using the ZetaSQL parser
@@ -33,6 +34,10 @@ import com.google.zetasql.toolkit.options.BigQueryLanguageOptions;
  *  2. Using {@link Parser#parseNextStatement(ParseResumeLocation, LanguageOptions)} or
  *    {@link Parser#parseNextScriptStatement(ParseResumeLocation, LanguageOptions)}. These
  *    parse one statement at a time.
+ *
+ * Both keep the whole script in a single String. See
+ * {@link org.example.bigquery.validation.script.StreamingScriptValidator} for validating scripts
+ * too large for that.
  */
 public class C_ParsingMultiStatementQueries {
 
@@ -53,8 +58,12 @@ public class C_ParsingMultiStatementQueries {
     // Option 2: Parsing statements one by one using Parser.parseNextStatement
     ParseResumeLocation parseResumeLocation = new ParseResumeLocation(query);
 
+    // Byte positions refer to the UTF-8 encoded query. Encode it once rather than on every
+    // iteration, which would make the loop quadratic on the size of the script.
+    int queryLength = query.getBytes(StandardCharsets.UTF_8).length;
+
     // While we're not at the end of the script
-    while(parseResumeLocation.getBytePosition() < query.getBytes().length) {
+    while(parseResumeLocation.getBytePosition() < queryLength) {
       ASTStatement nextStatement =
           Parser.parseNextScriptStatement(parseResumeLocation, BigQueryLanguageOptions.get());
       System.out.println(nextStatement);
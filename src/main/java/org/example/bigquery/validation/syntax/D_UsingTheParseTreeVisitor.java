@@ -35,6 +35,9 @@ import com.google.zetasql.toolkit.options.BigQueryLanguageOptions;
  * checks if a CROSS JOIN is performed somewhere in the query and handle it accordingly.
  * This example implements such use case.
  *
+ * Each visitor traverses the whole tree. To check many policies at once, see
+ * {@link org.example.bigquery.validation.lint.LintEngine}, which runs many rules in a single
+ * traversal.
  */
 public class D_UsingTheParseTreeVisitor {
 